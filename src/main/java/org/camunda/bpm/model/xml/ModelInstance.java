@@ -128,6 +128,11 @@ public interface ModelInstance {
    * Copies the model instance but not the model. So only the wrapped DOM document is cloned.
    * Changes of the model are persistent between multiple model instances.
    *
+   * <p>How the document is copied depends on the {@link org.camunda.bpm.model.xml.instance.DomBackend}
+   * which stores it. The default JAXP backend copies the complete DOM document with
+   * {@code cloneNode(true)}, other backends may share their storage with the clone until
+   * one of them is modified.</p>
+   *
    * @return the new model instance
    */
   ModelInstance clone();
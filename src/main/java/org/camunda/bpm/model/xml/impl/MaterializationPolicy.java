@@ -0,0 +1,45 @@
+/*
+ * Copyright Camunda Services GmbH and/or licensed to Camunda Services GmbH
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. Camunda licenses this file to you under the Apache License,
+ * Version 2.0; you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.camunda.bpm.model.xml.impl;
+
+import org.camunda.bpm.model.xml.instance.ModelElementInstance;
+
+/**
+ * Controls when the {@link ModelElementInstance model element instances} of a model
+ * instance are created.
+ */
+public enum MaterializationPolicy {
+
+  /**
+   * Instances are created on first access. Type checks, e.g. while filtering child elements
+   * by type, are answered from the name of the element and the types of the model, so that
+   * no instances are created for elements which do not match.
+   */
+  LAZY,
+
+  /**
+   * The instances of all elements are created after parsing, so that later reads do not
+   * have to create them.
+   */
+  EAGER,
+
+  /**
+   * Like {@link #EAGER}, but the subtrees of the document are processed in parallel.
+   */
+  PARALLEL_EAGER
+
+}
@@ -45,6 +45,9 @@ public class ModelImpl implements Model {
   protected final Map<String, Set<String>> actualNsToAlternative = new HashMap<String, Set<String>>();
   protected final Map<String, String> alternativeNsToActual = new HashMap<String, String>();
 
+  /** incremented whenever an alternative namespace is declared or undeclared */
+  protected volatile int alternativeNamespacesVersion = 0;
+
   /**
    * Create a new {@link Model} with a model name.
    * @param modelName  the model name to identify the model
@@ -71,6 +74,7 @@ public class ModelImpl implements Model {
 
     alternativeNamespaces.add(alternativeNs);
     alternativeNsToActual.put(alternativeNs, actualNs);
+    alternativeNamespacesVersion++;
   }
 
   public void undeclareAlternativeNamespace(String alternativeNs){
@@ -79,6 +83,15 @@ public class ModelImpl implements Model {
     }
     String actual = alternativeNsToActual.remove(alternativeNs);
     actualNsToAlternative.remove(actual);
+    alternativeNamespacesVersion++;
+  }
+
+  /**
+   * @return a version which changes whenever an alternative namespace is declared or undeclared,
+   *         so that resolved alternative namespaces can be cached
+   */
+  public int getAlternativeNamespacesVersion() {
+    return alternativeNamespacesVersion;
   }
 
   public Set<String> getAlternativeNamespaces(String actualNs) {
@@ -20,19 +20,38 @@ import org.camunda.bpm.model.xml.Model;
 import org.camunda.bpm.model.xml.ModelBuilder;
 import org.camunda.bpm.model.xml.ModelException;
 import org.camunda.bpm.model.xml.ModelInstance;
+import org.camunda.bpm.model.xml.impl.instance.DocumentLock;
+import org.camunda.bpm.model.xml.impl.instance.IndexedDomDocument;
 import org.camunda.bpm.model.xml.impl.instance.ModelElementInstanceImpl;
+import org.camunda.bpm.model.xml.impl.type.ModelElementTypeImpl;
+import org.camunda.bpm.model.xml.impl.util.DomUtil;
+import org.camunda.bpm.model.xml.impl.util.DomXmlStreamReader;
+import org.camunda.bpm.model.xml.impl.util.IoUtil;
 import org.camunda.bpm.model.xml.impl.util.ModelUtil;
 import org.camunda.bpm.model.xml.impl.validation.ModelInstanceValidator;
 import org.camunda.bpm.model.xml.instance.DomDocument;
 import org.camunda.bpm.model.xml.instance.DomElement;
 import org.camunda.bpm.model.xml.instance.ModelElementInstance;
 import org.camunda.bpm.model.xml.type.ModelElementType;
+import org.camunda.bpm.model.xml.type.attribute.Attribute;
 import org.camunda.bpm.model.xml.validation.ModelElementValidator;
 import org.camunda.bpm.model.xml.validation.ValidationResults;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.xml.stream.XMLStreamReader;
+
+import org.w3c.dom.Document;
+import org.xml.sax.ContentHandler;
 
 /**
  * An instance of a model
@@ -46,6 +65,15 @@ public class ModelInstanceImpl implements ModelInstance {
   protected final DomDocument document;
   protected ModelImpl model;
   protected final ModelBuilder modelBuilder;
+  protected MaterializationPolicy materializationPolicy = MaterializationPolicy.LAZY;
+
+  /**
+   * The depth up to which the subtrees of a document are materialized in parallel, deeper
+   * subtrees are materialized by the thread which reached them.
+   */
+  protected static final int PARALLEL_MATERIALIZATION_DEPTH = 3;
+
+  private static volatile ForkJoinPool materializationPool;
 
   public ModelInstanceImpl(ModelImpl model, ModelBuilder modelBuilder, DomDocument document) {
     this.model = model;
@@ -100,11 +128,50 @@ public class ModelInstanceImpl implements ModelInstance {
     return (T) modelElementInstance;
   }
 
+  /**
+   * Creates multiple new instances of a type with generated unique ids. The namespace
+   * prefix of the type is resolved once and the document is locked once for all instances.
+   *
+   * @param type the instance type of the model elements
+   * @param count the number of instances to create
+   * @return the new instances which are not attached to the document yet
+   */
+  public <T extends ModelElementInstance> List<T> newInstances(Class<T> type, int count) {
+    ModelElementType modelElementType = model.getType(type);
+    if(modelElementType != null) {
+      return newInstances(modelElementType, count);
+    } else {
+      throw new ModelException("Cannot create instance of ModelType "+type+": no such type registered.");
+    }
+  }
+
+  /**
+   * Creates multiple new instances of a type with generated unique ids.
+   *
+   * @param type the type of the model elements
+   * @param count the number of instances to create
+   * @return the new instances which are not attached to the document yet
+   * @see #newInstances(Class, int)
+   */
+  @SuppressWarnings("unchecked")
+  public <T extends ModelElementInstance> List<T> newInstances(ModelElementType type, int count) {
+    DocumentLock lock = DocumentLock.forDocument(document);
+    lock.lockWrite();
+    try {
+      List<ModelElementInstance> modelElementInstances = ((ModelElementTypeImpl) type).newInstances(this, count);
+      ModelUtil.setGeneratedUniqueIdentifiers(type, modelElementInstances, false);
+      return (List<T>) modelElementInstances;
+    }
+    finally {
+      lock.unlockWrite();
+    }
+  }
+
   public Model getModel() {
     return model;
   }
 
-  public ModelElementType registerGenericType(String namespaceUri, String localName) {
+  public synchronized ModelElementType registerGenericType(String namespaceUri, String localName) {
     ModelElementType elementType = model.getTypeForName(namespaceUri, localName);
     if (elementType == null) {
       elementType = modelBuilder.defineGenericType(localName, namespaceUri);
@@ -127,18 +194,150 @@ public class ModelInstanceImpl implements ModelInstance {
     }
   }
 
+  /**
+   * Find the elements of multiple ids at once, which is faster than finding
+   * each element by {@link #getModelElementById(String)}.
+   *
+   * @param ids the ids of the elements
+   * @return the found elements by their id in the order of the given ids,
+   *         ids without an element are omitted
+   */
+  public Map<String, ModelElementInstance> getModelElementsByIds(Collection<String> ids) {
+    Map<String, ModelElementInstance> elements = new LinkedHashMap<String, ModelElementInstance>();
+    if (document instanceof IndexedDomDocument) {
+      Map<String, DomElement> domElements = ((IndexedDomDocument) document).getElementsByIds(ids);
+      for (Map.Entry<String, DomElement> entry : domElements.entrySet()) {
+        elements.put(entry.getKey(), ModelUtil.getModelElement(entry.getValue(), this));
+      }
+    }
+    else {
+      for (String id : ids) {
+        ModelElementInstance element = getModelElementById(id);
+        if (element != null) {
+          elements.put(id, element);
+        }
+      }
+    }
+    return elements;
+  }
+
+  /**
+   * Find the ids which are used by more than one element of the model. Such a model
+   * is not valid and {@link #getModelElementById(String)} returns only one of the elements.
+   *
+   * @return the duplicate ids in natural order or an empty set if all ids are unique
+   */
+  public Set<String> getDuplicateIds() {
+    if (document instanceof IndexedDomDocument) {
+      return ((IndexedDomDocument) document).getDuplicateIds();
+    }
+    else {
+      throw new ModelException("Duplicate ids are not supported by document " + document);
+    }
+  }
+
   public Collection<ModelElementInstance> getModelElementsByType(ModelElementType type) {
     Collection<ModelElementType> extendingTypes = type.getAllExtendingTypes();
 
-    List<ModelElementInstance> instances = new ArrayList<ModelElementInstance>();
+    List<ModelElementType> types = new ArrayList<ModelElementType>();
     for (ModelElementType modelElementType : extendingTypes) {
       if(!modelElementType.isAbstract()) {
-        instances.addAll(modelElementType.getInstances(this));
+        types.add(modelElementType);
+      }
+    }
+    return getModelElementsByTypes(types);
+  }
+
+  /**
+   * Finds the instances of multiple types in a single pass over the document. The elements
+   * of a type are searched in its namespace and, only if there are none, in the first of its
+   * alternative namespaces which contains elements of the type. An alternative namespace is
+   * searched before its own alternative namespaces, which are searched before the next
+   * alternative namespace of the same namespace.
+   *
+   * @param types the types to find the instances of
+   * @return the instances of all types in document order
+   */
+  public List<ModelElementInstance> getModelElementsByTypes(Collection<ModelElementType> types) {
+    Map<String, Map<String, TypeName>> typeNamesByNamespace = new HashMap<String, Map<String, TypeName>>();
+    boolean hasAlternativeNamespaces = false;
+    for (ModelElementType type : types) {
+      ModelElementTypeImpl typeImpl = (ModelElementTypeImpl) type;
+      String namespaceUri = type.getTypeNamespace();
+      addTypeName(typeNamesByNamespace, namespaceUri, new TypeName(typeImpl, 0));
+      Set<String> visitedNamespaces = new HashSet<String>();
+      visitedNamespaces.add(namespaceUri);
+      if (addAlternativeTypeNames(typeNamesByNamespace, typeImpl, namespaceUri, 1, visitedNamespaces) > 1) {
+        hasAlternativeNamespaces = true;
+      }
+    }
+
+    Map<String, Set<String>> localNamesByNamespace = new HashMap<String, Set<String>>();
+    for (Map.Entry<String, Map<String, TypeName>> typeNames : typeNamesByNamespace.entrySet()) {
+      localNamesByNamespace.put(typeNames.getKey(), typeNames.getValue().keySet());
+    }
+    List<DomElement> elements = DomUtil.getElementsByNamesNs(document, localNamesByNamespace);
+
+    List<ModelElementInstance> instances = new ArrayList<ModelElementInstance>(elements.size());
+    if (!hasAlternativeNamespaces) {
+      ModelElementTypeImpl singleType = types.size() == 1 ? (ModelElementTypeImpl) types.iterator().next() : null;
+      for (DomElement element : elements) {
+        instances.add(singleType != null ? ModelUtil.getModelElement(element, this, singleType) : ModelUtil.getModelElement(element, this));
+      }
+      return instances;
+    }
+
+    // the elements of a type are only taken from its first namespace which contains any
+    List<TypeName> elementTypeNames = new ArrayList<TypeName>(elements.size());
+    Map<ModelElementType, Integer> usedNamespaceRanks = new HashMap<ModelElementType, Integer>();
+    for (DomElement element : elements) {
+      TypeName typeName = typeNamesByNamespace.get(element.getNamespaceURI()).get(element.getLocalName());
+      elementTypeNames.add(typeName);
+      Integer usedNamespaceRank = usedNamespaceRanks.get(typeName.type);
+      if (usedNamespaceRank == null || typeName.namespaceRank < usedNamespaceRank) {
+        usedNamespaceRanks.put(typeName.type, typeName.namespaceRank);
+      }
+    }
+    for (int i = 0; i < elements.size(); i++) {
+      TypeName typeName = elementTypeNames.get(i);
+      if (usedNamespaceRanks.get(typeName.type) == typeName.namespaceRank) {
+        instances.add(ModelUtil.getModelElement(elements.get(i), this, typeName.type));
       }
     }
     return instances;
   }
 
+  /**
+   * Adds the type name to the alternative namespaces of a namespace and recursively to their
+   * alternative namespaces, ranked in the order in which they are searched.
+   *
+   * @return the next free namespace rank
+   */
+  protected int addAlternativeTypeNames(Map<String, Map<String, TypeName>> typeNamesByNamespace, ModelElementTypeImpl type,
+                                        String namespaceUri, int namespaceRank, Set<String> visitedNamespaces) {
+    Set<String> alternativeNamespaces = model.getAlternativeNamespaces(namespaceUri);
+    if (alternativeNamespaces != null) {
+      for (String alternativeNamespace : alternativeNamespaces) {
+        if (visitedNamespaces.add(alternativeNamespace)) {
+          addTypeName(typeNamesByNamespace, alternativeNamespace, new TypeName(type, namespaceRank));
+          namespaceRank = addAlternativeTypeNames(typeNamesByNamespace, type, alternativeNamespace, namespaceRank + 1, visitedNamespaces);
+        }
+      }
+    }
+    return namespaceRank;
+  }
+
+  protected static void addTypeName(Map<String, Map<String, TypeName>> typeNamesByNamespace, String namespaceUri, TypeName typeName) {
+    Map<String, TypeName> typeNames = typeNamesByNamespace.get(namespaceUri);
+    if (typeNames == null) {
+      typeNames = new HashMap<String, TypeName>();
+      typeNamesByNamespace.put(namespaceUri, typeNames);
+    }
+    if (!typeNames.containsKey(typeName.type.getTypeName())) {
+      typeNames.put(typeName.type.getTypeName(), typeName);
+    }
+  }
+
   @SuppressWarnings("unchecked")
   public <T extends ModelElementInstance> Collection<T> getModelElementsByType(Class<T> referencingClass) {
     return (Collection<T>) getModelElementsByType(getModel().getType(referencingClass));
@@ -146,7 +345,9 @@ public class ModelInstanceImpl implements ModelInstance {
 
   @Override
   public ModelInstance clone() {
-      return new ModelInstanceImpl(model, modelBuilder, document.clone());
+    ModelInstanceImpl clone = new ModelInstanceImpl(model, modelBuilder, document.clone());
+    clone.setMaterializationPolicy(materializationPolicy);
+    return clone;
   }
 
   @Override
@@ -154,4 +355,255 @@ public class ModelInstanceImpl implements ModelInstance {
     return new ModelInstanceValidator(this, validators).validate();
   }
 
+  /**
+   * Emits this model instance as SAX events to the content handler. The events are
+   * generated directly from the DOM document without serializing it to text, so
+   * that SAX based consumers like XSLT, XSD validation or indexing can process the model.
+   * If the handler also implements {@link org.xml.sax.ext.LexicalHandler} it will receive
+   * comments and CDATA sections. The read lock of the document is held while the events
+   * are emitted, so the handler may read this model instance but must not modify it.
+   *
+   * @param contentHandler the content handler to receive the events
+   */
+  public void writeTo(ContentHandler contentHandler) {
+    IoUtil.transformDocumentToSax(document, contentHandler);
+  }
+
+  /**
+   * Returns a new {@link XMLStreamReader} which reads this model instance directly from
+   * the DOM document without serializing it to text. Each step of the reader holds the
+   * read lock of the document, so the model instance may be modified while it is read,
+   * but then the events reflect the model as it is at each step. Namespace declarations
+   * are reported as they are, they are not repaired, and nodes like document types and
+   * entity references are skipped, see {@link DomXmlStreamReader}.
+   *
+   * @return the new stream reader positioned at the start of the document
+   */
+  public XMLStreamReader newXmlStreamReader() {
+    Document domDocument = (Document) document.getDomSource().getNode();
+    return new DomXmlStreamReader(domDocument, DocumentLock.forDocument(domDocument));
+  }
+
+  /**
+   * Parses a XML fragment which contains a single element and adds it as new child
+   * element to the parent element. The namespaces which are in scope of the parent
+   * element can be used inside the fragment without declaring them. All ids of the
+   * new subtree are registered, so the new elements can be referenced and
+   * found by {@link #getModelElementById(String)}.
+   *
+   * @param parentElement the element to add the new child element to
+   * @param xmlFragment the XML fragment to parse
+   * @param <T> the type of the new child element
+   * @return the new child element
+   * @throws ModelException if an id of the fragment is already used in this model instance
+   */
+  @SuppressWarnings("unchecked")
+  public <T extends ModelElementInstance> T parseFragment(ModelElementInstance parentElement, String xmlFragment) {
+    DomElement domElement = getFragmentDocument().importFragment(parentElement.getDomElement(), xmlFragment);
+    ModelElementInstance childElement = ModelUtil.getModelElement(domElement, this);
+    registerIds(childElement);
+    parentElement.addChildElement(childElement);
+    return (T) childElement;
+  }
+
+  /**
+   * Serializes the subtree of a single element to XML. All namespaces used by the
+   * subtree are declared on the serialized element and no XML declaration is written.
+   *
+   * @param element the element to serialize
+   * @return the XML fragment of the element
+   */
+  public String serializeFragment(ModelElementInstance element) {
+    DomDocument fragment = getFragmentDocument().extractFragment(element.getDomElement());
+    return IoUtil.convertXmlFragmentToString(fragment);
+  }
+
+  /**
+   * Makes this model instance immutable. All model element instances are created
+   * up front and afterwards the model instance can be read by multiple threads
+   * without any locking. Every modification of a frozen model instance throws an
+   * {@link org.camunda.bpm.model.xml.UnsupportedModelOperationException}. A frozen
+   * model instance cannot be unfrozen, but its {@link #clone() clone} can be modified again.
+   */
+  public void freeze() {
+    createModelElements(materializationPolicy == MaterializationPolicy.PARALLEL_EAGER);
+    DocumentLock.forDocument(document).freeze();
+  }
+
+  /**
+   * @return true if the model instance was {@link #freeze() frozen}, false otherwise
+   */
+  public boolean isFrozen() {
+    return DocumentLock.forDocument(document).isFrozen();
+  }
+
+  /**
+   * @return the policy which controls when the model element instances are created
+   */
+  public MaterializationPolicy getMaterializationPolicy() {
+    return materializationPolicy;
+  }
+
+  /**
+   * Sets the policy which controls when the model element instances are created. If the
+   * policy is eager, the instances of all elements are created immediately.
+   *
+   * @param materializationPolicy the policy to use
+   */
+  public void setMaterializationPolicy(MaterializationPolicy materializationPolicy) {
+    this.materializationPolicy = materializationPolicy;
+    if (materializationPolicy != MaterializationPolicy.LAZY) {
+      createModelElements(materializationPolicy == MaterializationPolicy.PARALLEL_EAGER);
+    }
+  }
+
+  /**
+   * Creates the model element instances of all elements of the document. The document is
+   * asked to keep the instances of its elements, so that they are not created again lazily
+   * but are released once their elements are removed.
+   *
+   * @param parallel true if the subtrees of the document are processed in parallel
+   */
+  protected void createModelElements(boolean parallel) {
+    if (document instanceof IndexedDomDocument) {
+      ((IndexedDomDocument) document).retainModelElementInstances();
+    }
+    DomElement rootElement = document.getRootElement();
+    if (rootElement != null) {
+      if (parallel) {
+        getMaterializationPool().invoke(new CreateModelElementsTask(rootElement, 0));
+      }
+      else {
+        createModelElements(rootElement);
+      }
+    }
+  }
+
+  /**
+   * Creates the model element instances of the element and all its descendants,
+   * so that they do not have to be created lazily by concurrent readers.
+   */
+  protected void createModelElements(DomElement element) {
+    ModelUtil.getModelElement(element, this);
+    for (DomElement childElement = DomUtil.getFirstChildElement(element); childElement != null; childElement = DomUtil.getNextSiblingElement(childElement)) {
+      createModelElements(childElement);
+    }
+  }
+
+  protected static ForkJoinPool getMaterializationPool() {
+    ForkJoinPool pool = materializationPool;
+    if (pool == null) {
+      synchronized (ModelInstanceImpl.class) {
+        pool = materializationPool;
+        if (pool == null) {
+          pool = new ForkJoinPool();
+          materializationPool = pool;
+        }
+      }
+    }
+    return pool;
+  }
+
+  protected IndexedDomDocument getFragmentDocument() {
+    if (document instanceof IndexedDomDocument) {
+      return (IndexedDomDocument) document;
+    }
+    else {
+      throw new ModelException("Fragments are not supported by document " + document);
+    }
+  }
+
+  /**
+   * Marks the id attributes of the new element and all its descendants as ids of
+   * the document, so they can be found by {@link #getModelElementById(String)}.
+   */
+  protected void registerIds(ModelElementInstance modelElement) {
+    registerIds(modelElement, new HashSet<String>());
+  }
+
+  /**
+   * @param registeredIds the ids which were already registered for the new element, so that
+   *                      ids which are used twice inside the detached element are detected
+   */
+  protected void registerIds(ModelElementInstance modelElement, Set<String> registeredIds) {
+    ModelElementTypeImpl elementType = (ModelElementTypeImpl) modelElement.getElementType();
+    for (Attribute<?> attribute : elementType.getAllAttributes()) {
+      if (attribute.isIdAttribute()) {
+        String namespaceUri = attribute.getNamespaceUri();
+        String attributeName = attribute.getAttributeName();
+        String id = namespaceUri == null
+          ? modelElement.getAttributeValue(attributeName)
+          : modelElement.getAttributeValueNs(namespaceUri, attributeName);
+        if (id != null) {
+          if (!registeredIds.add(id) || getModelElementById(id) != null) {
+            throw new ModelException("Unable to add fragment, the id '" + id + "' is already used");
+          }
+          if (namespaceUri == null) {
+            ((ModelElementInstanceImpl) modelElement).setAttributeValue(attributeName, id, true, false);
+          }
+          else {
+            ((ModelElementInstanceImpl) modelElement).setAttributeValueNs(namespaceUri, attributeName, id, true, false);
+          }
+        }
+      }
+    }
+    DomElement domElement = modelElement.getDomElement();
+    for (DomElement childElement = DomUtil.getFirstChildElement(domElement); childElement != null; childElement = DomUtil.getNextSiblingElement(childElement)) {
+      registerIds(ModelUtil.getModelElement(childElement, this), registeredIds);
+    }
+  }
+
+  /**
+   * Creates the model element instances of a subtree. The child subtrees are forked up to
+   * {@link #PARALLEL_MATERIALIZATION_DEPTH}, every element still gets a single instance as
+   * concurrent creations are resolved by the DOM element.
+   */
+  protected class CreateModelElementsTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    protected final DomElement element;
+    protected final int depth;
+
+    public CreateModelElementsTask(DomElement element, int depth) {
+      this.element = element;
+      this.depth = depth;
+    }
+
+    protected void compute() {
+      if (depth < PARALLEL_MATERIALIZATION_DEPTH) {
+        ModelUtil.getModelElement(element, ModelInstanceImpl.this);
+        List<CreateModelElementsTask> tasks = new ArrayList<CreateModelElementsTask>();
+        for (DomElement childElement : element.getChildElements()) {
+          tasks.add(new CreateModelElementsTask(childElement, depth + 1));
+        }
+        invokeAll(tasks);
+      }
+      else {
+        createModelElements(element);
+      }
+    }
+
+  }
+
+  /**
+   * A type which is searched in one of its namespaces.
+   */
+  protected static class TypeName {
+
+    protected final ModelElementTypeImpl type;
+
+    /**
+     * 0 for the namespace of the type, otherwise the position of the alternative namespace in
+     * the search order starting with 1
+     */
+    protected final int namespaceRank;
+
+    public TypeName(ModelElementTypeImpl type, int namespaceRank) {
+      this.type = type;
+      this.namespaceRank = namespaceRank;
+    }
+
+  }
+
 }
@@ -0,0 +1,37 @@
+/*
+ * Copyright Camunda Services GmbH and/or licensed to Camunda Services GmbH
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. Camunda licenses this file to you under the Apache License,
+ * Version 2.0; you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.camunda.bpm.model.xml.impl.instance;
+
+import org.camunda.bpm.model.xml.instance.DomElement;
+import org.camunda.bpm.model.xml.instance.ModelElementInstance;
+
+/**
+ * A {@link DomElement} which associates its {@link ModelElementInstance} atomically, so that
+ * concurrent readers which create the instance of an element agree on one instance.
+ */
+public interface ConcurrentDomElement extends DomElement {
+
+  /**
+   * Associates the model element instance with this element, unless another instance is
+   * associated already.
+   *
+   * @param modelElementInstance the instance to associate
+   * @return the instance which was associated before or null if the given instance was associated
+   */
+  ModelElementInstance putModelElementInstanceIfAbsent(ModelElementInstance modelElementInstance);
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright Camunda Services GmbH and/or licensed to Camunda Services GmbH
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. Camunda licenses this file to you under the Apache License,
+ * Version 2.0; you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.camunda.bpm.model.xml.impl.instance;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * An index of the elements which are part of a document. It is built on first use and
+ * kept in sync by the {@link DomElementImpl} and {@link DomDocumentImpl} wrappers, changes
+ * which are made directly on the DOM are not recognized until the index is
+ * {@link #invalidate() invalidated}.
+ *
+ * <p>An index must only be modified while holding the write lock of the document. It is
+ * built while holding the read lock, so concurrent readers synchronize on the index.</p>
+ */
+public abstract class DocumentIndex {
+
+  protected final Document document;
+
+  protected DocumentIndex(Document document) {
+    this.document = document;
+  }
+
+  /**
+   * @return true if the index was built and has to be kept in sync
+   */
+  public abstract boolean isBuilt();
+
+  /**
+   * Forces the index to be built again on next use, e.g. because the DOM was changed directly.
+   */
+  public abstract void invalidate();
+
+  /**
+   * Records an element and its descendants which were added to the document.
+   */
+  public abstract void added(Element element);
+
+  /**
+   * Records that an element and its descendants were removed from the document.
+   */
+  public abstract void removed(Element element);
+
+  /**
+   * Records an element and its descendants after it was moved.
+   *
+   * @param element the moved element
+   * @param wasAttached true if the element was part of the document before it was moved
+   */
+  public void moved(Element element, boolean wasAttached) {
+    if (isBuilt()) {
+      if (wasAttached) {
+        removed(element);
+      }
+      if (isAttached(element)) {
+        added(element);
+      }
+    }
+  }
+
+  /**
+   * @param element the element to check
+   * @return true if the element is part of the document
+   */
+  public boolean isAttached(Element element) {
+    Node node = element;
+    while (node.getParentNode() != null) {
+      node = node.getParentNode();
+    }
+    return node == document;
+  }
+
+}
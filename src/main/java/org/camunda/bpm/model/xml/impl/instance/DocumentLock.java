@@ -0,0 +1,345 @@
+/*
+ * Copyright Camunda Services GmbH and/or licensed to Camunda Services GmbH
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. Camunda licenses this file to you under the Apache License,
+ * Version 2.0; you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.camunda.bpm.model.xml.impl.instance;
+
+import org.camunda.bpm.model.xml.UnsupportedModelOperationException;
+import org.camunda.bpm.model.xml.instance.DomDocument;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Guards the access to a DOM document. All {@link DomDocumentImpl} and {@link DomElementImpl}
+ * wrappers of the same document share one lock, so that concurrent readers do not block each
+ * other while modifications are exclusive.
+ *
+ * <p>Reading a DOM is only free of side effects if the nodes are not traversed by index, as
+ * node lists share a cache per document, and if the document does not use deferred node
+ * expansion. The user data of nodes is stored in a map which is modified on reads, so it is
+ * guarded by the {@link #getUserDataMonitor() user data monitor} instead of this lock. This
+ * includes operations which call user data handlers, like cloning and importing nodes.</p>
+ *
+ * <p>The locks of DOM documents are kept in a map with weak identity keys, which is read
+ * without locking. The lock also carries the canonical {@link DomDocumentImpl wrapper} of its
+ * document, so that wrapping a node does not need to read the user data of the document.</p>
+ *
+ * <p>A reader can acquire the lock again while holding it, and a writer can acquire the read
+ * lock, but a reader must never try to acquire the write lock.</p>
+ *
+ * <p>A document which is only read can be {@link #freeze() frozen}, then reads do not
+ * acquire the lock anymore. A document which is only accessed by a single thread can be
+ * declared {@link #isThreadConfined() thread confined}, then neither reads nor writes are
+ * locked.</p>
+ */
+public class DocumentLock {
+
+  private static final ConcurrentMap<DocumentKey, DocumentLock> DOCUMENT_LOCKS = new ConcurrentHashMap<DocumentKey, DocumentLock>();
+  private static final ReferenceQueue<Document> COLLECTED_DOCUMENTS = new ReferenceQueue<Document>();
+
+  protected final ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+  protected final Object userDataMonitor = new Object();
+  protected final boolean threadConfined;
+  protected volatile boolean frozen = false;
+
+  /**
+   * Counts the write locks which were acquired, so that cached views of the document
+   * can tell whether the document was modified since they were computed.
+   */
+  protected volatile long modificationCount = 0;
+
+  /**
+   * Counts the write locks for modifications of the element structure, so that cached
+   * positions of elements survive modifications of attributes and new detached elements.
+   */
+  protected volatile long structureModificationCount = 0;
+
+  /**
+   * The canonical wrapper of the document, which is referenced weakly as it references the
+   * document. It is kept alive by the user data of the document.
+   */
+  protected volatile WeakReference<DomDocumentImpl> canonicalDocument;
+
+  public DocumentLock() {
+    this(false);
+  }
+
+  /**
+   * @param threadConfined true if the document is only accessed by a single thread and must not be locked
+   */
+  public DocumentLock(boolean threadConfined) {
+    this.threadConfined = threadConfined;
+  }
+
+  /**
+   * Returns the lock of a DOM document. The lock is created on the first call for a document.
+   *
+   * @param document the document to get the lock for
+   * @return the lock of the document
+   */
+  public static DocumentLock forDocument(Document document) {
+    return forDocument(document, false);
+  }
+
+  /**
+   * Returns the lock of a DOM document. The lock is created on the first call for a document,
+   * later calls return the existing lock regardless of the requested mode.
+   *
+   * @param document the document to get the lock for
+   * @param threadConfined true if a new lock should not lock the document because it is only
+   *                       accessed by a single thread
+   * @return the lock of the document
+   */
+  public static DocumentLock forDocument(Document document, boolean threadConfined) {
+    expungeCollectedDocuments();
+    DocumentLock lock = DOCUMENT_LOCKS.get(new LookupKey(document));
+    if (lock == null) {
+      DocumentLock newLock = new DocumentLock(threadConfined);
+      lock = DOCUMENT_LOCKS.putIfAbsent(new WeakDocumentKey(document, COLLECTED_DOCUMENTS), newLock);
+      if (lock == null) {
+        lock = newLock;
+      }
+    }
+    return lock;
+  }
+
+  protected static void expungeCollectedDocuments() {
+    Object key;
+    while ((key = COLLECTED_DOCUMENTS.poll()) != null) {
+      DOCUMENT_LOCKS.remove(key);
+    }
+  }
+
+  /**
+   * Returns the lock of the DOM document which is wrapped by a {@link DomDocument}.
+   *
+   * @param document the document to get the lock for
+   * @return the lock of the document
+   */
+  public static DocumentLock forDocument(DomDocument document) {
+    if (document instanceof IndexedDomDocument) {
+      return ((IndexedDomDocument) document).getLock();
+    }
+    else {
+      Node node = document.getDomSource().getNode();
+      return forDocument(node instanceof Document ? (Document) node : node.getOwnerDocument());
+    }
+  }
+
+  /**
+   * @return the canonical wrapper of the document of this lock or null if it was not created yet
+   */
+  protected DomDocumentImpl getCanonicalDocument() {
+    WeakReference<DomDocumentImpl> reference = canonicalDocument;
+    return reference != null ? reference.get() : null;
+  }
+
+  /**
+   * @param domDocument the canonical wrapper of the document of this lock
+   */
+  protected void setCanonicalDocument(DomDocumentImpl domDocument) {
+    canonicalDocument = new WeakReference<DomDocumentImpl>(domDocument);
+  }
+
+  public void lockRead() {
+    if (!threadConfined && !frozen) {
+      readWriteLock.readLock().lock();
+      if (frozen) {
+        // the document was frozen while waiting for the lock
+        readWriteLock.readLock().unlock();
+      }
+    }
+  }
+
+  public void unlockRead() {
+    if (!threadConfined && !frozen) {
+      readWriteLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * @throws UnsupportedModelOperationException if the document is frozen
+   */
+  public void lockWrite() {
+    ensureNotFrozen();
+    if (!threadConfined) {
+      readWriteLock.writeLock().lock();
+      if (frozen) {
+        readWriteLock.writeLock().unlock();
+        ensureNotFrozen();
+      }
+    }
+    // only one thread holds the write lock, so the increment is not lost
+    modificationCount++;
+  }
+
+  /**
+   * Acquires the write lock for a modification which may add, move or remove elements.
+   * The lock is released by {@link #unlockWrite()}.
+   *
+   * @throws UnsupportedModelOperationException if the document is frozen
+   */
+  public void lockStructureWrite() {
+    lockWrite();
+    structureModificationCount++;
+  }
+
+  public void unlockWrite() {
+    if (!threadConfined) {
+      readWriteLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Makes the document immutable. Afterwards reads are not locked anymore
+   * and all modifications are rejected. A frozen document cannot be unfrozen.
+   */
+  public void freeze() {
+    readWriteLock.writeLock().lock();
+    try {
+      frozen = true;
+    }
+    finally {
+      readWriteLock.writeLock().unlock();
+    }
+  }
+
+  public boolean isFrozen() {
+    return frozen;
+  }
+
+  /**
+   * Returns a counter which changes whenever the document may have been modified through
+   * its wrappers. Modifications which are made directly on the DOM are not counted.
+   *
+   * @return the number of modifications of the document
+   */
+  public long getModificationCount() {
+    return modificationCount;
+  }
+
+  /**
+   * Returns a counter which changes whenever elements may have been added, moved or removed
+   * through the wrappers of the document.
+   *
+   * @return the number of structure modifications of the document
+   */
+  public long getStructureModificationCount() {
+    return structureModificationCount;
+  }
+
+  /**
+   * @return true if the document is only accessed by a single thread and is not locked
+   */
+  public boolean isThreadConfined() {
+    return threadConfined;
+  }
+
+  protected void ensureNotFrozen() {
+    if (frozen) {
+      throw new UnsupportedModelOperationException("modification", "the model instance is frozen");
+    }
+  }
+
+  /**
+   * @return the monitor which has to be held in addition to the read lock to access the user data of nodes,
+   *         it can be skipped if the document is {@link #isThreadConfined() thread confined}
+   */
+  public Object getUserDataMonitor() {
+    return userDataMonitor;
+  }
+
+  /**
+   * A key which compares documents by identity.
+   */
+  protected interface DocumentKey {
+
+    /**
+     * @return the document of the key or null if it was collected
+     */
+    Document getDocument();
+
+  }
+
+  protected static boolean equalKeys(DocumentKey key, Object other) {
+    if (key == other) {
+      return true;
+    }
+    if (!(other instanceof DocumentKey)) {
+      return false;
+    }
+    Document document = key.getDocument();
+    return document != null && document == ((DocumentKey) other).getDocument();
+  }
+
+  /**
+   * A short-lived key to look up a document, which does not need to be referenced weakly.
+   */
+  protected static class LookupKey implements DocumentKey {
+
+    protected final Document document;
+
+    public LookupKey(Document document) {
+      this.document = document;
+    }
+
+    public Document getDocument() {
+      return document;
+    }
+
+    public int hashCode() {
+      return System.identityHashCode(document);
+    }
+
+    public boolean equals(Object obj) {
+      return equalKeys(this, obj);
+    }
+
+  }
+
+  /**
+   * The key of an entry, which references its document weakly. The hash code is kept, so
+   * that the entry can still be removed after the document was collected.
+   */
+  protected static class WeakDocumentKey extends WeakReference<Document> implements DocumentKey {
+
+    protected final int hashCode;
+
+    public WeakDocumentKey(Document document, ReferenceQueue<Document> queue) {
+      super(document, queue);
+      this.hashCode = System.identityHashCode(document);
+    }
+
+    public Document getDocument() {
+      return get();
+    }
+
+    public int hashCode() {
+      return hashCode;
+    }
+
+    public boolean equals(Object obj) {
+      return equalKeys(this, obj);
+    }
+
+  }
+
+}
@@ -18,81 +18,409 @@ package org.camunda.bpm.model.xml.impl.instance;
 
 import org.camunda.bpm.model.xml.ModelException;
 import org.camunda.bpm.model.xml.impl.util.DomUtil;
+import org.camunda.bpm.model.xml.impl.util.QName;
 import org.camunda.bpm.model.xml.impl.util.XmlQName;
 import org.camunda.bpm.model.xml.instance.DomDocument;
 import org.camunda.bpm.model.xml.instance.DomElement;
+import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
 
 import javax.xml.transform.dom.DOMSource;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
-
-import static javax.xml.XMLConstants.XMLNS_ATTRIBUTE_NS_URI;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * @author Sebastian Menski
  */
-public class DomDocumentImpl implements DomDocument {
+public class DomDocumentImpl implements IndexedDomDocument {
 
   public static final String GENERIC_NS_PREFIX = "ns";
 
+  private static final String DOM_DOCUMENT_KEY = "camunda.domDocumentRef";
+
   private final Document document;
+  private final DocumentLock lock;
+  private final boolean canonical;
+
+  /**
+   * Only used by the canonical wrapper of the document.
+   */
+  private final NamespaceTable namespaceTable;
+  private final IdIndex idIndex;
+  private final ElementNameIndex elementNameIndex;
+  private final DomElementTable elementTable;
 
   public DomDocumentImpl(Document document) {
+    this(document, DocumentLock.forDocument(document));
+  }
+
+  /**
+   * @param document the document to wrap
+   * @param threadConfined true if the document is only accessed by a single thread and must not be locked
+   */
+  public DomDocumentImpl(Document document, boolean threadConfined) {
+    this(document, DocumentLock.forDocument(document, threadConfined));
+  }
+
+  protected DomDocumentImpl(Document document, DocumentLock lock) {
+    this(document, lock, false);
+  }
+
+  protected DomDocumentImpl(Document document, DocumentLock lock, boolean canonical) {
     this.document = document;
+    this.lock = lock;
+    this.canonical = canonical;
+    this.namespaceTable = canonical ? new NamespaceTable(document) : null;
+    this.idIndex = canonical ? new IdIndex(document) : null;
+    this.elementNameIndex = canonical ? new ElementNameIndex(document) : null;
+    this.elementTable = canonical ? new DomElementTable(this) : null;
+  }
+
+  /**
+   * Returns the canonical wrapper of a DOM document. The wrapper is created on the
+   * first call for a document and every later call returns the same instance.
+   *
+   * @param document the document to wrap
+   * @return the canonical wrapper of the document
+   */
+  public static DomDocumentImpl forDocument(Document document) {
+    return forDocument(document, DocumentLock.forDocument(document));
+  }
+
+  /**
+   * Returns the canonical wrapper of a DOM document. The wrapper is created on the
+   * first call for a document and every later call returns the same instance.
+   *
+   * @param document the document to wrap
+   * @param threadConfined true if a new wrapper should not lock the document because it is
+   *                       only accessed by a single thread
+   * @return the canonical wrapper of the document
+   */
+  public static DomDocumentImpl forDocument(Document document, boolean threadConfined) {
+    return forDocument(document, DocumentLock.forDocument(document, threadConfined));
+  }
+
+  /**
+   * Returns the canonical wrapper of a DOM document. Once the wrapper was created, it is
+   * carried by the lock of the document, so that it is returned without reading the user
+   * data of the document, which is not safe for concurrent reads.
+   */
+  protected static DomDocumentImpl forDocument(Document document, DocumentLock lock) {
+    DomDocumentImpl domDocument = lock.getCanonicalDocument();
+    if (domDocument != null && domDocument.document == document) {
+      return domDocument;
+    }
+    if (lock.isThreadConfined()) {
+      return getOrCreateCanonicalDocument(document, lock);
+    }
+    synchronized(lock.getUserDataMonitor()) {
+      return getOrCreateCanonicalDocument(document, lock);
+    }
+  }
+
+  private static DomDocumentImpl getOrCreateCanonicalDocument(Document document, DocumentLock lock) {
+    // the user data keeps the wrapper alive as long as the document
+    DomDocumentImpl domDocument = (DomDocumentImpl) document.getUserData(DOM_DOCUMENT_KEY);
+    if (domDocument == null) {
+      domDocument = new DomDocumentImpl(document, lock, true);
+      document.setUserData(DOM_DOCUMENT_KEY, domDocument, null);
+    }
+    if (domDocument.lock == lock) {
+      lock.setCanonicalDocument(domDocument);
+    }
+    return domDocument;
+  }
+
+  /**
+   * @return the lock which guards the access to the wrapped DOM document
+   */
+  public DocumentLock getLock() {
+    return lock;
+  }
+
+  /**
+   * @return the namespace table of the document, which must only be accessed while holding the write lock
+   */
+  protected NamespaceTable getNamespaceTable() {
+    return canonical ? namespaceTable : forDocument(document, lock).namespaceTable;
+  }
+
+  /**
+   * @return the canonical wrappers of the elements of the document
+   */
+  protected DomElementTable getElementTable() {
+    return canonical ? elementTable : forDocument(document, lock).elementTable;
+  }
+
+  protected IdIndex getIdIndex() {
+    return canonical ? idIndex : forDocument(document, lock).idIndex;
+  }
+
+  protected ElementNameIndex getElementNameIndex() {
+    return canonical ? elementNameIndex : forDocument(document, lock).elementNameIndex;
+  }
+
+  /**
+   * @return true if the element is part of this document
+   */
+  protected boolean isAttached(Element element) {
+    return getIdIndex().isAttached(element);
+  }
+
+  /**
+   * Updates the indexes and the element table after an element and its descendants were
+   * added to the document.
+   */
+  protected void elementAdded(Element element) {
+    getIdIndex().added(element);
+    getElementNameIndex().added(element);
+    getElementTable().attachmentChanged(element, true);
+  }
+
+  /**
+   * Updates the indexes and the element table after an element and its descendants were
+   * removed from the document.
+   */
+  protected void elementRemoved(Element element) {
+    getIdIndex().removed(element);
+    getElementNameIndex().removed(element);
+    getElementTable().attachmentChanged(element, false);
+  }
+
+  /**
+   * Updates the indexes and the element table after an element and its descendants were moved.
+   *
+   * @param element the moved element
+   * @param wasAttached true if the element was part of the document before it was moved
+   */
+  protected void elementMoved(Element element, boolean wasAttached) {
+    getIdIndex().moved(element, wasAttached);
+    getElementNameIndex().moved(element, wasAttached);
+    boolean attached = isAttached(element);
+    if (attached != wasAttached) {
+      getElementTable().attachmentChanged(element, attached);
+    }
+  }
+
+  /**
+   * Looks up the prefix of a namespace in the scope of an element or of the root element.
+   * Must only be called while holding the write lock.
+   *
+   * @param element the element to lookup the prefix for or null for the root element
+   * @param namespaceUri the namespace to lookup
+   * @return the prefix of the namespace or null if the namespace is not declared
+   */
+  protected String lookupPrefix(DomElementImpl element, String namespaceUri) {
+    NamespaceTable namespaceTable = getNamespaceTable();
+    if (!namespaceTable.hasNestedDeclarations()) {
+      return namespaceTable.getPrefix(namespaceUri);
+    }
+    else if (element != null) {
+      return element.getElement().lookupPrefix(namespaceUri);
+    }
+    else {
+      Element documentElement = document.getDocumentElement();
+      return documentElement != null ? documentElement.lookupPrefix(namespaceUri) : null;
+    }
+  }
+
+  /**
+   * Determines the prefix to use for a new element or attribute of a namespace. If the
+   * namespace is not declared yet, it is declared on the root element. Must only be
+   * called while holding the write lock.
+   *
+   * @param element the element of the new attribute or null for a new element
+   * @param namespaceUri the namespace of the element or attribute
+   * @return the prefix or null if no prefix is required
+   * @see XmlQName
+   */
+  protected String resolvePrefix(DomElementImpl element, String namespaceUri) {
+    if (namespaceUri == null) {
+      // no namespace so no prefix
+      return null;
+    }
+    Element documentElement = document.getDocumentElement();
+    if (documentElement == null) {
+      return element != null ? element.getElement().lookupPrefix(namespaceUri) : null;
+    }
+    else if (namespaceUri.equals(documentElement.getNamespaceURI())) {
+      // global namespaces do not have a prefix or namespace URI
+      return null;
+    }
+
+    String prefix = lookupPrefix(element, namespaceUri);
+    if (prefix == null) {
+      // if no prefix is found we generate a new one
+      String knownPrefix = XmlQName.KNOWN_PREFIXES.get(namespaceUri);
+      DomElement rootElement = getElementTable().forElement(documentElement);
+      if (knownPrefix == null) {
+        prefix = rootElement.registerNamespace(namespaceUri);
+      }
+      else if (!knownPrefix.isEmpty()) {
+        rootElement.registerNamespace(knownPrefix, namespaceUri);
+        prefix = knownPrefix;
+      }
+    }
+    return prefix;
   }
 
   public DomElement getRootElement() {
-    synchronized(document) {
+    lock.lockRead();
+    try {
       Element documentElement = document.getDocumentElement();
       if (documentElement != null) {
-        return new DomElementImpl(documentElement);
+        return getElementTable().forElement(documentElement);
       }
       else {
         return null;
       }
     }
-
+    finally {
+      lock.unlockRead();
+    }
   }
 
   public void setRootElement(DomElement rootElement) {
-    synchronized(document) {
+    lock.lockWrite();
+    try {
       Element documentElement = document.getDocumentElement();
       Element newDocumentElement = ((DomElementImpl) rootElement).getElement();
       if (documentElement != null) {
         document.replaceChild(newDocumentElement, documentElement);
+        elementRemoved(documentElement);
       }
       else {
         document.appendChild(newDocumentElement);
       }
+      elementAdded(newDocumentElement);
+    }
+    finally {
+      lock.unlockWrite();
     }
   }
 
   public DomElement createElement(String namespaceUri, String localName) {
-    synchronized(document) {
-      XmlQName xmlQName = new XmlQName(this, namespaceUri, localName);
-      Element element = document.createElementNS(xmlQName.getNamespaceUri(), xmlQName.getPrefixedName());
-      return new DomElementImpl(element);
+    lock.lockWrite();
+    try {
+      String prefix = resolvePrefix(null, namespaceUri);
+      Element element = document.createElementNS(namespaceUri, QName.combine(prefix, localName));
+      return getElementTable().forElement(element);
+    }
+    finally {
+      lock.unlockWrite();
+    }
+  }
+
+  public List<DomElement> createElements(String namespaceUri, String localName, int count) {
+    lock.lockWrite();
+    try {
+      String qualifiedName = QName.combine(resolvePrefix(null, namespaceUri), localName);
+      DomElementTable elementTable = getElementTable();
+      List<DomElement> elements = new ArrayList<DomElement>(count);
+      for (int i = 0; i < count; i++) {
+        elements.add(elementTable.forElement(document.createElementNS(namespaceUri, qualifiedName)));
+      }
+      return elements;
+    }
+    finally {
+      lock.unlockWrite();
     }
   }
 
   public DomElement getElementById(String id) {
-    synchronized(document) {
-      Element element = document.getElementById(id);
+    lock.lockRead();
+    try {
+      Element element = getIdIndex().getElement(id);
       if (element != null) {
-        return new DomElementImpl(element);
+        return getElementTable().forElement(element);
       }
       else {
         return null;
       }
     }
+    finally {
+      lock.unlockRead();
+    }
+  }
+
+  /**
+   * Finds the elements of multiple ids while holding the lock once.
+   *
+   * @param ids the ids to find
+   * @return the found elements by their id in the order of the given ids, ids without
+   *         an element are omitted
+   */
+  public Map<String, DomElement> getElementsByIds(Collection<String> ids) {
+    lock.lockRead();
+    try {
+      IdIndex idIndex = getIdIndex();
+      Map<String, DomElement> elements = new LinkedHashMap<String, DomElement>();
+      for (String id : ids) {
+        Element element = id != null ? idIndex.getElement(id) : null;
+        if (element != null) {
+          elements.put(id, getElementTable().forElement(element));
+        }
+      }
+      return elements;
+    }
+    finally {
+      lock.unlockRead();
+    }
+  }
+
+  /**
+   * @return the ids which are used by more than one element of the document
+   */
+  public Set<String> getDuplicateIds() {
+    lock.lockRead();
+    try {
+      return getIdIndex().getDuplicateIds();
+    }
+    finally {
+      lock.unlockRead();
+    }
   }
 
   public List<DomElement> getElementsByNameNs(String namespaceUri, String localName) {
-    synchronized(document) {
-      NodeList elementsByTagNameNS = document.getElementsByTagNameNS(namespaceUri, localName);
-      return DomUtil.filterNodeListByName(elementsByTagNameNS, namespaceUri, localName);
+    lock.lockRead();
+    try {
+      Collection<Element> indexedElements = getElementNameIndex().getElements(namespaceUri, localName);
+      List<DomElement> elements = new ArrayList<DomElement>(indexedElements.size());
+      for (Element element : indexedElements) {
+        elements.add(getElementTable().forElement(element));
+      }
+      return elements;
+    }
+    finally {
+      lock.unlockRead();
+    }
+  }
+
+  /**
+   * Finds the elements of multiple names in document order while holding the lock once.
+   *
+   * @param localNamesByNamespace the local names of the elements by their namespace
+   * @return the elements with one of the names in document order
+   */
+  public List<DomElement> getElementsByNamesNs(Map<String, ? extends Collection<String>> localNamesByNamespace) {
+    lock.lockRead();
+    try {
+      List<Element> indexedElements = getElementNameIndex().getElements(localNamesByNamespace);
+      List<DomElement> elements = new ArrayList<DomElement>(indexedElements.size());
+      for (Element element : indexedElements) {
+        elements.add(getElementTable().forElement(element));
+      }
+      return elements;
+    }
+    finally {
+      lock.unlockRead();
     }
   }
 
@@ -101,7 +429,8 @@ public class DomDocumentImpl implements DomDocument {
   }
 
   public String registerNamespace(String namespaceUri) {
-    synchronized(document) {
+    lock.lockWrite();
+    try {
       DomElement rootElement = getRootElement();
       if (rootElement != null) {
         return rootElement.registerNamespace(namespaceUri);
@@ -110,10 +439,14 @@ public class DomDocumentImpl implements DomDocument {
         throw new ModelException("Unable to define a new namespace without a root document element");
       }
     }
+    finally {
+      lock.unlockWrite();
+    }
   }
 
   public void registerNamespace(String prefix, String namespaceUri) {
-    synchronized(document) {
+    lock.lockWrite();
+    try {
       DomElement rootElement = getRootElement();
       if (rootElement != null) {
         rootElement.registerNamespace(prefix, namespaceUri);
@@ -122,28 +455,134 @@ public class DomDocumentImpl implements DomDocument {
         throw new ModelException("Unable to define a new namespace without a root document element");
       }
     }
+    finally {
+      lock.unlockWrite();
+    }
   }
 
   protected String getUnusedGenericNsPrefix() {
-    synchronized(document) {
-      Element documentElement = document.getDocumentElement();
-      if (documentElement == null) {
-        return GENERIC_NS_PREFIX + "0";
+    lock.lockWrite();
+    try {
+      return getNamespaceTable().getUnusedGenericPrefix();
+    }
+    finally {
+      lock.unlockWrite();
+    }
+  }
+
+  /**
+   * Parses a XML fragment into a new element of this document. The element is not
+   * attached to the document yet. All namespaces which are in scope of the context
+   * element can be used inside the fragment without declaring them.
+   *
+   * @param contextElement the element which will be the parent of the fragment
+   * @param xmlFragment the XML fragment which contains a single element
+   * @return the new element owned by this document
+   */
+  public DomElement importFragment(DomElement contextElement, String xmlFragment) {
+    lock.lockWrite();
+    try {
+      Element context = ((DomElementImpl) contextElement).getElement();
+      Element fragmentElement = DomUtil.parseFragment(xmlFragment, DomUtil.getInScopeNamespaces(context));
+      Element element;
+      // importing calls the user data handlers registered in this document
+      synchronized(lock.getUserDataMonitor()) {
+        element = (Element) document.importNode(fragmentElement, true);
       }
-      else {
-        for (int i = 0; i < Integer.MAX_VALUE; i++) {
-          if (!documentElement.hasAttributeNS(XMLNS_ATTRIBUTE_NS_URI, GENERIC_NS_PREFIX + i)) {
-            return GENERIC_NS_PREFIX + i;
-          }
-        }
-        throw new ModelException("Unable to find an unused namespace prefix");
+      getNamespaceTable().added(element);
+      return getElementTable().forElement(element);
+    }
+    finally {
+      lock.unlockWrite();
+    }
+  }
+
+  /**
+   * Copies the subtree of an element into a new standalone document. All namespaces
+   * used by the subtree are declared on the new root element.
+   *
+   * @param element the element to copy
+   * @return the new document which contains a copy of the element as root element
+   */
+  public DomDocument extractFragment(DomElement element) {
+    lock.lockRead();
+    try {
+      Element sourceElement = ((DomElementImpl) element).getElement();
+      Document fragmentDocument = document.getImplementation().createDocument(null, null, null);
+      Element fragmentElement;
+      // importing calls the user data handlers of the source nodes
+      synchronized(lock.getUserDataMonitor()) {
+        fragmentElement = (Element) fragmentDocument.importNode(sourceElement, true);
+      }
+      fragmentDocument.appendChild(fragmentElement);
+      DomUtil.declareNamespaces(fragmentElement, DomUtil.getInScopeNamespaces(sourceElement));
+      DomUtil.minimizeNamespaceDeclarations(fragmentDocument);
+      return forDocument(fragmentDocument);
+    }
+    finally {
+      lock.unlockRead();
+    }
+  }
+
+  public Document exportDocument() {
+    lock.lockRead();
+    try {
+      // cloning calls the user data handlers of the source nodes
+      synchronized(lock.getUserDataMonitor()) {
+        return (Document) document.cloneNode(true);
       }
     }
+    finally {
+      lock.unlockRead();
+    }
+  }
+
+  /**
+   * Does nothing, as the element table keeps the wrappers of the attached elements and
+   * therefore their model element instances anyway.
+   */
+  public void retainModelElementInstances() {
   }
 
   public DomDocument clone() {
-    synchronized(document) {
-      return new DomDocumentImpl((Document) document.cloneNode(true));
+    lock.lockRead();
+    try {
+      // cloning calls the user data handlers of the source nodes
+      Document clonedDocument;
+      synchronized(lock.getUserDataMonitor()) {
+        clonedDocument = (Document) document.cloneNode(true);
+      }
+      Element documentElement = document.getDocumentElement();
+      if (documentElement != null) {
+        copyIdAttributes(documentElement, clonedDocument.getDocumentElement());
+      }
+      return forDocument(clonedDocument, lock.isThreadConfined());
+    }
+    finally {
+      lock.unlockRead();
+    }
+  }
+
+  /**
+   * Marks the id attributes of a cloned element and its descendants, as a clone only
+   * keeps the ids known to the document but not the flags of the attributes.
+   */
+  protected static void copyIdAttributes(Element element, Element clonedElement) {
+    NamedNodeMap attributes = element.getAttributes();
+    for (int i = 0; i < attributes.getLength(); i++) {
+      Attr attribute = (Attr) attributes.item(i);
+      if (attribute.isId()) {
+        clonedElement.setIdAttributeNS(attribute.getNamespaceURI(), attribute.getLocalName(), true);
+      }
+    }
+    Node child = element.getFirstChild();
+    Node clonedChild = clonedElement.getFirstChild();
+    while (child != null) {
+      if (child.getNodeType() == Node.ELEMENT_NODE) {
+        copyIdAttributes((Element) child, (Element) clonedChild);
+      }
+      child = child.getNextSibling();
+      clonedChild = clonedChild.getNextSibling();
     }
   }
 
@@ -18,7 +18,11 @@ package org.camunda.bpm.model.xml.impl.instance;
 
 import org.camunda.bpm.model.xml.ModelException;
 import org.camunda.bpm.model.xml.impl.ModelInstanceImpl;
-import org.camunda.bpm.model.xml.impl.util.DomUtil;
+import org.camunda.bpm.model.xml.impl.util.DomUtil.ElementByNameListFilter;
+import org.camunda.bpm.model.xml.impl.util.DomUtil.ElementNodeListFilter;
+import org.camunda.bpm.model.xml.impl.util.DomUtil.NodeListFilter;
+import org.camunda.bpm.model.xml.impl.util.ModelUtil;
+import org.camunda.bpm.model.xml.impl.util.QName;
 import org.camunda.bpm.model.xml.impl.util.XmlQName;
 import org.camunda.bpm.model.xml.instance.DomDocument;
 import org.camunda.bpm.model.xml.instance.DomElement;
@@ -28,6 +32,7 @@ import org.w3c.dom.*;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import static javax.xml.XMLConstants.XMLNS_ATTRIBUTE;
 import static javax.xml.XMLConstants.XMLNS_ATTRIBUTE_NS_URI;
@@ -35,16 +40,49 @@ import static javax.xml.XMLConstants.XMLNS_ATTRIBUTE_NS_URI;
 /**
  * @author Sebastian Menski
  */
-public class DomElementImpl implements DomElement {
+public class DomElementImpl implements ConcurrentDomElement, NavigableDomElement {
 
-  private static final String MODEL_ELEMENT_KEY = "camunda.modelElementRef";
+  private static final AtomicReferenceFieldUpdater<DomElementImpl, ModelElementInstance> MODEL_ELEMENT_INSTANCE =
+    AtomicReferenceFieldUpdater.newUpdater(DomElementImpl.class, ModelElementInstance.class, "modelElementInstance");
 
   private final Element element;
   private final Document document;
+  private final DocumentLock lock;
+  private final DomElementTable elementTable;
+  private final boolean canonical;
+
+  /**
+   * Only set on the canonical wrapper of the element.
+   */
+  private volatile ModelElementInstance modelElementInstance;
+
+  /**
+   * Only set on other wrappers, it keeps the canonical wrapper and therefore the model element
+   * instance referenced as long as this wrapper is used.
+   */
+  private volatile DomElementImpl canonicalElement;
 
   public DomElementImpl(Element element) {
+    this(element, DomDocumentImpl.forDocument(element.getOwnerDocument()).getElementTable(), false);
+  }
+
+  protected DomElementImpl(Element element, DomElementTable elementTable, boolean canonical) {
     this.element = element;
     this.document = element.getOwnerDocument();
+    this.lock = elementTable.getDocument().getLock();
+    this.elementTable = elementTable;
+    this.canonical = canonical;
+  }
+
+  /**
+   * Returns the canonical wrapper of a DOM element. The wrapper is created on the
+   * first call for an element and every later call returns the same instance.
+   *
+   * @param element the element to wrap
+   * @return the canonical wrapper of the element
+   */
+  public static DomElementImpl forElement(Element element) {
+    return DomDocumentImpl.forDocument(element.getOwnerDocument()).getElementTable().forElement(element);
   }
 
   protected Element getElement() {
@@ -52,37 +90,54 @@ public class DomElementImpl implements DomElement {
   }
 
   public String getNamespaceURI() {
-    synchronized(document) {
+    lock.lockRead();
+    try {
       return element.getNamespaceURI();
     }
+    finally {
+      lock.unlockRead();
+    }
   }
 
   public String getLocalName() {
-    synchronized(document) {
+    lock.lockRead();
+    try {
       return element.getLocalName();
     }
+    finally {
+      lock.unlockRead();
+    }
   }
 
   public String getPrefix() {
-    synchronized(document) {
+    lock.lockRead();
+    try {
       return element.getPrefix();
     }
+    finally {
+      lock.unlockRead();
+    }
   }
 
   public DomDocument getDocument() {
-    synchronized(document) {
+    lock.lockRead();
+    try {
       Document ownerDocument = element.getOwnerDocument();
       if (ownerDocument != null) {
-        return new DomDocumentImpl(ownerDocument);
+        return getDomDocument();
       }
       else {
         return null;
       }
     }
+    finally {
+      lock.unlockRead();
+    }
   }
 
   public DomElement getRootElement() {
-    synchronized(document) {
+    lock.lockRead();
+    try {
       DomDocument document = getDocument();
       if (document != null) {
         return document.getRootElement();
@@ -91,31 +146,76 @@ public class DomElementImpl implements DomElement {
         return null;
       }
     }
+    finally {
+      lock.unlockRead();
+    }
   }
 
   public DomElement getParentElement() {
-    synchronized(document) {
+    lock.lockRead();
+    try {
       Node parentNode = element.getParentNode();
       if (parentNode != null && parentNode instanceof Element) {
-        return new DomElementImpl((Element) parentNode);
+        return elementTable.forElement((Element) parentNode);
       }
       else {
         return null;
       }
     }
+    finally {
+      lock.unlockRead();
+    }
+  }
+
+  public DomElement getFirstChildElement() {
+    lock.lockRead();
+    try {
+      return getElementFrom(element.getFirstChild());
+    }
+    finally {
+      lock.unlockRead();
+    }
+  }
+
+  public DomElement getNextSiblingElement() {
+    lock.lockRead();
+    try {
+      return getElementFrom(element.getNextSibling());
+    }
+    finally {
+      lock.unlockRead();
+    }
+  }
+
+  /**
+   * @return the wrapper of the first element which is the node or one of its following siblings, or null if none
+   */
+  protected DomElement getElementFrom(Node node) {
+    for (Node sibling = node; sibling != null; sibling = sibling.getNextSibling()) {
+      if (sibling.getNodeType() == Node.ELEMENT_NODE) {
+        return elementTable.forElement((Element) sibling);
+      }
+    }
+    return null;
   }
 
   public List<DomElement> getChildElements() {
-    synchronized(document) {
-      NodeList childNodes = element.getChildNodes();
-      return DomUtil.filterNodeListForElements(childNodes);
+    lock.lockRead();
+    try {
+      return filterChildElements(new ElementNodeListFilter());
+    }
+    finally {
+      lock.unlockRead();
     }
   }
 
   public List<DomElement> getChildElementsByNameNs(String namespaceUri, String elementName) {
-    synchronized(document) {
-      NodeList childNodes = element.getChildNodes();
-      return DomUtil.filterNodeListByName(childNodes, namespaceUri, elementName);
+    lock.lockRead();
+    try {
+      return filterChildElements(new ElementByNameListFilter(elementName, namespaceUri));
+    }
+    finally {
+      lock.unlockRead();
     }
   }
 
@@ -131,48 +231,100 @@ public class DomElementImpl implements DomElement {
   }
 
   public List<DomElement> getChildElementsByType(ModelInstanceImpl modelInstance, Class<? extends ModelElementInstance> elementType) {
-    synchronized(document) {
-      NodeList childNodes = element.getChildNodes();
-      return DomUtil.filterNodeListByType(childNodes, modelInstance, elementType);
+    lock.lockRead();
+    try {
+      List<DomElement> childElements = new ArrayList<DomElement>();
+      for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+        if (child.getNodeType() == Node.ELEMENT_NODE) {
+          DomElement childElement = elementTable.forElement((Element) child);
+          if (ModelUtil.isModelElementOfType(childElement, modelInstance, elementType)) {
+            childElements.add(childElement);
+          }
+        }
+      }
+      return childElements;
+    }
+    finally {
+      lock.unlockRead();
     }
   }
 
+  /**
+   * Filters the child elements by traversing the siblings instead of the child
+   * node list, as node lists share a cache which is modified by reads.
+   */
+  private List<DomElement> filterChildElements(NodeListFilter filter) {
+    List<DomElement> childElements = new ArrayList<DomElement>();
+    for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+      if (filter.matches(child)) {
+        childElements.add(elementTable.forElement((Element) child));
+      }
+    }
+    return childElements;
+  }
+
   public void replaceChild(DomElement newChildDomElement, DomElement existingChildDomElement) {
-    synchronized(document) {
+    lock.lockStructureWrite();
+    try {
       Element newElement = ((DomElementImpl) newChildDomElement).getElement();
       Element existingElement = ((DomElementImpl) existingChildDomElement).getElement();
+      DomDocumentImpl domDocument = getDomDocument();
+      boolean attached = domDocument.isAttached(element);
+      boolean newElementAttached = domDocument.isAttached(newElement);
       try {
         element.replaceChild(newElement, existingElement);
+        domDocument.elementMoved(existingElement, attached);
+        domDocument.elementMoved(newElement, newElementAttached);
       }
       catch (DOMException e) {
         throw new ModelException("Unable to replace child <" + existingElement + "> of element <" + element + "> with element <" + newElement + ">", e);
       }
     }
+    finally {
+      lock.unlockWrite();
+    }
   }
 
   public boolean removeChild(DomElement childDomElement) {
-    synchronized(document) {
+    lock.lockStructureWrite();
+    try {
       Element childElement = ((DomElementImpl) childDomElement).getElement();
+      DomDocumentImpl domDocument = getDomDocument();
+      boolean attached = domDocument.isAttached(element);
       try {
         element.removeChild(childElement);
+        domDocument.elementMoved(childElement, attached);
         return true;
       }
       catch (DOMException e) {
         return false;
       }
     }
+    finally {
+      lock.unlockWrite();
+    }
   }
 
   public void appendChild(DomElement childDomElement) {
-    synchronized(document) {
+    lock.lockStructureWrite();
+    try {
       Element childElement = ((DomElementImpl) childDomElement).getElement();
+      DomDocumentImpl domDocument = getDomDocument();
+      boolean attached = domDocument.isAttached(childElement);
       element.appendChild(childElement);
+      domDocument.elementMoved(childElement, attached);
+    }
+    finally {
+      lock.unlockWrite();
     }
   }
 
   public void insertChildElementAfter(DomElement elementToInsert, DomElement insertAfter) {
-    synchronized(document) {
+    lock.lockStructureWrite();
+    try {
       Element newElement = ((DomElementImpl) elementToInsert).getElement();
+      DomDocumentImpl domDocument = getDomDocument();
+      boolean attached = domDocument.isAttached(newElement);
       // find node to insert before
       Node insertBeforeNode;
       if (insertAfter == null) {
@@ -189,6 +341,10 @@ public class DomElementImpl implements DomElement {
       else {
         element.appendChild(newElement);
       }
+      domDocument.elementMoved(newElement, attached);
+    }
+    finally {
+      lock.unlockWrite();
     }
   }
 
@@ -197,9 +353,13 @@ public class DomElementImpl implements DomElement {
   }
 
   public boolean hasAttribute(String namespaceUri, String localName) {
-    synchronized(document) {
+    lock.lockRead();
+    try {
       return element.hasAttributeNS(namespaceUri, localName);
     }
+    finally {
+      lock.unlockRead();
+    }
   }
 
   public String getAttribute(String attributeName) {
@@ -208,15 +368,9 @@ public class DomElementImpl implements DomElement {
 
 
   public String getAttribute(String namespaceUri, String localName) {
-    synchronized(document) {
-      XmlQName xmlQName = new XmlQName(this, namespaceUri, localName);
-      String value;
-      if (xmlQName.hasLocalNamespace()) {
-        value = element.getAttributeNS(null, xmlQName.getLocalName());
-      }
-      else {
-        value = element.getAttributeNS(xmlQName.getNamespaceUri(), xmlQName.getLocalName());
-      }
+    lock.lockRead();
+    try {
+      String value = getAttributeValue(namespaceUri, localName);
       if (value.isEmpty()) {
         return null;
       }
@@ -224,6 +378,62 @@ public class DomElementImpl implements DomElement {
         return value;
       }
     }
+    finally {
+      lock.unlockRead();
+    }
+  }
+
+  /**
+   * Returns the value of an attribute which can be set in one of multiple namespaces.
+   *
+   * @param namespaceUris the namespaces to check in order, may contain null for no namespace
+   * @param localName the local name of the attribute
+   * @return the value in the first namespace the attribute is set in or null if it is not set
+   */
+  public String getFirstAttribute(String[] namespaceUris, String localName) {
+    lock.lockRead();
+    try {
+      for (String namespaceUri : namespaceUris) {
+        String value = getAttributeValue(namespaceUri, localName);
+        if (!value.isEmpty()) {
+          return value;
+        }
+      }
+      return null;
+    }
+    finally {
+      lock.unlockRead();
+    }
+  }
+
+  /**
+   * @param namespaceUris the namespaces to check in order, may contain null for no namespace
+   * @param localName the local name of the attribute
+   * @return the index of the first namespace the attribute is set in or -1 if it is not set
+   */
+  public int indexOfAttribute(String[] namespaceUris, String localName) {
+    lock.lockRead();
+    try {
+      for (int i = 0; i < namespaceUris.length; i++) {
+        if (!getAttributeValue(namespaceUris[i], localName).isEmpty()) {
+          return i;
+        }
+      }
+      return -1;
+    }
+    finally {
+      lock.unlockRead();
+    }
+  }
+
+  private String getAttributeValue(String namespaceUri, String localName) {
+    if (hasLocalNamespace(namespaceUri)) {
+      // attributes in the namespace of their element are stored without namespace
+      return element.getAttributeNS(null, localName);
+    }
+    else {
+      return element.getAttributeNS(namespaceUri, localName);
+    }
   }
 
   public void setAttribute(String localName, String value) {
@@ -235,21 +445,41 @@ public class DomElementImpl implements DomElement {
   }
 
   private void setAttribute(String namespaceUri, String localName, String value, boolean isIdAttribute) {
-    synchronized(document) {
-      XmlQName xmlQName = new XmlQName(this, namespaceUri, localName);
-      if (xmlQName.hasLocalNamespace()) {
-        element.setAttributeNS(null, xmlQName.getLocalName(), value);
+    lock.lockWrite();
+    try {
+      Attr attribute = hasLocalNamespace(namespaceUri)
+        ? element.getAttributeNodeNS(null, localName)
+        : element.getAttributeNodeNS(namespaceUri, localName);
+      if (attribute != null) {
+        // an existing attribute keeps its prefix, so it does not have to be resolved
+        String previousId = attribute.isId() ? attribute.getValue() : null;
+        attribute.setValue(value);
+        if (isIdAttribute && !attribute.isId()) {
+          element.setIdAttributeNode(attribute, true);
+        }
+        if (previousId != null || isIdAttribute) {
+          updateIdIndex(previousId, value);
+        }
+      }
+      else if (hasLocalNamespace(namespaceUri)) {
+        element.setAttributeNS(null, localName, value);
         if (isIdAttribute) {
-          element.setIdAttributeNS(null, xmlQName.getLocalName(), true);
+          element.setIdAttributeNS(null, localName, true);
+          updateIdIndex(null, value);
         }
       }
       else {
-        element.setAttributeNS(xmlQName.getNamespaceUri(), xmlQName.getPrefixedName(), value);
+        String prefix = getDomDocument().resolvePrefix(this, namespaceUri);
+        element.setAttributeNS(namespaceUri, QName.combine(prefix, localName), value);
         if (isIdAttribute) {
-          element.setIdAttributeNS(xmlQName.getNamespaceUri(), xmlQName.getLocalName(), true);
+          element.setIdAttributeNS(namespaceUri, localName, true);
+          updateIdIndex(null, value);
         }
       }
     }
+    finally {
+      lock.unlockWrite();
+    }
   }
 
   public void setIdAttribute(String localName, String value) {
@@ -265,62 +495,152 @@ public class DomElementImpl implements DomElement {
   }
 
   public void removeAttribute(String namespaceUri, String localName) {
-    synchronized(document) {
-      XmlQName xmlQName = new XmlQName(this, namespaceUri, localName);
-      if (xmlQName.hasLocalNamespace()) {
-        element.removeAttributeNS(null, xmlQName.getLocalName());
+    lock.lockWrite();
+    try {
+      Attr attribute = hasLocalNamespace(namespaceUri)
+        ? element.getAttributeNodeNS(null, localName)
+        : element.getAttributeNodeNS(namespaceUri, localName);
+      if (attribute != null && attribute.isId()) {
+        updateIdIndex(attribute.getValue(), null);
+      }
+      if (hasLocalNamespace(namespaceUri)) {
+        element.removeAttributeNS(null, localName);
       }
       else {
-        element.removeAttributeNS(xmlQName.getNamespaceUri(), xmlQName.getLocalName());
+        element.removeAttributeNS(namespaceUri, localName);
+        if (XMLNS_ATTRIBUTE_NS_URI.equals(namespaceUri)) {
+          // a namespace declaration was removed
+          getDomDocument().getNamespaceTable().invalidate();
+        }
       }
     }
+    finally {
+      lock.unlockWrite();
+    }
   }
 
   public String getTextContent() {
-    synchronized(document) {
+    lock.lockRead();
+    try {
       return element.getTextContent();
     }
+    finally {
+      lock.unlockRead();
+    }
   }
 
   public void setTextContent(String textContent) {
-    synchronized(document) {
+    lock.lockStructureWrite();
+    try {
+      DomDocumentImpl domDocument = getDomDocument();
+      if (domDocument.isAttached(element)) {
+        // the child elements are replaced by the text
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+          if (child.getNodeType() == Node.ELEMENT_NODE) {
+            domDocument.elementRemoved((Element) child);
+          }
+        }
+      }
       element.setTextContent(textContent);
     }
+    finally {
+      lock.unlockWrite();
+    }
   }
 
   public void addCDataSection(String data) {
-    synchronized (document) {
+    lock.lockWrite();
+    try {
       CDATASection cdataSection = document.createCDATASection(data);
       element.appendChild(cdataSection);
     }
+    finally {
+      lock.unlockWrite();
+    }
   }
 
   public ModelElementInstance getModelElementInstance() {
-    synchronized(document) {
-      return (ModelElementInstance) element.getUserData(MODEL_ELEMENT_KEY);
-    }
+    return getCanonicalElement().modelElementInstance;
   }
 
   public void setModelElementInstance(ModelElementInstance modelElementInstance) {
-    synchronized(document) {
-      element.setUserData(MODEL_ELEMENT_KEY, modelElementInstance, null);
+    getCanonicalElement().modelElementInstance = modelElementInstance;
+  }
+
+  public ModelElementInstance putModelElementInstanceIfAbsent(ModelElementInstance modelElementInstance) {
+    DomElementImpl canonicalElement = getCanonicalElement();
+    if (MODEL_ELEMENT_INSTANCE.compareAndSet(canonicalElement, null, modelElementInstance)) {
+      return null;
+    }
+    else {
+      return canonicalElement.modelElementInstance;
     }
   }
 
+  protected DomDocumentImpl getDomDocument() {
+    return elementTable.getDocument();
+  }
+
+  /**
+   * @return the id index of the document if it has to be kept in sync, otherwise null
+   */
+  protected IdIndex getBuiltIdIndex() {
+    IdIndex idIndex = getDomDocument().getIdIndex();
+    return idIndex.isBuilt() ? idIndex : null;
+  }
+
+  /**
+   * Updates the id index after an id of this element was changed.
+   *
+   * @param previousId the previous id or null if the element had none
+   * @param id the new id or null if it was removed
+   */
+  protected void updateIdIndex(String previousId, String id) {
+    IdIndex idIndex = getBuiltIdIndex();
+    if (idIndex != null && idIndex.isAttached(element)) {
+      if (previousId != null) {
+        idIndex.remove(previousId, element);
+      }
+      if (id != null) {
+        idIndex.add(id, element);
+      }
+    }
+  }
+
+  protected boolean hasLocalNamespace(String namespaceUri) {
+    return namespaceUri != null && namespaceUri.equals(element.getNamespaceURI());
+  }
+
+  /**
+   * @return this wrapper if it is canonical, otherwise the canonical wrapper of the same element
+   */
+  protected DomElementImpl getCanonicalElement() {
+    if (canonical) {
+      return this;
+    }
+    DomElementImpl canonicalElement = this.canonicalElement;
+    if (canonicalElement == null) {
+      canonicalElement = elementTable.forElement(element);
+      this.canonicalElement = canonicalElement;
+    }
+    return canonicalElement;
+  }
+
   public String registerNamespace(String namespaceUri) {
-    synchronized(document) {
-      String lookupPrefix = lookupPrefix(namespaceUri);
+    lock.lockWrite();
+    try {
+      DomDocumentImpl domDocument = getDomDocument();
+      String lookupPrefix = domDocument.lookupPrefix(this, namespaceUri);
       if (lookupPrefix == null) {
         // check if a prefix is known
         String prefix = XmlQName.KNOWN_PREFIXES.get(namespaceUri);
         // check if prefix is not already used
-        if (prefix != null && getRootElement() != null &&
-          getRootElement().hasAttribute(XMLNS_ATTRIBUTE_NS_URI, prefix)) {
+        if (prefix != null && domDocument.getNamespaceTable().isDeclared(prefix)) {
           prefix = null;
         }
         if (prefix == null) {
           // generate prefix
-          prefix = ((DomDocumentImpl) getDocument()).getUnusedGenericNsPrefix();
+          prefix = domDocument.getUnusedGenericNsPrefix();
         }
         registerNamespace(prefix, namespaceUri);
         return prefix;
@@ -329,18 +649,30 @@ public class DomElementImpl implements DomElement {
         return lookupPrefix;
       }
     }
+    finally {
+      lock.unlockWrite();
+    }
   }
 
   public void registerNamespace(String prefix, String namespaceUri) {
-    synchronized(document) {
+    lock.lockWrite();
+    try {
       element.setAttributeNS(XMLNS_ATTRIBUTE_NS_URI, XMLNS_ATTRIBUTE + ":" + prefix, namespaceUri);
+      getDomDocument().getNamespaceTable().declared(element, prefix, namespaceUri);
+    }
+    finally {
+      lock.unlockWrite();
     }
   }
 
   public String lookupPrefix(String namespaceUri) {
-    synchronized(document) {
+    lock.lockRead();
+    try {
       return element.lookupPrefix(namespaceUri);
     }
+    finally {
+      lock.unlockRead();
+    }
   }
 
   public boolean equals(Object o) {
@@ -0,0 +1,223 @@
+/*
+ * Copyright Camunda Services GmbH and/or licensed to Camunda Services GmbH
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. Camunda licenses this file to you under the Apache License,
+ * Version 2.0; you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.camunda.bpm.model.xml.impl.instance;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * The canonical {@link DomElementImpl wrappers} of the elements of a document, which carry
+ * the model element instances of the elements. It replaces the user data of the DOM, which
+ * is stored in an unsynchronized map of the document, so that wrappers are looked up
+ * without locking and every element gets exactly one wrapper, even if it is wrapped by
+ * concurrent readers.
+ *
+ * <p>DOM nodes do not override {@link Object#equals(Object)}, so the elements are compared
+ * by identity. The wrappers of the elements which are part of the document are referenced
+ * strongly, so an element keeps its wrapper and model element instance as long as it is
+ * attached, like the user data kept them before. Once an element is removed through its
+ * wrapper, the wrappers of the element and its descendants are only referenced weakly, so
+ * that they are collected with the removed elements unless they are still used. A wrapper
+ * is referenced strongly again if its element is inserted into the document again.</p>
+ */
+public class DomElementTable {
+
+  protected final DomDocumentImpl document;
+  protected final ConcurrentMap<ElementKey, WrapperReference> elements = new ConcurrentHashMap<ElementKey, WrapperReference>();
+  protected final ReferenceQueue<DomElementImpl> collectedWrappers = new ReferenceQueue<DomElementImpl>();
+
+  /**
+   * @param document the canonical wrapper of the document
+   */
+  public DomElementTable(DomDocumentImpl document) {
+    this.document = document;
+  }
+
+  /**
+   * @return the canonical wrapper of the document
+   */
+  public DomDocumentImpl getDocument() {
+    return document;
+  }
+
+  /**
+   * Returns the canonical wrapper of an element of the document. The wrapper is created on
+   * the first call for an element and every later call returns the same instance as long as
+   * the element is attached or the wrapper is referenced.
+   *
+   * @param element the element to wrap
+   * @return the canonical wrapper of the element
+   */
+  public DomElementImpl forElement(Element element) {
+    expungeCollectedWrappers();
+    ElementKey lookupKey = new LookupKey(element);
+    while (true) {
+      WrapperReference reference = elements.get(lookupKey);
+      DomElementImpl domElement = reference != null ? reference.get() : null;
+      if (domElement != null) {
+        return domElement;
+      }
+
+      DomElementImpl newDomElement = new DomElementImpl(element, this, true);
+      boolean attached = document.isAttached(element);
+      if (reference == null) {
+        WeakElementKey key = new WeakElementKey(element);
+        if (elements.putIfAbsent(key, new WrapperReference(newDomElement, key, collectedWrappers, attached)) == null) {
+          return newDomElement;
+        }
+      }
+      else if (elements.replace(reference.key, reference, new WrapperReference(newDomElement, reference.key, collectedWrappers, attached))) {
+        return newDomElement;
+      }
+      // another thread published a wrapper first
+    }
+  }
+
+  /**
+   * References the existing wrappers of an element and its descendants strongly while they
+   * are attached to the document and only weakly once they were removed from it. Must only
+   * be called while holding the write lock.
+   *
+   * @param element the element which was added to or removed from the document
+   * @param attached true if the element is part of the document now
+   */
+  protected void attachmentChanged(Element element, boolean attached) {
+    WrapperReference reference = elements.get(new LookupKey(element));
+    if (reference != null) {
+      reference.attachedElement = attached ? reference.get() : null;
+    }
+    for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+      if (child.getNodeType() == Node.ELEMENT_NODE) {
+        attachmentChanged((Element) child, attached);
+      }
+    }
+  }
+
+  /**
+   * Removes the entries of collected wrappers, unless the entry was already replaced by a
+   * new wrapper of the same element.
+   */
+  protected void expungeCollectedWrappers() {
+    WrapperReference reference;
+    while ((reference = (WrapperReference) collectedWrappers.poll()) != null) {
+      elements.remove(reference.key, reference);
+    }
+  }
+
+  /**
+   * A key which compares elements by identity.
+   */
+  protected interface ElementKey {
+
+    /**
+     * @return the element of the key or null if it was collected
+     */
+    Element getElement();
+
+  }
+
+  protected static boolean equalKeys(ElementKey key, Object other) {
+    if (key == other) {
+      return true;
+    }
+    if (!(other instanceof ElementKey)) {
+      return false;
+    }
+    Element element = key.getElement();
+    return element != null && element == ((ElementKey) other).getElement();
+  }
+
+  /**
+   * A short-lived key to look up an element, which does not need to be referenced weakly.
+   */
+  protected static class LookupKey implements ElementKey {
+
+    protected final Element element;
+
+    public LookupKey(Element element) {
+      this.element = element;
+    }
+
+    public Element getElement() {
+      return element;
+    }
+
+    public int hashCode() {
+      return System.identityHashCode(element);
+    }
+
+    public boolean equals(Object obj) {
+      return equalKeys(this, obj);
+    }
+
+  }
+
+  /**
+   * The key of an entry, which references its element weakly. The hash code is kept, so
+   * that the entry can still be removed after the element was collected.
+   */
+  protected static class WeakElementKey extends WeakReference<Element> implements ElementKey {
+
+    protected final int hashCode;
+
+    public WeakElementKey(Element element) {
+      super(element);
+      this.hashCode = System.identityHashCode(element);
+    }
+
+    public Element getElement() {
+      return get();
+    }
+
+    public int hashCode() {
+      return hashCode;
+    }
+
+    public boolean equals(Object obj) {
+      return equalKeys(this, obj);
+    }
+
+  }
+
+  /**
+   * The value of an entry, which references the wrapper weakly and knows its key, so that
+   * the entry can be removed once the wrapper was collected. While the element is attached
+   * the wrapper is also referenced strongly, so that it cannot be collected.
+   */
+  protected static class WrapperReference extends WeakReference<DomElementImpl> {
+
+    protected final WeakElementKey key;
+
+    /**
+     * The wrapper while its element is attached to the document, otherwise null.
+     */
+    protected DomElementImpl attachedElement;
+
+    public WrapperReference(DomElementImpl domElement, WeakElementKey key, ReferenceQueue<DomElementImpl> queue, boolean attached) {
+      super(domElement, queue);
+      this.key = key;
+      this.attachedElement = attached ? domElement : null;
+    }
+
+  }
+
+}
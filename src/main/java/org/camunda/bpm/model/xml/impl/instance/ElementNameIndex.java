@@ -0,0 +1,330 @@
+/*
+ * Copyright Camunda Services GmbH and/or licensed to Camunda Services GmbH
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. Camunda licenses this file to you under the Apache License,
+ * Version 2.0; you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.camunda.bpm.model.xml.impl.instance;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * The elements of a document by their namespace and local name in document order, so that
+ * the elements of a type can be found without traversing the whole document.
+ *
+ * <p>Every element gets a stamp which increases in document order, so that the elements of
+ * multiple names can be merged in document order. The stamps leave gaps, so that elements
+ * can be inserted without renumbering the other elements. If an element is inserted before
+ * other elements with the same name, the order of these elements is restored by sorting
+ * them on the next lookup of the name. If there is no gap left, the index is built again.</p>
+ */
+public class ElementNameIndex extends DocumentIndex {
+
+  protected static final long STAMP_GAP = 1L << 16;
+
+  protected static final Comparator<Map.Entry<Element, Long>> STAMP_ORDER = new Comparator<Map.Entry<Element, Long>>() {
+    public int compare(Map.Entry<Element, Long> entry, Map.Entry<Element, Long> otherEntry) {
+      return entry.getValue().compareTo(otherEntry.getValue());
+    }
+  };
+
+  /**
+   * The elements by namespace and local name, null if the index has to be built.
+   */
+  protected volatile Map<String, Map<String, ElementBucket>> elementsByName;
+
+  /**
+   * The stamp of the last element in document order.
+   */
+  protected long lastStamp;
+
+  public ElementNameIndex(Document document) {
+    super(document);
+  }
+
+  /**
+   * @param namespaceUri the namespace of the elements
+   * @param localName the local name of the elements
+   * @return a copy of the elements with the name in document order
+   */
+  public Collection<Element> getElements(String namespaceUri, String localName) {
+    ElementBucket bucket = getBucket(ensureBuilt(), namespaceUri, localName);
+    if (bucket == null) {
+      return Collections.emptySet();
+    }
+    else {
+      return new ArrayList<Element>(getOrderedStamps(bucket).keySet());
+    }
+  }
+
+  /**
+   * @param localNamesByNamespace the local names of the elements by their namespace
+   * @return the elements with one of the names in document order
+   */
+  public List<Element> getElements(Map<String, ? extends Collection<String>> localNamesByNamespace) {
+    Map<String, Map<String, ElementBucket>> index = ensureBuilt();
+    List<Map<Element, Long>> buckets = new ArrayList<Map<Element, Long>>();
+    int size = 0;
+    for (Map.Entry<String, ? extends Collection<String>> localNames : localNamesByNamespace.entrySet()) {
+      for (String localName : localNames.getValue()) {
+        ElementBucket bucket = getBucket(index, localNames.getKey(), localName);
+        if (bucket != null) {
+          Map<Element, Long> stamps = getOrderedStamps(bucket);
+          if (!stamps.isEmpty()) {
+            buckets.add(stamps);
+            size += stamps.size();
+          }
+        }
+      }
+    }
+
+    if (buckets.isEmpty()) {
+      return new ArrayList<Element>();
+    }
+    else if (buckets.size() == 1) {
+      return new ArrayList<Element>(buckets.get(0).keySet());
+    }
+    else {
+      // every bucket is sorted already, so the merge sort only has to merge the runs
+      List<Map.Entry<Element, Long>> entries = new ArrayList<Map.Entry<Element, Long>>(size);
+      for (Map<Element, Long> stamps : buckets) {
+        entries.addAll(stamps.entrySet());
+      }
+      Collections.sort(entries, STAMP_ORDER);
+      List<Element> elements = new ArrayList<Element>(size);
+      for (Map.Entry<Element, Long> entry : entries) {
+        elements.add(entry.getKey());
+      }
+      return elements;
+    }
+  }
+
+  public void added(Element element) {
+    Map<String, Map<String, ElementBucket>> index = elementsByName;
+    if (index == null) {
+      return;
+    }
+
+    List<Element> addedElements = new ArrayList<Element>();
+    collectSubtree(element, addedElements);
+
+    Element followingElement = getFollowingElement(element);
+    if (followingElement == null) {
+      // appended after the last element of the document
+      for (Element addedElement : addedElements) {
+        lastStamp += STAMP_GAP;
+        add(index, addedElement, lastStamp);
+      }
+    }
+    else {
+      Element precedingElement = getPrecedingElement(element);
+      Long upperStamp = getStamp(index, followingElement);
+      Long lowerStamp = null;
+      if (precedingElement != null) {
+        lowerStamp = getStamp(index, precedingElement);
+      }
+      else if (upperStamp != null) {
+        lowerStamp = upperStamp - (addedElements.size() + 1) * STAMP_GAP;
+      }
+      long step = upperStamp == null || lowerStamp == null ? 0 : (upperStamp - lowerStamp) / (addedElements.size() + 1);
+      if (step < 1) {
+        // no gap left or the index does not know the neighbours
+        invalidate();
+        return;
+      }
+      long stamp = lowerStamp;
+      for (Element addedElement : addedElements) {
+        stamp += step;
+        add(index, addedElement, stamp);
+      }
+    }
+  }
+
+  public void removed(Element element) {
+    Map<String, Map<String, ElementBucket>> index = elementsByName;
+    if (index != null) {
+      ElementBucket bucket = getBucket(index, element.getNamespaceURI(), element.getLocalName());
+      if (bucket != null) {
+        bucket.stamps.remove(element);
+      }
+      for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+        if (child.getNodeType() == Node.ELEMENT_NODE) {
+          removed((Element) child);
+        }
+      }
+    }
+  }
+
+  public boolean isBuilt() {
+    return elementsByName != null;
+  }
+
+  public void invalidate() {
+    elementsByName = null;
+  }
+
+  protected Map<String, Map<String, ElementBucket>> ensureBuilt() {
+    Map<String, Map<String, ElementBucket>> index = elementsByName;
+    if (index == null) {
+      synchronized (this) {
+        index = elementsByName;
+        if (index == null) {
+          index = new HashMap<String, Map<String, ElementBucket>>();
+          List<Element> elements = new ArrayList<Element>();
+          Element documentElement = document.getDocumentElement();
+          if (documentElement != null) {
+            collectSubtree(documentElement, elements);
+          }
+          long stamp = 0;
+          for (Element element : elements) {
+            stamp += STAMP_GAP;
+            add(index, element, stamp);
+          }
+          lastStamp = stamp;
+          elementsByName = index;
+        }
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Sorts the stamps of the bucket if necessary. Readers may call this concurrently while
+   * holding the read lock, so the sorted stamps replace the stamps of the bucket instead of
+   * being sorted in place.
+   *
+   * @return the stamps of the bucket in document order
+   */
+  protected Map<Element, Long> getOrderedStamps(ElementBucket bucket) {
+    if (!bucket.ordered) {
+      synchronized (this) {
+        if (!bucket.ordered) {
+          List<Map.Entry<Element, Long>> entries = new ArrayList<Map.Entry<Element, Long>>(bucket.stamps.entrySet());
+          Collections.sort(entries, STAMP_ORDER);
+          Map<Element, Long> stamps = new LinkedHashMap<Element, Long>();
+          for (Map.Entry<Element, Long> entry : entries) {
+            stamps.put(entry.getKey(), entry.getValue());
+          }
+          bucket.stamps = stamps;
+          bucket.ordered = true;
+        }
+      }
+    }
+    return bucket.stamps;
+  }
+
+  protected static void add(Map<String, Map<String, ElementBucket>> index, Element element, long stamp) {
+    String namespaceUri = element.getNamespaceURI();
+    Map<String, ElementBucket> elementsByLocalName = index.get(namespaceUri);
+    if (elementsByLocalName == null) {
+      elementsByLocalName = new HashMap<String, ElementBucket>();
+      index.put(namespaceUri, elementsByLocalName);
+    }
+    String localName = element.getLocalName();
+    ElementBucket bucket = elementsByLocalName.get(localName);
+    if (bucket == null) {
+      bucket = new ElementBucket();
+      elementsByLocalName.put(localName, bucket);
+    }
+    if (stamp < bucket.lastStamp) {
+      bucket.ordered = false;
+    }
+    else {
+      bucket.lastStamp = stamp;
+    }
+    bucket.stamps.put(element, stamp);
+  }
+
+  protected static ElementBucket getBucket(Map<String, Map<String, ElementBucket>> index, String namespaceUri, String localName) {
+    Map<String, ElementBucket> elementsByLocalName = index.get(namespaceUri);
+    return elementsByLocalName != null ? elementsByLocalName.get(localName) : null;
+  }
+
+  protected static Long getStamp(Map<String, Map<String, ElementBucket>> index, Element element) {
+    ElementBucket bucket = getBucket(index, element.getNamespaceURI(), element.getLocalName());
+    return bucket != null ? bucket.stamps.get(element) : null;
+  }
+
+  protected static void collectSubtree(Element element, List<Element> elements) {
+    elements.add(element);
+    for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+      if (child.getNodeType() == Node.ELEMENT_NODE) {
+        collectSubtree((Element) child, elements);
+      }
+    }
+  }
+
+  /**
+   * @return the first element after the subtree of the element in document order or null if none
+   */
+  protected static Element getFollowingElement(Element element) {
+    Node node = element;
+    while (node != null && node.getNodeType() == Node.ELEMENT_NODE) {
+      for (Node sibling = node.getNextSibling(); sibling != null; sibling = sibling.getNextSibling()) {
+        if (sibling.getNodeType() == Node.ELEMENT_NODE) {
+          return (Element) sibling;
+        }
+      }
+      node = node.getParentNode();
+    }
+    return null;
+  }
+
+  /**
+   * @return the element before the element in document order or null if none
+   */
+  protected static Element getPrecedingElement(Element element) {
+    for (Node sibling = element.getPreviousSibling(); sibling != null; sibling = sibling.getPreviousSibling()) {
+      if (sibling.getNodeType() == Node.ELEMENT_NODE) {
+        return getLastDescendant((Element) sibling);
+      }
+    }
+    Node parent = element.getParentNode();
+    return parent != null && parent.getNodeType() == Node.ELEMENT_NODE ? (Element) parent : null;
+  }
+
+  protected static Element getLastDescendant(Element element) {
+    for (Node child = element.getLastChild(); child != null; child = child.getPreviousSibling()) {
+      if (child.getNodeType() == Node.ELEMENT_NODE) {
+        return getLastDescendant((Element) child);
+      }
+    }
+    return element;
+  }
+
+  /**
+   * The elements of one name with their stamps. They are in document order unless an
+   * element was inserted before other elements of the same name, then they are sorted
+   * on the next lookup. The stamps are volatile, because a reader replaces them with the
+   * sorted stamps while other readers may read them.
+   */
+  protected static class ElementBucket {
+
+    protected volatile Map<Element, Long> stamps = new LinkedHashMap<Element, Long>();
+    protected long lastStamp = Long.MIN_VALUE;
+    protected volatile boolean ordered = true;
+
+  }
+
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright Camunda Services GmbH and/or licensed to Camunda Services GmbH
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. Camunda licenses this file to you under the Apache License,
+ * Version 2.0; you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.camunda.bpm.model.xml.impl.instance;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * The elements of a document by their id. Like {@link Document#getElementById(String)} it
+ * contains the elements which are part of the document and have an attribute which is marked
+ * as id, but a lookup does not have to walk up the tree to check that the element is attached.
+ */
+public class IdIndex extends DocumentIndex {
+
+  /**
+   * The element of every id, or the {@link DuplicateElements} if the id is used more than once.
+   * Null if the index has to be built.
+   */
+  protected volatile Map<String, Object> elementsById;
+
+  public IdIndex(Document document) {
+    super(document);
+  }
+
+  /**
+   * @param id the id to find
+   * @return the element with the id or null if none, if the id is used more than
+   *         once the element which was registered last
+   */
+  public Element getElement(String id) {
+    Object element = ensureBuilt().get(id);
+    if (element instanceof DuplicateElements) {
+      DuplicateElements elements = (DuplicateElements) element;
+      return elements.get(elements.size() - 1);
+    }
+    else {
+      return (Element) element;
+    }
+  }
+
+  /**
+   * @return the ids which are used by more than one element of the document in natural order
+   */
+  public Set<String> getDuplicateIds() {
+    Set<String> duplicateIds = new TreeSet<String>();
+    for (Map.Entry<String, Object> entry : ensureBuilt().entrySet()) {
+      if (entry.getValue() instanceof DuplicateElements) {
+        duplicateIds.add(entry.getKey());
+      }
+    }
+    return duplicateIds;
+  }
+
+  /**
+   * Records an id of an element which is part of the document.
+   */
+  public void add(String id, Element element) {
+    if (elementsById != null) {
+      put(elementsById, id, element);
+    }
+  }
+
+  /**
+   * Records that an element which is part of the document no longer has the id.
+   */
+  public void remove(String id, Element element) {
+    if (elementsById != null) {
+      Object existing = elementsById.get(id);
+      if (existing == element) {
+        elementsById.remove(id);
+      }
+      else if (existing instanceof DuplicateElements) {
+        DuplicateElements elements = (DuplicateElements) existing;
+        elements.remove(element);
+        if (elements.size() == 1) {
+          elementsById.put(id, elements.get(0));
+        }
+      }
+    }
+  }
+
+  public void added(Element element) {
+    if (elementsById != null) {
+      collectIds(elementsById, element);
+    }
+  }
+
+  public void removed(Element element) {
+    if (elementsById != null) {
+      NamedNodeMap attributes = element.getAttributes();
+      for (int i = 0; i < attributes.getLength(); i++) {
+        Attr attribute = (Attr) attributes.item(i);
+        if (attribute.isId()) {
+          remove(attribute.getValue(), element);
+        }
+      }
+      for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+        if (child.getNodeType() == Node.ELEMENT_NODE) {
+          removed((Element) child);
+        }
+      }
+    }
+  }
+
+  public boolean isBuilt() {
+    return elementsById != null;
+  }
+
+  public void invalidate() {
+    elementsById = null;
+  }
+
+  protected Map<String, Object> ensureBuilt() {
+    Map<String, Object> index = elementsById;
+    if (index == null) {
+      synchronized (this) {
+        index = elementsById;
+        if (index == null) {
+          index = new HashMap<String, Object>();
+          Element documentElement = document.getDocumentElement();
+          if (documentElement != null) {
+            collectIds(index, documentElement);
+          }
+          elementsById = index;
+        }
+      }
+    }
+    return index;
+  }
+
+  protected static void collectIds(Map<String, Object> index, Element element) {
+    NamedNodeMap attributes = element.getAttributes();
+    for (int i = 0; i < attributes.getLength(); i++) {
+      Attr attribute = (Attr) attributes.item(i);
+      if (attribute.isId()) {
+        put(index, attribute.getValue(), element);
+      }
+    }
+    for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+      if (child.getNodeType() == Node.ELEMENT_NODE) {
+        collectIds(index, (Element) child);
+      }
+    }
+  }
+
+  protected static void put(Map<String, Object> index, String id, Element element) {
+    Object existing = index.put(id, element);
+    if (existing != null && existing != element) {
+      DuplicateElements elements;
+      if (existing instanceof DuplicateElements) {
+        elements = (DuplicateElements) existing;
+      }
+      else {
+        elements = new DuplicateElements();
+        elements.add((Element) existing);
+      }
+      if (!elements.contains(element)) {
+        elements.add(element);
+      }
+      index.put(id, elements);
+    }
+  }
+
+  /**
+   * The elements which use the same id. It is a class of its own, as checking the type of
+   * an index entry against an interface like {@link java.util.List} is slow for DOM
+   * elements, which implement many interfaces.
+   */
+  protected static class DuplicateElements extends ArrayList<Element> {
+
+    private static final long serialVersionUID = 1L;
+
+  }
+
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright Camunda Services GmbH and/or licensed to Camunda Services GmbH
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. Camunda licenses this file to you under the Apache License,
+ * Version 2.0; you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.camunda.bpm.model.xml.impl.instance;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.camunda.bpm.model.xml.instance.DomDocument;
+import org.camunda.bpm.model.xml.instance.DomElement;
+import org.w3c.dom.Document;
+
+/**
+ * A {@link DomDocument} which is guarded by a {@link DocumentLock} and indexes its elements.
+ * The model uses these operations if the document of a model instance provides them, other
+ * documents are only accessed through the {@link DomDocument} interface.
+ */
+public interface IndexedDomDocument extends DomDocument {
+
+  /**
+   * @return the lock which guards the access to the document
+   */
+  DocumentLock getLock();
+
+  /**
+   * Finds the elements of multiple ids while holding the lock once.
+   *
+   * @param ids the ids to find
+   * @return the found elements by their id in the order of the given ids, ids without
+   *         an element are omitted
+   */
+  Map<String, DomElement> getElementsByIds(Collection<String> ids);
+
+  /**
+   * @return the ids which are used by more than one element of the document
+   */
+  Set<String> getDuplicateIds();
+
+  /**
+   * Finds the elements of multiple names in document order while holding the lock once.
+   *
+   * @param localNamesByNamespace the local names of the elements by their namespace
+   * @return the elements with one of the names in document order
+   */
+  List<DomElement> getElementsByNamesNs(Map<String, ? extends Collection<String>> localNamesByNamespace);
+
+  /**
+   * Creates multiple elements with the same name while holding the lock once. The prefix
+   * of the namespace is resolved only once for all elements.
+   *
+   * @param namespaceUri the namespace URI of the elements
+   * @param localName the local name of the elements
+   * @param count the number of elements to create
+   * @return the new elements which are not attached to the document yet
+   */
+  List<DomElement> createElements(String namespaceUri, String localName, int count);
+
+  /**
+   * Parses a XML fragment into a new element of this document. The element is not
+   * attached to the document yet. All namespaces which are in scope of the context
+   * element can be used inside the fragment without declaring them.
+   *
+   * @param contextElement the element which will be the parent of the fragment
+   * @param xmlFragment the XML fragment which contains a single element
+   * @return the new element owned by this document
+   */
+  DomElement importFragment(DomElement contextElement, String xmlFragment);
+
+  /**
+   * Copies the subtree of an element into a new standalone document. All namespaces
+   * used by the subtree are declared on the new root element.
+   *
+   * @param element the element to copy
+   * @return the new document which contains a copy of the element as root element
+   */
+  DomDocument extractFragment(DomElement element);
+
+  /**
+   * Copies the document into a new DOM document while holding the lock. The copy is not
+   * shared, so it can be modified, for example to minimize its namespace declarations,
+   * without holding the lock and without changing this document.
+   *
+   * @return the new DOM document
+   */
+  Document exportDocument();
+
+  /**
+   * Keeps the model element instances of the elements which are part of the document, until
+   * the elements are removed from it. Documents which keep these instances anyway, or which
+   * do not reference them weakly, do not have to do anything.
+   */
+  void retainModelElementInstances();
+
+}
@@ -21,8 +21,12 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import org.camunda.bpm.model.xml.Model;
 import org.camunda.bpm.model.xml.ModelBuilder;
@@ -31,6 +35,7 @@ import org.camunda.bpm.model.xml.impl.ModelInstanceImpl;
 import org.camunda.bpm.model.xml.impl.type.ModelElementTypeImpl;
 import org.camunda.bpm.model.xml.impl.type.attribute.AttributeImpl;
 import org.camunda.bpm.model.xml.impl.type.reference.ReferenceImpl;
+import org.camunda.bpm.model.xml.impl.util.DomUtil;
 import org.camunda.bpm.model.xml.impl.util.ModelUtil;
 import org.camunda.bpm.model.xml.instance.DomElement;
 import org.camunda.bpm.model.xml.instance.ModelElementInstance;
@@ -54,6 +59,22 @@ public class ModelElementInstanceImpl implements ModelElementInstance {
   /** the implementing model element type */
   private final ModelElementTypeImpl elementType;
 
+  private static final AtomicReferenceFieldUpdater<ModelElementInstanceImpl, Object[]> CHILD_ELEMENT_VIEWS =
+    AtomicReferenceFieldUpdater.newUpdater(ModelElementInstanceImpl.class, Object[].class, "childElementViews");
+
+  /**
+   * The cached views of child element collections on this element as pairs of collection
+   * and view, null if no view was created yet. Elements have only a few collections, so
+   * a small array is searched instead of a map.
+   */
+  private volatile Object[] childElementViews;
+
+  /**
+   * The insertion points of new child elements by their sequence position, null if they
+   * have to be computed on the next insertion.
+   */
+  private volatile ChildElementMarkers childElementMarkers;
+
   public static void registerType(ModelBuilder modelBuilder) {
     ModelElementTypeBuilder typeBuilder = modelBuilder.defineType(ModelElementInstance.class, "")
       .abstractType();
@@ -67,6 +88,50 @@ public class ModelElementInstanceImpl implements ModelElementInstance {
     this.elementType = instanceContext.getModelType();
   }
 
+  /**
+   * @param collection the child element collection of the view
+   * @return the view of the collection on this element which was cached by
+   *         {@link #putChildElementViewIfAbsent(Object, Collection)} or null if none
+   */
+  public Collection<?> getChildElementView(Object collection) {
+    return findChildElementView(childElementViews, collection);
+  }
+
+  /**
+   * Caches the view of a child element collection on this element, unless another
+   * thread cached a view of the collection in the meantime.
+   *
+   * @param collection the child element collection of the view
+   * @param view the view to cache
+   * @return the cached view of the collection
+   */
+  public Collection<?> putChildElementViewIfAbsent(Object collection, Collection<?> view) {
+    while (true) {
+      Object[] views = childElementViews;
+      Collection<?> existingView = findChildElementView(views, collection);
+      if (existingView != null) {
+        return existingView;
+      }
+      Object[] newViews = views == null ? new Object[2] : Arrays.copyOf(views, views.length + 2);
+      newViews[newViews.length - 2] = collection;
+      newViews[newViews.length - 1] = view;
+      if (CHILD_ELEMENT_VIEWS.compareAndSet(this, views, newViews)) {
+        return view;
+      }
+    }
+  }
+
+  protected static Collection<?> findChildElementView(Object[] views, Object collection) {
+    if (views != null) {
+      for (int i = 0; i < views.length; i += 2) {
+        if (views[i] == collection) {
+          return (Collection<?>) views[i + 1];
+        }
+      }
+    }
+    return null;
+  }
+
   public DomElement getDomElement() {
     return domElement;
   }
@@ -213,14 +278,67 @@ public class ModelElementInstanceImpl implements ModelElementInstance {
 
 
   public ModelElementInstance getUniqueChildElementByType(Class<? extends ModelElementInstance> elementType) {
-    List<DomElement> childElements = domElement.getChildElementsByType(modelInstance, elementType);
+    return getFirstChildElementByType(elementType);
+  }
 
-    if(!childElements.isEmpty()) {
-      return ModelUtil.getModelElement(childElements.get(0), modelInstance);
-    }
-    else {
-      return null;
-    }
+  /**
+   * Returns the first child element which is an instance of a type, without listing the
+   * child elements. The model elements of the skipped child elements are not created.
+   *
+   * @param elementType the type class of the child element
+   * @return the first child element of the type or null if none
+   */
+  @SuppressWarnings("unchecked")
+  public <T extends ModelElementInstance> T getFirstChildElementByType(Class<T> elementType) {
+    DomElement childElement = DomUtil.getFirstChildElementByType(domElement, modelInstance, elementType);
+    return childElement != null ? (T) ModelUtil.getModelElement(childElement, modelInstance) : null;
+  }
+
+  /**
+   * Returns the next sibling element which is an instance of a type, so that the child
+   * elements of a type can be walked together with {@link #getFirstChildElementByType(Class)}.
+   *
+   * @param elementType the type class of the sibling element
+   * @return the next sibling element of the type or null if none
+   */
+  @SuppressWarnings("unchecked")
+  public <T extends ModelElementInstance> T getNextSiblingElementByType(Class<T> elementType) {
+    DomElement siblingElement = DomUtil.getNextSiblingElementByType(domElement, modelInstance, elementType);
+    return siblingElement != null ? (T) ModelUtil.getModelElement(siblingElement, modelInstance) : null;
+  }
+
+  /**
+   * Visits the child elements in document order until the visitor stops.
+   *
+   * @param visitor the visitor to call for every child element
+   * @return false if the visitor stopped the walk, true otherwise
+   */
+  public boolean forEachChildElement(final ElementVisitor<? super ModelElementInstance> visitor) {
+    return DomUtil.forEachChildElement(domElement, new ElementVisitor<DomElement>() {
+      public boolean visit(DomElement childElement) {
+        return visitor.visit(ModelUtil.getModelElement(childElement, modelInstance));
+      }
+    });
+  }
+
+  /**
+   * Visits the child elements which are instances of a type in document order until the
+   * visitor stops. The model elements of the skipped child elements are not created.
+   *
+   * @param elementType the type class of the visited child elements
+   * @param visitor the visitor to call for every child element of the type
+   * @return false if the visitor stopped the walk, true otherwise
+   */
+  public <T extends ModelElementInstance> boolean forEachChildElementByType(final Class<T> elementType, final ElementVisitor<? super T> visitor) {
+    return DomUtil.forEachChildElement(domElement, new ElementVisitor<DomElement>() {
+      @SuppressWarnings("unchecked")
+      public boolean visit(DomElement childElement) {
+        if (ModelUtil.isModelElementOfType(childElement, modelInstance, elementType)) {
+          return visitor.visit((T) ModelUtil.getModelElement(childElement, modelInstance));
+        }
+        return true;
+      }
+    });
   }
 
   public void setUniqueChildElementByNameNs(ModelElementInstance newChild) {
@@ -284,9 +402,188 @@ public class ModelElementInstanceImpl implements ModelElementInstance {
   }
 
   public void addChildElement(ModelElementInstance newChild) {
+    int position = getChildElementPosition(newChild);
+    DocumentLock lock = DocumentLock.forDocument(modelInstance.getDocument());
+    lock.lockWrite();
+    try {
+      insertChildElement(newChild, position, lock);
+    }
+    finally {
+      lock.unlockWrite();
+    }
+  }
+
+  /**
+   * Adds multiple child elements at the positions of their types in the sequence of child
+   * element types, like {@link #addChildElement(ModelElementInstance)}. All children are
+   * checked before the first one is inserted and the document is locked once, so the
+   * child elements of this element are only scanned once.
+   *
+   * @param newChildren the new child elements in the order to add them
+   */
+  public void addChildElements(Collection<? extends ModelElementInstance> newChildren) {
+    int[] positions = new int[newChildren.size()];
+    int index = 0;
+    for (ModelElementInstance newChild : newChildren) {
+      positions[index++] = getChildElementPosition(newChild);
+    }
+
+    DocumentLock lock = DocumentLock.forDocument(modelInstance.getDocument());
+    lock.lockWrite();
+    try {
+      index = 0;
+      for (ModelElementInstance newChild : newChildren) {
+        insertChildElement(newChild, positions[index++], lock);
+      }
+    }
+    finally {
+      lock.unlockWrite();
+    }
+  }
+
+  /**
+   * @return the sequence position of the type of a new child element
+   * @throws ModelException if the new child element is not a valid child element of this element
+   */
+  private int getChildElementPosition(ModelElementInstance newChild) {
     ModelUtil.ensureInstanceOf(newChild, ModelElementInstanceImpl.class);
-    ModelElementInstance elementToInsertAfter = findElementToInsertAfter(newChild);
-    insertElementAfter(newChild, elementToInsertAfter);
+    int position = elementType.getChildElementTypePosition(newChild.getClass());
+    if (position < 0) {
+      // throws the exception which lists the valid child element types
+      ModelUtil.getIndexOfElementType(newChild, elementType.getAllChildElementTypes());
+    }
+    return position;
+  }
+
+  /**
+   * Inserts a new child element at the marker of its sequence position.
+   *
+   * @param lock the lock of the document which is held for writing
+   */
+  private void insertChildElement(ModelElementInstance newChild, int position, DocumentLock lock) {
+    ChildElementMarkers markers = childElementMarkers;
+    if (markers == null || markers.modificationCount != lock.getStructureModificationCount()) {
+      markers = findChildElementMarkers(lock);
+    }
+    childElementMarkers = null;
+
+    DomElement newChildDomElement = newChild.getDomElement();
+    DomElement insertAfter = markers.lastElements[position];
+    boolean moved = domElement.equals(newChildDomElement.getParentElement());
+    if (insertAfter == null) {
+      insertElementAfter(newChild, null);
+    }
+    else {
+      insertElementAfter(newChild, ModelUtil.getModelElement(insertAfter, modelInstance));
+    }
+
+    if (!moved) {
+      childElementMarkers = markers.inserted(position, newChildDomElement, lock.getStructureModificationCount());
+    }
+  }
+
+  /**
+   * Moves this element with its subtree to a new parent element. The element is inserted at
+   * the position of its type in the sequence of child element types of the new parent, like
+   * by {@link #addChildElement(ModelElementInstance)}. Unlike removing and adding the element,
+   * the ids and the references to the element and its child elements are kept.
+   *
+   * @param newParent the new parent element
+   * @throws ModelException if this element is not a valid child element of the new parent
+   *                        or the new parent is part of the subtree of this element
+   */
+  public void moveTo(ModelElementInstance newParent) {
+    ModelUtil.ensureInstanceOf(newParent, ModelElementInstanceImpl.class);
+    ModelElementInstanceImpl newParentImpl = (ModelElementInstanceImpl) newParent;
+    int position = newParentImpl.getChildElementPosition(this);
+
+    DocumentLock lock = DocumentLock.forDocument(modelInstance.getDocument());
+    lock.lockWrite();
+    try {
+      for (DomElement ancestor = newParent.getDomElement(); ancestor != null; ancestor = ancestor.getParentElement()) {
+        if (ancestor.equals(domElement)) {
+          throw new ModelException("Unable to move element " + elementType.getTypeName() + " into its own subtree");
+        }
+      }
+      newParentImpl.insertChildElement(this, position, lock);
+    }
+    finally {
+      lock.unlockWrite();
+    }
+  }
+
+  /**
+   * Moves a child element of this element behind another child element. The resulting child
+   * elements are checked against the sequence of child element types, like when they are
+   * added. The ids and the references to the child element and its child elements are kept.
+   *
+   * @param child the child element to move
+   * @param insertAfterElement the child element to move the child element behind or null to
+   *                           move it to the first position
+   * @throws ModelException if one of the elements is not a child element of this element
+   *                        or the child element types would be out of sequence order
+   */
+  public void reorderChildElement(ModelElementInstance child, ModelElementInstance insertAfterElement) {
+    int position = getChildElementPosition(child);
+
+    DocumentLock lock = DocumentLock.forDocument(modelInstance.getDocument());
+    lock.lockWrite();
+    try {
+      ensureChildElement(child);
+      DomElement previousElement = null;
+      if (insertAfterElement != null) {
+        ensureChildElement(insertAfterElement);
+        if (insertAfterElement.equals(child)) {
+          return;
+        }
+        previousElement = insertAfterElement.getDomElement();
+      }
+
+      // check the whole sequence, as child elements of other types do not restrict the order
+      DomElement childDomElement = child.getDomElement();
+      boolean inSequenceOrder = true;
+      int lastPosition = previousElement == null ? position : -1;
+      DomElement element = DomUtil.getFirstChildElement(domElement);
+      while (inSequenceOrder && element != null) {
+        if (!element.equals(childDomElement)) {
+          int elementPosition = getChildElementPosition(element);
+          if (elementPosition >= 0) {
+            inSequenceOrder = elementPosition >= lastPosition;
+            lastPosition = elementPosition;
+          }
+          if (inSequenceOrder && element.equals(previousElement)) {
+            inSequenceOrder = position >= lastPosition;
+            lastPosition = position;
+          }
+        }
+        element = DomUtil.getNextSiblingElement(element);
+      }
+
+      if (!inSequenceOrder) {
+        throw new ModelException("Unable to move child element " + child.getElementType().getTypeName() + " behind "
+          + (insertAfterElement != null ? insertAfterElement.getElementType().getTypeName() : "the start")
+          + ": the child element types would be out of sequence order");
+      }
+      insertElementAfter(child, insertAfterElement);
+    }
+    finally {
+      lock.unlockWrite();
+    }
+  }
+
+  private void ensureChildElement(ModelElementInstance element) {
+    ModelUtil.ensureInstanceOf(element, ModelElementInstanceImpl.class);
+    if (!domElement.equals(element.getDomElement().getParentElement())) {
+      throw new ModelException("Element " + element.getElementType().getTypeName() + " is not a child element of " + elementType.getTypeName());
+    }
+  }
+
+  /**
+   * @return the sequence position of the type of an existing child element or -1 if the type
+   *         is not a child element type, in which case the element does not restrict the order
+   */
+  private int getChildElementPosition(DomElement childDomElement) {
+    return elementType.getChildElementTypePosition(ModelUtil.getModelElement(childDomElement, modelInstance).getClass());
   }
 
   public boolean removeChildElement(ModelElementInstance child) {
@@ -296,6 +593,47 @@ public class ModelElementInstanceImpl implements ModelElementInstance {
     return domElement.removeChild(child.getDomElement());
   }
 
+  /**
+   * Removes multiple child elements at once. The references to the removed elements and their
+   * child elements are removed in a single pass over the reference source elements of every
+   * reference, instead of one pass per removed element. Elements which are not child elements
+   * of this element are ignored.
+   *
+   * @param children the child elements to remove
+   * @return true if at least one child element was removed
+   */
+  public boolean removeChildElements(Collection<? extends ModelElementInstance> children) {
+    DocumentLock lock = DocumentLock.forDocument(modelInstance.getDocument());
+    lock.lockWrite();
+    try {
+      Set<ModelElementInstance> removedChildren = new LinkedHashSet<ModelElementInstance>();
+      for (ModelElementInstance child : children) {
+        ModelUtil.ensureInstanceOf(child, ModelElementInstanceImpl.class);
+        if (domElement.equals(child.getDomElement().getParentElement())) {
+          removedChildren.add(child);
+        }
+      }
+      if (removedChildren.isEmpty()) {
+        return false;
+      }
+
+      Set<ModelElementInstance> unlinkedElements = new LinkedHashSet<ModelElementInstance>();
+      for (ModelElementInstance child : removedChildren) {
+        unlinkedElements.add(child);
+        ((ModelElementInstanceImpl) child).collectChildElementsOfChildTypes(unlinkedElements);
+      }
+      unlinkAllReferences(unlinkedElements);
+
+      for (ModelElementInstance child : removedChildren) {
+        domElement.removeChild(child.getDomElement());
+      }
+      return true;
+    }
+    finally {
+      lock.unlockWrite();
+    }
+  }
+
   public Collection<ModelElementInstance> getChildElementsByType(ModelElementType childElementType) {
     List<ModelElementInstance> instances = new ArrayList<ModelElementInstance>();
     for (ModelElementType extendingType : childElementType.getExtendingTypes()) {
@@ -314,28 +652,32 @@ public class ModelElementInstanceImpl implements ModelElementInstance {
   }
 
   /**
-   * Returns the element after which the new element should be inserted in the DOM document.
+   * Computes the insertion points of new child elements by a scan over the child elements.
+   * A new element is inserted after the last child element which is preceded only by
+   * child elements with the same or a lower sequence position.
    *
-   * @param elementToInsert  the new element to insert
-   * @return the element to insert after or null
+   * @param lock the lock of the document which is held for writing
+   * @return the insertion points for the current child elements
    */
-  private ModelElementInstance findElementToInsertAfter(ModelElementInstance elementToInsert) {
+  private ChildElementMarkers findChildElementMarkers(DocumentLock lock) {
     List<ModelElementType> childElementTypes = elementType.getAllChildElementTypes();
-    List<DomElement> childDomElements = domElement.getChildElements();
-    Collection<ModelElementInstance> childElements = ModelUtil.getModelElementCollection(childDomElements, modelInstance);
-
-    ModelElementInstance insertAfterElement = null;
-    int newElementTypeIndex = ModelUtil.getIndexOfElementType(elementToInsert, childElementTypes);
-    for (ModelElementInstance childElement : childElements) {
-      int childElementTypeIndex = ModelUtil.getIndexOfElementType(childElement, childElementTypes);
-      if (newElementTypeIndex >= childElementTypeIndex) {
-        insertAfterElement = childElement;
+    DomElement[] lastElements = new DomElement[childElementTypes.size()];
+    int maxPosition = 0;
+    for (DomElement childDomElement = DomUtil.getFirstChildElement(domElement); childDomElement != null; childDomElement = DomUtil.getNextSiblingElement(childDomElement)) {
+      ModelElementInstance childElement = ModelUtil.getModelElement(childDomElement, modelInstance);
+      int position = elementType.getChildElementTypePosition(childElement.getClass());
+      if (position < 0) {
+        ModelUtil.getIndexOfElementType(childElement, childElementTypes);
       }
-      else {
-        break;
+      maxPosition = Math.max(maxPosition, position);
+      lastElements[maxPosition] = childDomElement;
+    }
+    for (int position = 1; position < lastElements.length; position++) {
+      if (lastElements[position] == null) {
+        lastElements[position] = lastElements[position - 1];
       }
     }
-    return insertAfterElement;
+    return new ChildElementMarkers(lastElements, lock.getStructureModificationCount());
   }
 
   public void insertElementAfter(ModelElementInstance elementToInsert, ModelElementInstance insertAfterElement) {
@@ -377,6 +719,42 @@ public class ModelElementInstanceImpl implements ModelElementInstance {
     }
   }
 
+  private void collectChildElementsOfChildTypes(Collection<ModelElementInstance> childElements) {
+    for (ModelElementType type : elementType.getAllChildElementTypes()) {
+      childElements.addAll(getChildElementsByType(type));
+    }
+  }
+
+  /**
+   * Removes every reference to multiple elements, grouped by reference, so that the
+   * reference source elements of a reference are only searched once.
+   */
+  private static void unlinkAllReferences(Collection<ModelElementInstance> elements) {
+    Map<Reference<?>, Map<ModelElementInstance, Object>> referenceIdentifiers = new LinkedHashMap<Reference<?>, Map<ModelElementInstance, Object>>();
+    for (ModelElementInstance element : elements) {
+      for (Attribute<?> attribute : ((ModelElementTypeImpl) element.getElementType()).getAllAttributes()) {
+        List<Reference<?>> incomingReferences = ((AttributeImpl<?>) attribute).getIncomingReferences();
+        if (incomingReferences.isEmpty()) {
+          continue;
+        }
+        Object identifier = attribute.getValue(element);
+        if (identifier != null) {
+          for (Reference<?> incomingReference : incomingReferences) {
+            Map<ModelElementInstance, Object> identifiers = referenceIdentifiers.get(incomingReference);
+            if (identifiers == null) {
+              identifiers = new LinkedHashMap<ModelElementInstance, Object>();
+              referenceIdentifiers.put(incomingReference, identifiers);
+            }
+            identifiers.put(element, identifier);
+          }
+        }
+      }
+    }
+    for (Map.Entry<Reference<?>, Map<ModelElementInstance, Object>> entry : referenceIdentifiers.entrySet()) {
+      ((ReferenceImpl<?>) entry.getKey()).referencedElementsRemoved(entry.getValue());
+    }
+  }
+
   protected <T> Set<T> asSet(T element, Set<T> elements){
     Set<T> result = new HashSet<T>();
     result.add(element);
@@ -407,4 +785,41 @@ public class ModelElementInstanceImpl implements ModelElementInstance {
     }
   }
 
+
+  /**
+   * The child element after which a new child element is inserted for every sequence
+   * position of the child element types, so that the insertion does not have to scan the
+   * child elements. The markers are valid as long as no elements were added, moved or
+   * removed in the document since they were computed.
+   */
+  protected static class ChildElementMarkers {
+
+    /** the structure modification count of the document when the markers were computed */
+    protected final long modificationCount;
+    /** the element to insert after by sequence position, null to insert as first child */
+    protected final DomElement[] lastElements;
+
+    protected ChildElementMarkers(DomElement[] lastElements, long modificationCount) {
+      this.lastElements = lastElements;
+      this.modificationCount = modificationCount;
+    }
+
+    /**
+     * @return the markers after a new element was inserted at the marker of its sequence position
+     */
+    protected ChildElementMarkers inserted(int position, DomElement newElement, long modificationCount) {
+      DomElement[] newLastElements = lastElements.clone();
+      DomElement insertAfter = lastElements[position];
+      for (int i = position; i < lastElements.length && equal(lastElements[i], insertAfter); i++) {
+        newLastElements[i] = newElement;
+      }
+      return new ChildElementMarkers(newLastElements, modificationCount);
+    }
+
+    protected static boolean equal(DomElement element, DomElement otherElement) {
+      return element == null ? otherElement == null : element.equals(otherElement);
+    }
+
+  }
+
 }
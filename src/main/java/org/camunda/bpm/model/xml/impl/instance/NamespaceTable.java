@@ -0,0 +1,201 @@
+/*
+ * Copyright Camunda Services GmbH and/or licensed to Camunda Services GmbH
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. Camunda licenses this file to you under the Apache License,
+ * Version 2.0; you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.camunda.bpm.model.xml.impl.instance;
+
+import static javax.xml.XMLConstants.XMLNS_ATTRIBUTE;
+import static javax.xml.XMLConstants.XMLNS_ATTRIBUTE_NS_URI;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * The namespace prefixes which are declared on the root element of a document. It allows
+ * to resolve the prefix of a namespace and to find an unused generic prefix without
+ * searching the DOM tree.
+ *
+ * <p>The table is built on first use and kept in sync by the {@link DomElementImpl} and
+ * {@link DomDocumentImpl} wrappers. As soon as a prefix is declared on any other element,
+ * the prefix of a namespace depends on the scope and callers have to fall back to the
+ * DOM lookup, see {@link #hasNestedDeclarations()}.</p>
+ *
+ * <p>The table must only be accessed while holding the write lock of the document.</p>
+ */
+public class NamespaceTable {
+
+  protected final Document document;
+
+  protected final Map<String, String> prefixByNamespaceUri = new HashMap<String, String>();
+  protected final Map<String, String> namespaceUriByPrefix = new HashMap<String, String>();
+
+  /**
+   * The root element the table was built for, null if the table has to be built.
+   */
+  protected Element rootElement;
+  protected boolean nestedDeclarations = false;
+  protected int nextGenericPrefixIndex = 0;
+
+  public NamespaceTable(Document document) {
+    this.document = document;
+  }
+
+  /**
+   * @return true if a prefix is declared on another element than the root element
+   */
+  public boolean hasNestedDeclarations() {
+    ensureBuilt();
+    return nestedDeclarations;
+  }
+
+  /**
+   * @param namespaceUri the namespace to get the prefix for
+   * @return the prefix declared for the namespace on the root element or null if none
+   */
+  public String getPrefix(String namespaceUri) {
+    ensureBuilt();
+    return prefixByNamespaceUri.get(namespaceUri);
+  }
+
+  /**
+   * @param prefix the prefix to check
+   * @return true if the prefix is declared on the root element
+   */
+  public boolean isDeclared(String prefix) {
+    ensureBuilt();
+    return namespaceUriByPrefix.containsKey(prefix);
+  }
+
+  /**
+   * @return a generic prefix which is not declared on the root element
+   */
+  public String getUnusedGenericPrefix() {
+    ensureBuilt();
+    while (namespaceUriByPrefix.containsKey(DomDocumentImpl.GENERIC_NS_PREFIX + nextGenericPrefixIndex)) {
+      nextGenericPrefixIndex++;
+    }
+    return DomDocumentImpl.GENERIC_NS_PREFIX + nextGenericPrefixIndex;
+  }
+
+  /**
+   * Records a prefix which was declared on an element of the document.
+   *
+   * @param element the element the prefix was declared on
+   * @param prefix the declared prefix
+   * @param namespaceUri the namespace of the prefix
+   */
+  public void declared(Element element, String prefix, String namespaceUri) {
+    if (rootElement == null) {
+      // the declaration is read when the table is built
+      if (element != document.getDocumentElement()) {
+        nestedDeclarations = true;
+      }
+    }
+    else if (element == rootElement) {
+      String previousNamespaceUri = namespaceUriByPrefix.put(prefix, namespaceUri);
+      if (previousNamespaceUri != null && prefix.equals(prefixByNamespaceUri.get(previousNamespaceUri))) {
+        prefixByNamespaceUri.remove(previousNamespaceUri);
+      }
+      if (!prefixByNamespaceUri.containsKey(namespaceUri)) {
+        prefixByNamespaceUri.put(namespaceUri, prefix);
+      }
+    }
+    else {
+      nestedDeclarations = true;
+    }
+  }
+
+  /**
+   * Records an element of the document which may declare prefixes, e.g. because it was imported.
+   *
+   * @param element the element to check for declarations including its descendants
+   */
+  public void added(Element element) {
+    if (!nestedDeclarations && hasPrefixDeclarations(element)) {
+      nestedDeclarations = true;
+    }
+  }
+
+  /**
+   * Forces the table to be built again on next use, e.g. because a namespace declaration was
+   * changed directly. Nested declarations are kept, as they may belong to detached elements.
+   */
+  public void invalidate() {
+    rootElement = null;
+  }
+
+  protected void ensureBuilt() {
+    Element documentElement = document.getDocumentElement();
+    if (rootElement == null || rootElement != documentElement) {
+      build(documentElement);
+    }
+  }
+
+  protected void build(Element documentElement) {
+    prefixByNamespaceUri.clear();
+    namespaceUriByPrefix.clear();
+    nextGenericPrefixIndex = 0;
+    rootElement = documentElement;
+
+    if (documentElement != null) {
+      NamedNodeMap attributes = documentElement.getAttributes();
+      for (int i = 0; i < attributes.getLength(); i++) {
+        Node attribute = attributes.item(i);
+        if (isPrefixDeclaration(attribute)) {
+          String prefix = attribute.getLocalName();
+          String namespaceUri = attribute.getNodeValue();
+          namespaceUriByPrefix.put(prefix, namespaceUri);
+          if (!prefixByNamespaceUri.containsKey(namespaceUri)) {
+            prefixByNamespaceUri.put(namespaceUri, prefix);
+          }
+        }
+      }
+      if (!nestedDeclarations) {
+        for (Node child = documentElement.getFirstChild(); child != null; child = child.getNextSibling()) {
+          if (child.getNodeType() == Node.ELEMENT_NODE && hasPrefixDeclarations((Element) child)) {
+            nestedDeclarations = true;
+            break;
+          }
+        }
+      }
+    }
+  }
+
+  protected static boolean hasPrefixDeclarations(Element element) {
+    NamedNodeMap attributes = element.getAttributes();
+    for (int i = 0; i < attributes.getLength(); i++) {
+      if (isPrefixDeclaration(attributes.item(i))) {
+        return true;
+      }
+    }
+    for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+      if (child.getNodeType() == Node.ELEMENT_NODE && hasPrefixDeclarations((Element) child)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  protected static boolean isPrefixDeclaration(Node attribute) {
+    return XMLNS_ATTRIBUTE_NS_URI.equals(attribute.getNamespaceURI())
+      && XMLNS_ATTRIBUTE.equals(attribute.getPrefix());
+  }
+
+}
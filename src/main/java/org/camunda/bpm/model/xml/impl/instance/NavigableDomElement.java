@@ -0,0 +1,40 @@
+/*
+ * Copyright Camunda Services GmbH and/or licensed to Camunda Services GmbH
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. Camunda licenses this file to you under the Apache License,
+ * Version 2.0; you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.camunda.bpm.model.xml.impl.instance;
+
+import org.camunda.bpm.model.xml.instance.DomElement;
+
+/**
+ * A {@link DomElement} which can step to its neighbouring elements directly, so that the
+ * child elements of an element can be walked without building a list of them.
+ *
+ * <p>Every step is a read of its own, so a walk sees modifications which are made
+ * concurrently by other threads.</p>
+ */
+public interface NavigableDomElement extends DomElement {
+
+  /**
+   * @return the first child element of this element or null if none
+   */
+  DomElement getFirstChildElement();
+
+  /**
+   * @return the next sibling element of this element or null if none
+   */
+  DomElement getNextSiblingElement();
+
+}
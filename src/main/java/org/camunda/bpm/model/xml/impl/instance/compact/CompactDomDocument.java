@@ -0,0 +1,1236 @@
+/*
+ * Copyright Camunda Services GmbH and/or licensed to Camunda Services GmbH
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. Camunda licenses this file to you under the Apache License,
+ * Version 2.0; you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.camunda.bpm.model.xml.impl.instance.compact;
+
+import static javax.xml.XMLConstants.XMLNS_ATTRIBUTE;
+import static javax.xml.XMLConstants.XMLNS_ATTRIBUTE_NS_URI;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.dom.DOMSource;
+
+import org.camunda.bpm.model.xml.ModelException;
+import org.camunda.bpm.model.xml.impl.instance.DocumentLock;
+import org.camunda.bpm.model.xml.impl.instance.DomDocumentImpl;
+import org.camunda.bpm.model.xml.impl.instance.IndexedDomDocument;
+import org.camunda.bpm.model.xml.impl.instance.compact.NameTable.Name;
+import org.camunda.bpm.model.xml.impl.util.DomUtil;
+import org.camunda.bpm.model.xml.impl.util.XmlQName;
+import org.camunda.bpm.model.xml.instance.DomDocument;
+import org.camunda.bpm.model.xml.instance.DomElement;
+import org.w3c.dom.Attr;
+import org.w3c.dom.DOMException;
+import org.w3c.dom.DOMImplementation;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.ProcessingInstruction;
+
+/**
+ * A {@link DomDocument} which stores the XML tree in tables instead of a DOM. Every node is
+ * a row of its type, name, value, parent and siblings in a {@link CompactStorage}, the names
+ * of the elements and attributes are interned in a {@link NameTable} and the attributes are
+ * stored in a table of their own, which links the attributes of an element.
+ *
+ * <p>The {@link DomElement elements} are lightweight views of a node, so they are not
+ * canonical but equal if they refer to the same node. Element nodes which are removed from
+ * the tree keep their index and their attributes for the lifetime of the document, as their
+ * elements may still be used and inserted again. A document which removes many elements
+ * therefore grows, the slots are not compacted. Removed attributes and removed nodes which
+ * are not elements, like the text replaced by {@link DomElement#setTextContent(String)},
+ * cannot be referenced anymore, so their slots are reused by new attributes and nodes.</p>
+ *
+ * <p>The {@link #getDomSource() DOM source} is a copy of the tree, which is created on
+ * every call, so changes to it are not reflected by this document.</p>
+ */
+public class CompactDomDocument implements IndexedDomDocument {
+
+  protected static final int DOCUMENT = 0;
+  protected static final int NONE = -1;
+
+  private static DOMImplementation domImplementation;
+
+  protected final DocumentLock lock;
+  protected final NameTable nameTable;
+  protected final CompactStorage storage;
+
+  protected int nodeCount;
+  protected int attributeCount;
+  protected int freeAttribute = NONE;
+
+  /**
+   * The first released node, the released nodes are linked by their next sibling.
+   */
+  protected int freeNode = NONE;
+
+  /**
+   * The element node of every id, or the {@link DuplicateNodes} if the id is used more
+   * than once. Null if the index has to be built.
+   */
+  protected volatile Map<String, Object> nodesById;
+
+  /**
+   * True if the id index is shared with a clone and must be copied before it is modified.
+   */
+  protected boolean idsShared;
+
+  /**
+   * True if the model element instances of the attached elements are kept by the storage.
+   */
+  protected volatile boolean modelElementInstancesRetained;
+
+  public CompactDomDocument(boolean threadConfined) {
+    this(threadConfined, new HeapStorage());
+  }
+
+  /**
+   * @param threadConfined true if the document is only accessed by a single thread and must not be locked
+   * @param storage the empty storage of the nodes and attributes
+   */
+  public CompactDomDocument(boolean threadConfined, CompactStorage storage) {
+    this(new DocumentLock(threadConfined), new NameTable(), storage);
+    newNode(Node.DOCUMENT_NODE, NONE, null);
+  }
+
+  protected CompactDomDocument(DocumentLock lock, NameTable nameTable, CompactStorage storage) {
+    this.lock = lock;
+    this.nameTable = nameTable;
+    this.storage = storage;
+  }
+
+  /**
+   * Copies a DOM document including the id flags of its attributes.
+   *
+   * @param document the document to copy
+   * @param threadConfined true if the document is only accessed by a single thread and must not be locked
+   * @return the new compact document
+   */
+  public static CompactDomDocument fromDocument(Document document, boolean threadConfined) {
+    return fromDocument(document, threadConfined, new HeapStorage());
+  }
+
+  /**
+   * Copies a DOM document into the given storage including the id flags of its attributes.
+   *
+   * @param document the document to copy
+   * @param threadConfined true if the document is only accessed by a single thread and must not be locked
+   * @param storage the empty storage of the nodes and attributes
+   * @return the new compact document
+   */
+  public static CompactDomDocument fromDocument(Document document, boolean threadConfined, CompactStorage storage) {
+    CompactDomDocument compactDocument = new CompactDomDocument(threadConfined, storage);
+    // equal values, like the indentation or references, are stored once
+    Map<String, String> values = new HashMap<String, String>();
+    for (Node child = document.getFirstChild(); child != null; child = child.getNextSibling()) {
+      int node = compactDocument.importNode(child, values);
+      if (node != NONE) {
+        compactDocument.insertBefore(DOCUMENT, node, NONE);
+      }
+    }
+    compactDocument.trimToSize();
+    return compactDocument;
+  }
+
+  public DocumentLock getLock() {
+    return lock;
+  }
+
+  public DomElement getRootElement() {
+    lock.lockRead();
+    try {
+      return getElement(getRootNode());
+    }
+    finally {
+      lock.unlockRead();
+    }
+  }
+
+  public void setRootElement(DomElement rootElement) {
+    lock.lockWrite();
+    try {
+      int newRoot = getNode(rootElement);
+      int root = getRootNode();
+      if (newRoot == root) {
+        return;
+      }
+      checkInsertion(DOCUMENT, newRoot);
+      if (isTracked() && isAttached(newRoot)) {
+        elementRemoved(newRoot);
+      }
+      detach(newRoot);
+      if (root != NONE) {
+        insertBefore(DOCUMENT, newRoot, root);
+        elementRemoved(root);
+        detach(root);
+      }
+      else {
+        insertBefore(DOCUMENT, newRoot, NONE);
+      }
+      elementAdded(newRoot);
+    }
+    finally {
+      lock.unlockWrite();
+    }
+  }
+
+  public DomElement createElement(String namespaceUri, String localName) {
+    lock.lockWrite();
+    try {
+      String prefix = resolvePrefix(NONE, namespaceUri);
+      return getElement(newNode(Node.ELEMENT_NODE, nameTable.getIndex(namespaceUri, localName, prefix), null));
+    }
+    finally {
+      lock.unlockWrite();
+    }
+  }
+
+  public List<DomElement> createElements(String namespaceUri, String localName, int count) {
+    lock.lockWrite();
+    try {
+      int name = nameTable.getIndex(namespaceUri, localName, resolvePrefix(NONE, namespaceUri));
+      List<DomElement> elements = new ArrayList<DomElement>(count);
+      for (int i = 0; i < count; i++) {
+        elements.add(getElement(newNode(Node.ELEMENT_NODE, name, null)));
+      }
+      return elements;
+    }
+    finally {
+      lock.unlockWrite();
+    }
+  }
+
+  public DomElement getElementById(String id) {
+    lock.lockRead();
+    try {
+      return getElement(getNodeById(id));
+    }
+    finally {
+      lock.unlockRead();
+    }
+  }
+
+  public Map<String, DomElement> getElementsByIds(Collection<String> ids) {
+    lock.lockRead();
+    try {
+      Map<String, DomElement> elements = new LinkedHashMap<String, DomElement>();
+      for (String id : ids) {
+        int node = id != null ? getNodeById(id) : NONE;
+        if (node != NONE) {
+          elements.put(id, getElement(node));
+        }
+      }
+      return elements;
+    }
+    finally {
+      lock.unlockRead();
+    }
+  }
+
+  public Set<String> getDuplicateIds() {
+    lock.lockRead();
+    try {
+      Set<String> duplicateIds = new TreeSet<String>();
+      for (Map.Entry<String, Object> entry : ensureIdsBuilt().entrySet()) {
+        if (entry.getValue() instanceof DuplicateNodes) {
+          duplicateIds.add(entry.getKey());
+        }
+      }
+      return duplicateIds;
+    }
+    finally {
+      lock.unlockRead();
+    }
+  }
+
+  public List<DomElement> getElementsByNameNs(String namespaceUri, String localName) {
+    lock.lockRead();
+    try {
+      boolean[] matchingNames = new boolean[nameTable.size()];
+      for (int i = 0; i < matchingNames.length; i++) {
+        matchingNames[i] = nameTable.getName(i).matches(namespaceUri, localName);
+      }
+      return getElementsByNames(matchingNames);
+    }
+    finally {
+      lock.unlockRead();
+    }
+  }
+
+  public List<DomElement> getElementsByNamesNs(Map<String, ? extends Collection<String>> localNamesByNamespace) {
+    lock.lockRead();
+    try {
+      boolean[] matchingNames = new boolean[nameTable.size()];
+      for (int i = 0; i < matchingNames.length; i++) {
+        Name name = nameTable.getName(i);
+        Collection<String> localNames = localNamesByNamespace.get(name.getNamespaceUri());
+        matchingNames[i] = localNames != null && localNames.contains(name.getLocalName());
+      }
+      return getElementsByNames(matchingNames);
+    }
+    finally {
+      lock.unlockRead();
+    }
+  }
+
+  /**
+   * @param matchingNames the names to find by their index in the name table
+   * @return the elements with one of the names in document order
+   */
+  protected List<DomElement> getElementsByNames(boolean[] matchingNames) {
+    List<DomElement> elements = new ArrayList<DomElement>();
+    for (int node = DOCUMENT; node != NONE; node = nextNode(node, DOCUMENT)) {
+      if (getNodeType(node) == Node.ELEMENT_NODE && matchingNames[getNodeName(node)]) {
+        elements.add(getElement(node));
+      }
+    }
+    return elements;
+  }
+
+  /**
+   * Returns a DOM copy of the document, which is created on every call.
+   */
+  public DOMSource getDomSource() {
+    return new DOMSource(exportDocument());
+  }
+
+  public Document exportDocument() {
+    lock.lockRead();
+    try {
+      Document document = newDocument();
+      for (int child = getFirstChild(DOCUMENT); child != NONE; child = getNextSibling(child)) {
+        document.appendChild(exportNode(document, child));
+      }
+      return document;
+    }
+    finally {
+      lock.unlockRead();
+    }
+  }
+
+  public String registerNamespace(String namespaceUri) {
+    lock.lockWrite();
+    try {
+      return registerNamespace(getExistingRootNode(), namespaceUri);
+    }
+    finally {
+      lock.unlockWrite();
+    }
+  }
+
+  public void registerNamespace(String prefix, String namespaceUri) {
+    lock.lockWrite();
+    try {
+      registerNamespace(getExistingRootNode(), prefix, namespaceUri);
+    }
+    finally {
+      lock.unlockWrite();
+    }
+  }
+
+  public DomElement importFragment(DomElement contextElement, String xmlFragment) {
+    lock.lockWrite();
+    try {
+      Map<String, String> namespaces = getInScopeNamespaces(getNode(contextElement));
+      Element fragmentElement = DomUtil.parseFragment(xmlFragment, namespaces);
+      return getElement(importNode(fragmentElement, new HashMap<String, String>()));
+    }
+    finally {
+      lock.unlockWrite();
+    }
+  }
+
+  public DomDocument extractFragment(DomElement element) {
+    lock.lockRead();
+    try {
+      int node = getNode(element);
+      Document fragmentDocument = newDocument();
+      Element fragmentElement = (Element) exportNode(fragmentDocument, node);
+      fragmentDocument.appendChild(fragmentElement);
+      DomUtil.declareNamespaces(fragmentElement, getInScopeNamespaces(node));
+      DomUtil.minimizeNamespaceDeclarations(fragmentDocument);
+      return DomDocumentImpl.forDocument(fragmentDocument);
+    }
+    finally {
+      lock.unlockRead();
+    }
+  }
+
+  public void retainModelElementInstances() {
+    lock.lockWrite();
+    try {
+      modelElementInstancesRetained = true;
+      int root = getRootNode();
+      if (root != NONE) {
+        setModelElementInstancesRetained(root, true);
+      }
+    }
+    finally {
+      lock.unlockWrite();
+    }
+  }
+
+  public DomDocument clone() {
+    lock.lockRead();
+    try {
+      CompactDomDocument clonedDocument = new CompactDomDocument(new DocumentLock(lock.isThreadConfined()),
+        new NameTable(nameTable), storage.copy(nodeCount, attributeCount));
+      clonedDocument.nodeCount = nodeCount;
+      clonedDocument.attributeCount = attributeCount;
+      clonedDocument.freeAttribute = freeAttribute;
+      clonedDocument.freeNode = freeNode;
+      // the nodes keep their index, so the id index is valid for the clone
+      Map<String, Object> index = nodesById;
+      if (index != null) {
+        idsShared = true;
+        clonedDocument.nodesById = index;
+        clonedDocument.idsShared = true;
+      }
+      return clonedDocument;
+    }
+    finally {
+      lock.unlockRead();
+    }
+  }
+
+  // nodes //////////////////////////////////////////////////////////////////
+
+  protected DomElement getElement(int node) {
+    return node != NONE ? new CompactDomElement(this, node) : null;
+  }
+
+  /**
+   * @return the node of an element of this document
+   * @throws DOMException if the element belongs to another document
+   */
+  protected int getNode(DomElement element) {
+    if (element instanceof CompactDomElement && ((CompactDomElement) element).document == this) {
+      return ((CompactDomElement) element).node;
+    }
+    else {
+      throw new DOMException(DOMException.WRONG_DOCUMENT_ERR, "Element <" + element + "> belongs to another document");
+    }
+  }
+
+  protected Name getName(int node) {
+    return nameTable.getName(getNodeName(node));
+  }
+
+  protected int getRootNode() {
+    for (int child = getFirstChild(DOCUMENT); child != NONE; child = getNextSibling(child)) {
+      if (getNodeType(child) == Node.ELEMENT_NODE) {
+        return child;
+      }
+    }
+    return NONE;
+  }
+
+  protected int getExistingRootNode() {
+    int root = getRootNode();
+    if (root == NONE) {
+      throw new ModelException("Unable to define a new namespace without a root document element");
+    }
+    return root;
+  }
+
+  protected int newNode(int nodeType, int name, String value) {
+    int node = freeNode;
+    if (node != NONE) {
+      freeNode = getNextSibling(node);
+    }
+    else {
+      storage.ensureNodeCapacity(nodeCount + 1);
+      node = nodeCount++;
+    }
+    storage.setNodeField(node, CompactStorage.NODE_TYPE, nodeType);
+    setParent(node, NONE);
+    setFirstChild(node, NONE);
+    setLastChild(node, NONE);
+    setPreviousSibling(node, NONE);
+    setNextSibling(node, NONE);
+    storage.setNodeField(node, CompactStorage.NODE_NAME, name);
+    setNodeValue(node, value);
+    setFirstAttribute(node, NONE);
+    return node;
+  }
+
+  /**
+   * Releases the unused capacity of the storage, e.g. after a document was copied.
+   */
+  protected void trimToSize() {
+    storage.trimToSize(nodeCount, attributeCount);
+  }
+
+  protected int getNodeType(int node) {
+    return storage.getNodeField(node, CompactStorage.NODE_TYPE);
+  }
+
+  protected int getNodeName(int node) {
+    return storage.getNodeField(node, CompactStorage.NODE_NAME);
+  }
+
+  protected String getNodeValue(int node) {
+    return storage.getNodeValue(node);
+  }
+
+  protected void setNodeValue(int node, String value) {
+    storage.setNodeValue(node, value);
+  }
+
+  protected int getParent(int node) {
+    return storage.getNodeField(node, CompactStorage.PARENT);
+  }
+
+  protected void setParent(int node, int parent) {
+    storage.setNodeField(node, CompactStorage.PARENT, parent);
+  }
+
+  protected int getFirstChild(int node) {
+    return storage.getNodeField(node, CompactStorage.FIRST_CHILD);
+  }
+
+  protected void setFirstChild(int node, int child) {
+    storage.setNodeField(node, CompactStorage.FIRST_CHILD, child);
+  }
+
+  protected int getLastChild(int node) {
+    return storage.getNodeField(node, CompactStorage.LAST_CHILD);
+  }
+
+  protected void setLastChild(int node, int child) {
+    storage.setNodeField(node, CompactStorage.LAST_CHILD, child);
+  }
+
+  protected int getPreviousSibling(int node) {
+    return storage.getNodeField(node, CompactStorage.PREVIOUS_SIBLING);
+  }
+
+  protected void setPreviousSibling(int node, int sibling) {
+    storage.setNodeField(node, CompactStorage.PREVIOUS_SIBLING, sibling);
+  }
+
+  protected int getNextSibling(int node) {
+    return storage.getNodeField(node, CompactStorage.NEXT_SIBLING);
+  }
+
+  protected void setNextSibling(int node, int sibling) {
+    storage.setNodeField(node, CompactStorage.NEXT_SIBLING, sibling);
+  }
+
+  protected int getFirstAttribute(int node) {
+    return storage.getNodeField(node, CompactStorage.FIRST_ATTRIBUTE);
+  }
+
+  protected void setFirstAttribute(int node, int attribute) {
+    storage.setNodeField(node, CompactStorage.FIRST_ATTRIBUTE, attribute);
+  }
+
+  /**
+   * Inserts a detached node into a parent.
+   *
+   * @param parent the new parent of the node
+   * @param node the node to insert
+   * @param reference the child to insert the node before or {@link #NONE} to append it
+   */
+  protected void insertBefore(int parent, int node, int reference) {
+    int previous = reference != NONE ? getPreviousSibling(reference) : getLastChild(parent);
+    setParent(node, parent);
+    setPreviousSibling(node, previous);
+    setNextSibling(node, reference);
+    if (previous != NONE) {
+      setNextSibling(previous, node);
+    }
+    else {
+      setFirstChild(parent, node);
+    }
+    if (reference != NONE) {
+      setPreviousSibling(reference, node);
+    }
+    else {
+      setLastChild(parent, node);
+    }
+  }
+
+  /**
+   * Removes a node from its parent, it keeps its descendants.
+   */
+  protected void detach(int node) {
+    int parent = getParent(node);
+    if (parent == NONE) {
+      return;
+    }
+    int previous = getPreviousSibling(node);
+    int next = getNextSibling(node);
+    if (previous != NONE) {
+      setNextSibling(previous, next);
+    }
+    else {
+      setFirstChild(parent, next);
+    }
+    if (next != NONE) {
+      setPreviousSibling(next, previous);
+    }
+    else {
+      setLastChild(parent, previous);
+    }
+    setParent(node, NONE);
+    setPreviousSibling(node, NONE);
+    setNextSibling(node, NONE);
+  }
+
+  /**
+   * Releases a detached node which is not an element, so that its slot is reused by a new
+   * node. Element nodes must not be released, as their elements may still refer to them.
+   */
+  protected void releaseNode(int node) {
+    setNodeValue(node, null);
+    setNextSibling(node, freeNode);
+    freeNode = node;
+  }
+
+  /**
+   * @throws DOMException if the node cannot be inserted into the parent, as the parent is
+   *                      the node itself or one of its descendants
+   */
+  protected void checkInsertion(int parent, int node) {
+    for (int ancestor = parent; ancestor != NONE; ancestor = getParent(ancestor)) {
+      if (ancestor == node) {
+        throw new DOMException(DOMException.HIERARCHY_REQUEST_ERR, "An element cannot be inserted into itself or one of its descendants");
+      }
+    }
+  }
+
+  /**
+   * @return the next node after a node in document order inside the subtree of the root or
+   *         {@link #NONE} if it is the last one
+   */
+  protected int nextNode(int node, int root) {
+    if (getFirstChild(node) != NONE) {
+      return getFirstChild(node);
+    }
+    while (node != root) {
+      if (getNextSibling(node) != NONE) {
+        return getNextSibling(node);
+      }
+      node = getParent(node);
+    }
+    return NONE;
+  }
+
+  /**
+   * @return true if the node is part of the tree of the document
+   */
+  protected boolean isAttached(int node) {
+    while (getParent(node) != NONE) {
+      node = getParent(node);
+    }
+    return node == DOCUMENT;
+  }
+
+  // attributes /////////////////////////////////////////////////////////////
+
+  /**
+   * @return the attribute of the element with the namespace and local name or {@link #NONE}
+   */
+  protected int getAttribute(int element, String namespaceUri, String localName) {
+    for (int attribute = getFirstAttribute(element); attribute != NONE; attribute = getNextAttribute(attribute)) {
+      if (nameTable.getName(getAttributeName(attribute)).matches(namespaceUri, localName)) {
+        return attribute;
+      }
+    }
+    return NONE;
+  }
+
+  /**
+   * Appends a new attribute to the attributes of the element.
+   */
+  protected int addAttribute(int element, int name, String value) {
+    int attribute = freeAttribute;
+    if (attribute != NONE) {
+      freeAttribute = getNextAttribute(attribute);
+    }
+    else {
+      storage.ensureAttributeCapacity(attributeCount + 1);
+      attribute = attributeCount++;
+    }
+    setAttributeName(attribute, name);
+    setAttributeValue(attribute, value);
+    setNextAttribute(attribute, NONE);
+    setIdAttribute(attribute, false);
+
+    int last = getFirstAttribute(element);
+    if (last == NONE) {
+      setFirstAttribute(element, attribute);
+    }
+    else {
+      while (getNextAttribute(last) != NONE) {
+        last = getNextAttribute(last);
+      }
+      setNextAttribute(last, attribute);
+    }
+    return attribute;
+  }
+
+  /**
+   * Removes an attribute from the attributes of the element and reuses its slot.
+   */
+  protected void removeAttribute(int element, int attribute) {
+    if (getFirstAttribute(element) == attribute) {
+      setFirstAttribute(element, getNextAttribute(attribute));
+    }
+    else {
+      int previous = getFirstAttribute(element);
+      while (getNextAttribute(previous) != attribute) {
+        previous = getNextAttribute(previous);
+      }
+      setNextAttribute(previous, getNextAttribute(attribute));
+    }
+    setAttributeValue(attribute, null);
+    setIdAttribute(attribute, false);
+    setNextAttribute(attribute, freeAttribute);
+    freeAttribute = attribute;
+  }
+
+  protected int getAttributeName(int attribute) {
+    return storage.getAttributeField(attribute, CompactStorage.ATTRIBUTE_NAME);
+  }
+
+  protected void setAttributeName(int attribute, int name) {
+    storage.setAttributeField(attribute, CompactStorage.ATTRIBUTE_NAME, name);
+  }
+
+  protected String getAttributeValue(int attribute) {
+    return storage.getAttributeValue(attribute);
+  }
+
+  protected void setAttributeValue(int attribute, String value) {
+    storage.setAttributeValue(attribute, value);
+  }
+
+  protected int getNextAttribute(int attribute) {
+    return storage.getAttributeField(attribute, CompactStorage.NEXT_ATTRIBUTE);
+  }
+
+  protected void setNextAttribute(int attribute, int next) {
+    storage.setAttributeField(attribute, CompactStorage.NEXT_ATTRIBUTE, next);
+  }
+
+  protected boolean isIdAttribute(int attribute) {
+    return storage.getAttributeField(attribute, CompactStorage.ID_ATTRIBUTE) != 0;
+  }
+
+  protected void setIdAttribute(int attribute, boolean isId) {
+    storage.setAttributeField(attribute, CompactStorage.ID_ATTRIBUTE, isId ? 1 : 0);
+  }
+
+  protected static boolean isPrefixDeclaration(Name name) {
+    return XMLNS_ATTRIBUTE_NS_URI.equals(name.getNamespaceUri()) && XMLNS_ATTRIBUTE.equals(name.getPrefix());
+  }
+
+  // namespaces /////////////////////////////////////////////////////////////
+
+  /**
+   * Looks up the prefix of a namespace in the scope of an element like
+   * {@link Node#lookupPrefix(String)}.
+   */
+  protected String lookupPrefix(int element, String namespaceUri) {
+    if (namespaceUri == null) {
+      return null;
+    }
+    for (int node = element; node != NONE && getNodeType(node) == Node.ELEMENT_NODE; node = getParent(node)) {
+      Name name = getName(node);
+      if (name.getPrefix() != null && namespaceUri.equals(name.getNamespaceUri())
+        && namespaceUri.equals(lookupNamespaceUri(element, name.getPrefix()))) {
+        return name.getPrefix();
+      }
+      // a DOM element orders its attributes by name, so the first declaration is the smallest prefix
+      String declaredPrefix = null;
+      for (int attribute = getFirstAttribute(node); attribute != NONE; attribute = getNextAttribute(attribute)) {
+        Name attributeName = nameTable.getName(getAttributeName(attribute));
+        if (isPrefixDeclaration(attributeName) && namespaceUri.equals(getAttributeValue(attribute))) {
+          String prefix = attributeName.getLocalName();
+          if ((declaredPrefix == null || prefix.compareTo(declaredPrefix) < 0)
+            && namespaceUri.equals(lookupNamespaceUri(element, prefix))) {
+            declaredPrefix = prefix;
+          }
+        }
+      }
+      if (declaredPrefix != null) {
+        return declaredPrefix;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Looks up the namespace of a prefix in the scope of an element like
+   * {@link Node#lookupNamespaceURI(String)}.
+   */
+  protected String lookupNamespaceUri(int element, String prefix) {
+    for (int node = element; node != NONE && getNodeType(node) == Node.ELEMENT_NODE; node = getParent(node)) {
+      Name name = getName(node);
+      if (name.getNamespaceUri() != null && prefix.equals(name.getPrefix())) {
+        return name.getNamespaceUri();
+      }
+      for (int attribute = getFirstAttribute(node); attribute != NONE; attribute = getNextAttribute(attribute)) {
+        Name attributeName = nameTable.getName(getAttributeName(attribute));
+        if (isPrefixDeclaration(attributeName) && prefix.equals(attributeName.getLocalName())) {
+          String namespaceUri = getAttributeValue(attribute);
+          return namespaceUri.isEmpty() ? null : namespaceUri;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Looks up the prefix of a namespace for a new element or attribute. An element which
+   * is not attached yet also sees the declarations of the root element.
+   */
+  protected String lookupPrefixInDocument(int element, String namespaceUri) {
+    int root = getRootNode();
+    String prefix = lookupPrefix(element != NONE ? element : root, namespaceUri);
+    if (prefix == null && element != NONE && root != NONE && !isAttached(element)) {
+      prefix = lookupPrefix(root, namespaceUri);
+    }
+    return prefix;
+  }
+
+  /**
+   * Determines the prefix to use for a new element or attribute of a namespace. If the
+   * namespace is not declared yet, it is declared on the root element.
+   *
+   * @param element the element of the new attribute or {@link #NONE} for a new element
+   * @param namespaceUri the namespace of the element or attribute
+   * @return the prefix or null if no prefix is required
+   * @see XmlQName
+   */
+  protected String resolvePrefix(int element, String namespaceUri) {
+    if (namespaceUri == null) {
+      // no namespace so no prefix
+      return null;
+    }
+    int root = getRootNode();
+    if (root == NONE) {
+      return element != NONE ? lookupPrefix(element, namespaceUri) : null;
+    }
+    else if (namespaceUri.equals(getName(root).getNamespaceUri())) {
+      // global namespaces do not have a prefix or namespace URI
+      return null;
+    }
+
+    String prefix = lookupPrefixInDocument(element, namespaceUri);
+    if (prefix == null) {
+      // if no prefix is found we generate a new one
+      String knownPrefix = XmlQName.KNOWN_PREFIXES.get(namespaceUri);
+      if (knownPrefix == null) {
+        prefix = registerNamespace(root, namespaceUri);
+      }
+      else if (!knownPrefix.isEmpty()) {
+        registerNamespace(root, knownPrefix, namespaceUri);
+        prefix = knownPrefix;
+      }
+    }
+    return prefix;
+  }
+
+  protected String registerNamespace(int element, String namespaceUri) {
+    String lookupPrefix = lookupPrefixInDocument(element, namespaceUri);
+    if (lookupPrefix == null) {
+      // check if a prefix is known
+      String prefix = XmlQName.KNOWN_PREFIXES.get(namespaceUri);
+      // check if prefix is not already used
+      if (prefix != null && isDeclaredOnRoot(prefix)) {
+        prefix = null;
+      }
+      if (prefix == null) {
+        // generate prefix
+        int index = 0;
+        while (isDeclaredOnRoot(DomDocumentImpl.GENERIC_NS_PREFIX + index)) {
+          index++;
+        }
+        prefix = DomDocumentImpl.GENERIC_NS_PREFIX + index;
+      }
+      registerNamespace(element, prefix, namespaceUri);
+      return prefix;
+    }
+    else {
+      return lookupPrefix;
+    }
+  }
+
+  protected void registerNamespace(int element, String prefix, String namespaceUri) {
+    int attribute = getAttribute(element, XMLNS_ATTRIBUTE_NS_URI, prefix);
+    int name = nameTable.getIndex(XMLNS_ATTRIBUTE_NS_URI, prefix, XMLNS_ATTRIBUTE);
+    if (attribute != NONE) {
+      setAttributeName(attribute, name);
+      setAttributeValue(attribute, namespaceUri);
+    }
+    else {
+      addAttribute(element, name, namespaceUri);
+    }
+  }
+
+  protected boolean isDeclaredOnRoot(String prefix) {
+    int root = getRootNode();
+    if (root != NONE) {
+      int attribute = getAttribute(root, XMLNS_ATTRIBUTE_NS_URI, prefix);
+      return attribute != NONE && isPrefixDeclaration(nameTable.getName(getAttributeName(attribute)));
+    }
+    return false;
+  }
+
+  /**
+   * Collects the namespaces which are in scope of an element like
+   * {@link DomUtil#getInScopeNamespaces(Element)}.
+   */
+  protected Map<String, String> getInScopeNamespaces(int element) {
+    Map<String, String> namespaces = new LinkedHashMap<String, String>();
+    for (int node = element; node != NONE && getNodeType(node) == Node.ELEMENT_NODE; node = getParent(node)) {
+      for (int attribute = getFirstAttribute(node); attribute != NONE; attribute = getNextAttribute(attribute)) {
+        Name attributeName = nameTable.getName(getAttributeName(attribute));
+        if (XMLNS_ATTRIBUTE_NS_URI.equals(attributeName.getNamespaceUri())) {
+          String prefix = XMLNS_ATTRIBUTE.equals(attributeName.getQualifiedName()) ? "" : attributeName.getLocalName();
+          if (!namespaces.containsKey(prefix)) {
+            namespaces.put(prefix, getAttributeValue(attribute));
+          }
+        }
+      }
+      Name name = getName(node);
+      String prefix = name.getPrefix() == null ? "" : name.getPrefix();
+      if (!namespaces.containsKey(prefix)) {
+        namespaces.put(prefix, name.getNamespaceUri() == null ? "" : name.getNamespaceUri());
+      }
+    }
+    return namespaces;
+  }
+
+  // tracking ///////////////////////////////////////////////////////////////
+
+  /**
+   * @return true if added and removed elements have to be recorded, as the id index was
+   *         built or the model element instances of the attached elements are retained
+   */
+  protected boolean isTracked() {
+    return isIndexed() || modelElementInstancesRetained;
+  }
+
+  /**
+   * Records an element and its descendants which were added to the document.
+   */
+  protected void elementAdded(int element) {
+    addIds(element);
+    if (modelElementInstancesRetained) {
+      setModelElementInstancesRetained(element, true);
+    }
+  }
+
+  /**
+   * Records that an element and its descendants were removed from the document.
+   */
+  protected void elementRemoved(int element) {
+    removeIds(element);
+    if (modelElementInstancesRetained) {
+      setModelElementInstancesRetained(element, false);
+    }
+  }
+
+  /**
+   * Keeps the model element instance of an element after it was associated, if the
+   * instances of the attached elements are retained.
+   */
+  protected void modelElementInstanceAssociated(int element) {
+    if (modelElementInstancesRetained && isAttached(element)) {
+      storage.setModelElementInstanceRetained(element, true);
+    }
+  }
+
+  protected void setModelElementInstancesRetained(int element, boolean retained) {
+    for (int node = element; node != NONE; node = nextNode(node, element)) {
+      if (getNodeType(node) == Node.ELEMENT_NODE) {
+        storage.setModelElementInstanceRetained(node, retained);
+      }
+    }
+  }
+
+  // ids ////////////////////////////////////////////////////////////////////
+
+  protected boolean isIndexed() {
+    return nodesById != null;
+  }
+
+  protected int getNodeById(String id) {
+    Object node = ensureIdsBuilt().get(id);
+    if (node instanceof DuplicateNodes) {
+      DuplicateNodes nodes = (DuplicateNodes) node;
+      return nodes.get(nodes.size() - 1);
+    }
+    else {
+      return node != null ? (Integer) node : NONE;
+    }
+  }
+
+  protected Map<String, Object> ensureIdsBuilt() {
+    Map<String, Object> index = nodesById;
+    if (index == null) {
+      synchronized (this) {
+        index = nodesById;
+        if (index == null) {
+          index = new HashMap<String, Object>();
+          collectIds(index, DOCUMENT);
+          nodesById = index;
+        }
+      }
+    }
+    return index;
+  }
+
+  protected void collectIds(Map<String, Object> index, int root) {
+    for (int node = root; node != NONE; node = nextNode(node, root)) {
+      for (int attribute = getFirstAttribute(node); attribute != NONE; attribute = getNextAttribute(attribute)) {
+        if (isIdAttribute(attribute)) {
+          putId(index, getAttributeValue(attribute), node);
+        }
+      }
+    }
+  }
+
+  /**
+   * Records the ids of an element and its descendants which were added to the document.
+   */
+  protected void addIds(int element) {
+    Map<String, Object> index = getWritableIds();
+    if (index != null) {
+      collectIds(index, element);
+    }
+  }
+
+  /**
+   * Records that an element and its descendants were removed from the document.
+   */
+  protected void removeIds(int element) {
+    Map<String, Object> index = getWritableIds();
+    if (index != null) {
+      for (int node = element; node != NONE; node = nextNode(node, element)) {
+        for (int attribute = getFirstAttribute(node); attribute != NONE; attribute = getNextAttribute(attribute)) {
+          if (isIdAttribute(attribute)) {
+            removeId(index, getAttributeValue(attribute), node);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Updates the id index after an id of an element was changed.
+   *
+   * @param element the element of the id
+   * @param previousId the previous id or null if the element had none
+   * @param id the new id or null if it was removed
+   */
+  protected void updateId(int element, String previousId, String id) {
+    if (isIndexed() && isAttached(element)) {
+      Map<String, Object> index = getWritableIds();
+      if (previousId != null) {
+        removeId(index, previousId, element);
+      }
+      if (id != null) {
+        putId(index, id, element);
+      }
+    }
+  }
+
+  /**
+   * @return the id index to modify, which is copied if it is shared with a clone, or null
+   *         if it is not built
+   */
+  protected Map<String, Object> getWritableIds() {
+    Map<String, Object> index = nodesById;
+    if (index != null && idsShared) {
+      index = new HashMap<String, Object>(index);
+      for (Map.Entry<String, Object> entry : index.entrySet()) {
+        if (entry.getValue() instanceof DuplicateNodes) {
+          DuplicateNodes nodes = new DuplicateNodes();
+          nodes.addAll((DuplicateNodes) entry.getValue());
+          entry.setValue(nodes);
+        }
+      }
+      nodesById = index;
+      idsShared = false;
+    }
+    return index;
+  }
+
+  protected static void putId(Map<String, Object> index, String id, int node) {
+    Integer element = node;
+    Object existing = index.put(id, element);
+    if (existing != null && !existing.equals(element)) {
+      DuplicateNodes nodes;
+      if (existing instanceof DuplicateNodes) {
+        nodes = (DuplicateNodes) existing;
+      }
+      else {
+        nodes = new DuplicateNodes();
+        nodes.add((Integer) existing);
+      }
+      if (!nodes.contains(element)) {
+        nodes.add(element);
+      }
+      index.put(id, nodes);
+    }
+  }
+
+  protected static void removeId(Map<String, Object> index, String id, int node) {
+    Integer element = node;
+    Object existing = index.get(id);
+    if (element.equals(existing)) {
+      index.remove(id);
+    }
+    else if (existing instanceof DuplicateNodes) {
+      DuplicateNodes nodes = (DuplicateNodes) existing;
+      nodes.remove(element);
+      if (nodes.size() == 1) {
+        index.put(id, nodes.get(0));
+      }
+    }
+  }
+
+  // DOM conversion /////////////////////////////////////////////////////////
+
+  /**
+   * Copies a DOM node and its descendants into new detached nodes.
+   *
+   * @param source the DOM node to copy
+   * @param values the values which were copied already, to share equal values
+   * @return the new node or {@link #NONE} if the type of the node is not stored
+   */
+  protected int importNode(Node source, Map<String, String> values) {
+    switch (source.getNodeType()) {
+      case Node.ELEMENT_NODE:
+        int element = newNode(Node.ELEMENT_NODE, getNameIndex(source), null);
+        NamedNodeMap attributes = source.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+          Attr attribute = (Attr) attributes.item(i);
+          int copiedAttribute = addAttribute(element, getNameIndex(attribute), share(values, attribute.getValue()));
+          setIdAttribute(copiedAttribute, attribute.isId());
+        }
+        for (Node child = source.getFirstChild(); child != null; child = child.getNextSibling()) {
+          int copiedChild = importNode(child, values);
+          if (copiedChild != NONE) {
+            insertBefore(element, copiedChild, NONE);
+          }
+        }
+        return element;
+      case Node.TEXT_NODE:
+      case Node.CDATA_SECTION_NODE:
+      case Node.COMMENT_NODE:
+        return newNode(source.getNodeType(), NONE, share(values, source.getNodeValue()));
+      case Node.ENTITY_REFERENCE_NODE:
+        return newNode(Node.TEXT_NODE, NONE, source.getTextContent());
+      case Node.PROCESSING_INSTRUCTION_NODE:
+        ProcessingInstruction processingInstruction = (ProcessingInstruction) source;
+        return newNode(Node.PROCESSING_INSTRUCTION_NODE, nameTable.getIndex(null, processingInstruction.getTarget(), null), processingInstruction.getData());
+      default:
+        return NONE;
+    }
+  }
+
+  protected int getNameIndex(Node node) {
+    String localName = node.getLocalName() != null ? node.getLocalName() : node.getNodeName();
+    return nameTable.getIndex(node.getNamespaceURI(), localName, node.getPrefix());
+  }
+
+  protected static String share(Map<String, String> values, String value) {
+    String sharedValue = values.get(value);
+    if (sharedValue == null) {
+      values.put(value, value);
+      sharedValue = value;
+    }
+    return sharedValue;
+  }
+
+  /**
+   * Copies a node and its descendants into a DOM document.
+   *
+   * @param document the DOM document which owns the copy
+   * @param node the node to copy
+   * @return the new DOM node, which is not attached yet
+   */
+  protected Node exportNode(Document document, int node) {
+    switch (getNodeType(node)) {
+      case Node.ELEMENT_NODE:
+        Name name = getName(node);
+        Element element = document.createElementNS(name.getNamespaceUri(), name.getQualifiedName());
+        for (int attribute = getFirstAttribute(node); attribute != NONE; attribute = getNextAttribute(attribute)) {
+          Name attributeName = nameTable.getName(getAttributeName(attribute));
+          element.setAttributeNS(attributeName.getNamespaceUri(), attributeName.getQualifiedName(), getAttributeValue(attribute));
+          if (isIdAttribute(attribute)) {
+            element.setIdAttributeNS(attributeName.getNamespaceUri(), attributeName.getLocalName(), true);
+          }
+        }
+        for (int child = getFirstChild(node); child != NONE; child = getNextSibling(child)) {
+          element.appendChild(exportNode(document, child));
+        }
+        return element;
+      case Node.TEXT_NODE:
+        return document.createTextNode(getNodeValue(node));
+      case Node.CDATA_SECTION_NODE:
+        return document.createCDATASection(getNodeValue(node));
+      case Node.COMMENT_NODE:
+        return document.createComment(getNodeValue(node));
+      case Node.PROCESSING_INSTRUCTION_NODE:
+        return document.createProcessingInstruction(getName(node).getLocalName(), getNodeValue(node));
+      default:
+        throw new ModelException("Unable to copy node of type " + getNodeType(node));
+    }
+  }
+
+  protected static Document newDocument() {
+    return getDomImplementation().createDocument(null, null, null);
+  }
+
+  protected static synchronized DOMImplementation getDomImplementation() {
+    if (domImplementation == null) {
+      try {
+        domImplementation = DocumentBuilderFactory.newInstance().newDocumentBuilder().getDOMImplementation();
+      }
+      catch (ParserConfigurationException e) {
+        throw new ModelException("Unable to create a DOM document", e);
+      }
+    }
+    return domImplementation;
+  }
+
+  /**
+   * The element nodes which use the same id.
+   */
+  protected static class DuplicateNodes extends ArrayList<Integer> {
+
+    private static final long serialVersionUID = 1L;
+
+  }
+
+}
@@ -0,0 +1,579 @@
+/*
+ * Copyright Camunda Services GmbH and/or licensed to Camunda Services GmbH
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. Camunda licenses this file to you under the Apache License,
+ * Version 2.0; you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.camunda.bpm.model.xml.impl.instance.compact;
+
+import static org.camunda.bpm.model.xml.impl.instance.compact.CompactDomDocument.NONE;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.camunda.bpm.model.xml.ModelException;
+import org.camunda.bpm.model.xml.impl.ModelInstanceImpl;
+import org.camunda.bpm.model.xml.impl.instance.ConcurrentDomElement;
+import org.camunda.bpm.model.xml.impl.instance.DocumentLock;
+import org.camunda.bpm.model.xml.impl.instance.NavigableDomElement;
+import org.camunda.bpm.model.xml.impl.instance.compact.NameTable.Name;
+import org.camunda.bpm.model.xml.impl.util.ModelUtil;
+import org.camunda.bpm.model.xml.instance.DomDocument;
+import org.camunda.bpm.model.xml.instance.DomElement;
+import org.camunda.bpm.model.xml.instance.ModelElementInstance;
+import org.w3c.dom.DOMException;
+import org.w3c.dom.Node;
+
+/**
+ * An element node of a {@link CompactDomDocument}.
+ */
+public class CompactDomElement implements ConcurrentDomElement, NavigableDomElement {
+
+  protected final CompactDomDocument document;
+  protected final int node;
+
+  public CompactDomElement(CompactDomDocument document, int node) {
+    this.document = document;
+    this.node = node;
+  }
+
+  protected DocumentLock getLock() {
+    return document.lock;
+  }
+
+  public String getNamespaceURI() {
+    getLock().lockRead();
+    try {
+      return document.getName(node).getNamespaceUri();
+    }
+    finally {
+      getLock().unlockRead();
+    }
+  }
+
+  public String getLocalName() {
+    getLock().lockRead();
+    try {
+      return document.getName(node).getLocalName();
+    }
+    finally {
+      getLock().unlockRead();
+    }
+  }
+
+  public String getPrefix() {
+    getLock().lockRead();
+    try {
+      return document.getName(node).getPrefix();
+    }
+    finally {
+      getLock().unlockRead();
+    }
+  }
+
+  public DomDocument getDocument() {
+    return document;
+  }
+
+  public DomElement getRootElement() {
+    return document.getRootElement();
+  }
+
+  public DomElement getParentElement() {
+    getLock().lockRead();
+    try {
+      int parent = document.getParent(node);
+      if (parent != NONE && document.getNodeType(parent) == Node.ELEMENT_NODE) {
+        return document.getElement(parent);
+      }
+      else {
+        return null;
+      }
+    }
+    finally {
+      getLock().unlockRead();
+    }
+  }
+
+  public DomElement getFirstChildElement() {
+    getLock().lockRead();
+    try {
+      return getElementFrom(document.getFirstChild(node));
+    }
+    finally {
+      getLock().unlockRead();
+    }
+  }
+
+  public DomElement getNextSiblingElement() {
+    getLock().lockRead();
+    try {
+      return getElementFrom(document.getNextSibling(node));
+    }
+    finally {
+      getLock().unlockRead();
+    }
+  }
+
+  /**
+   * @return the first element which is the node or one of its following siblings, or null if none
+   */
+  protected DomElement getElementFrom(int child) {
+    for (int sibling = child; sibling != NONE; sibling = document.getNextSibling(sibling)) {
+      if (document.getNodeType(sibling) == Node.ELEMENT_NODE) {
+        return document.getElement(sibling);
+      }
+    }
+    return null;
+  }
+
+  public List<DomElement> getChildElements() {
+    getLock().lockRead();
+    try {
+      List<DomElement> childElements = new ArrayList<DomElement>();
+      for (int child = document.getFirstChild(node); child != NONE; child = document.getNextSibling(child)) {
+        if (document.getNodeType(child) == Node.ELEMENT_NODE) {
+          childElements.add(document.getElement(child));
+        }
+      }
+      return childElements;
+    }
+    finally {
+      getLock().unlockRead();
+    }
+  }
+
+  public List<DomElement> getChildElementsByNameNs(String namespaceUri, String elementName) {
+    getLock().lockRead();
+    try {
+      List<DomElement> childElements = new ArrayList<DomElement>();
+      for (int child = document.getFirstChild(node); child != NONE; child = document.getNextSibling(child)) {
+        if (document.getNodeType(child) == Node.ELEMENT_NODE) {
+          Name name = document.getName(child);
+          if (elementName.equals(name.getLocalName()) && namespaceUri.equals(name.getNamespaceUri())) {
+            childElements.add(document.getElement(child));
+          }
+        }
+      }
+      return childElements;
+    }
+    finally {
+      getLock().unlockRead();
+    }
+  }
+
+  public List<DomElement> getChildElementsByNameNs(Set<String> namespaceUris, String elementName) {
+    List<DomElement> result = new ArrayList<DomElement>();
+    for (String namespace : namespaceUris) {
+      if (namespace != null) {
+        result.addAll(getChildElementsByNameNs(namespace, elementName));
+      }
+    }
+    return result;
+  }
+
+  public List<DomElement> getChildElementsByType(ModelInstanceImpl modelInstance, Class<? extends ModelElementInstance> elementType) {
+    getLock().lockRead();
+    try {
+      List<DomElement> childElements = new ArrayList<DomElement>();
+      for (DomElement childElement : getChildElements()) {
+        if (ModelUtil.isModelElementOfType(childElement, modelInstance, elementType)) {
+          childElements.add(childElement);
+        }
+      }
+      return childElements;
+    }
+    finally {
+      getLock().unlockRead();
+    }
+  }
+
+  public void replaceChild(DomElement newChildDomElement, DomElement existingChildDomElement) {
+    getLock().lockStructureWrite();
+    try {
+      try {
+        int newChild = document.getNode(newChildDomElement);
+        int existingChild = document.getNode(existingChildDomElement);
+        if (document.getParent(existingChild) != node) {
+          throw new DOMException(DOMException.NOT_FOUND_ERR, "The element to replace is not a child of this element");
+        }
+        if (newChild != existingChild) {
+          document.checkInsertion(node, newChild);
+          boolean attached = document.isTracked() && document.isAttached(node);
+          boolean newChildAttached = document.isTracked() && document.isAttached(newChild);
+          document.detach(newChild);
+          document.insertBefore(node, newChild, existingChild);
+          document.detach(existingChild);
+          if (newChildAttached) {
+            document.elementRemoved(newChild);
+          }
+          if (attached) {
+            document.elementRemoved(existingChild);
+            document.elementAdded(newChild);
+          }
+        }
+      }
+      catch (DOMException e) {
+        throw new ModelException("Unable to replace child <" + existingChildDomElement + "> of element <" + this + "> with element <" + newChildDomElement + ">", e);
+      }
+    }
+    finally {
+      getLock().unlockWrite();
+    }
+  }
+
+  public boolean removeChild(DomElement childDomElement) {
+    getLock().lockStructureWrite();
+    try {
+      int child;
+      try {
+        child = document.getNode(childDomElement);
+      }
+      catch (DOMException e) {
+        return false;
+      }
+      if (document.getParent(child) != node) {
+        return false;
+      }
+      boolean attached = document.isTracked() && document.isAttached(node);
+      document.detach(child);
+      if (attached) {
+        document.elementRemoved(child);
+      }
+      return true;
+    }
+    finally {
+      getLock().unlockWrite();
+    }
+  }
+
+  public void appendChild(DomElement childDomElement) {
+    getLock().lockStructureWrite();
+    try {
+      int child = document.getNode(childDomElement);
+      document.checkInsertion(node, child);
+      boolean attached = document.isTracked() && document.isAttached(child);
+      document.detach(child);
+      document.insertBefore(node, child, NONE);
+      moved(child, attached);
+    }
+    finally {
+      getLock().unlockWrite();
+    }
+  }
+
+  public void insertChildElementAfter(DomElement elementToInsert, DomElement insertAfter) {
+    getLock().lockStructureWrite();
+    try {
+      int newChild = document.getNode(elementToInsert);
+      // find node to insert before
+      int insertBeforeNode;
+      if (insertAfter == null) {
+        insertBeforeNode = document.getFirstChild(node);
+      }
+      else {
+        insertBeforeNode = document.getNextSibling(document.getNode(insertAfter));
+      }
+      if (insertBeforeNode != NONE && document.getParent(insertBeforeNode) != node) {
+        throw new DOMException(DOMException.NOT_FOUND_ERR, "The element to insert after is not a child of this element");
+      }
+      document.checkInsertion(node, newChild);
+      if (insertBeforeNode == newChild) {
+        insertBeforeNode = document.getNextSibling(newChild);
+      }
+
+      boolean attached = document.isTracked() && document.isAttached(newChild);
+      document.detach(newChild);
+      document.insertBefore(node, newChild, insertBeforeNode);
+      moved(newChild, attached);
+    }
+    finally {
+      getLock().unlockWrite();
+    }
+  }
+
+  /**
+   * Updates the id index and the retained instances after a child was moved.
+   *
+   * @param child the moved child
+   * @param wasAttached true if the child was part of the document and is tracked
+   */
+  protected void moved(int child, boolean wasAttached) {
+    if (wasAttached) {
+      document.elementRemoved(child);
+    }
+    if (document.isTracked() && document.isAttached(child)) {
+      document.elementAdded(child);
+    }
+  }
+
+  public boolean hasAttribute(String localName) {
+    return hasAttribute(null, localName);
+  }
+
+  public boolean hasAttribute(String namespaceUri, String localName) {
+    getLock().lockRead();
+    try {
+      return document.getAttribute(node, namespaceUri, localName) != NONE;
+    }
+    finally {
+      getLock().unlockRead();
+    }
+  }
+
+  public String getAttribute(String attributeName) {
+    return getAttribute(null, attributeName);
+  }
+
+  public String getAttribute(String namespaceUri, String localName) {
+    getLock().lockRead();
+    try {
+      int attribute = getAttributeNode(namespaceUri, localName);
+      if (attribute == NONE || document.getAttributeValue(attribute).isEmpty()) {
+        return null;
+      }
+      else {
+        return document.getAttributeValue(attribute);
+      }
+    }
+    finally {
+      getLock().unlockRead();
+    }
+  }
+
+  /**
+   * @return the attribute or {@link CompactDomDocument#NONE}, attributes in the namespace
+   *         of their element are stored without namespace
+   */
+  protected int getAttributeNode(String namespaceUri, String localName) {
+    return document.getAttribute(node, hasLocalNamespace(namespaceUri) ? null : namespaceUri, localName);
+  }
+
+  public void setAttribute(String localName, String value) {
+    setAttribute(null, localName, value);
+  }
+
+  public void setAttribute(String namespaceUri, String localName, String value) {
+    setAttribute(namespaceUri, localName, value, false);
+  }
+
+  protected void setAttribute(String namespaceUri, String localName, String value, boolean isIdAttribute) {
+    getLock().lockWrite();
+    try {
+      int attribute = getAttributeNode(namespaceUri, localName);
+      if (attribute != NONE) {
+        // an existing attribute keeps its prefix, so it does not have to be resolved
+        String previousId = document.isIdAttribute(attribute) ? document.getAttributeValue(attribute) : null;
+        document.setAttributeValue(attribute, value);
+        if (isIdAttribute) {
+          document.setIdAttribute(attribute, true);
+        }
+        if (previousId != null || isIdAttribute) {
+          document.updateId(node, previousId, value);
+        }
+      }
+      else {
+        int name;
+        if (hasLocalNamespace(namespaceUri)) {
+          name = document.nameTable.getIndex(null, localName, null);
+        }
+        else {
+          String prefix = document.resolvePrefix(node, namespaceUri);
+          name = document.nameTable.getIndex(namespaceUri, localName, prefix);
+        }
+        attribute = document.addAttribute(node, name, value);
+        if (isIdAttribute) {
+          document.setIdAttribute(attribute, true);
+          document.updateId(node, null, value);
+        }
+      }
+    }
+    finally {
+      getLock().unlockWrite();
+    }
+  }
+
+  public void setIdAttribute(String localName, String value) {
+    setIdAttribute(getNamespaceURI(), localName, value);
+  }
+
+  public void setIdAttribute(String namespaceUri, String localName, String value) {
+    setAttribute(namespaceUri, localName, value, true);
+  }
+
+  public void removeAttribute(String localName) {
+    removeAttribute(getNamespaceURI(), localName);
+  }
+
+  public void removeAttribute(String namespaceUri, String localName) {
+    getLock().lockWrite();
+    try {
+      int attribute = getAttributeNode(namespaceUri, localName);
+      if (attribute != NONE) {
+        if (document.isIdAttribute(attribute)) {
+          document.updateId(node, document.getAttributeValue(attribute), null);
+        }
+        document.removeAttribute(node, attribute);
+      }
+    }
+    finally {
+      getLock().unlockWrite();
+    }
+  }
+
+  public String getTextContent() {
+    getLock().lockRead();
+    try {
+      StringBuilder textContent = new StringBuilder();
+      for (int descendant = document.nextNode(node, node); descendant != NONE; descendant = document.nextNode(descendant, node)) {
+        int nodeType = document.getNodeType(descendant);
+        if (nodeType == Node.TEXT_NODE || nodeType == Node.CDATA_SECTION_NODE) {
+          textContent.append(document.getNodeValue(descendant));
+        }
+      }
+      return textContent.toString();
+    }
+    finally {
+      getLock().unlockRead();
+    }
+  }
+
+  public void setTextContent(String textContent) {
+    getLock().lockStructureWrite();
+    try {
+      boolean attached = document.isTracked() && document.isAttached(node);
+      int child;
+      while ((child = document.getFirstChild(node)) != NONE) {
+        // the child elements are replaced by the text
+        document.detach(child);
+        if (document.getNodeType(child) != Node.ELEMENT_NODE) {
+          document.releaseNode(child);
+        }
+        else if (attached) {
+          document.elementRemoved(child);
+        }
+      }
+      if (textContent != null && !textContent.isEmpty()) {
+        document.insertBefore(node, document.newNode(Node.TEXT_NODE, NONE, textContent), NONE);
+      }
+    }
+    finally {
+      getLock().unlockWrite();
+    }
+  }
+
+  public void addCDataSection(String data) {
+    getLock().lockWrite();
+    try {
+      document.insertBefore(node, document.newNode(Node.CDATA_SECTION_NODE, NONE, data), NONE);
+    }
+    finally {
+      getLock().unlockWrite();
+    }
+  }
+
+  public ModelElementInstance getModelElementInstance() {
+    // the lock prevents that the instances are copied while they are accessed
+    getLock().lockRead();
+    try {
+      return document.storage.getModelElementInstance(node);
+    }
+    finally {
+      getLock().unlockRead();
+    }
+  }
+
+  public void setModelElementInstance(ModelElementInstance modelElementInstance) {
+    getLock().lockRead();
+    try {
+      document.storage.setModelElementInstance(node, modelElementInstance);
+      if (modelElementInstance != null) {
+        document.modelElementInstanceAssociated(node);
+      }
+    }
+    finally {
+      getLock().unlockRead();
+    }
+  }
+
+  public ModelElementInstance putModelElementInstanceIfAbsent(ModelElementInstance modelElementInstance) {
+    getLock().lockRead();
+    try {
+      ModelElementInstance existingInstance = document.storage.putModelElementInstanceIfAbsent(node, modelElementInstance);
+      if (existingInstance == null) {
+        document.modelElementInstanceAssociated(node);
+      }
+      return existingInstance;
+    }
+    finally {
+      getLock().unlockRead();
+    }
+  }
+
+  protected boolean hasLocalNamespace(String namespaceUri) {
+    return namespaceUri != null && namespaceUri.equals(document.getName(node).getNamespaceUri());
+  }
+
+  public String registerNamespace(String namespaceUri) {
+    getLock().lockWrite();
+    try {
+      return document.registerNamespace(node, namespaceUri);
+    }
+    finally {
+      getLock().unlockWrite();
+    }
+  }
+
+  public void registerNamespace(String prefix, String namespaceUri) {
+    getLock().lockWrite();
+    try {
+      document.registerNamespace(node, prefix, namespaceUri);
+    }
+    finally {
+      getLock().unlockWrite();
+    }
+  }
+
+  public String lookupPrefix(String namespaceUri) {
+    getLock().lockRead();
+    try {
+      return document.lookupPrefix(node, namespaceUri);
+    }
+    finally {
+      getLock().unlockRead();
+    }
+  }
+
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+
+    CompactDomElement that = (CompactDomElement) o;
+    return document == that.document && node == that.node;
+  }
+
+  public int hashCode() {
+    return 31 * System.identityHashCode(document) + node;
+  }
+
+  public String toString() {
+    // like a DOM element
+    return "[" + document.getName(node).getQualifiedName() + ": null]";
+  }
+
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright Camunda Services GmbH and/or licensed to Camunda Services GmbH
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. Camunda licenses this file to you under the Apache License,
+ * Version 2.0; you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.camunda.bpm.model.xml.impl.instance.compact;
+
+import org.camunda.bpm.model.xml.instance.ModelElementInstance;
+
+/**
+ * The tables of a {@link CompactDomDocument}. Every node and every attribute is a row of
+ * int fields with a string value. The storage only grows, the document decides which rows
+ * are in use.
+ *
+ * <p>The storage must only be modified while holding the write lock of the document, the
+ * model element instances may also be set while holding the read lock.</p>
+ */
+public abstract class CompactStorage {
+
+  public static final int NODE_TYPE = 0;
+  public static final int PARENT = 1;
+  public static final int FIRST_CHILD = 2;
+  public static final int LAST_CHILD = 3;
+  public static final int PREVIOUS_SIBLING = 4;
+  public static final int NEXT_SIBLING = 5;
+  public static final int NODE_NAME = 6;
+  public static final int FIRST_ATTRIBUTE = 7;
+  public static final int NODE_FIELDS = 8;
+
+  public static final int ATTRIBUTE_NAME = 0;
+  public static final int NEXT_ATTRIBUTE = 1;
+  public static final int ID_ATTRIBUTE = 2;
+  public static final int ATTRIBUTE_FIELDS = 3;
+
+  public abstract int getNodeField(int node, int field);
+
+  public abstract void setNodeField(int node, int field, int value);
+
+  public abstract String getNodeValue(int node);
+
+  public abstract void setNodeValue(int node, String value);
+
+  public abstract int getAttributeField(int attribute, int field);
+
+  public abstract void setAttributeField(int attribute, int field, int value);
+
+  public abstract String getAttributeValue(int attribute);
+
+  public abstract void setAttributeValue(int attribute, String value);
+
+  public abstract ModelElementInstance getModelElementInstance(int node);
+
+  public abstract void setModelElementInstance(int node, ModelElementInstance modelElementInstance);
+
+  /**
+   * Associates the model element instance with the node atomically, unless another instance
+   * is associated already.
+   *
+   * @return the instance which was associated before or null if the given instance was associated
+   */
+  public abstract ModelElementInstance putModelElementInstanceIfAbsent(int node, ModelElementInstance modelElementInstance);
+
+  /**
+   * References the model element instance of a node strongly while it is retained. Storages
+   * which reference the instances strongly anyway do not have to do anything.
+   *
+   * @param node the node of the instance
+   * @param retained true if the instance must not be collected, false to release it again
+   */
+  public void setModelElementInstanceRetained(int node, boolean retained) {
+  }
+
+  /**
+   * Grows the node table, so that it can hold at least the given number of nodes.
+   */
+  public abstract void ensureNodeCapacity(int nodeCount);
+
+  /**
+   * Grows the attribute table, so that it can hold at least the given number of attributes.
+   */
+  public abstract void ensureAttributeCapacity(int attributeCount);
+
+  /**
+   * Releases the capacity which is not used by the given number of rows, if supported.
+   */
+  public abstract void trimToSize(int nodeCount, int attributeCount);
+
+  /**
+   * Copies the rows in use without the model element instances. The copy may share the
+   * rows with this storage until they are written by either storage.
+   *
+   * @param nodeCount the number of nodes to copy
+   * @param attributeCount the number of attributes to copy
+   * @return the new storage of the same kind
+   */
+  public abstract CompactStorage copy(int nodeCount, int attributeCount);
+
+}
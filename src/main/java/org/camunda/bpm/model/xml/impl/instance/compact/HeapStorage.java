@@ -0,0 +1,250 @@
+/*
+ * Copyright Camunda Services GmbH and/or licensed to Camunda Services GmbH
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. Camunda licenses this file to you under the Apache License,
+ * Version 2.0; you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.camunda.bpm.model.xml.impl.instance.compact;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.camunda.bpm.model.xml.instance.ModelElementInstance;
+
+/**
+ * Stores the rows of a {@link CompactDomDocument} in int and string arrays on the heap.
+ *
+ * <p>The rows are stored in chunks, only the last chunk grows. A {@link #copy(int, int) copy}
+ * shares the chunks with this storage, a chunk is copied by the first write of either
+ * storage, so a copy which is only read costs a fraction of the size of the document.</p>
+ */
+public class HeapStorage extends CompactStorage {
+
+  protected static final int INITIAL_CAPACITY = 64;
+  protected static final int CHUNK_SHIFT = 10;
+  protected static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+  protected static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+  protected int[][] nodes;
+  protected String[][] nodeValues;
+  /** false if the chunk is shared with a copy and must be copied before it is written */
+  protected boolean[] ownedNodeChunks;
+  protected int nodeCapacity;
+
+  protected int[][] attributes;
+  protected String[][] attributeValues;
+  protected boolean[] ownedAttributeChunks;
+  protected int attributeCapacity;
+
+  /** the chunks of the model element instances, which are created on first use */
+  protected volatile AtomicReferenceArray<AtomicReferenceArray<ModelElementInstance>> modelElementInstances;
+
+  public HeapStorage() {
+    this(INITIAL_CAPACITY, INITIAL_CAPACITY);
+  }
+
+  public HeapStorage(int nodeCapacity, int attributeCapacity) {
+    nodes = new int[0][];
+    nodeValues = new String[0][];
+    ownedNodeChunks = new boolean[0];
+    attributes = new int[0][];
+    attributeValues = new String[0][];
+    ownedAttributeChunks = new boolean[0];
+    modelElementInstances = new AtomicReferenceArray<AtomicReferenceArray<ModelElementInstance>>(0);
+    setNodeCapacity(nodeCapacity);
+    setAttributeCapacity(attributeCapacity);
+  }
+
+  public int getNodeField(int node, int field) {
+    return nodes[node >>> CHUNK_SHIFT][(node & CHUNK_MASK) * NODE_FIELDS + field];
+  }
+
+  public void setNodeField(int node, int field, int value) {
+    getWritableNodeChunk(node >>> CHUNK_SHIFT)[(node & CHUNK_MASK) * NODE_FIELDS + field] = value;
+  }
+
+  public String getNodeValue(int node) {
+    return nodeValues[node >>> CHUNK_SHIFT][node & CHUNK_MASK];
+  }
+
+  public void setNodeValue(int node, String value) {
+    int chunk = node >>> CHUNK_SHIFT;
+    getWritableNodeChunk(chunk);
+    nodeValues[chunk][node & CHUNK_MASK] = value;
+  }
+
+  public int getAttributeField(int attribute, int field) {
+    return attributes[attribute >>> CHUNK_SHIFT][(attribute & CHUNK_MASK) * ATTRIBUTE_FIELDS + field];
+  }
+
+  public void setAttributeField(int attribute, int field, int value) {
+    getWritableAttributeChunk(attribute >>> CHUNK_SHIFT)[(attribute & CHUNK_MASK) * ATTRIBUTE_FIELDS + field] = value;
+  }
+
+  public String getAttributeValue(int attribute) {
+    return attributeValues[attribute >>> CHUNK_SHIFT][attribute & CHUNK_MASK];
+  }
+
+  public void setAttributeValue(int attribute, String value) {
+    int chunk = attribute >>> CHUNK_SHIFT;
+    getWritableAttributeChunk(chunk);
+    attributeValues[chunk][attribute & CHUNK_MASK] = value;
+  }
+
+  public ModelElementInstance getModelElementInstance(int node) {
+    AtomicReferenceArray<ModelElementInstance> chunk = modelElementInstances.get(node >>> CHUNK_SHIFT);
+    return chunk != null ? chunk.get(node & CHUNK_MASK) : null;
+  }
+
+  public void setModelElementInstance(int node, ModelElementInstance modelElementInstance) {
+    if (modelElementInstance != null || modelElementInstances.get(node >>> CHUNK_SHIFT) != null) {
+      getModelElementInstanceChunk(node).set(node & CHUNK_MASK, modelElementInstance);
+    }
+  }
+
+  public ModelElementInstance putModelElementInstanceIfAbsent(int node, ModelElementInstance modelElementInstance) {
+    AtomicReferenceArray<ModelElementInstance> chunk = getModelElementInstanceChunk(node);
+    int index = node & CHUNK_MASK;
+    if (chunk.compareAndSet(index, null, modelElementInstance)) {
+      return null;
+    }
+    else {
+      return chunk.get(index);
+    }
+  }
+
+  /**
+   * @return the chunk of the instance of the node, which is created if it does not exist yet
+   */
+  protected AtomicReferenceArray<ModelElementInstance> getModelElementInstanceChunk(int node) {
+    AtomicReferenceArray<AtomicReferenceArray<ModelElementInstance>> chunks = modelElementInstances;
+    int index = node >>> CHUNK_SHIFT;
+    AtomicReferenceArray<ModelElementInstance> chunk = chunks.get(index);
+    if (chunk == null) {
+      // the instances are also set while holding the read lock only
+      chunks.compareAndSet(index, null, new AtomicReferenceArray<ModelElementInstance>(nodeValues[index].length));
+      chunk = chunks.get(index);
+    }
+    return chunk;
+  }
+
+  public void ensureNodeCapacity(int nodeCount) {
+    if (nodeCount > nodeCapacity) {
+      setNodeCapacity(Math.max(nodeCount, nodeCapacity + (nodeCapacity >> 1) + 1));
+    }
+  }
+
+  public void ensureAttributeCapacity(int attributeCount) {
+    if (attributeCount > attributeCapacity) {
+      setAttributeCapacity(Math.max(attributeCount, attributeCapacity + (attributeCapacity >> 1) + 1));
+    }
+  }
+
+  public void trimToSize(int nodeCount, int attributeCount) {
+    if (nodeCount < nodeCapacity) {
+      setNodeCapacity(nodeCount);
+    }
+    if (attributeCount < attributeCapacity) {
+      setAttributeCapacity(attributeCount);
+    }
+  }
+
+  /**
+   * Shares all chunks with the copy, the chunks are copied on the first write.
+   */
+  public CompactStorage copy(int nodeCount, int attributeCount) {
+    HeapStorage storage = new HeapStorage(0, 0);
+    Arrays.fill(ownedNodeChunks, false);
+    storage.nodes = nodes.clone();
+    storage.nodeValues = nodeValues.clone();
+    storage.ownedNodeChunks = new boolean[nodes.length];
+    storage.nodeCapacity = nodeCapacity;
+    storage.modelElementInstances = new AtomicReferenceArray<AtomicReferenceArray<ModelElementInstance>>(nodes.length);
+
+    Arrays.fill(ownedAttributeChunks, false);
+    storage.attributes = attributes.clone();
+    storage.attributeValues = attributeValues.clone();
+    storage.ownedAttributeChunks = new boolean[attributes.length];
+    storage.attributeCapacity = attributeCapacity;
+    return storage;
+  }
+
+  protected int[] getWritableNodeChunk(int chunk) {
+    if (!ownedNodeChunks[chunk]) {
+      nodes[chunk] = nodes[chunk].clone();
+      nodeValues[chunk] = nodeValues[chunk].clone();
+      ownedNodeChunks[chunk] = true;
+    }
+    return nodes[chunk];
+  }
+
+  protected int[] getWritableAttributeChunk(int chunk) {
+    if (!ownedAttributeChunks[chunk]) {
+      attributes[chunk] = attributes[chunk].clone();
+      attributeValues[chunk] = attributeValues[chunk].clone();
+      ownedAttributeChunks[chunk] = true;
+    }
+    return attributes[chunk];
+  }
+
+  protected void setNodeCapacity(int capacity) {
+    int chunkCount = (capacity + CHUNK_MASK) >>> CHUNK_SHIFT;
+    nodes = Arrays.copyOf(nodes, chunkCount);
+    nodeValues = Arrays.copyOf(nodeValues, chunkCount);
+    ownedNodeChunks = Arrays.copyOf(ownedNodeChunks, chunkCount);
+    for (int chunk = 0; chunk < chunkCount; chunk++) {
+      int size = Math.min(capacity - (chunk << CHUNK_SHIFT), CHUNK_SIZE);
+      if (nodeValues[chunk] == null || nodeValues[chunk].length != size) {
+        nodes[chunk] = nodes[chunk] == null ? new int[size * NODE_FIELDS] : Arrays.copyOf(nodes[chunk], size * NODE_FIELDS);
+        nodeValues[chunk] = nodeValues[chunk] == null ? new String[size] : Arrays.copyOf(nodeValues[chunk], size);
+        ownedNodeChunks[chunk] = true;
+      }
+    }
+    nodeCapacity = capacity;
+
+    AtomicReferenceArray<AtomicReferenceArray<ModelElementInstance>> instances = modelElementInstances;
+    AtomicReferenceArray<AtomicReferenceArray<ModelElementInstance>> resizedInstances = new AtomicReferenceArray<AtomicReferenceArray<ModelElementInstance>>(chunkCount);
+    for (int chunk = 0; chunk < Math.min(chunkCount, instances.length()); chunk++) {
+      resizedInstances.set(chunk, resize(instances.get(chunk), nodeValues[chunk].length));
+    }
+    modelElementInstances = resizedInstances;
+  }
+
+  protected static AtomicReferenceArray<ModelElementInstance> resize(AtomicReferenceArray<ModelElementInstance> chunk, int size) {
+    if (chunk == null || chunk.length() == size) {
+      return chunk;
+    }
+    AtomicReferenceArray<ModelElementInstance> resizedChunk = new AtomicReferenceArray<ModelElementInstance>(size);
+    for (int i = 0; i < Math.min(size, chunk.length()); i++) {
+      resizedChunk.set(i, chunk.get(i));
+    }
+    return resizedChunk;
+  }
+
+  protected void setAttributeCapacity(int capacity) {
+    int chunkCount = (capacity + CHUNK_MASK) >>> CHUNK_SHIFT;
+    attributes = Arrays.copyOf(attributes, chunkCount);
+    attributeValues = Arrays.copyOf(attributeValues, chunkCount);
+    ownedAttributeChunks = Arrays.copyOf(ownedAttributeChunks, chunkCount);
+    for (int chunk = 0; chunk < chunkCount; chunk++) {
+      int size = Math.min(capacity - (chunk << CHUNK_SHIFT), CHUNK_SIZE);
+      if (attributeValues[chunk] == null || attributeValues[chunk].length != size) {
+        attributes[chunk] = attributes[chunk] == null ? new int[size * ATTRIBUTE_FIELDS] : Arrays.copyOf(attributes[chunk], size * ATTRIBUTE_FIELDS);
+        attributeValues[chunk] = attributeValues[chunk] == null ? new String[size] : Arrays.copyOf(attributeValues[chunk], size);
+        ownedAttributeChunks[chunk] = true;
+      }
+    }
+    attributeCapacity = capacity;
+  }
+
+}
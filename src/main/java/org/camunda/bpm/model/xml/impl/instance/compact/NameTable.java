@@ -0,0 +1,140 @@
+/*
+ * Copyright Camunda Services GmbH and/or licensed to Camunda Services GmbH
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. Camunda licenses this file to you under the Apache License,
+ * Version 2.0; you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.camunda.bpm.model.xml.impl.instance.compact;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.camunda.bpm.model.xml.impl.util.QName;
+
+/**
+ * The interned names of the elements and attributes of a {@link CompactDomDocument}, so
+ * every node only stores the index of its name. A name is never removed from the table.
+ */
+public class NameTable {
+
+  protected Name[] names;
+  protected int size;
+  protected final Map<Name, Integer> indexByName;
+
+  public NameTable() {
+    names = new Name[16];
+    indexByName = new HashMap<Name, Integer>();
+  }
+
+  public NameTable(NameTable nameTable) {
+    names = Arrays.copyOf(nameTable.names, nameTable.names.length);
+    size = nameTable.size;
+    indexByName = new HashMap<Name, Integer>(nameTable.indexByName);
+  }
+
+  /**
+   * @param namespaceUri the namespace or null for none
+   * @param localName the local name
+   * @param prefix the prefix or null for none
+   * @return the index of the name, which is added to the table if it is unknown
+   */
+  public int getIndex(String namespaceUri, String localName, String prefix) {
+    if (prefix != null && prefix.isEmpty()) {
+      prefix = null;
+    }
+    Name name = new Name(namespaceUri, localName, prefix);
+    Integer index = indexByName.get(name);
+    if (index == null) {
+      if (size == names.length) {
+        names = Arrays.copyOf(names, size * 2);
+      }
+      index = size++;
+      names[index] = name;
+      indexByName.put(name, index);
+    }
+    return index;
+  }
+
+  public Name getName(int index) {
+    return names[index];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * A qualified name with its namespace.
+   */
+  public static class Name {
+
+    protected final String namespaceUri;
+    protected final String localName;
+    protected final String prefix;
+    protected final String qualifiedName;
+
+    public Name(String namespaceUri, String localName, String prefix) {
+      this.namespaceUri = namespaceUri;
+      this.localName = localName;
+      this.prefix = prefix;
+      this.qualifiedName = QName.combine(prefix, localName);
+    }
+
+    public String getNamespaceUri() {
+      return namespaceUri;
+    }
+
+    public String getLocalName() {
+      return localName;
+    }
+
+    public String getPrefix() {
+      return prefix;
+    }
+
+    public String getQualifiedName() {
+      return qualifiedName;
+    }
+
+    /**
+     * @return true if the name has the namespace and local name regardless of its prefix
+     */
+    public boolean matches(String namespaceUri, String localName) {
+      return this.localName.equals(localName)
+        && (this.namespaceUri == null ? namespaceUri == null : this.namespaceUri.equals(namespaceUri));
+    }
+
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      Name name = (Name) o;
+      return localName.equals(name.localName)
+        && (namespaceUri == null ? name.namespaceUri == null : namespaceUri.equals(name.namespaceUri))
+        && (prefix == null ? name.prefix == null : prefix.equals(name.prefix));
+    }
+
+    public int hashCode() {
+      int result = namespaceUri != null ? namespaceUri.hashCode() : 0;
+      result = 31 * result + localName.hashCode();
+      result = 31 * result + (prefix != null ? prefix.hashCode() : 0);
+      return result;
+    }
+
+  }
+
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright Camunda Services GmbH and/or licensed to Camunda Services GmbH
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. Camunda licenses this file to you under the Apache License,
+ * Version 2.0; you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.camunda.bpm.model.xml.impl.instance.compact;
+
+import java.io.File;
+
+import org.camunda.bpm.model.xml.instance.DomBackend;
+import org.camunda.bpm.model.xml.instance.DomDocument;
+import org.w3c.dom.Document;
+
+/**
+ * A backend which copies the DOM document into a {@link CompactDomDocument} with an
+ * {@link OffHeapStorage}, so that the trees of very large models put no pressure on the
+ * garbage collector. The names and the id index are still kept on the heap.
+ */
+public class OffHeapDomBackend implements DomBackend {
+
+  protected final File directory;
+
+  /**
+   * Creates a backend which stores the documents in direct memory.
+   */
+  public OffHeapDomBackend() {
+    this(null);
+  }
+
+  /**
+   * @param directory the directory of the memory-mapped files or null to use direct memory
+   */
+  public OffHeapDomBackend(File directory) {
+    this.directory = directory;
+  }
+
+  public DomDocument createDocument(Document document, boolean threadConfined) {
+    return CompactDomDocument.fromDocument(document, threadConfined, new OffHeapStorage(directory));
+  }
+
+}
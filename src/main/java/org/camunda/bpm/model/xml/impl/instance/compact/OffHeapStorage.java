@@ -0,0 +1,387 @@
+/*
+ * Copyright Camunda Services GmbH and/or licensed to Camunda Services GmbH
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. Camunda licenses this file to you under the Apache License,
+ * Version 2.0; you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.camunda.bpm.model.xml.impl.instance.compact;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.camunda.bpm.model.xml.impl.util.ModelIoException;
+import org.camunda.bpm.model.xml.instance.ModelElementInstance;
+
+/**
+ * Stores the rows of a {@link CompactDomDocument} outside of the heap, so that the tree of
+ * very large documents does not have to be traced by the garbage collector. The rows and the
+ * characters of the values are stored in segments of direct memory or, if a directory is
+ * given, of memory-mapped temporary files. Growing the storage adds segments, so existing
+ * rows are never copied. A {@link #copy(int, int) copy} shares the segments with this
+ * storage, a segment is copied by the first write of either storage.
+ *
+ * <p>Only the model element instances which are in use are kept on the heap, they are
+ * referenced weakly by their node and created again once they were collected, unless the
+ * document {@link #setModelElementInstanceRetained(int, boolean) retains} them, e.g. after
+ * they were created eagerly. Values are
+ * decoded to a new string on every read. Changed values are written in place if they fit,
+ * otherwise they are appended, so the space of the previous value is not reused.</p>
+ *
+ * <p>The segments are released when the storage is garbage collected. The temporary files
+ * are deleted right after they were mapped, if the file system supports it, otherwise
+ * when the virtual machine exits.</p>
+ */
+public class OffHeapStorage extends CompactStorage {
+
+  protected static final int ROWS_PER_SEGMENT_SHIFT = 12;
+  protected static final int ROWS_PER_SEGMENT = 1 << ROWS_PER_SEGMENT_SHIFT;
+  protected static final int CHARS_PER_SEGMENT = 1 << 16;
+
+  /** a row consists of its int fields, the reference of its value and the length of the value */
+  protected static final int NODE_ROW_BYTES = 48;
+  protected static final int ATTRIBUTE_ROW_BYTES = 32;
+  protected static final int NODE_VALUE_OFFSET = NODE_FIELDS * 4;
+  protected static final int ATTRIBUTE_VALUE_OFFSET = 16;
+
+  protected static final int NULL_VALUE = -1;
+
+  protected final File directory;
+
+  protected SegmentList nodeSegments = new SegmentList();
+  protected SegmentList attributeSegments = new SegmentList();
+  protected SegmentList charSegments = new SegmentList();
+  protected int charPosition;
+
+  protected final ConcurrentMap<Integer, InstanceReference> modelElementInstances = new ConcurrentHashMap<Integer, InstanceReference>();
+  protected final ReferenceQueue<ModelElementInstance> collectedInstances = new ReferenceQueue<ModelElementInstance>();
+
+  /**
+   * Creates a storage in direct memory.
+   */
+  public OffHeapStorage() {
+    this(null);
+  }
+
+  /**
+   * @param directory the directory of the memory-mapped files or null to use direct memory
+   */
+  public OffHeapStorage(File directory) {
+    this.directory = directory;
+  }
+
+  public File getDirectory() {
+    return directory;
+  }
+
+  public int getNodeField(int node, int field) {
+    return getNodeSegment(node).getInt(getNodePosition(node) + field * 4);
+  }
+
+  public void setNodeField(int node, int field, int value) {
+    getWritableNodeSegment(node).putInt(getNodePosition(node) + field * 4, value);
+  }
+
+  public String getNodeValue(int node) {
+    return readValue(getNodeSegment(node), getNodePosition(node) + NODE_VALUE_OFFSET);
+  }
+
+  public void setNodeValue(int node, String value) {
+    writeValue(getWritableNodeSegment(node), getNodePosition(node) + NODE_VALUE_OFFSET, value);
+  }
+
+  public int getAttributeField(int attribute, int field) {
+    return getAttributeSegment(attribute).getInt(getAttributePosition(attribute) + field * 4);
+  }
+
+  public void setAttributeField(int attribute, int field, int value) {
+    getWritableAttributeSegment(attribute).putInt(getAttributePosition(attribute) + field * 4, value);
+  }
+
+  public String getAttributeValue(int attribute) {
+    return readValue(getAttributeSegment(attribute), getAttributePosition(attribute) + ATTRIBUTE_VALUE_OFFSET);
+  }
+
+  public void setAttributeValue(int attribute, String value) {
+    writeValue(getWritableAttributeSegment(attribute), getAttributePosition(attribute) + ATTRIBUTE_VALUE_OFFSET, value);
+  }
+
+  public ModelElementInstance getModelElementInstance(int node) {
+    expungeCollectedInstances();
+    InstanceReference reference = modelElementInstances.get(node);
+    return reference != null ? reference.get() : null;
+  }
+
+  public void setModelElementInstance(int node, ModelElementInstance modelElementInstance) {
+    expungeCollectedInstances();
+    if (modelElementInstance != null) {
+      modelElementInstances.put(node, new InstanceReference(node, modelElementInstance, collectedInstances));
+    }
+    else {
+      modelElementInstances.remove(node);
+    }
+  }
+
+  public ModelElementInstance putModelElementInstanceIfAbsent(int node, ModelElementInstance modelElementInstance) {
+    expungeCollectedInstances();
+    InstanceReference newReference = new InstanceReference(node, modelElementInstance, collectedInstances);
+    while (true) {
+      InstanceReference reference = modelElementInstances.putIfAbsent(node, newReference);
+      if (reference == null) {
+        return null;
+      }
+      ModelElementInstance existingInstance = reference.get();
+      if (existingInstance != null) {
+        return existingInstance;
+      }
+      if (modelElementInstances.replace(node, reference, newReference)) {
+        return null;
+      }
+      // another thread associated an instance first
+    }
+  }
+
+  public void setModelElementInstanceRetained(int node, boolean retained) {
+    InstanceReference reference = modelElementInstances.get(node);
+    if (reference != null) {
+      reference.retainedInstance = retained ? reference.get() : null;
+    }
+  }
+
+  /**
+   * Removes the entries of collected instances, unless the node was already associated
+   * with a new instance.
+   */
+  protected void expungeCollectedInstances() {
+    InstanceReference reference;
+    while ((reference = (InstanceReference) collectedInstances.poll()) != null) {
+      modelElementInstances.remove(reference.node, reference);
+    }
+  }
+
+  public void ensureNodeCapacity(int nodeCount) {
+    while (nodeSegments.size() * ROWS_PER_SEGMENT < nodeCount) {
+      nodeSegments.add(allocate(ROWS_PER_SEGMENT * NODE_ROW_BYTES));
+    }
+  }
+
+  public void ensureAttributeCapacity(int attributeCount) {
+    while (attributeSegments.size() * ROWS_PER_SEGMENT < attributeCount) {
+      attributeSegments.add(allocate(ROWS_PER_SEGMENT * ATTRIBUTE_ROW_BYTES));
+    }
+  }
+
+  /**
+   * Does nothing, as the segments are allocated on demand already.
+   */
+  public void trimToSize(int nodeCount, int attributeCount) {
+  }
+
+  /**
+   * Shares all segments with the copy, the segments are copied on the first write.
+   */
+  public CompactStorage copy(int nodeCount, int attributeCount) {
+    OffHeapStorage storage = new OffHeapStorage(directory);
+    storage.nodeSegments = nodeSegments.share();
+    storage.attributeSegments = attributeSegments.share();
+    storage.charSegments = charSegments.share();
+    storage.charPosition = charPosition;
+    return storage;
+  }
+
+  protected ByteBuffer getNodeSegment(int node) {
+    return nodeSegments.get(node >>> ROWS_PER_SEGMENT_SHIFT);
+  }
+
+  protected ByteBuffer getWritableNodeSegment(int node) {
+    return nodeSegments.getWritable(node >>> ROWS_PER_SEGMENT_SHIFT, this);
+  }
+
+  protected static int getNodePosition(int node) {
+    return (node & (ROWS_PER_SEGMENT - 1)) * NODE_ROW_BYTES;
+  }
+
+  protected ByteBuffer getAttributeSegment(int attribute) {
+    return attributeSegments.get(attribute >>> ROWS_PER_SEGMENT_SHIFT);
+  }
+
+  protected ByteBuffer getWritableAttributeSegment(int attribute) {
+    return attributeSegments.getWritable(attribute >>> ROWS_PER_SEGMENT_SHIFT, this);
+  }
+
+  protected static int getAttributePosition(int attribute) {
+    return (attribute & (ROWS_PER_SEGMENT - 1)) * ATTRIBUTE_ROW_BYTES;
+  }
+
+  /**
+   * Reads a value which is referenced by a row. The reference consists of the index of the
+   * char segment in the high and the char position in the low int, followed by the length.
+   */
+  protected String readValue(ByteBuffer row, int position) {
+    int length = row.getInt(position + 8);
+    if (length == NULL_VALUE) {
+      return null;
+    }
+    long reference = row.getLong(position);
+    ByteBuffer segment = charSegments.get((int) (reference >>> 32));
+    int index = (int) reference * 2;
+    char[] chars = new char[length];
+    for (int i = 0; i < length; i++) {
+      chars[i] = segment.getChar(index + i * 2);
+    }
+    return new String(chars);
+  }
+
+  protected void writeValue(ByteBuffer row, int position, String value) {
+    if (value == null) {
+      row.putInt(position + 8, NULL_VALUE);
+      return;
+    }
+    int length = value.length();
+    long reference;
+    if (row.getInt(position + 8) >= length) {
+      // the previous value is replaced in place
+      reference = row.getLong(position);
+    }
+    else {
+      int segmentIndex = charSegments.size() - 1;
+      if (segmentIndex < 0 || charPosition + length > charSegments.get(segmentIndex).capacity() / 2) {
+        charSegments.add(allocate(Math.max(CHARS_PER_SEGMENT, length) * 2));
+        segmentIndex++;
+        charPosition = 0;
+      }
+      reference = ((long) segmentIndex << 32) | charPosition;
+      charPosition += length;
+    }
+    ByteBuffer segment = charSegments.getWritable((int) (reference >>> 32), this);
+    int index = (int) reference * 2;
+    for (int i = 0; i < length; i++) {
+      segment.putChar(index + i * 2, value.charAt(i));
+    }
+    row.putLong(position, reference);
+    row.putInt(position + 8, length);
+  }
+
+  protected ByteBuffer copySegment(ByteBuffer segment) {
+    ByteBuffer source = segment.duplicate();
+    source.clear();
+    ByteBuffer copiedSegment = allocate(source.capacity());
+    copiedSegment.put(source);
+    return copiedSegment;
+  }
+
+  /**
+   * Allocates a new segment in direct memory or in a memory-mapped temporary file.
+   */
+  protected ByteBuffer allocate(int size) {
+    ByteBuffer segment;
+    if (directory == null) {
+      segment = ByteBuffer.allocateDirect(size);
+    }
+    else {
+      segment = map(size);
+    }
+    return segment.order(ByteOrder.nativeOrder());
+  }
+
+  protected ByteBuffer map(int size) {
+    try {
+      File file = File.createTempFile("model-", ".segment", directory);
+      try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+        randomAccessFile.setLength(size);
+        // the mapping stays valid after the channel is closed
+        return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+      }
+      finally {
+        if (!file.delete()) {
+          file.deleteOnExit();
+        }
+      }
+    }
+    catch (IOException e) {
+      throw new ModelIoException("Unable to map a segment in directory " + directory, e);
+    }
+  }
+
+  /**
+   * References the model element instance of a node weakly and knows the node, so that the
+   * entry can be removed once the instance was collected.
+   */
+  protected static class InstanceReference extends WeakReference<ModelElementInstance> {
+
+    protected final int node;
+
+    /**
+     * The instance while it is retained, otherwise null.
+     */
+    protected volatile ModelElementInstance retainedInstance;
+
+    public InstanceReference(int node, ModelElementInstance modelElementInstance, ReferenceQueue<ModelElementInstance> queue) {
+      super(modelElementInstance, queue);
+      this.node = node;
+    }
+
+  }
+
+  /**
+   * The segments of a table, which knows the segments that are shared with a copy.
+   */
+  protected static class SegmentList {
+
+    protected final List<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+    /** false if the segment is shared with a copy and must be copied before it is written */
+    protected final List<Boolean> owned = new ArrayList<Boolean>();
+
+    public int size() {
+      return segments.size();
+    }
+
+    public ByteBuffer get(int index) {
+      return segments.get(index);
+    }
+
+    public ByteBuffer getWritable(int index, OffHeapStorage storage) {
+      if (!owned.get(index)) {
+        segments.set(index, storage.copySegment(segments.get(index)));
+        owned.set(index, true);
+      }
+      return segments.get(index);
+    }
+
+    public void add(ByteBuffer segment) {
+      segments.add(segment);
+      owned.add(true);
+    }
+
+    public SegmentList share() {
+      SegmentList sharedSegments = new SegmentList();
+      for (int i = 0; i < segments.size(); i++) {
+        owned.set(i, false);
+        sharedSegments.segments.add(segments.get(i));
+        sharedSegments.owned.add(false);
+      }
+      return sharedSegments;
+    }
+
+  }
+
+}
@@ -30,10 +30,16 @@ import javax.xml.validation.SchemaFactory;
 import javax.xml.validation.Validator;
 import org.camunda.bpm.model.xml.ModelInstance;
 import org.camunda.bpm.model.xml.ModelValidationException;
+import org.camunda.bpm.model.xml.impl.MaterializationPolicy;
+import org.camunda.bpm.model.xml.impl.ModelInstanceImpl;
+import org.camunda.bpm.model.xml.impl.instance.DocumentLock;
+import org.camunda.bpm.model.xml.impl.instance.JaxpDomBackend;
 import org.camunda.bpm.model.xml.impl.util.DomUtil;
 import org.camunda.bpm.model.xml.impl.util.ReflectUtil;
+import org.camunda.bpm.model.xml.instance.DomBackend;
 import org.camunda.bpm.model.xml.instance.DomDocument;
 import org.camunda.bpm.model.xml.instance.DomElement;
+import org.w3c.dom.Document;
 import org.xml.sax.SAXException;
 
 /**
@@ -49,10 +55,13 @@ public abstract class AbstractModelParser {
   private final DocumentBuilderFactory documentBuilderFactory;
   protected SchemaFactory schemaFactory;
   protected Map<String, Schema> schemas = new HashMap<>();
+  protected DomBackend domBackend = JaxpDomBackend.INSTANCE;
+  protected MaterializationPolicy materializationPolicy = MaterializationPolicy.LAZY;
 
   protected AbstractModelParser() {
     DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
     configureFactory(dbf);
+    disableDeferredNodeExpansion(dbf);
     this.documentBuilderFactory = dbf;
   }
 
@@ -98,6 +107,20 @@ public abstract class AbstractModelParser {
     dbf.setExpandEntityReferences(false);
   }
 
+  /**
+   * Deferred nodes are expanded on their first access, so reading a deferred DOM
+   * modifies it and concurrent reads of the same model would not be safe.
+   * If the implementing parser does not support the feature, it is ignored.
+   *
+   * @param dbf The factory to configure.
+   */
+  private void disableDeferredNodeExpansion(final DocumentBuilderFactory dbf) {
+    try {
+      dbf.setFeature("http://apache.org/xml/features/dom/defer-node-expansion", false);
+    } catch (ParserConfigurationException ignored) {
+    }
+  }
+
   private void enableSecureProcessing(final DocumentBuilderFactory dbf) {
     try {
       dbf.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
@@ -124,26 +147,100 @@ public abstract class AbstractModelParser {
     }
   }
 
+  /**
+   * @return the backend which stores the XML tree of the created model instances
+   */
+  public DomBackend getDomBackend() {
+    return domBackend;
+  }
+
+  /**
+   * Sets the backend which stores the XML tree of the model instances created by this
+   * parser. Documents are still parsed and validated as DOM documents before they are
+   * handed to the backend.
+   *
+   * @param domBackend the backend to use
+   */
+  public void setDomBackend(DomBackend domBackend) {
+    this.domBackend = domBackend;
+  }
+
+  /**
+   * @return the policy which controls when the model element instances of the created
+   *         model instances are created
+   */
+  public MaterializationPolicy getMaterializationPolicy() {
+    return materializationPolicy;
+  }
+
+  /**
+   * Sets the policy which controls when the model element instances of the model instances
+   * created by this parser are created. With an eager policy all instances are created
+   * after parsing, so that later reads have a predictable latency.
+   *
+   * @param materializationPolicy the policy to use
+   */
+  public void setMaterializationPolicy(MaterializationPolicy materializationPolicy) {
+    this.materializationPolicy = materializationPolicy;
+  }
+
   public ModelInstance parseModelFromStream(InputStream inputStream) {
+    return parseModelFromStream(inputStream, false);
+  }
+
+  /**
+   * Parses a model instance. A thread confined model instance is not guarded against
+   * concurrent access, so it must only be read and modified by a single thread at a time.
+   *
+   * @param inputStream the input stream to parse
+   * @param threadConfined true if the model instance is only accessed by a single thread
+   * @return the parsed model instance
+   */
+  public ModelInstance parseModelFromStream(InputStream inputStream, boolean threadConfined) {
     DomDocument document = null;
 
     synchronized(documentBuilderFactory) {
-      document = DomUtil.parseInputStream(documentBuilderFactory, inputStream);
+      document = DomUtil.parseInputStream(documentBuilderFactory, inputStream, threadConfined);
     }
 
     validateModel(document);
-    return createModelInstance(document);
+    return applyMaterializationPolicy(createModelInstance(createDocument(document, threadConfined)));
 
   }
 
   public ModelInstance getEmptyModel() {
+    return getEmptyModel(false);
+  }
+
+  /**
+   * Creates an empty model instance. A thread confined model instance is not guarded against
+   * concurrent access, so it must only be read and modified by a single thread at a time.
+   *
+   * @param threadConfined true if the model instance is only accessed by a single thread
+   * @return the empty model instance
+   */
+  public ModelInstance getEmptyModel(boolean threadConfined) {
     DomDocument document = null;
 
     synchronized(documentBuilderFactory) {
-      document = DomUtil.getEmptyDocument(documentBuilderFactory);
+      document = DomUtil.getEmptyDocument(documentBuilderFactory, threadConfined);
     }
 
-    return createModelInstance(document);
+    return applyMaterializationPolicy(createModelInstance(createDocument(document, threadConfined)));
+  }
+
+  protected ModelInstance applyMaterializationPolicy(ModelInstance modelInstance) {
+    if (modelInstance instanceof ModelInstanceImpl) {
+      ((ModelInstanceImpl) modelInstance).setMaterializationPolicy(materializationPolicy);
+    }
+    return modelInstance;
+  }
+
+  /**
+   * Hands a parsed or new DOM document to the {@link #getDomBackend() backend}.
+   */
+  protected DomDocument createDocument(DomDocument document, boolean threadConfined) {
+    return domBackend.createDocument((Document) document.getDomSource().getNode(), threadConfined);
   }
 
   /**
@@ -161,9 +258,14 @@ public abstract class AbstractModelParser {
 
     Validator validator = schema.newValidator();
     try {
-      synchronized(document) {
+      DocumentLock lock = DocumentLock.forDocument(document);
+      lock.lockRead();
+      try {
         validator.validate(document.getDomSource());
       }
+      finally {
+        lock.unlockRead();
+      }
     } catch (IOException e) {
       throw new ModelValidationException("Error during DOM document validation", e);
     } catch (SAXException e) {
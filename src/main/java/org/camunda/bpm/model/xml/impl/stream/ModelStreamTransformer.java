@@ -0,0 +1,362 @@
+/*
+ * Copyright Camunda Services GmbH and/or licensed to Camunda Services GmbH
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. Camunda licenses this file to you under the Apache License,
+ * Version 2.0; you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.camunda.bpm.model.xml.impl.stream;
+
+import org.camunda.bpm.model.xml.Model;
+import org.camunda.bpm.model.xml.impl.stream.StreamElement.StreamAttribute;
+import org.camunda.bpm.model.xml.impl.util.ModelIoException;
+import org.camunda.bpm.model.xml.type.ModelElementType;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Transforms a model document while it is streamed from an input to an output stream,
+ * without building a DOM document. Every element is passed to the registered
+ * {@link ElementRewriter rewriters} before it is written, which can rename it,
+ * change its attributes and namespace declarations or remove it.
+ *
+ * <p>Namespaces which are used by rewritten elements or attributes but are not
+ * declared in their scope are declared automatically. Text, comments, CDATA sections
+ * and processing instructions are copied unchanged.</p>
+ */
+public class ModelStreamTransformer {
+
+  protected static final String GENERIC_NS_PREFIX = "ns";
+
+  protected final Model model;
+  protected final List<ElementRewriter> rewriters = new ArrayList<ElementRewriter>();
+
+  public ModelStreamTransformer(Model model) {
+    this.model = model;
+  }
+
+  /**
+   * Adds a rewriter which is called for every element in document order.
+   * Rewriters are called in the order they were added.
+   *
+   * @param rewriter the rewriter to add
+   * @return this transformer
+   */
+  public ModelStreamTransformer addRewriter(ElementRewriter rewriter) {
+    rewriters.add(rewriter);
+    return this;
+  }
+
+  /**
+   * Adds a rewriter which moves all elements, attributes and namespace declarations
+   * from one namespace to another.
+   *
+   * @param namespaceUri the namespace to replace
+   * @param newNamespaceUri the new namespace
+   * @return this transformer
+   */
+  public ModelStreamTransformer migrateNamespace(final String namespaceUri, final String newNamespaceUri) {
+    return addRewriter(new ElementRewriter() {
+      public void rewrite(StreamElement element) {
+        if (namespaceUri.equals(element.getNamespaceUri())) {
+          element.setNamespaceUri(newNamespaceUri);
+        }
+        for (StreamAttribute attribute : element.getAttributes()) {
+          if (namespaceUri.equals(attribute.getNamespaceUri())) {
+            attribute.setNamespaceUri(newNamespaceUri);
+          }
+        }
+        for (Map.Entry<String, String> declaration : element.getNamespaceDeclarations().entrySet()) {
+          if (namespaceUri.equals(declaration.getValue())) {
+            element.declareNamespace(declaration.getKey(), newNamespaceUri);
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Reads a model document from the input stream, rewrites its elements and writes the
+   * result to the output stream. The streams are not closed.
+   *
+   * @param inputStream the stream to read the document from
+   * @param outputStream the stream to write the transformed document to
+   * @throws ModelIoException if the document cannot be read or written
+   */
+  public void transform(InputStream inputStream, OutputStream outputStream) {
+    XMLStreamReader reader = null;
+    XMLStreamWriter writer = null;
+    try {
+      reader = createInputFactory().createXMLStreamReader(inputStream);
+      writer = XMLOutputFactory.newInstance().createXMLStreamWriter(outputStream, "UTF-8");
+      new Transformation(reader, writer).run();
+    }
+    catch (XMLStreamException e) {
+      throw new ModelIoException("Unable to transform model", e);
+    }
+    finally {
+      closeSilently(reader);
+      closeSilently(writer);
+    }
+  }
+
+  protected XMLInputFactory createInputFactory() {
+    XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+    inputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+    inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    return inputFactory;
+  }
+
+  protected static void closeSilently(XMLStreamReader reader) {
+    if (reader != null) {
+      try {
+        reader.close();
+      }
+      catch (XMLStreamException e) {
+        // ignore
+      }
+    }
+  }
+
+  protected static void closeSilently(XMLStreamWriter writer) {
+    if (writer != null) {
+      try {
+        writer.close();
+      }
+      catch (XMLStreamException e) {
+        // ignore
+      }
+    }
+  }
+
+  /**
+   * The state of a single transformation. Only the namespace declarations and
+   * types of the currently open elements are kept.
+   */
+  protected class Transformation {
+
+    protected final XMLStreamReader reader;
+    protected final XMLStreamWriter writer;
+    protected final List<ElementScope> openElements = new ArrayList<ElementScope>();
+    protected int removedDepth = 0;
+    protected int genericNsPrefixCounter = 0;
+
+    protected Transformation(XMLStreamReader reader, XMLStreamWriter writer) {
+      this.reader = reader;
+      this.writer = writer;
+    }
+
+    protected void run() throws XMLStreamException {
+      String version = reader.getVersion();
+      writer.writeStartDocument("UTF-8", version == null ? "1.0" : version);
+
+      while (reader.hasNext()) {
+        int event = reader.next();
+        if (removedDepth > 0) {
+          if (event == XMLStreamConstants.START_ELEMENT) {
+            removedDepth++;
+          }
+          else if (event == XMLStreamConstants.END_ELEMENT) {
+            removedDepth--;
+          }
+          continue;
+        }
+
+        switch (event) {
+          case XMLStreamConstants.START_ELEMENT:
+            startElement();
+            break;
+          case XMLStreamConstants.END_ELEMENT:
+            openElements.remove(openElements.size() - 1);
+            writer.writeEndElement();
+            break;
+          case XMLStreamConstants.CHARACTERS:
+          case XMLStreamConstants.SPACE:
+            writer.writeCharacters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+            break;
+          case XMLStreamConstants.CDATA:
+            writer.writeCData(reader.getText());
+            break;
+          case XMLStreamConstants.COMMENT:
+            writer.writeComment(reader.getText());
+            break;
+          case XMLStreamConstants.PROCESSING_INSTRUCTION:
+            writer.writeProcessingInstruction(reader.getPITarget(), reader.getPIData());
+            break;
+          case XMLStreamConstants.ENTITY_REFERENCE:
+            writer.writeEntityRef(reader.getLocalName());
+            break;
+          case XMLStreamConstants.END_DOCUMENT:
+            writer.writeEndDocument();
+            break;
+          default:
+            // DTDs are not supported and therefore not copied
+            break;
+        }
+      }
+      writer.flush();
+    }
+
+    protected void startElement() throws XMLStreamException {
+      ModelElementType parentElementType = openElements.isEmpty() ? null : openElements.get(openElements.size() - 1).elementType;
+      StreamElement element = new StreamElement(model, parentElementType, reader.getPrefix(), reader.getNamespaceURI(), reader.getLocalName());
+      for (int i = 0; i < reader.getNamespaceCount(); i++) {
+        element.declareNamespace(reader.getNamespacePrefix(i), reader.getNamespaceURI(i));
+      }
+      for (int i = 0; i < reader.getAttributeCount(); i++) {
+        element.addAttribute(reader.getAttributePrefix(i), reader.getAttributeNamespace(i), reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+      }
+
+      for (ElementRewriter rewriter : rewriters) {
+        rewriter.rewrite(element);
+        if (element.isRemoved()) {
+          removedDepth = 1;
+          return;
+        }
+      }
+
+      writeElement(element);
+    }
+
+    protected void writeElement(StreamElement element) throws XMLStreamException {
+      ElementScope scope = new ElementScope(element.getElementType(), element.namespaceDeclarations);
+      openElements.add(scope);
+
+      String namespaceUri = element.getNamespaceUri();
+      String prefix = element.getPrefix();
+      if (namespaceUri == null) {
+        String defaultNamespaceUri = lookupNamespaceUri("");
+        if (defaultNamespaceUri != null && !defaultNamespaceUri.isEmpty()) {
+          scope.namespaces.put("", "");
+        }
+        prefix = "";
+      }
+      else if (!namespaceUri.equals(lookupNamespaceUri(prefix))) {
+        prefix = getOrDeclarePrefix(scope, namespaceUri, prefix, true);
+      }
+
+      List<String> attributePrefixes = new ArrayList<String>();
+      for (StreamAttribute attribute : element.getAttributes()) {
+        String attributeNamespaceUri = attribute.getNamespaceUri();
+        String attributePrefix = attribute.getPrefix();
+        if (attributeNamespaceUri != null && (attributePrefix == null || attributePrefix.isEmpty()
+          || !attributeNamespaceUri.equals(lookupNamespaceUri(attributePrefix)))) {
+          attributePrefix = getOrDeclarePrefix(scope, attributeNamespaceUri, attributePrefix, false);
+        }
+        attributePrefixes.add(attributePrefix);
+      }
+
+      if (prefix.isEmpty()) {
+        writer.writeStartElement(element.getLocalName());
+      }
+      else {
+        writer.writeStartElement(prefix, element.getLocalName(), namespaceUri);
+      }
+
+      for (Map.Entry<String, String> declaration : scope.namespaces.entrySet()) {
+        if (declaration.getKey().isEmpty()) {
+          writer.writeDefaultNamespace(declaration.getValue());
+        }
+        else if (!declaration.getValue().isEmpty()) {
+          writer.writeNamespace(declaration.getKey(), declaration.getValue());
+        }
+      }
+
+      List<StreamAttribute> attributes = element.getAttributes();
+      for (int i = 0; i < attributes.size(); i++) {
+        StreamAttribute attribute = attributes.get(i);
+        if (attribute.getNamespaceUri() == null) {
+          writer.writeAttribute(attribute.getLocalName(), attribute.getValue());
+        }
+        else {
+          writer.writeAttribute(attributePrefixes.get(i), attribute.getNamespaceUri(), attribute.getLocalName(), attribute.getValue());
+        }
+      }
+    }
+
+    /**
+     * Finds a prefix which is bound to the namespace in the scope of the current element
+     * or declares one on the current element.
+     */
+    protected String getOrDeclarePrefix(ElementScope scope, String namespaceUri, String preferredPrefix, boolean allowDefaultNamespace) {
+      String prefix = lookupPrefix(namespaceUri, allowDefaultNamespace);
+      if (prefix != null) {
+        return prefix;
+      }
+
+      if (preferredPrefix != null && (allowDefaultNamespace || !preferredPrefix.isEmpty())
+        && !scope.namespaces.containsKey(preferredPrefix)) {
+        prefix = preferredPrefix;
+      }
+      else {
+        do {
+          prefix = GENERIC_NS_PREFIX + genericNsPrefixCounter++;
+        } while (lookupNamespaceUri(prefix) != null);
+      }
+      scope.namespaces.put(prefix, namespaceUri);
+      return prefix;
+    }
+
+    protected String lookupNamespaceUri(String prefix) {
+      for (int i = openElements.size() - 1; i >= 0; i--) {
+        String namespaceUri = openElements.get(i).namespaces.get(prefix);
+        if (namespaceUri != null) {
+          return namespaceUri;
+        }
+      }
+      return null;
+    }
+
+    protected String lookupPrefix(String namespaceUri, boolean allowDefaultNamespace) {
+      Set<String> shadowedPrefixes = new HashSet<String>();
+      for (int i = openElements.size() - 1; i >= 0; i--) {
+        for (Map.Entry<String, String> declaration : openElements.get(i).namespaces.entrySet()) {
+          String prefix = declaration.getKey();
+          if (shadowedPrefixes.add(prefix) && declaration.getValue().equals(namespaceUri)
+            && (allowDefaultNamespace || !prefix.isEmpty())) {
+            return prefix;
+          }
+        }
+      }
+      return null;
+    }
+  }
+
+  /**
+   * The type and namespace declarations of an open element.
+   */
+  protected static class ElementScope {
+
+    protected final ModelElementType elementType;
+    protected final Map<String, String> namespaces;
+
+    protected ElementScope(ModelElementType elementType, Map<String, String> namespaces) {
+      this.elementType = elementType;
+      this.namespaces = new LinkedHashMap<String, String>(namespaces);
+    }
+  }
+
+}
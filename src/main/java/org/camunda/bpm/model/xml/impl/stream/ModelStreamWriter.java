@@ -0,0 +1,484 @@
+/*
+ * Copyright Camunda Services GmbH and/or licensed to Camunda Services GmbH
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. Camunda licenses this file to you under the Apache License,
+ * Version 2.0; you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.camunda.bpm.model.xml.impl.stream;
+
+import org.camunda.bpm.model.xml.Model;
+import org.camunda.bpm.model.xml.ModelException;
+import org.camunda.bpm.model.xml.impl.type.ModelElementTypeImpl;
+import org.camunda.bpm.model.xml.impl.type.attribute.StringAttribute;
+import org.camunda.bpm.model.xml.impl.util.ModelIoException;
+import org.camunda.bpm.model.xml.impl.util.ModelUtil;
+import org.camunda.bpm.model.xml.impl.util.QName;
+import org.camunda.bpm.model.xml.instance.ModelElementInstance;
+import org.camunda.bpm.model.xml.type.ModelElementType;
+import org.camunda.bpm.model.xml.type.attribute.Attribute;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.Closeable;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes a model document element by element to an output stream without building
+ * a DOM document. Only the currently open elements are kept in memory.
+ *
+ * <p>The type information of the {@link Model} is used to ensure the written document
+ * is valid: child elements have to be written in the order of the child element
+ * sequence of their parent type, required attributes have to be written and missing
+ * ids are generated like {@link org.camunda.bpm.model.xml.ModelInstance#newInstance(Class)}
+ * does.</p>
+ *
+ * <p>Attributes and namespace declarations of an element have to be written directly
+ * after the element was started, before any text or child element of it.</p>
+ *
+ * <p>Namespaces which are {@link #registerNamespace(String, String) registered} before the
+ * root element is started are declared once on the root element. Other namespaces are
+ * declared on the elements which use them, with one generic prefix per namespace.</p>
+ */
+public class ModelStreamWriter implements Closeable {
+
+  protected static final String ID_ATTRIBUTE_NAME = "id";
+  protected static final String GENERIC_NS_PREFIX = "ns";
+  protected static final String INDENT = "  ";
+
+  protected final Model model;
+  protected final XMLStreamWriter writer;
+  protected final List<ElementFrame> openElements = new ArrayList<ElementFrame>();
+
+  protected boolean rootElementWritten = false;
+  protected int genericNsPrefixCounter = 0;
+
+  /**
+   * The namespaces to declare on the root element, by prefix.
+   */
+  protected final Map<String, String> rootNamespaces = new LinkedHashMap<String, String>();
+
+  /**
+   * The generic prefixes which were assigned to namespaces, by namespace URI.
+   */
+  protected final Map<String, String> genericNsPrefixes = new HashMap<String, String>();
+
+  public ModelStreamWriter(Model model, OutputStream outputStream) {
+    this.model = model;
+    try {
+      writer = XMLOutputFactory.newInstance().createXMLStreamWriter(outputStream, "UTF-8");
+      writer.writeStartDocument("UTF-8", "1.0");
+    }
+    catch (XMLStreamException e) {
+      throw new ModelIoException("Unable to start writing the model", e);
+    }
+  }
+
+  /**
+   * Registers a namespace which is declared on the root element, so that it is in scope
+   * for all elements and attributes of the document.
+   *
+   * @param prefix the prefix of the namespace, the empty prefix declares the default namespace
+   * @param namespaceUri the URI of the namespace
+   * @return this writer
+   * @throws ModelException if the root element was already started
+   */
+  public ModelStreamWriter registerNamespace(String prefix, String namespaceUri) {
+    if (rootElementWritten) {
+      throw new ModelException("Unable to register namespace " + namespaceUri + ", the root element was already written");
+    }
+    rootNamespaces.put(prefix, namespaceUri);
+    return this;
+  }
+
+  /**
+   * Starts a new element of the given type as child of the current element, or as root
+   * element if no element was written yet.
+   *
+   * @param type the instance type of the element
+   * @return this writer
+   * @throws ModelException if the type is not part of the model or not allowed at this position
+   */
+  public ModelStreamWriter startElement(Class<? extends ModelElementInstance> type) {
+    ModelElementType elementType = model.getType(type);
+    if (elementType == null) {
+      throw new ModelException("Cannot write element of ModelType " + type + ": no such type registered.");
+    }
+    return startElement(elementType);
+  }
+
+  /**
+   * Starts a new element of the given type as child of the current element, or as root
+   * element if no element was written yet.
+   *
+   * @param type the type of the element
+   * @return this writer
+   * @throws ModelException if the type is abstract or not allowed at this position
+   */
+  public ModelStreamWriter startElement(ModelElementType type) {
+    if (type.isAbstract()) {
+      throw new ModelException("Cannot write element of abstract type " + type.getTypeName());
+    }
+
+    ElementFrame parent = getCurrentElement();
+    if (parent == null) {
+      if (rootElementWritten) {
+        throw new ModelException("Unable to write element " + type.getTypeName() + ", the root element was already written");
+      }
+      rootElementWritten = true;
+    }
+    else {
+      closeStartTag(parent);
+      parent.checkChildElementOrder(type);
+      parent.hasChildElements = true;
+    }
+
+    ElementFrame element = new ElementFrame((ModelElementTypeImpl) type);
+    openElements.add(element);
+
+    try {
+      if (parent != null) {
+        writeIndent(openElements.size() - 1);
+      }
+      String namespaceUri = type.getTypeNamespace();
+      if (parent == null) {
+        writeRootStartElement(element, namespaceUri);
+      }
+      else {
+        String prefix = getPrefix(namespaceUri, true);
+        if (prefix == null) {
+          prefix = getGenericNsPrefix(namespaceUri);
+          writer.writeStartElement(prefix, type.getTypeName(), namespaceUri);
+          writeNamespace(element, prefix, namespaceUri);
+        }
+        else {
+          writer.writeStartElement(prefix, type.getTypeName(), namespaceUri);
+        }
+      }
+    }
+    catch (XMLStreamException e) {
+      throw new ModelIoException("Unable to write element " + type.getTypeName(), e);
+    }
+    return this;
+  }
+
+  /**
+   * Declares a namespace on the current element.
+   *
+   * @param prefix the prefix of the namespace, the empty prefix declares the default namespace
+   * @param namespaceUri the URI of the namespace
+   * @return this writer
+   */
+  public ModelStreamWriter namespace(String prefix, String namespaceUri) {
+    ElementFrame element = getStartTagElement("namespace " + namespaceUri);
+    try {
+      writeNamespace(element, prefix, namespaceUri);
+    }
+    catch (XMLStreamException e) {
+      throw new ModelIoException("Unable to write namespace " + namespaceUri, e);
+    }
+    return this;
+  }
+
+  /**
+   * Writes an attribute without namespace on the current element.
+   *
+   * @param attributeName the name of the attribute
+   * @param xmlValue the XML value of the attribute
+   * @return this writer
+   */
+  public ModelStreamWriter attribute(String attributeName, String xmlValue) {
+    return attributeNs(null, attributeName, xmlValue);
+  }
+
+  /**
+   * Writes an attribute on the current element.
+   *
+   * @param namespaceUri the namespace of the attribute, or null if the attribute has no namespace
+   * @param attributeName the name of the attribute
+   * @param xmlValue the XML value of the attribute
+   * @return this writer
+   */
+  public ModelStreamWriter attributeNs(String namespaceUri, String attributeName, String xmlValue) {
+    ElementFrame element = getStartTagElement("attribute " + attributeName);
+    try {
+      if (namespaceUri == null) {
+        writer.writeAttribute(attributeName, xmlValue);
+      }
+      else {
+        String prefix = getPrefix(namespaceUri, false);
+        if (prefix == null) {
+          prefix = getGenericNsPrefix(namespaceUri);
+          writeNamespace(element, prefix, namespaceUri);
+        }
+        writer.writeAttribute(prefix, namespaceUri, attributeName, xmlValue);
+      }
+    }
+    catch (XMLStreamException e) {
+      throw new ModelIoException("Unable to write attribute " + attributeName, e);
+    }
+    element.writtenAttributes.add(ModelUtil.getQName(namespaceUri, attributeName));
+    return this;
+  }
+
+  /**
+   * Writes text content of the current element.
+   *
+   * @param textContent the text to write
+   * @return this writer
+   */
+  public ModelStreamWriter text(String textContent) {
+    ElementFrame element = getCurrentElement();
+    if (element == null) {
+      throw new ModelException("Unable to write text content outside of an element");
+    }
+    closeStartTag(element);
+    element.hasTextContent = true;
+    try {
+      writer.writeCharacters(textContent);
+    }
+    catch (XMLStreamException e) {
+      throw new ModelIoException("Unable to write text content", e);
+    }
+    return this;
+  }
+
+  /**
+   * Ends the current element.
+   *
+   * @return this writer
+   */
+  public ModelStreamWriter endElement() {
+    ElementFrame element = getCurrentElement();
+    if (element == null) {
+      throw new ModelException("Unable to end element, no element is open");
+    }
+    closeStartTag(element);
+    try {
+      if (element.hasChildElements && !element.hasTextContent) {
+        writeIndent(openElements.size() - 1);
+      }
+      writer.writeEndElement();
+    }
+    catch (XMLStreamException e) {
+      throw new ModelIoException("Unable to end element " + element.type.getTypeName(), e);
+    }
+    openElements.remove(openElements.size() - 1);
+    return this;
+  }
+
+  /**
+   * Ends all open elements and the document and flushes the output. The underlying
+   * output stream is not closed.
+   */
+  public void close() {
+    if (!rootElementWritten) {
+      throw new ModelException("Unable to close the model, no root element was written");
+    }
+    while (!openElements.isEmpty()) {
+      endElement();
+    }
+    try {
+      writer.writeEndDocument();
+      writer.close();
+    }
+    catch (XMLStreamException e) {
+      throw new ModelIoException("Unable to finish writing the model", e);
+    }
+  }
+
+  protected ElementFrame getCurrentElement() {
+    return openElements.isEmpty() ? null : openElements.get(openElements.size() - 1);
+  }
+
+  protected ElementFrame getStartTagElement(String content) {
+    ElementFrame element = getCurrentElement();
+    if (element == null || element.startTagClosed) {
+      throw new ModelException("Unable to write " + content + ", it has to be written directly after the element was started");
+    }
+    return element;
+  }
+
+  /**
+   * Generates a missing id and checks the required attributes before the
+   * start tag of the element is finished by its first content.
+   */
+  protected void closeStartTag(ElementFrame element) {
+    if (element.startTagClosed) {
+      return;
+    }
+
+    Attribute<?> idAttribute = element.type.getAttribute(ID_ATTRIBUTE_NAME);
+    if (idAttribute instanceof StringAttribute && idAttribute.isIdAttribute()
+      && !element.hasAttribute(idAttribute.getNamespaceUri(), ID_ATTRIBUTE_NAME)) {
+      attributeNs(idAttribute.getNamespaceUri(), ID_ATTRIBUTE_NAME, ModelUtil.getUniqueIdentifier(element.type));
+    }
+
+    for (Attribute<?> attribute : element.type.getAllAttributes()) {
+      if (attribute.isRequired() && !element.hasAttribute(attribute.getNamespaceUri(), attribute.getAttributeName())) {
+        throw new ModelException("Unable to write element " + element.type.getTypeName() + ", required attribute "
+          + attribute.getAttributeName() + " is missing");
+      }
+    }
+
+    element.startTagClosed = true;
+  }
+
+  /**
+   * Returns the prefix which is bound to the namespace in the scope of the current element.
+   *
+   * @param namespaceUri the namespace to find the prefix for
+   * @param allowDefaultNamespace true if the default namespace may be used, which is not the case for attributes
+   * @return the prefix or null if the namespace is not declared
+   */
+  protected String getPrefix(String namespaceUri, boolean allowDefaultNamespace) {
+    Set<String> shadowedPrefixes = new HashSet<String>();
+    for (int i = openElements.size() - 1; i >= 0; i--) {
+      for (Map.Entry<String, String> declaration : openElements.get(i).namespaces.entrySet()) {
+        String prefix = declaration.getKey();
+        if (shadowedPrefixes.add(prefix) && declaration.getValue().equals(namespaceUri)
+          && (allowDefaultNamespace || !prefix.isEmpty())) {
+          return prefix;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Starts the root element and declares its namespace and the registered namespaces.
+   */
+  protected void writeRootStartElement(ElementFrame element, String namespaceUri) throws XMLStreamException {
+    String prefix = null;
+    for (Map.Entry<String, String> namespace : rootNamespaces.entrySet()) {
+      if (namespace.getValue().equals(namespaceUri)) {
+        prefix = namespace.getKey();
+        break;
+      }
+    }
+    boolean declared = prefix != null;
+    if (!declared) {
+      prefix = "";
+    }
+
+    writer.writeStartElement(prefix, element.type.getTypeName(), namespaceUri);
+    if (!declared) {
+      writeNamespace(element, prefix, namespaceUri);
+    }
+    for (Map.Entry<String, String> namespace : rootNamespaces.entrySet()) {
+      if (!element.namespaces.containsKey(namespace.getKey())) {
+        writeNamespace(element, namespace.getKey(), namespace.getValue());
+      }
+    }
+  }
+
+  /**
+   * Returns the generic prefix of a namespace which is not in scope. A namespace keeps its
+   * prefix for the whole document, so the prefixes do not grow with the number of elements.
+   */
+  protected String getGenericNsPrefix(String namespaceUri) {
+    String prefix = genericNsPrefixes.get(namespaceUri);
+    if (prefix == null || isPrefixDeclared(prefix)) {
+      prefix = nextGenericNsPrefix();
+      genericNsPrefixes.put(namespaceUri, prefix);
+    }
+    return prefix;
+  }
+
+  protected String nextGenericNsPrefix() {
+    String prefix;
+    do {
+      prefix = GENERIC_NS_PREFIX + genericNsPrefixCounter++;
+    } while (isPrefixDeclared(prefix) || rootNamespaces.containsKey(prefix));
+    return prefix;
+  }
+
+  protected boolean isPrefixDeclared(String prefix) {
+    for (ElementFrame element : openElements) {
+      if (element.namespaces.containsKey(prefix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  protected void writeNamespace(ElementFrame element, String prefix, String namespaceUri) throws XMLStreamException {
+    if (prefix.isEmpty()) {
+      writer.writeDefaultNamespace(namespaceUri);
+    }
+    else {
+      writer.writeNamespace(prefix, namespaceUri);
+    }
+    element.namespaces.put(prefix, namespaceUri);
+  }
+
+  protected void writeIndent(int depth) throws XMLStreamException {
+    StringBuilder indent = new StringBuilder("\n");
+    for (int i = 0; i < depth; i++) {
+      indent.append(INDENT);
+    }
+    writer.writeCharacters(indent.toString());
+  }
+
+  /**
+   * The state of an open element.
+   */
+  protected static class ElementFrame {
+
+    protected final ModelElementTypeImpl type;
+    protected final Map<String, String> namespaces = new HashMap<String, String>();
+    protected final Set<QName> writtenAttributes = new HashSet<QName>();
+    protected boolean startTagClosed = false;
+    protected boolean hasChildElements = false;
+    protected boolean hasTextContent = false;
+    protected int childElementTypeIndex = 0;
+
+    protected ElementFrame(ModelElementTypeImpl type) {
+      this.type = type;
+    }
+
+    protected boolean hasAttribute(String namespaceUri, String attributeName) {
+      return writtenAttributes.contains(ModelUtil.getQName(namespaceUri, attributeName));
+    }
+
+    /**
+     * Ensures that child elements are written in the order of the child element
+     * sequence of this element type.
+     */
+    protected void checkChildElementOrder(ModelElementType childType) {
+      List<ModelElementType> childElementTypes = type.getAllChildElementTypes();
+      for (int index = childElementTypeIndex; index < childElementTypes.size(); index++) {
+        if (childElementTypes.get(index).getInstanceType().isAssignableFrom(childType.getInstanceType())) {
+          childElementTypeIndex = index;
+          return;
+        }
+      }
+      for (int index = 0; index < childElementTypeIndex; index++) {
+        if (childElementTypes.get(index).getInstanceType().isAssignableFrom(childType.getInstanceType())) {
+          throw new ModelException("Unable to write child element " + childType.getTypeName() + ", it has to be written before "
+            + childElementTypes.get(childElementTypeIndex).getTypeName() + " elements of " + type.getTypeName());
+        }
+      }
+      throw new ModelException("New child is not a valid child element type: " + childType.getTypeName()
+        + " of " + type.getTypeName());
+    }
+  }
+
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright Camunda Services GmbH and/or licensed to Camunda Services GmbH
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. Camunda licenses this file to you under the Apache License,
+ * Version 2.0; you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.camunda.bpm.model.xml.impl.stream;
+
+import org.camunda.bpm.model.xml.Model;
+import org.camunda.bpm.model.xml.type.ModelElementType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The start tag of an element which is streamed through a {@link ModelStreamTransformer}.
+ * The name, attributes and namespace declarations can be changed by an {@link ElementRewriter}
+ * before the element is written. The content of the element is not accessible, because it
+ * was not read yet.
+ */
+public class StreamElement {
+
+  protected final Model model;
+  protected final ModelElementType parentElementType;
+  protected String prefix;
+  protected String namespaceUri;
+  protected String localName;
+  protected final Map<String, String> namespaceDeclarations = new LinkedHashMap<String, String>();
+  protected final List<StreamAttribute> attributes = new ArrayList<StreamAttribute>();
+  protected boolean removed = false;
+
+  public StreamElement(Model model, ModelElementType parentElementType, String prefix, String namespaceUri, String localName) {
+    this.model = model;
+    this.parentElementType = parentElementType;
+    this.prefix = prefix == null ? "" : prefix;
+    this.namespaceUri = emptyToNull(namespaceUri);
+    this.localName = localName;
+  }
+
+  /**
+   * Returns the type of the element resolved by its current name. Elements in an alternative
+   * namespace are resolved to the type of the actual namespace.
+   *
+   * @return the type of the element or null if the element is unknown to the model
+   */
+  public ModelElementType getElementType() {
+    ModelElementType elementType = model.getTypeForName(namespaceUri, localName);
+    if (elementType == null && namespaceUri != null) {
+      String actualNamespaceUri = model.getActualNamespace(namespaceUri);
+      if (actualNamespaceUri != null) {
+        elementType = model.getTypeForName(actualNamespaceUri, localName);
+      }
+    }
+    return elementType;
+  }
+
+  /**
+   * @return the type of the parent element or null if this is the root element or the parent is unknown to the model
+   */
+  public ModelElementType getParentElementType() {
+    return parentElementType;
+  }
+
+  public String getPrefix() {
+    return prefix;
+  }
+
+  public String getNamespaceUri() {
+    return namespaceUri;
+  }
+
+  public String getLocalName() {
+    return localName;
+  }
+
+  /**
+   * Changes the namespace of the element. If the namespace is not declared in the
+   * scope of the element it will be declared when the element is written.
+   *
+   * @param namespaceUri the new namespace of the element
+   */
+  public void setNamespaceUri(String namespaceUri) {
+    this.namespaceUri = emptyToNull(namespaceUri);
+  }
+
+  public void setLocalName(String localName) {
+    this.localName = localName;
+  }
+
+  /**
+   * @return the namespaces declared on this element by prefix, the default namespace has the empty prefix
+   */
+  public Map<String, String> getNamespaceDeclarations() {
+    return Collections.unmodifiableMap(namespaceDeclarations);
+  }
+
+  public void declareNamespace(String prefix, String namespaceUri) {
+    namespaceDeclarations.put(prefix == null ? "" : prefix, namespaceUri == null ? "" : namespaceUri);
+  }
+
+  public void removeNamespaceDeclaration(String prefix) {
+    namespaceDeclarations.remove(prefix == null ? "" : prefix);
+  }
+
+  /**
+   * @return the attributes of this element, excluding namespace declarations
+   */
+  public List<StreamAttribute> getAttributes() {
+    return Collections.unmodifiableList(attributes);
+  }
+
+  public String getAttributeValue(String attributeName) {
+    return getAttributeValueNs(null, attributeName);
+  }
+
+  public String getAttributeValueNs(String namespaceUri, String attributeName) {
+    StreamAttribute attribute = getAttribute(namespaceUri, attributeName);
+    return attribute == null ? null : attribute.getValue();
+  }
+
+  public void setAttributeValue(String attributeName, String xmlValue) {
+    setAttributeValueNs(null, attributeName, xmlValue);
+  }
+
+  public void setAttributeValueNs(String namespaceUri, String attributeName, String xmlValue) {
+    StreamAttribute attribute = getAttribute(namespaceUri, attributeName);
+    if (attribute != null) {
+      attribute.setValue(xmlValue);
+    }
+    else {
+      attributes.add(new StreamAttribute(null, emptyToNull(namespaceUri), attributeName, xmlValue));
+    }
+  }
+
+  public void removeAttribute(String attributeName) {
+    removeAttributeNs(null, attributeName);
+  }
+
+  public void removeAttributeNs(String namespaceUri, String attributeName) {
+    Iterator<StreamAttribute> iterator = attributes.iterator();
+    while (iterator.hasNext()) {
+      if (iterator.next().matches(emptyToNull(namespaceUri), attributeName)) {
+        iterator.remove();
+      }
+    }
+  }
+
+  /**
+   * Removes this element and its whole content from the output. Rewriters are not
+   * called for the content of a removed element.
+   */
+  public void remove() {
+    removed = true;
+  }
+
+  public boolean isRemoved() {
+    return removed;
+  }
+
+  protected StreamAttribute getAttribute(String namespaceUri, String attributeName) {
+    for (StreamAttribute attribute : attributes) {
+      if (attribute.matches(emptyToNull(namespaceUri), attributeName)) {
+        return attribute;
+      }
+    }
+    return null;
+  }
+
+  protected void addAttribute(String prefix, String namespaceUri, String localName, String value) {
+    attributes.add(new StreamAttribute(prefix, emptyToNull(namespaceUri), localName, value));
+  }
+
+  protected static String emptyToNull(String value) {
+    return value == null || value.isEmpty() ? null : value;
+  }
+
+  /**
+   * An attribute of a {@link StreamElement}.
+   */
+  public static class StreamAttribute {
+
+    protected final String prefix;
+    protected String namespaceUri;
+    protected final String localName;
+    protected String value;
+
+    protected StreamAttribute(String prefix, String namespaceUri, String localName, String value) {
+      this.prefix = prefix;
+      this.namespaceUri = namespaceUri;
+      this.localName = localName;
+      this.value = value;
+    }
+
+    /**
+     * @return the prefix of the attribute in the source document or null if the attribute was added
+     */
+    public String getPrefix() {
+      return prefix;
+    }
+
+    public String getNamespaceUri() {
+      return namespaceUri;
+    }
+
+    /**
+     * Changes the namespace of the attribute. If the namespace is not declared in the
+     * scope of the element it will be declared when the element is written.
+     *
+     * @param namespaceUri the new namespace of the attribute or null for no namespace
+     */
+    public void setNamespaceUri(String namespaceUri) {
+      this.namespaceUri = emptyToNull(namespaceUri);
+    }
+
+    public String getLocalName() {
+      return localName;
+    }
+
+    public String getValue() {
+      return value;
+    }
+
+    public void setValue(String value) {
+      this.value = value;
+    }
+
+    protected boolean matches(String namespaceUri, String localName) {
+      return this.localName.equals(localName)
+        && (this.namespaceUri == null ? namespaceUri == null : this.namespaceUri.equals(namespaceUri));
+    }
+  }
+
+}
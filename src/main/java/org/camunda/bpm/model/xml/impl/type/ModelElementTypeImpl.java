@@ -23,12 +23,15 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.camunda.bpm.model.xml.Model;
 import org.camunda.bpm.model.xml.ModelException;
 import org.camunda.bpm.model.xml.ModelInstance;
 import org.camunda.bpm.model.xml.impl.ModelImpl;
 import org.camunda.bpm.model.xml.impl.ModelInstanceImpl;
+import org.camunda.bpm.model.xml.impl.instance.IndexedDomDocument;
 import org.camunda.bpm.model.xml.impl.instance.ModelTypeInstanceContext;
 import org.camunda.bpm.model.xml.impl.util.ModelTypeException;
 import org.camunda.bpm.model.xml.impl.util.ModelUtil;
@@ -64,6 +67,17 @@ public class ModelElementTypeImpl implements ModelElementType {
 
   private final List<ChildElementCollection<?>> childElementCollections = new ArrayList<ChildElementCollection<?>>();
 
+  /**
+   * The child element types including the ones of the base types, computed on first use
+   * after the model was built.
+   */
+  private volatile List<ModelElementType> allChildElementTypes;
+
+  /**
+   * The sequence positions of the instance classes of child elements, see {@link #getChildElementTypePosition(Class)}.
+   */
+  private final ConcurrentMap<Class<?>, Integer> childElementTypePositions = new ConcurrentHashMap<Class<?>, Integer>();
+
   private ModelTypeInstanceProvider<?> instanceProvider;
 
   private boolean isAbstract;
@@ -81,6 +95,36 @@ public class ModelElementTypeImpl implements ModelElementType {
     return newInstance(modelInstanceImpl, domElement);
   }
 
+  /**
+   * Creates multiple new instances of this type. The DOM elements are created at once if
+   * the document supports it.
+   *
+   * @param modelInstance the model instance to create the instances for
+   * @param count the number of instances to create
+   * @return the new instances which are not attached to the document yet
+   */
+  public List<ModelElementInstance> newInstances(ModelInstanceImpl modelInstance, int count) {
+    if (isAbstract) {
+      throw new ModelTypeException("Model element type " + getTypeName() + " is abstract and no instances can be created.");
+    }
+    DomDocument document = modelInstance.getDocument();
+    List<DomElement> domElements;
+    if (document instanceof IndexedDomDocument) {
+      domElements = ((IndexedDomDocument) document).createElements(typeNamespace, typeName, count);
+    }
+    else {
+      domElements = new ArrayList<DomElement>(count);
+      for (int i = 0; i < count; i++) {
+        domElements.add(document.createElement(typeNamespace, typeName));
+      }
+    }
+    List<ModelElementInstance> instances = new ArrayList<ModelElementInstance>(count);
+    for (DomElement domElement : domElements) {
+      instances.add(newInstance(modelInstance, domElement));
+    }
+    return instances;
+  }
+
   public ModelElementInstance newInstance(ModelInstanceImpl modelInstance, DomElement domElement) {
     ModelTypeInstanceContext modelTypeInstanceContext = new ModelTypeInstanceContext(domElement, modelInstance, this);
     return createModelElementInstance(modelTypeInstanceContext);
@@ -95,6 +139,7 @@ public class ModelElementTypeImpl implements ModelElementType {
   public void registerChildElementType(ModelElementType childElementType) {
     if (!childElementTypes.contains(childElementType)) {
       childElementTypes.add(childElementType);
+      clearChildElementTypePositions();
     }
   }
 
@@ -142,6 +187,7 @@ public class ModelElementTypeImpl implements ModelElementType {
   public void setBaseType(ModelElementTypeImpl baseType) {
     if (this.baseType == null) {
       this.baseType = baseType;
+      clearChildElementTypePositions();
     }
     else if (!this.baseType.equals(baseType)) {
       throw new ModelException("Type can not have multiple base types. " + this.getClass() + " already extends type " + this.baseType.getClass()
@@ -220,6 +266,58 @@ public class ModelElementTypeImpl implements ModelElementType {
     return allChildElementTypes;
   }
 
+  /**
+   * Returns the position of the child elements with an instance class in the sequence of
+   * child element types, which is the index of the first child element type whose instance
+   * type the class is assignable to. The positions are computed once per class.
+   *
+   * @param instanceClass the instance class of the child element
+   * @return the sequence position or -1 if the class is not an instance of a child element type
+   */
+  public int getChildElementTypePosition(Class<?> instanceClass) {
+    Integer position = childElementTypePositions.get(instanceClass);
+    if (position == null) {
+      position = -1;
+      List<ModelElementType> childTypes = getCachedChildElementTypes();
+      for (int index = 0; index < childTypes.size(); index++) {
+        if (childTypes.get(index).getInstanceType().isAssignableFrom(instanceClass)) {
+          position = index;
+          break;
+        }
+      }
+      childElementTypePositions.put(instanceClass, position);
+    }
+    return position;
+  }
+
+  /**
+   * @return the number of child element types including the ones of the base types
+   */
+  public int getChildElementTypeCount() {
+    return getCachedChildElementTypes().size();
+  }
+
+  protected List<ModelElementType> getCachedChildElementTypes() {
+    List<ModelElementType> childTypes = allChildElementTypes;
+    if (childTypes == null) {
+      childTypes = Collections.unmodifiableList(getAllChildElementTypes());
+      allChildElementTypes = childTypes;
+    }
+    return childTypes;
+  }
+
+  /**
+   * Clears the cached child element types and positions of this type and of all types which
+   * extend it, as their child element types include the ones of this type.
+   */
+  protected void clearChildElementTypePositions() {
+    allChildElementTypes = null;
+    childElementTypePositions.clear();
+    for (ModelElementType extendingType : extendingTypes) {
+      ((ModelElementTypeImpl) extendingType).clearChildElementTypePositions();
+    }
+  }
+
   public List<ChildElementCollection<?>> getChildElementCollections() {
     return childElementCollections;
   }
@@ -235,15 +333,7 @@ public class ModelElementTypeImpl implements ModelElementType {
 
   public Collection<ModelElementInstance> getInstances(ModelInstance modelInstance) {
     ModelInstanceImpl modelInstanceImpl = (ModelInstanceImpl) modelInstance;
-    DomDocument document = modelInstanceImpl.getDocument();
-
-    List<DomElement> elements = getElementsByNameNs(document, typeNamespace);
-
-    List<ModelElementInstance> resultList = new ArrayList<ModelElementInstance>();
-    for (DomElement element : elements) {
-      resultList.add(ModelUtil.getModelElement(element, modelInstanceImpl, this));
-    }
-    return resultList;
+    return modelInstanceImpl.getModelElementsByTypes(Collections.<ModelElementType>singleton(this));
   }
 
   protected List<DomElement> getElementsByNameNs(DomDocument document, String namespaceURI) {
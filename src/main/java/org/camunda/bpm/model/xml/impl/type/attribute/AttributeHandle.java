@@ -0,0 +1,88 @@
+/*
+ * Copyright Camunda Services GmbH and/or licensed to Camunda Services GmbH
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. Camunda licenses this file to you under the Apache License,
+ * Version 2.0; you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.camunda.bpm.model.xml.impl.type.attribute;
+
+import java.util.Set;
+
+import org.camunda.bpm.model.xml.impl.instance.DomElementImpl;
+
+/**
+ * The precompiled access path of an attribute. The namespace and the alternative
+ * namespaces of the attribute are resolved once, so that the value can be read from
+ * the DOM element without looking up namespaces or allocating iterators.
+ *
+ * <p>A handle is immutable and replaced by its attribute if the alternative namespaces
+ * of the model change.</p>
+ */
+public class AttributeHandle {
+
+  protected final String localName;
+
+  /** the namespace of the attribute followed by its alternative namespaces */
+  protected final String[] namespaceUris;
+
+  protected final int alternativeNamespacesVersion;
+
+  public AttributeHandle(String namespaceUri, String localName, Set<String> alternativeNamespaces, int alternativeNamespacesVersion) {
+    this.localName = localName;
+    this.alternativeNamespacesVersion = alternativeNamespacesVersion;
+    if (namespaceUri == null || alternativeNamespaces == null) {
+      namespaceUris = new String[] { namespaceUri };
+    }
+    else {
+      namespaceUris = new String[alternativeNamespaces.size() + 1];
+      namespaceUris[0] = namespaceUri;
+      int i = 1;
+      for (String alternativeNamespace : alternativeNamespaces) {
+        namespaceUris[i++] = alternativeNamespace;
+      }
+    }
+  }
+
+  public String getLocalName() {
+    return localName;
+  }
+
+  /**
+   * @return the namespace of the attribute, null if it has no namespace
+   */
+  public String getNamespaceUri() {
+    return namespaceUris[0];
+  }
+
+  public int getAlternativeNamespacesVersion() {
+    return alternativeNamespacesVersion;
+  }
+
+  /**
+   * @param domElement the element to read the attribute from
+   * @return the value of the attribute in the first namespace it is set in, or null if it is not set
+   */
+  public String getValue(DomElementImpl domElement) {
+    return domElement.getFirstAttribute(namespaceUris, localName);
+  }
+
+  /**
+   * @param domElement the element to read the attribute from
+   * @return the namespace the attribute is set in or the namespace of the attribute if it is not set
+   */
+  public String getNamespaceUriForSetting(DomElementImpl domElement) {
+    int index = domElement.indexOfAttribute(namespaceUris, localName);
+    return namespaceUris[index < 0 ? 0 : index];
+  }
+
+}
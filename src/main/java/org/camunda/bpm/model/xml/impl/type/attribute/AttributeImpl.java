@@ -16,7 +16,12 @@
  */
 package org.camunda.bpm.model.xml.impl.type.attribute;
 
+import org.camunda.bpm.model.xml.Model;
+import org.camunda.bpm.model.xml.impl.ModelImpl;
+import org.camunda.bpm.model.xml.impl.instance.DomElementImpl;
+import org.camunda.bpm.model.xml.impl.instance.ModelElementInstanceImpl;
 import org.camunda.bpm.model.xml.impl.type.reference.ReferenceImpl;
+import org.camunda.bpm.model.xml.instance.DomElement;
 import org.camunda.bpm.model.xml.instance.ModelElementInstance;
 import org.camunda.bpm.model.xml.type.ModelElementType;
 import org.camunda.bpm.model.xml.type.attribute.Attribute;
@@ -57,6 +62,8 @@ public abstract class AttributeImpl<T> implements Attribute<T> {
 
   private final ModelElementType owningElementType;
 
+  private volatile AttributeHandle handle;
+
   AttributeImpl(ModelElementType owningElementType) {
     this.owningElementType = owningElementType;
   }
@@ -88,7 +95,11 @@ public abstract class AttributeImpl<T> implements Attribute<T> {
    */
   public T getValue(ModelElementInstance modelElement) {
     String value;
-    if(namespaceUri == null) {
+    DomElement domElement = modelElement.getDomElement();
+    if (domElement instanceof DomElementImpl) {
+      value = getHandle().getValue((DomElementImpl) domElement);
+    }
+    else if(namespaceUri == null) {
       value = modelElement.getAttributeValue(attributeName);
     } else {
       value = modelElement.getAttributeValueNs(namespaceUri, attributeName);
@@ -125,7 +136,11 @@ public abstract class AttributeImpl<T> implements Attribute<T> {
   @Override
   public void setValue(ModelElementInstance modelElement, T value, boolean withReferenceUpdate) {
     String xmlValue = convertModelValueToXmlValue(value);
-    if(namespaceUri == null) {
+    DomElement domElement = modelElement.getDomElement();
+    if (domElement instanceof DomElementImpl && modelElement instanceof ModelElementInstanceImpl) {
+      setValue(modelElement, (DomElementImpl) domElement, xmlValue, withReferenceUpdate);
+    }
+    else if(namespaceUri == null) {
       modelElement.setAttributeValue(attributeName, xmlValue,
               isIdAttribute, withReferenceUpdate);
     } else {
@@ -134,6 +149,41 @@ public abstract class AttributeImpl<T> implements Attribute<T> {
     }
   }
 
+  /**
+   * Sets the value like {@link ModelElementInstanceImpl#setAttributeValueNs(String, String, String, boolean, boolean)}
+   * but with the namespaces resolved by the handle of this attribute.
+   */
+  protected void setValue(ModelElementInstance modelElement, DomElementImpl domElement, String xmlValue, boolean withReferenceUpdate) {
+    AttributeHandle handle = getHandle();
+    String namespaceForSetting = handle.getNamespaceUriForSetting(domElement);
+    String oldValue = domElement.getAttribute(namespaceForSetting, attributeName);
+    if (isIdAttribute) {
+      domElement.setIdAttribute(namespaceForSetting, attributeName, xmlValue);
+    }
+    else {
+      domElement.setAttribute(namespaceForSetting, attributeName, xmlValue);
+    }
+    if (withReferenceUpdate) {
+      updateIncomingReferences(modelElement, xmlValue, oldValue);
+    }
+  }
+
+  /**
+   * @return the handle to access this attribute, which is created on first use and
+   *         replaced if the alternative namespaces of the model change
+   */
+  public AttributeHandle getHandle() {
+    AttributeHandle currentHandle = handle;
+    Model model = owningElementType.getModel();
+    int alternativeNamespacesVersion = model instanceof ModelImpl ? ((ModelImpl) model).getAlternativeNamespacesVersion() : 0;
+    if (currentHandle == null || currentHandle.getAlternativeNamespacesVersion() != alternativeNamespacesVersion) {
+      Set<String> alternativeNamespaces = namespaceUri == null ? null : model.getAlternativeNamespaces(namespaceUri);
+      currentHandle = new AttributeHandle(namespaceUri, attributeName, alternativeNamespaces, alternativeNamespacesVersion);
+      handle = currentHandle;
+    }
+    return currentHandle;
+  }
+
   public void updateIncomingReferences(ModelElementInstance modelElement, String newIdentifier, String oldIdentifier) {
     if (!incomingReferences.isEmpty()) {
       for (Reference<?> incomingReference : incomingReferences) {
@@ -166,6 +216,7 @@ public abstract class AttributeImpl<T> implements Attribute<T> {
    */
   public void setNamespaceUri(String namespaceUri) {
     this.namespaceUri = namespaceUri;
+    this.handle = null;
   }
 
   /**
@@ -199,6 +250,7 @@ public abstract class AttributeImpl<T> implements Attribute<T> {
    */
   public void setAttributeName(String attributeName) {
     this.attributeName = attributeName;
+    this.handle = null;
   }
 
   public void removeAttribute(ModelElementInstance modelElement) {
@@ -18,6 +18,7 @@ package org.camunda.bpm.model.xml.impl.type.child;
 
 import org.camunda.bpm.model.xml.Model;
 import org.camunda.bpm.model.xml.UnsupportedModelOperationException;
+import org.camunda.bpm.model.xml.impl.instance.DocumentLock;
 import org.camunda.bpm.model.xml.impl.instance.ModelElementInstanceImpl;
 import org.camunda.bpm.model.xml.impl.type.ModelElementTypeImpl;
 import org.camunda.bpm.model.xml.impl.util.ModelUtil;
@@ -26,8 +27,12 @@ import org.camunda.bpm.model.xml.instance.ModelElementInstance;
 import org.camunda.bpm.model.xml.type.ModelElementType;
 import org.camunda.bpm.model.xml.type.child.ChildElementCollection;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
 
 /**
  * <p>This collection is a view on an the children of a Model Element.</p>
@@ -78,7 +83,7 @@ public class ChildElementCollectionImpl<T extends ModelElementInstance> implemen
    *
    * @return the view represented by this collection
    */
-  private Collection<DomElement> getView(ModelElementInstanceImpl modelElement) {
+  private List<DomElement> getView(ModelElementInstanceImpl modelElement) {
     return modelElement.getDomElement().getChildElementsByType(modelElement.getModelInstance(), childElementTypeClass);
   }
 
@@ -123,113 +128,196 @@ public class ChildElementCollectionImpl<T extends ModelElementInstance> implemen
   /** the "clear" operation used by this collection */
   private void performClearOperation(ModelElementInstanceImpl modelElement, Collection<DomElement> elementsToRemove) {
     Collection<ModelElementInstance> modelElements = ModelUtil.getModelElementCollection(elementsToRemove, modelElement.getModelInstance());
-    for (ModelElementInstance element : modelElements) {
-      modelElement.removeChildElement(element);
-    }
+    modelElement.removeChildElements(modelElements);
   }
 
+  /**
+   * Returns the view of this collection on an element. The view is cached on the element,
+   * so that the child elements are only collected again after the document was modified.
+   */
+  @SuppressWarnings("unchecked")
   public Collection<T> get(ModelElementInstance element) {
+    ModelElementInstanceImpl modelElement = (ModelElementInstanceImpl) element;
+    Collection<T> view = (Collection<T>) modelElement.getChildElementView(this);
+    if (view == null) {
+      view = (Collection<T>) modelElement.putChildElementViewIfAbsent(this, new ChildElementView(modelElement));
+    }
+    return view;
+  }
 
-    final ModelElementInstanceImpl modelElement = (ModelElementInstanceImpl) element;
-
-    return new Collection<T>() {
+  /**
+   * The child elements of the collection at a modification count of the document.
+   */
+  protected static class ChildElementSnapshot {
 
-      public boolean contains(Object o) {
-        if(o == null) {
-          return false;
+    protected final long modificationCount;
+    protected final List<DomElement> elements;
 
-        } else if(!(o instanceof ModelElementInstanceImpl)) {
-          return false;
+    /** the elements for lookups, created on the first lookup */
+    protected volatile Set<DomElement> elementSet;
 
-        } else {
-          return getView(modelElement).contains(((ModelElementInstanceImpl)o).getDomElement());
+    public ChildElementSnapshot(long modificationCount, List<DomElement> elements) {
+      this.modificationCount = modificationCount;
+      this.elements = elements;
+    }
 
-        }
+    public boolean contains(DomElement element) {
+      Set<DomElement> set = elementSet;
+      if (set == null) {
+        set = new HashSet<DomElement>(elements);
+        elementSet = set;
       }
+      return set.contains(element);
+    }
 
-      public boolean containsAll(Collection<?> c) {
-        for (Object elementToCheck : c) {
-          if(!contains(elementToCheck)) {
-            return false;
-          }
-        }
-        return true;
-      }
+  }
 
-      public boolean isEmpty() {
-        return getView(modelElement).isEmpty();
-      }
+  /**
+   * The view of this collection on an element. The child elements are collected once
+   * and reused until the document is modified, so that {@link #size()} and
+   * {@link #contains(Object)} do not scan the children again. The iterator creates the
+   * model element instances one after another while it advances.
+   */
+  protected class ChildElementView implements Collection<T> {
 
-      public Iterator<T> iterator() {
-        Collection<T> modelElementCollection = ModelUtil.getModelElementCollection(getView(modelElement), modelElement.getModelInstance());
-        return modelElementCollection.iterator();
-      }
+    protected final ModelElementInstanceImpl modelElement;
+    protected final DocumentLock lock;
+    protected volatile ChildElementSnapshot snapshot;
 
-      public Object[] toArray() {
-        Collection<T> modelElementCollection = ModelUtil.getModelElementCollection(getView(modelElement), modelElement.getModelInstance());
-        return modelElementCollection.toArray();
-      }
+    public ChildElementView(ModelElementInstanceImpl modelElement) {
+      this.modelElement = modelElement;
+      this.lock = DocumentLock.forDocument(modelElement.getModelInstance().getDocument());
+    }
 
-      public <U> U[] toArray(U[] a) {
-        Collection<T> modelElementCollection = ModelUtil.getModelElementCollection(getView(modelElement), modelElement.getModelInstance());
-        return modelElementCollection.toArray(a);
+    protected ChildElementSnapshot getSnapshot() {
+      // the count is read first, so a modification while collecting makes the snapshot stale
+      long modificationCount = lock.getModificationCount();
+      ChildElementSnapshot currentSnapshot = snapshot;
+      if (currentSnapshot == null || currentSnapshot.modificationCount != modificationCount) {
+        currentSnapshot = new ChildElementSnapshot(modificationCount, getView(modelElement));
+        snapshot = currentSnapshot;
       }
+      return currentSnapshot;
+    }
+
+    @SuppressWarnings("unchecked")
+    protected T getModelElement(DomElement domElement) {
+      return (T) ModelUtil.getModelElement(domElement, modelElement.getModelInstance());
+    }
+
+    public boolean contains(Object o) {
+      if(o == null) {
+        return false;
+
+      } else if(!(o instanceof ModelElementInstanceImpl)) {
+        return false;
+
+      } else {
+        return getSnapshot().contains(((ModelElementInstanceImpl)o).getDomElement());
 
-      public int size() {
-        return getView(modelElement).size();
       }
+    }
 
-      public boolean add(T e) {
-        if(!isMutable) {
-          throw new UnsupportedModelOperationException("add()", "collection is immutable");
+    public boolean containsAll(Collection<?> c) {
+      for (Object elementToCheck : c) {
+        if(!contains(elementToCheck)) {
+          return false;
         }
-        performAddOperation(modelElement, e);
-        return true;
       }
+      return true;
+    }
 
-      public boolean addAll(Collection<? extends T> c) {
-        if(!isMutable) {
-          throw new UnsupportedModelOperationException("addAll()", "collection is immutable");
+    public boolean isEmpty() {
+      return getSnapshot().elements.isEmpty();
+    }
+
+    public Iterator<T> iterator() {
+      final Iterator<DomElement> elements = getSnapshot().elements.iterator();
+      return new Iterator<T>() {
+
+        public boolean hasNext() {
+          return elements.hasNext();
         }
-        boolean result = false;
-        for (T t : c) {
-          result |= add(t);
+
+        public T next() {
+          return getModelElement(elements.next());
         }
-        return result;
-      }
 
-      public void clear() {
-        if(!isMutable) {
-          throw new UnsupportedModelOperationException("clear()", "collection is immutable");
+        public void remove() {
+          throw new UnsupportedModelOperationException("Iterator.remove()", "use remove() of the collection instead");
         }
-        Collection<DomElement> view = getView(modelElement);
-        performClearOperation(modelElement, view);
+
+      };
+    }
+
+    public Object[] toArray() {
+      return toList().toArray();
+    }
+
+    public <U> U[] toArray(U[] a) {
+      return toList().toArray(a);
+    }
+
+    protected List<T> toList() {
+      List<DomElement> elements = getSnapshot().elements;
+      List<T> modelElements = new ArrayList<T>(elements.size());
+      for (DomElement element : elements) {
+        modelElements.add(getModelElement(element));
       }
+      return modelElements;
+    }
 
-      public boolean remove(Object e) {
-        if(!isMutable) {
-          throw new UnsupportedModelOperationException("remove()", "collection is immutable");
-        }
-        ModelUtil.ensureInstanceOf(e, ModelElementInstanceImpl.class);
-        return performRemoveOperation(modelElement, e);
+    public int size() {
+      return getSnapshot().elements.size();
+    }
+
+    public boolean add(T e) {
+      if(!isMutable) {
+        throw new UnsupportedModelOperationException("add()", "collection is immutable");
       }
+      performAddOperation(modelElement, e);
+      return true;
+    }
 
-      public boolean removeAll(Collection<?> c) {
-        if(!isMutable) {
-          throw new UnsupportedModelOperationException("removeAll()", "collection is immutable");
-        }
-        boolean result = false;
-        for (Object t : c) {
-          result |= remove(t);
-        }
-        return result;
+    public boolean addAll(Collection<? extends T> c) {
+      if(!isMutable) {
+        throw new UnsupportedModelOperationException("addAll()", "collection is immutable");
       }
+      modelElement.addChildElements(c);
+      return !c.isEmpty();
+    }
+
+    public void clear() {
+      if(!isMutable) {
+        throw new UnsupportedModelOperationException("clear()", "collection is immutable");
+      }
+      performClearOperation(modelElement, getSnapshot().elements);
+    }
 
-      public boolean retainAll(Collection<?> c) {
-        throw new UnsupportedModelOperationException("retainAll()", "not implemented");
+    public boolean remove(Object e) {
+      if(!isMutable) {
+        throw new UnsupportedModelOperationException("remove()", "collection is immutable");
       }
+      ModelUtil.ensureInstanceOf(e, ModelElementInstanceImpl.class);
+      return performRemoveOperation(modelElement, e);
+    }
+
+    public boolean removeAll(Collection<?> c) {
+      if(!isMutable) {
+        throw new UnsupportedModelOperationException("removeAll()", "collection is immutable");
+      }
+      List<ModelElementInstance> modelElements = new ArrayList<ModelElementInstance>(c.size());
+      for (Object t : c) {
+        ModelUtil.ensureInstanceOf(t, ModelElementInstanceImpl.class);
+        modelElements.add((ModelElementInstance) t);
+      }
+      return modelElement.removeChildElements(modelElements);
+    }
+
+    public boolean retainAll(Collection<?> c) {
+      throw new UnsupportedModelOperationException("retainAll()", "not implemented");
+    }
 
-    };
   }
 
 }
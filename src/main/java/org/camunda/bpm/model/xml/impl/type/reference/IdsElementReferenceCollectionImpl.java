@@ -19,6 +19,7 @@ package org.camunda.bpm.model.xml.impl.type.reference;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import org.camunda.bpm.model.xml.ModelException;
 import org.camunda.bpm.model.xml.impl.instance.ModelElementInstanceImpl;
@@ -95,4 +96,36 @@ public class IdsElementReferenceCollectionImpl<Target extends ModelElementInstan
     }
   }
 
+  @Override
+  public void referencedElementsRemoved(Map<? extends ModelElementInstance, ?> referenceIdentifiers) {
+    Map<Object, ModelElementInstance> referenceTargetElements = getReferenceTargetElements(referenceIdentifiers);
+    if (referenceTargetElements.isEmpty()) {
+      return;
+    }
+    ModelElementInstance anyReferenceTargetElement = referenceTargetElements.values().iterator().next();
+    for (ModelElementInstance referenceSourceElement : findReferenceSourceElements(anyReferenceTargetElement)) {
+      List<String> referenceIdentifiersOfSource = getReferenceIdentifiers(referenceSourceElement);
+      boolean changed = false;
+      for (String referenceIdentifier : new ArrayList<String>(referenceIdentifiersOfSource)) {
+        ModelElementInstance referenceTargetElement = referenceTargetElements.get(referenceIdentifier);
+        if (referenceTargetElement != null) {
+          if (referenceIdentifiersOfSource.size() == 1) {
+            // remove whole element
+            removeReference(referenceSourceElement, referenceTargetElement);
+            changed = false;
+            break;
+          }
+          else {
+            // remove only single identifier
+            referenceIdentifiersOfSource.remove(referenceIdentifier);
+            changed = true;
+          }
+        }
+      }
+      if (changed) {
+        setReferenceIdentifiers(referenceSourceElement, referenceIdentifiersOfSource);
+      }
+    }
+  }
+
 }
@@ -18,6 +18,8 @@ package org.camunda.bpm.model.xml.impl.type.reference;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.camunda.bpm.model.xml.ModelInstance;
 import org.camunda.bpm.model.xml.ModelReferenceException;
@@ -172,4 +174,41 @@ public abstract class ReferenceImpl<T extends ModelElementInstance> implements R
     }
   }
 
+  /**
+   * Remove the references to multiple removed target elements in a single pass over the
+   * reference source elements, with the same result as calling
+   * {@link #referencedElementRemoved(ModelElementInstance, Object)} for every target element.
+   *
+   * @param referenceIdentifiers the identifiers of the removed reference target model element instances by the instances
+   */
+  public void referencedElementsRemoved(Map<? extends ModelElementInstance, ?> referenceIdentifiers) {
+    Map<Object, ModelElementInstance> referenceTargetElements = getReferenceTargetElements(referenceIdentifiers);
+    if (!referenceTargetElements.isEmpty()) {
+      ModelElementInstance anyReferenceTargetElement = referenceTargetElements.values().iterator().next();
+      for (ModelElementInstance referenceSourceElement : findReferenceSourceElements(anyReferenceTargetElement)) {
+        ModelElementInstance referenceTargetElement = referenceTargetElements.get(getReferenceIdentifier(referenceSourceElement));
+        if (referenceTargetElement != null) {
+          removeReference(referenceSourceElement, referenceTargetElement);
+        }
+      }
+    }
+  }
+
+  /**
+   * @param referenceIdentifiers the identifiers of reference target model element instances by the instances
+   * @return the instances which can be referenced by this reference by their identifier, the first
+   *         instance wins if multiple instances have the same identifier
+   */
+  protected Map<Object, ModelElementInstance> getReferenceTargetElements(Map<? extends ModelElementInstance, ?> referenceIdentifiers) {
+    Map<Object, ModelElementInstance> referenceTargetElements = new HashMap<Object, ModelElementInstance>();
+    for (Map.Entry<? extends ModelElementInstance, ?> entry : referenceIdentifiers.entrySet()) {
+      ModelElementInstance referenceTargetElement = entry.getKey();
+      if (referenceTargetElementType.isBaseTypeOf(referenceTargetElement.getElementType())
+          && !referenceTargetElements.containsKey(entry.getValue())) {
+        referenceTargetElements.put(entry.getValue(), referenceTargetElement);
+      }
+    }
+    return referenceTargetElements;
+  }
+
 }
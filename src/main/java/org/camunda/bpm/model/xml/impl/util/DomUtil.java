@@ -20,25 +20,43 @@ import org.camunda.bpm.model.xml.ModelParseException;
 import org.camunda.bpm.model.xml.impl.ModelInstanceImpl;
 import org.camunda.bpm.model.xml.impl.instance.DomDocumentImpl;
 import org.camunda.bpm.model.xml.impl.instance.DomElementImpl;
+import org.camunda.bpm.model.xml.impl.instance.ElementVisitor;
+import org.camunda.bpm.model.xml.impl.instance.IndexedDomDocument;
+import org.camunda.bpm.model.xml.impl.instance.NavigableDomElement;
 import org.camunda.bpm.model.xml.instance.DomDocument;
 import org.camunda.bpm.model.xml.instance.DomElement;
-import org.camunda.bpm.model.xml.instance.ModelElementInstance;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 
+import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
 
+import static javax.xml.XMLConstants.DEFAULT_NS_PREFIX;
+import static javax.xml.XMLConstants.XMLNS_ATTRIBUTE;
+import static javax.xml.XMLConstants.XMLNS_ATTRIBUTE_NS_URI;
+
 /**
  * Helper methods which abstract some gruesome DOM specifics.
  * It does not provide synchronization when invoked in parallel with
@@ -50,6 +68,8 @@ import java.util.logging.Logger;
  */
 public final class DomUtil {
 
+  private static DocumentBuilderFactory fragmentDocumentBuilderFactory;
+
   /**
    * A {@link NodeListFilter} allows to filter a {@link NodeList},
    * retaining only elements in the list which match the filter.
@@ -122,8 +142,7 @@ public final class DomUtil {
       if (! super.matches(node)) {
         return false;
       }
-      ModelElementInstance modelElement = ModelUtil.getModelElement(new DomElementImpl((Element) node), model);
-      return type.isAssignableFrom(modelElement.getClass());
+      return ModelUtil.isModelElementOfType(DomElementImpl.forElement((Element) node), model, type);
     }
   }
 
@@ -140,7 +159,7 @@ public final class DomUtil {
     for(int i = 0; i< nodeList.getLength(); i++) {
       Node node = nodeList.item(i);
       if(filter.matches(node)) {
-        filteredList.add(new DomElementImpl((Element) node));
+        filteredList.add(DomElementImpl.forElement((Element) node));
       }
     }
 
@@ -171,6 +190,37 @@ public final class DomUtil {
     return filterNodeList(nodeList, new ElementByNameListFilter(localName, namespaceUri));
   }
 
+  /**
+   * Finds all elements of a document with one of multiple names in a single pass.
+   * The elements of an {@link IndexedDomDocument} are looked up in its index, other
+   * documents are traversed once.
+   *
+   * @param document the document to search
+   * @param localNamesByNamespace the local names of the elements by their namespace
+   * @return the list of all elements with one of the names in document order
+   */
+  public static List<DomElement> getElementsByNamesNs(DomDocument document, Map<String, ? extends Collection<String>> localNamesByNamespace) {
+    if (document instanceof IndexedDomDocument) {
+      return ((IndexedDomDocument) document).getElementsByNamesNs(localNamesByNamespace);
+    }
+    List<DomElement> elements = new ArrayList<DomElement>();
+    DomElement rootElement = document.getRootElement();
+    if (rootElement != null) {
+      collectElementsByNamesNs(rootElement, localNamesByNamespace, elements);
+    }
+    return elements;
+  }
+
+  protected static void collectElementsByNamesNs(DomElement element, Map<String, ? extends Collection<String>> localNamesByNamespace, List<DomElement> elements) {
+    Collection<String> localNames = localNamesByNamespace.get(element.getNamespaceURI());
+    if (localNames != null && localNames.contains(element.getLocalName())) {
+      elements.add(element);
+    }
+    for (DomElement childElement = getFirstChildElement(element); childElement != null; childElement = getNextSiblingElement(childElement)) {
+      collectElementsByNamesNs(childElement, localNamesByNamespace, elements);
+    }
+  }
+
   /**
    * Filter a {@link NodeList} retaining all elements with a specific type
    *
@@ -184,6 +234,405 @@ public final class DomUtil {
     return filterNodeList(nodeList, new ElementByTypeListFilter(type, modelInstance));
   }
 
+  /**
+   * Returns the first child element of an element. A {@link NavigableDomElement} steps
+   * to it directly, for other elements the child elements are listed.
+   *
+   * @param element the parent element
+   * @return the first child element or null if none
+   */
+  public static DomElement getFirstChildElement(DomElement element) {
+    if (element instanceof NavigableDomElement) {
+      return ((NavigableDomElement) element).getFirstChildElement();
+    }
+    List<DomElement> childElements = element.getChildElements();
+    return childElements.isEmpty() ? null : childElements.get(0);
+  }
+
+  /**
+   * Returns the next sibling element of an element. A {@link NavigableDomElement} steps
+   * to it directly, for other elements the child elements of the parent are listed.
+   *
+   * @param element the element
+   * @return the next sibling element or null if none
+   */
+  public static DomElement getNextSiblingElement(DomElement element) {
+    if (element instanceof NavigableDomElement) {
+      return ((NavigableDomElement) element).getNextSiblingElement();
+    }
+    DomElement parentElement = element.getParentElement();
+    if (parentElement != null) {
+      List<DomElement> siblingElements = parentElement.getChildElements();
+      int index = siblingElements.indexOf(element);
+      if (index >= 0 && index < siblingElements.size() - 1) {
+        return siblingElements.get(index + 1);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the first child element of an element whose model element is an instance of a
+   * type. Only the model element of the returned element is created.
+   *
+   * @param element the parent element
+   * @param modelInstance the model instance
+   * @param type the type class to look for
+   * @return the first child element of the type or null if none
+   */
+  public static DomElement getFirstChildElementByType(DomElement element, ModelInstanceImpl modelInstance, Class<?> type) {
+    return getElementByType(getFirstChildElement(element), modelInstance, type);
+  }
+
+  /**
+   * Returns the next sibling element of an element whose model element is an instance of a
+   * type. Only the model element of the returned element is created.
+   *
+   * @param element the element
+   * @param modelInstance the model instance
+   * @param type the type class to look for
+   * @return the next sibling element of the type or null if none
+   */
+  public static DomElement getNextSiblingElementByType(DomElement element, ModelInstanceImpl modelInstance, Class<?> type) {
+    return getElementByType(getNextSiblingElement(element), modelInstance, type);
+  }
+
+  protected static DomElement getElementByType(DomElement element, ModelInstanceImpl modelInstance, Class<?> type) {
+    DomElement sibling = element;
+    while (sibling != null && !ModelUtil.isModelElementOfType(sibling, modelInstance, type)) {
+      sibling = getNextSiblingElement(sibling);
+    }
+    return sibling;
+  }
+
+  /**
+   * Visits the child elements of an element in document order until the visitor stops.
+   * The next sibling is determined before an element is visited, so the visitor may
+   * remove the visited element.
+   *
+   * @param element the parent element
+   * @param visitor the visitor to call for every child element
+   * @return false if the visitor stopped the walk, true otherwise
+   */
+  public static boolean forEachChildElement(DomElement element, ElementVisitor<? super DomElement> visitor) {
+    DomElement childElement = getFirstChildElement(element);
+    while (childElement != null) {
+      DomElement nextElement = getNextSiblingElement(childElement);
+      if (!visitor.visit(childElement)) {
+        return false;
+      }
+      childElement = nextElement;
+    }
+    return true;
+  }
+
+  /**
+   * Computes the minimal set of namespace declarations of a DOM document and hoists
+   * them to the document element. Declarations which are not used by any element,
+   * attribute or prefixed attribute/text value are dropped and generic prefixes which
+   * are bound to the same namespace URI are merged into a single prefix.
+   *
+   * Prefixes which are bound to different namespace URIs in different scopes are
+   * left untouched, as they cannot be hoisted without changing the document.
+   *
+   * @param document the DOM document to minimize, it is modified in place
+   */
+  public static void minimizeNamespaceDeclarations(Document document) {
+    Element rootElement = document.getDocumentElement();
+    if (rootElement == null) {
+      return;
+    }
+
+    List<Element> elements = collectElements(rootElement);
+
+    // collect all declared prefixes and detect prefixes bound to multiple namespaces
+    Map<String, String> namespaceByPrefix = new LinkedHashMap<String, String>();
+    Set<String> conflictingPrefixes = new HashSet<String>();
+    for (Element element : elements) {
+      NamedNodeMap attributes = element.getAttributes();
+      for (int i = 0; i < attributes.getLength(); i++) {
+        Attr attribute = (Attr) attributes.item(i);
+        if (XMLNS_ATTRIBUTE_NS_URI.equals(attribute.getNamespaceURI())) {
+          String prefix = getDeclaredPrefix(attribute);
+          String namespaceUri = attribute.getValue();
+          String existingNamespaceUri = namespaceByPrefix.get(prefix);
+          if (existingNamespaceUri == null) {
+            namespaceByPrefix.put(prefix, namespaceUri);
+          }
+          else if (!existingNamespaceUri.equals(namespaceUri)) {
+            conflictingPrefixes.add(prefix);
+          }
+        }
+      }
+      if (element.getNamespaceURI() == null) {
+        // an element without namespace would be captured by a hoisted default namespace
+        conflictingPrefixes.add(DEFAULT_NS_PREFIX);
+      }
+    }
+
+    // merge prefixes which are bound to the same namespace, prefer the ones declared on the root element
+    Map<String, String> canonicalPrefixByNamespace = new HashMap<String, String>();
+    for (String prefix : namespaceByPrefix.keySet()) {
+      String namespaceUri = namespaceByPrefix.get(prefix);
+      if (!conflictingPrefixes.contains(prefix) && !namespaceUri.isEmpty()) {
+        String canonicalPrefix = canonicalPrefixByNamespace.get(namespaceUri);
+        if (canonicalPrefix == null || (isDeclaredOnElement(rootElement, prefix) && !isDeclaredOnElement(rootElement, canonicalPrefix))) {
+          canonicalPrefixByNamespace.put(namespaceUri, prefix);
+        }
+      }
+    }
+
+    // rename prefixes and collect the prefixes which are still in use
+    Set<String> usedPrefixes = new HashSet<String>();
+    for (Element element : elements) {
+      if (element.getNamespaceURI() != null) {
+        String elementPrefix = getCanonicalPrefix(element, namespaceByPrefix, conflictingPrefixes, canonicalPrefixByNamespace);
+        element.setPrefix(DEFAULT_NS_PREFIX.equals(elementPrefix) ? null : elementPrefix);
+        usedPrefixes.add(elementPrefix);
+      }
+
+      NamedNodeMap attributes = element.getAttributes();
+      for (int i = 0; i < attributes.getLength(); i++) {
+        Attr attribute = (Attr) attributes.item(i);
+        if (!XMLNS_ATTRIBUTE_NS_URI.equals(attribute.getNamespaceURI())) {
+          if (attribute.getPrefix() != null) {
+            String attributePrefix = getCanonicalPrefix(attribute, namespaceByPrefix, conflictingPrefixes, canonicalPrefixByNamespace);
+            if (!DEFAULT_NS_PREFIX.equals(attributePrefix)) {
+              attribute.setPrefix(attributePrefix);
+            }
+            usedPrefixes.add(attribute.getPrefix());
+          }
+          collectValuePrefixes(attribute.getValue(), namespaceByPrefix.keySet(), usedPrefixes);
+        }
+      }
+
+      for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+        if (child.getNodeType() == Node.TEXT_NODE || child.getNodeType() == Node.CDATA_SECTION_NODE) {
+          collectValuePrefixes(child.getNodeValue(), namespaceByPrefix.keySet(), usedPrefixes);
+        }
+      }
+    }
+
+    // remove all hoistable declarations from nested elements
+    for (Element element : elements) {
+      if (element != rootElement) {
+        NamedNodeMap attributes = element.getAttributes();
+        for (int i = attributes.getLength() - 1; i >= 0; i--) {
+          Attr attribute = (Attr) attributes.item(i);
+          if (XMLNS_ATTRIBUTE_NS_URI.equals(attribute.getNamespaceURI()) && !conflictingPrefixes.contains(getDeclaredPrefix(attribute))) {
+            element.removeAttributeNode(attribute);
+          }
+        }
+      }
+    }
+
+    // declare all used namespaces on the root element and drop unused ones
+    for (String prefix : namespaceByPrefix.keySet()) {
+      if (!conflictingPrefixes.contains(prefix)) {
+        String declarationName = getDeclarationName(prefix);
+        if (usedPrefixes.contains(prefix)) {
+          rootElement.setAttributeNS(XMLNS_ATTRIBUTE_NS_URI, declarationName, namespaceByPrefix.get(prefix));
+        }
+        else if (isDeclaredOnElement(rootElement, prefix)) {
+          rootElement.removeAttributeNS(XMLNS_ATTRIBUTE_NS_URI, getDeclaredLocalName(prefix));
+        }
+      }
+    }
+  }
+
+  private static List<Element> collectElements(Element rootElement) {
+    List<Element> elements = new ArrayList<Element>();
+    Node node = rootElement;
+    while (node != null) {
+      if (node.getNodeType() == Node.ELEMENT_NODE) {
+        elements.add((Element) node);
+        if (node.getFirstChild() != null) {
+          node = node.getFirstChild();
+          continue;
+        }
+      }
+      while (node != null && node != rootElement && node.getNextSibling() == null) {
+        node = node.getParentNode();
+      }
+      node = (node == null || node == rootElement) ? null : node.getNextSibling();
+    }
+    return elements;
+  }
+
+  private static String getCanonicalPrefix(Node node, Map<String, String> namespaceByPrefix, Set<String> conflictingPrefixes, Map<String, String> canonicalPrefixByNamespace) {
+    String prefix = node.getPrefix() == null ? DEFAULT_NS_PREFIX : node.getPrefix();
+    if (conflictingPrefixes.contains(prefix) || !namespaceByPrefix.containsKey(prefix)) {
+      return prefix;
+    }
+    String canonicalPrefix = canonicalPrefixByNamespace.get(node.getNamespaceURI());
+    if (canonicalPrefix != null) {
+      return canonicalPrefix;
+    }
+    else {
+      return prefix;
+    }
+  }
+
+  private static void collectValuePrefixes(String value, Set<String> declaredPrefixes, Set<String> usedPrefixes) {
+    if (value == null || value.indexOf(':') < 0) {
+      return;
+    }
+    for (String token : value.trim().split("\\s+")) {
+      int separatorIndex = token.indexOf(':');
+      if (separatorIndex > 0) {
+        String prefix = token.substring(0, separatorIndex);
+        if (declaredPrefixes.contains(prefix)) {
+          usedPrefixes.add(prefix);
+        }
+      }
+    }
+  }
+
+  private static String getDeclaredPrefix(Attr declaration) {
+    if (XMLNS_ATTRIBUTE.equals(declaration.getName())) {
+      return DEFAULT_NS_PREFIX;
+    }
+    else {
+      return declaration.getLocalName();
+    }
+  }
+
+  private static String getDeclaredLocalName(String prefix) {
+    return DEFAULT_NS_PREFIX.equals(prefix) ? XMLNS_ATTRIBUTE : prefix;
+  }
+
+  private static boolean isDeclaredOnElement(Element element, String prefix) {
+    return element.hasAttributeNS(XMLNS_ATTRIBUTE_NS_URI, getDeclaredLocalName(prefix));
+  }
+
+  private static String getDeclarationName(String prefix) {
+    return DEFAULT_NS_PREFIX.equals(prefix) ? XMLNS_ATTRIBUTE : XMLNS_ATTRIBUTE + ":" + prefix;
+  }
+
+  /**
+   * Collects all namespace declarations which are in scope of an element. Elements
+   * which were created without an explicit namespace declaration contribute
+   * their own prefix and namespace, as a serializer would declare them.
+   *
+   * @param element the element to collect the in scope namespaces for
+   * @return the map of in scope namespace URIs by prefix, the default namespace has the empty prefix
+   */
+  public static Map<String, String> getInScopeNamespaces(Element element) {
+    Map<String, String> namespaces = new LinkedHashMap<String, String>();
+    for (Node node = element; node != null && node.getNodeType() == Node.ELEMENT_NODE; node = node.getParentNode()) {
+      NamedNodeMap attributes = node.getAttributes();
+      for (int i = 0; i < attributes.getLength(); i++) {
+        Attr attribute = (Attr) attributes.item(i);
+        if (XMLNS_ATTRIBUTE_NS_URI.equals(attribute.getNamespaceURI())) {
+          String prefix = getDeclaredPrefix(attribute);
+          if (!namespaces.containsKey(prefix)) {
+            namespaces.put(prefix, attribute.getValue());
+          }
+        }
+      }
+      String prefix = node.getPrefix() == null ? DEFAULT_NS_PREFIX : node.getPrefix();
+      if (!namespaces.containsKey(prefix)) {
+        String namespaceUri = node.getNamespaceURI();
+        namespaces.put(prefix, namespaceUri == null ? "" : namespaceUri);
+      }
+    }
+    return namespaces;
+  }
+
+  /**
+   * Declares namespaces on an element if the prefix is not already declared on it.
+   *
+   * @param element the element to declare the namespaces on
+   * @param namespaces the namespace URIs by prefix to declare
+   */
+  public static void declareNamespaces(Element element, Map<String, String> namespaces) {
+    for (Map.Entry<String, String> namespace : namespaces.entrySet()) {
+      String prefix = namespace.getKey();
+      if (!isDeclaredOnElement(element, prefix)) {
+        element.setAttributeNS(XMLNS_ATTRIBUTE_NS_URI, getDeclarationName(prefix), namespace.getValue());
+      }
+    }
+  }
+
+  /**
+   * Parses a XML fragment which contains a single element. The fragment may use all
+   * prefixes of the given namespaces without declaring them. The fragment is not validated.
+   *
+   * @param xmlFragment the XML fragment to parse
+   * @param namespaces the namespace URIs by prefix which are in scope of the fragment
+   * @return the parsed element, which is owned by a new document
+   * @throws ModelParseException if the fragment cannot be parsed or contains not exactly one element
+   */
+  public static Element parseFragment(String xmlFragment, Map<String, String> namespaces) {
+    String fragment = xmlFragment.trim();
+    if (fragment.startsWith("<?xml")) {
+      fragment = fragment.substring(fragment.indexOf("?>") + 2);
+    }
+
+    StringBuilder wrappedFragment = new StringBuilder("<fragment");
+    for (Map.Entry<String, String> namespace : namespaces.entrySet()) {
+      wrappedFragment.append(' ')
+        .append(getDeclarationName(namespace.getKey()))
+        .append("=\"")
+        .append(escapeAttributeValue(namespace.getValue()))
+        .append('"');
+    }
+    wrappedFragment.append('>').append(fragment).append("</fragment>");
+
+    Document fragmentDocument;
+    try {
+      DocumentBuilder documentBuilder;
+      DocumentBuilderFactory documentBuilderFactory = getFragmentDocumentBuilderFactory();
+      synchronized(documentBuilderFactory) {
+        documentBuilder = documentBuilderFactory.newDocumentBuilder();
+      }
+      documentBuilder.setErrorHandler(new DomErrorHandler());
+      fragmentDocument = documentBuilder.parse(new InputSource(new StringReader(wrappedFragment.toString())));
+    } catch (ParserConfigurationException e) {
+      throw new ModelParseException("ParserConfigurationException while parsing XML fragment", e);
+    } catch (SAXException e) {
+      throw new ModelParseException("SAXException while parsing XML fragment", e);
+    } catch (IOException e) {
+      throw new ModelParseException("IOException while parsing XML fragment", e);
+    }
+
+    Element fragmentElement = null;
+    for (Node child = fragmentDocument.getDocumentElement().getFirstChild(); child != null; child = child.getNextSibling()) {
+      if (child.getNodeType() == Node.ELEMENT_NODE) {
+        if (fragmentElement != null) {
+          throw new ModelParseException("XML fragment must contain exactly one element but contains multiple");
+        }
+        fragmentElement = (Element) child;
+      }
+    }
+    if (fragmentElement == null) {
+      throw new ModelParseException("XML fragment must contain exactly one element but contains none");
+    }
+    return fragmentElement;
+  }
+
+  private static String escapeAttributeValue(String value) {
+    return value.replace("&", "&amp;").replace("<", "&lt;").replace("\"", "&quot;");
+  }
+
+  private static synchronized DocumentBuilderFactory getFragmentDocumentBuilderFactory() {
+    if (fragmentDocumentBuilderFactory == null) {
+      DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+      dbf.setNamespaceAware(true);
+      dbf.setValidating(false);
+      dbf.setXIncludeAware(false);
+      dbf.setExpandEntityReferences(false);
+      try {
+        dbf.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+        dbf.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+      } catch (ParserConfigurationException ignored) {
+        // ignored
+      }
+      fragmentDocumentBuilderFactory = dbf;
+    }
+    return fragmentDocumentBuilderFactory;
+  }
+
   public static class DomErrorHandler implements ErrorHandler {
 
     private static final Logger LOGGER = Logger.getLogger(DomErrorHandler.class.getName());
@@ -216,9 +665,21 @@ public final class DomUtil {
    * @throws ModelParseException if unable to create a new document
    */
   public static DomDocument getEmptyDocument(DocumentBuilderFactory documentBuilderFactory) {
+    return getEmptyDocument(documentBuilderFactory, false);
+  }
+
+  /**
+   * Get an empty DOM document
+   *
+   * @param documentBuilderFactory the factory to build to DOM document
+   * @param threadConfined true if the document is only accessed by a single thread and must not be locked
+   * @return the new empty document
+   * @throws ModelParseException if unable to create a new document
+   */
+  public static DomDocument getEmptyDocument(DocumentBuilderFactory documentBuilderFactory, boolean threadConfined) {
     try {
       DocumentBuilder documentBuilder = documentBuilderFactory.newDocumentBuilder();
-      return new DomDocumentImpl(documentBuilder.newDocument());
+      return DomDocumentImpl.forDocument(documentBuilder.newDocument(), threadConfined);
     } catch (ParserConfigurationException e) {
       throw new ModelParseException("Unable to create a new document", e);
     }
@@ -233,11 +694,24 @@ public final class DomUtil {
    * @throws ModelParseException if a parsing or IO error is triggered
    */
   public static DomDocument parseInputStream(DocumentBuilderFactory documentBuilderFactory, InputStream inputStream) {
+    return parseInputStream(documentBuilderFactory, inputStream, false);
+  }
+
+  /**
+   * Create a new DOM document from the input stream
+   *
+   * @param documentBuilderFactory the factory to build to DOM document
+   * @param inputStream the input stream to parse
+   * @param threadConfined true if the document is only accessed by a single thread and must not be locked
+   * @return the new DOM document
+   * @throws ModelParseException if a parsing or IO error is triggered
+   */
+  public static DomDocument parseInputStream(DocumentBuilderFactory documentBuilderFactory, InputStream inputStream, boolean threadConfined) {
 
     try {
       DocumentBuilder documentBuilder = documentBuilderFactory.newDocumentBuilder();
       documentBuilder.setErrorHandler(new DomErrorHandler());
-      return new DomDocumentImpl(documentBuilder.parse(inputStream));
+      return DomDocumentImpl.forDocument(documentBuilder.parse(inputStream), threadConfined);
     } catch (ParserConfigurationException e) {
       throw new ModelParseException("ParserConfigurationException while parsing input stream", e);
 
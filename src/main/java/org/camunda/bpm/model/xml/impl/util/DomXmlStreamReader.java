@@ -0,0 +1,680 @@
+/*
+ * Copyright Camunda Services GmbH and/or licensed to Camunda Services GmbH
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. Camunda licenses this file to you under the Apache License,
+ * Version 2.0; you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.camunda.bpm.model.xml.impl.util;
+
+import static javax.xml.XMLConstants.DEFAULT_NS_PREFIX;
+import static javax.xml.XMLConstants.NULL_NS_URI;
+import static javax.xml.XMLConstants.XMLNS_ATTRIBUTE;
+import static javax.xml.XMLConstants.XMLNS_ATTRIBUTE_NS_URI;
+import static javax.xml.XMLConstants.XML_NS_PREFIX;
+import static javax.xml.XMLConstants.XML_NS_URI;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.camunda.bpm.model.xml.impl.instance.DocumentLock;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.ProcessingInstruction;
+
+/**
+ * A {@link XMLStreamReader} which walks a DOM document directly, so that StAX based
+ * consumers can read a model without serializing it to text and parsing it again.
+ *
+ * <p>The reader does not copy the DOM document. Each step of the reader holds the read
+ * lock of the document while it moves to the next node and copies the name, attributes,
+ * namespace declarations and text of the node, so the document may be modified between
+ * two steps. The events then reflect the document as it is at each step, a consumer which
+ * needs a consistent view has to prevent modifications while reading. The namespace context
+ * of the current node is resolved under the read lock as well.</p>
+ *
+ * <p>The reader reports the namespace declarations exactly as they are present in the DOM,
+ * it does not repair namespaces. An element or attribute which was created with a namespace
+ * but without a matching declaration has a namespace URI but no declaration is reported for
+ * it. Only elements, text, CDATA sections, comments and processing instructions are reported.
+ * Other nodes like document types and entity references, including their children, are
+ * skipped.</p>
+ *
+ */
+public class DomXmlStreamReader implements XMLStreamReader {
+
+  protected static final Location UNKNOWN_LOCATION = new Location() {
+    public int getLineNumber() {
+      return -1;
+    }
+    public int getColumnNumber() {
+      return -1;
+    }
+    public int getCharacterOffset() {
+      return -1;
+    }
+    public String getPublicId() {
+      return null;
+    }
+    public String getSystemId() {
+      return null;
+    }
+  };
+
+  protected final Document document;
+  protected final DocumentLock lock;
+
+  protected final String inputEncoding;
+  protected final String xmlEncoding;
+  protected final String xmlVersion;
+  protected final boolean xmlStandalone;
+
+  protected Node currentNode;
+  protected int eventType;
+
+  /** the state of the current node, which is copied under the read lock */
+  protected QName name;
+  protected List<AttributeState> attributes;
+  protected List<NamespaceState> namespaces;
+  protected String text;
+  protected String piTarget;
+  protected String piData;
+
+  public DomXmlStreamReader(Document document) {
+    this(document, DocumentLock.forDocument(document));
+  }
+
+  /**
+   * @param document the document to read
+   * @param lock the lock of the document which is held during each step of the reader
+   */
+  public DomXmlStreamReader(Document document, DocumentLock lock) {
+    this.document = document;
+    this.lock = lock;
+    this.currentNode = document;
+    this.eventType = START_DOCUMENT;
+
+    lock.lockRead();
+    try {
+      inputEncoding = document.getInputEncoding();
+      xmlEncoding = document.getXmlEncoding();
+      xmlVersion = document.getXmlVersion();
+      xmlStandalone = document.getXmlStandalone();
+    }
+    finally {
+      lock.unlockRead();
+    }
+  }
+
+  // navigation ////////////////////////////////////////////////////
+
+  public int next() throws XMLStreamException {
+    if (eventType == END_DOCUMENT) {
+      throw new NoSuchElementException("End of document reached");
+    }
+
+    lock.lockRead();
+    try {
+      moveToNextNode();
+      copyCurrentNode();
+      return eventType;
+    }
+    finally {
+      lock.unlockRead();
+    }
+  }
+
+  protected void moveToNextNode() {
+    if (eventType == START_DOCUMENT || eventType == START_ELEMENT) {
+      Node firstChild = currentNode.getFirstChild();
+      if (firstChild != null) {
+        enterNode(firstChild);
+      }
+      else if (eventType == START_ELEMENT) {
+        eventType = END_ELEMENT;
+      }
+      else {
+        eventType = END_DOCUMENT;
+      }
+    }
+    else {
+      Node nextSibling = currentNode.getNextSibling();
+      if (nextSibling != null) {
+        enterNode(nextSibling);
+      }
+      else {
+        leaveNode();
+      }
+    }
+  }
+
+  /**
+   * Moves to the node or the next supported sibling of it.
+   */
+  protected void enterNode(Node node) {
+    while (true) {
+      currentNode = node;
+      int nodeEventType = getEventType(node);
+      if (nodeEventType >= 0) {
+        eventType = nodeEventType;
+        return;
+      }
+      // skip unsupported nodes like document types
+      node = node.getNextSibling();
+      if (node == null) {
+        leaveNode();
+        return;
+      }
+    }
+  }
+
+  /**
+   * Moves to the end of the parent of the current node.
+   */
+  protected void leaveNode() {
+    Node parentNode = currentNode.getParentNode();
+    if (parentNode == null || parentNode.getNodeType() == Node.DOCUMENT_NODE) {
+      currentNode = document;
+      eventType = END_DOCUMENT;
+    }
+    else {
+      currentNode = parentNode;
+      eventType = END_ELEMENT;
+    }
+  }
+
+  protected int getEventType(Node node) {
+    switch (node.getNodeType()) {
+      case Node.ELEMENT_NODE:
+        return START_ELEMENT;
+      case Node.TEXT_NODE:
+        return CHARACTERS;
+      case Node.CDATA_SECTION_NODE:
+        return CDATA;
+      case Node.COMMENT_NODE:
+        return COMMENT;
+      case Node.PROCESSING_INSTRUCTION_NODE:
+        return PROCESSING_INSTRUCTION;
+      default:
+        return -1;
+    }
+  }
+
+  /**
+   * Copies the state of the current node, so that it can be read without holding the lock.
+   */
+  protected void copyCurrentNode() {
+    name = null;
+    attributes = null;
+    namespaces = null;
+    text = null;
+    piTarget = null;
+    piData = null;
+
+    if (eventType == START_ELEMENT || eventType == END_ELEMENT) {
+      String localName = currentNode.getLocalName();
+      name = createQName(currentNode.getNamespaceURI(), localName != null ? localName : currentNode.getNodeName(), currentNode.getPrefix());
+
+      attributes = new ArrayList<AttributeState>();
+      namespaces = new ArrayList<NamespaceState>();
+      NamedNodeMap attributeMap = currentNode.getAttributes();
+      for (int i = 0; i < attributeMap.getLength(); i++) {
+        Attr attribute = (Attr) attributeMap.item(i);
+        if (XMLNS_ATTRIBUTE_NS_URI.equals(attribute.getNamespaceURI())) {
+          String prefix = XMLNS_ATTRIBUTE.equals(attribute.getName()) ? null : attribute.getLocalName();
+          namespaces.add(new NamespaceState(prefix, attribute.getValue()));
+        }
+        else if (eventType == START_ELEMENT) {
+          attributes.add(new AttributeState(attribute));
+        }
+      }
+    }
+    else if (eventType == PROCESSING_INSTRUCTION) {
+      piTarget = ((ProcessingInstruction) currentNode).getTarget();
+      piData = ((ProcessingInstruction) currentNode).getData();
+    }
+    else if (hasText()) {
+      text = currentNode.getNodeValue();
+    }
+  }
+
+  protected static QName createQName(String namespaceUri, String localName, String prefix) {
+    return new QName(namespaceUri == null ? NULL_NS_URI : namespaceUri, localName, prefix == null ? DEFAULT_NS_PREFIX : prefix);
+  }
+
+  public boolean hasNext() throws XMLStreamException {
+    return eventType != END_DOCUMENT;
+  }
+
+  public int nextTag() throws XMLStreamException {
+    int nextEventType = next();
+    while ((nextEventType == CHARACTERS && isWhiteSpace())
+      || (nextEventType == CDATA && isWhiteSpace())
+      || nextEventType == SPACE
+      || nextEventType == PROCESSING_INSTRUCTION
+      || nextEventType == COMMENT) {
+      nextEventType = next();
+    }
+    if (nextEventType != START_ELEMENT && nextEventType != END_ELEMENT) {
+      throw new XMLStreamException("Expected start or end tag but found event type " + nextEventType);
+    }
+    return nextEventType;
+  }
+
+  public String getElementText() throws XMLStreamException {
+    require(START_ELEMENT, null, null);
+    StringBuilder text = new StringBuilder();
+    int nextEventType = next();
+    while (nextEventType != END_ELEMENT) {
+      if (nextEventType == CHARACTERS || nextEventType == CDATA || nextEventType == SPACE) {
+        text.append(getText());
+      }
+      else if (nextEventType != PROCESSING_INSTRUCTION && nextEventType != COMMENT) {
+        throw new XMLStreamException("Element text content may not contain event type " + nextEventType);
+      }
+      nextEventType = next();
+    }
+    return text.toString();
+  }
+
+  public void require(int type, String namespaceURI, String localName) throws XMLStreamException {
+    if (type != eventType) {
+      throw new XMLStreamException("Expected event type " + type + " but current event type is " + eventType);
+    }
+    if (namespaceURI != null && !namespaceURI.equals(getNamespaceURI())) {
+      throw new XMLStreamException("Expected namespace " + namespaceURI + " but found " + getNamespaceURI());
+    }
+    if (localName != null && !localName.equals(getLocalName())) {
+      throw new XMLStreamException("Expected local name " + localName + " but found " + getLocalName());
+    }
+  }
+
+  public void close() throws XMLStreamException {
+    // nothing to release
+  }
+
+  public Object getProperty(String name) {
+    return null;
+  }
+
+  public int getEventType() {
+    return eventType;
+  }
+
+  public boolean isStartElement() {
+    return eventType == START_ELEMENT;
+  }
+
+  public boolean isEndElement() {
+    return eventType == END_ELEMENT;
+  }
+
+  public boolean isCharacters() {
+    return eventType == CHARACTERS;
+  }
+
+  public boolean isWhiteSpace() {
+    return hasText() && isWhiteSpace(getText());
+  }
+
+  protected boolean isWhiteSpace(String text) {
+    for (int i = 0; i < text.length(); i++) {
+      if (!Character.isWhitespace(text.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // element names ////////////////////////////////////////////////
+
+  public QName getName() {
+    ensureElementEvent();
+    return name;
+  }
+
+  public String getLocalName() {
+    ensureElementEvent();
+    return name.getLocalPart();
+  }
+
+  public boolean hasName() {
+    return eventType == START_ELEMENT || eventType == END_ELEMENT;
+  }
+
+  public String getNamespaceURI() {
+    if (hasName()) {
+      String namespaceUri = name.getNamespaceURI();
+      return NULL_NS_URI.equals(namespaceUri) ? null : namespaceUri;
+    }
+    else {
+      return null;
+    }
+  }
+
+  public String getPrefix() {
+    if (hasName()) {
+      return name.getPrefix();
+    }
+    else {
+      return null;
+    }
+  }
+
+  protected void ensureElementEvent() {
+    if (!hasName()) {
+      throw new IllegalStateException("Current event is not a start or end element but " + eventType);
+    }
+  }
+
+  // attributes ///////////////////////////////////////////////////
+
+  protected void ensureStartElementEvent() {
+    if (eventType != START_ELEMENT) {
+      throw new IllegalStateException("Current event is not a start element but " + eventType);
+    }
+  }
+
+  protected AttributeState getAttribute(int index) {
+    ensureStartElementEvent();
+    return attributes.get(index);
+  }
+
+  public int getAttributeCount() {
+    ensureStartElementEvent();
+    return attributes.size();
+  }
+
+  public String getAttributeValue(String namespaceURI, String localName) {
+    ensureStartElementEvent();
+    for (AttributeState attribute : attributes) {
+      boolean matches;
+      if (namespaceURI == null) {
+        matches = localName.equals(attribute.qualifiedName);
+      }
+      else {
+        matches = localName.equals(attribute.name.getLocalPart()) && namespaceURI.equals(attribute.name.getNamespaceURI());
+      }
+      if (matches) {
+        return attribute.value;
+      }
+    }
+    return null;
+  }
+
+  public QName getAttributeName(int index) {
+    return getAttribute(index).name;
+  }
+
+  public String getAttributeNamespace(int index) {
+    String namespaceUri = getAttribute(index).name.getNamespaceURI();
+    return NULL_NS_URI.equals(namespaceUri) ? null : namespaceUri;
+  }
+
+  public String getAttributeLocalName(int index) {
+    return getAttribute(index).name.getLocalPart();
+  }
+
+  public String getAttributePrefix(int index) {
+    return getAttribute(index).name.getPrefix();
+  }
+
+  public String getAttributeType(int index) {
+    return getAttribute(index).id ? "ID" : "CDATA";
+  }
+
+  public String getAttributeValue(int index) {
+    return getAttribute(index).value;
+  }
+
+  public boolean isAttributeSpecified(int index) {
+    return getAttribute(index).specified;
+  }
+
+  // namespaces ///////////////////////////////////////////////////
+
+  public int getNamespaceCount() {
+    ensureElementEvent();
+    return namespaces.size();
+  }
+
+  public String getNamespacePrefix(int index) {
+    ensureElementEvent();
+    return namespaces.get(index).prefix;
+  }
+
+  public String getNamespaceURI(int index) {
+    ensureElementEvent();
+    return namespaces.get(index).namespaceUri;
+  }
+
+  public String getNamespaceURI(String prefix) {
+    if (prefix == null) {
+      throw new IllegalArgumentException("Prefix must not be null");
+    }
+    lock.lockRead();
+    try {
+      return lookupNamespaceUri(getContextNode(), prefix);
+    }
+    finally {
+      lock.unlockRead();
+    }
+  }
+
+  public NamespaceContext getNamespaceContext() {
+    final Node contextNode;
+    lock.lockRead();
+    try {
+      contextNode = getContextNode();
+    }
+    finally {
+      lock.unlockRead();
+    }
+
+    return new NamespaceContext() {
+
+      public String getNamespaceURI(String prefix) {
+        if (prefix == null) {
+          throw new IllegalArgumentException("Prefix must not be null");
+        }
+        lock.lockRead();
+        try {
+          String namespaceUri = lookupNamespaceUri(contextNode, prefix);
+          return namespaceUri != null ? namespaceUri : NULL_NS_URI;
+        }
+        finally {
+          lock.unlockRead();
+        }
+      }
+
+      public String getPrefix(String namespaceURI) {
+        if (namespaceURI == null) {
+          throw new IllegalArgumentException("Namespace URI must not be null");
+        }
+        else if (XML_NS_URI.equals(namespaceURI)) {
+          return XML_NS_PREFIX;
+        }
+        else if (XMLNS_ATTRIBUTE_NS_URI.equals(namespaceURI)) {
+          return XMLNS_ATTRIBUTE;
+        }
+        lock.lockRead();
+        try {
+          if (contextNode.isDefaultNamespace(namespaceURI)) {
+            return DEFAULT_NS_PREFIX;
+          }
+          else {
+            return contextNode.lookupPrefix(namespaceURI);
+          }
+        }
+        finally {
+          lock.unlockRead();
+        }
+      }
+
+      public Iterator<String> getPrefixes(String namespaceURI) {
+        String prefix = getPrefix(namespaceURI);
+        if (prefix != null) {
+          return Collections.singletonList(prefix).iterator();
+        }
+        else {
+          return Collections.<String>emptyList().iterator();
+        }
+      }
+    };
+  }
+
+  /**
+   * Has to be called while holding the read lock.
+   */
+  protected Node getContextNode() {
+    if (currentNode.getNodeType() == Node.ELEMENT_NODE || currentNode.getParentNode() == null) {
+      return currentNode;
+    }
+    else {
+      return currentNode.getParentNode();
+    }
+  }
+
+  protected String lookupNamespaceUri(Node contextNode, String prefix) {
+    if (XML_NS_PREFIX.equals(prefix)) {
+      return XML_NS_URI;
+    }
+    else if (XMLNS_ATTRIBUTE.equals(prefix)) {
+      return XMLNS_ATTRIBUTE_NS_URI;
+    }
+    else {
+      if (contextNode.getNodeType() == Node.DOCUMENT_NODE) {
+        contextNode = ((Document) contextNode).getDocumentElement();
+        if (contextNode == null) {
+          return null;
+        }
+      }
+      return contextNode.lookupNamespaceURI(DEFAULT_NS_PREFIX.equals(prefix) ? null : prefix);
+    }
+  }
+
+  // text /////////////////////////////////////////////////////////
+
+  public boolean hasText() {
+    return eventType == CHARACTERS || eventType == CDATA || eventType == SPACE
+      || eventType == COMMENT || eventType == ENTITY_REFERENCE || eventType == DTD;
+  }
+
+  public String getText() {
+    if (!hasText()) {
+      throw new IllegalStateException("Current event has no text but is " + eventType);
+    }
+    return text;
+  }
+
+  public char[] getTextCharacters() {
+    return getText().toCharArray();
+  }
+
+  public int getTextCharacters(int sourceStart, char[] target, int targetStart, int length) throws XMLStreamException {
+    String text = getText();
+    int copyLength = Math.max(0, Math.min(length, text.length() - sourceStart));
+    text.getChars(sourceStart, sourceStart + copyLength, target, targetStart);
+    return copyLength;
+  }
+
+  public int getTextStart() {
+    return 0;
+  }
+
+  public int getTextLength() {
+    return getText().length();
+  }
+
+  public String getPITarget() {
+    return piTarget;
+  }
+
+  public String getPIData() {
+    return piData;
+  }
+
+  // document /////////////////////////////////////////////////////
+
+  public String getEncoding() {
+    return inputEncoding;
+  }
+
+  public String getVersion() {
+    return xmlVersion != null ? xmlVersion : "1.0";
+  }
+
+  public boolean isStandalone() {
+    return xmlStandalone;
+  }
+
+  public boolean standaloneSet() {
+    return xmlStandalone;
+  }
+
+  public String getCharacterEncodingScheme() {
+    return xmlEncoding;
+  }
+
+  public Location getLocation() {
+    return UNKNOWN_LOCATION;
+  }
+
+  /**
+   * The copy of an attribute of the current element.
+   */
+  protected static class AttributeState {
+
+    protected final QName name;
+    protected final String qualifiedName;
+    protected final String value;
+    protected final boolean id;
+    protected final boolean specified;
+
+    public AttributeState(Attr attribute) {
+      String localName = attribute.getLocalName();
+      this.name = createQName(attribute.getNamespaceURI(), localName != null ? localName : attribute.getName(), attribute.getPrefix());
+      this.qualifiedName = attribute.getName();
+      this.value = attribute.getValue();
+      this.id = attribute.isId();
+      this.specified = attribute.getSpecified();
+    }
+
+  }
+
+  /**
+   * The copy of a namespace declaration of the current element.
+   */
+  protected static class NamespaceState {
+
+    protected final String prefix;
+    protected final String namespaceUri;
+
+    public NamespaceState(String prefix, String namespaceUri) {
+      this.prefix = prefix;
+      this.namespaceUri = namespaceUri;
+    }
+
+  }
+
+}
@@ -16,9 +16,16 @@
  */
 package org.camunda.bpm.model.xml.impl.util;
 
+import org.camunda.bpm.model.xml.impl.instance.DocumentLock;
+import org.camunda.bpm.model.xml.impl.instance.IndexedDomDocument;
 import org.camunda.bpm.model.xml.instance.DomDocument;
+import org.w3c.dom.Document;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.ext.LexicalHandler;
 
 import javax.xml.transform.*;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXResult;
 import javax.xml.transform.stream.StreamResult;
 import java.io.*;
 
@@ -98,9 +105,19 @@ public final class IoUtil {
    * @param document  the XML document to convert
    */
   public static String convertXmlDocumentToString(DomDocument document) {
+    return convertXmlDocumentToString(document, false);
+  }
+
+  /**
+   * Converts a {@link DomDocument} to its String representation
+   *
+   * @param document  the XML document to convert
+   * @param minimizeNamespaces  true to hoist all used namespace declarations to the root element and drop unused ones
+   */
+  public static String convertXmlDocumentToString(DomDocument document, boolean minimizeNamespaces) {
     StringWriter stringWriter = new StringWriter();
     StreamResult result = new StreamResult(stringWriter);
-    transformDocumentToXml(document, result);
+    transformDocumentToXml(document, result, minimizeNamespaces);
     return stringWriter.toString();
   }
 
@@ -111,8 +128,19 @@ public final class IoUtil {
    * @param outputStream  the {@link OutputStream} to write to
    */
   public static void writeDocumentToOutputStream(DomDocument document, OutputStream outputStream) {
+    writeDocumentToOutputStream(document, outputStream, false);
+  }
+
+  /**
+   * Writes a {@link DomDocument} to an {@link OutputStream} by transforming the DOM to XML.
+   *
+   * @param document  the DOM document to write
+   * @param outputStream  the {@link OutputStream} to write to
+   * @param minimizeNamespaces  true to hoist all used namespace declarations to the root element and drop unused ones
+   */
+  public static void writeDocumentToOutputStream(DomDocument document, OutputStream outputStream, boolean minimizeNamespaces) {
     StreamResult result = new StreamResult(outputStream);
-    transformDocumentToXml(document, result);
+    transformDocumentToXml(document, result, minimizeNamespaces);
   }
 
   /**
@@ -122,20 +150,120 @@ public final class IoUtil {
    * @param result  the {@link StreamResult} to write to
    */
   public static void transformDocumentToXml(DomDocument document, StreamResult result) {
+    transformDocumentToXml(document, result, false);
+  }
+
+  /**
+   * Transforms a {@link DomDocument} to XML output. The read lock of the document is held
+   * while it is written, so the result must not modify the document. If the namespaces
+   * should be minimized a copy of the document is modified and written instead.
+   *
+   * @param document  the DOM document to transform
+   * @param result  the {@link StreamResult} to write to
+   * @param minimizeNamespaces  true to hoist all used namespace declarations to the root element and drop unused ones
+   * @see DomUtil#minimizeNamespaceDeclarations(Document)
+   */
+  public static void transformDocumentToXml(DomDocument document, StreamResult result, boolean minimizeNamespaces) {
+    if (minimizeNamespaces) {
+      Document minimizedDocument = copyDocument(document);
+      DomUtil.minimizeNamespaceDeclarations(minimizedDocument);
+      transformToXml(new DOMSource(minimizedDocument), result, false);
+    }
+    else {
+      transformToXml(document, result, false);
+    }
+  }
+
+  /**
+   * Converts a fragment {@link DomDocument} to its String representation without
+   * a leading XML declaration.
+   *
+   * @param fragment  the XML document which contains the fragment as root element
+   */
+  public static String convertXmlFragmentToString(DomDocument fragment) {
+    StringWriter stringWriter = new StringWriter();
+    StreamResult result = new StreamResult(stringWriter);
+    transformToXml(fragment, result, true);
+    return stringWriter.toString().trim();
+  }
+
+  private static void transformToXml(DomDocument document, StreamResult result, boolean omitXmlDeclaration) {
+    DocumentLock lock = DocumentLock.forDocument(document);
+    lock.lockRead();
+    try {
+      transformToXml(document.getDomSource(), result, omitXmlDeclaration);
+    }
+    finally {
+      lock.unlockRead();
+    }
+  }
+
+  private static void transformToXml(Source source, StreamResult result, boolean omitXmlDeclaration) {
     TransformerFactory transformerFactory = TransformerFactory.newInstance();
     try {
       Transformer transformer = transformerFactory.newTransformer();
+      if (omitXmlDeclaration) {
+        transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+      }
       transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
       transformer.setOutputProperty(OutputKeys.INDENT, "yes");
       transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
 
-      synchronized(document) {
+      transformer.transform(source, result);
+    } catch (TransformerConfigurationException e) {
+      throw new ModelIoException("Unable to create a transformer for the model", e);
+    } catch (TransformerException e) {
+      throw new ModelIoException("Unable to transform model to xml", e);
+    }
+  }
+
+  /**
+   * Emits a {@link DomDocument} as SAX events to a {@link ContentHandler}. The events are
+   * generated directly from the DOM, the document is not serialized to text. If the handler
+   * also implements {@link LexicalHandler} it will receive comments and CDATA sections.
+   * The read lock of the document is held while the events are emitted, so the handler
+   * may read the document but must not modify it, as this would wait for the lock forever.
+   *
+   * @param document  the DOM document to emit
+   * @param contentHandler  the {@link ContentHandler} to receive the events
+   */
+  public static void transformDocumentToSax(DomDocument document, ContentHandler contentHandler) {
+    SAXResult result = new SAXResult(contentHandler);
+    if (contentHandler instanceof LexicalHandler) {
+      result.setLexicalHandler((LexicalHandler) contentHandler);
+    }
+
+    TransformerFactory transformerFactory = TransformerFactory.newInstance();
+    try {
+      Transformer transformer = transformerFactory.newTransformer();
+      DocumentLock lock = DocumentLock.forDocument(document);
+      lock.lockRead();
+      try {
         transformer.transform(document.getDomSource(), result);
       }
+      finally {
+        lock.unlockRead();
+      }
     } catch (TransformerConfigurationException e) {
       throw new ModelIoException("Unable to create a transformer for the model", e);
     } catch (TransformerException e) {
-      throw new ModelIoException("Unable to transform model to xml", e);
+      throw new ModelIoException("Unable to emit model as SAX events", e);
+    }
+  }
+
+  /**
+   * Copies a {@link DomDocument} into a new DOM document which is not shared, while holding
+   * the lock of the document.
+   *
+   * @param document  the DOM document to copy
+   * @return the new DOM document
+   */
+  private static Document copyDocument(DomDocument document) {
+    if (document instanceof IndexedDomDocument) {
+      return ((IndexedDomDocument) document).exportDocument();
+    }
+    else {
+      return (Document) document.clone().getDomSource().getNode();
     }
   }
 
@@ -19,6 +19,7 @@ package org.camunda.bpm.model.xml.impl.util;
 import org.camunda.bpm.model.xml.Model;
 import org.camunda.bpm.model.xml.ModelException;
 import org.camunda.bpm.model.xml.impl.ModelInstanceImpl;
+import org.camunda.bpm.model.xml.impl.instance.ConcurrentDomElement;
 import org.camunda.bpm.model.xml.impl.instance.ModelElementInstanceImpl;
 import org.camunda.bpm.model.xml.impl.type.ModelElementTypeImpl;
 import org.camunda.bpm.model.xml.impl.type.attribute.StringAttribute;
@@ -50,8 +51,7 @@ public final class ModelUtil {
     ModelElementInstance modelElement = domElement.getModelElementInstance();
     if(modelElement == null) {
       ModelElementTypeImpl modelType = getModelElement(domElement, modelInstance, domElement.getNamespaceURI());
-      modelElement = modelType.newInstance(modelInstance, domElement);
-      domElement.setModelElementInstance(modelElement);
+      modelElement = associate(domElement, modelType.newInstance(modelInstance, domElement));
     }
     return modelElement;
   }
@@ -69,12 +69,55 @@ public final class ModelUtil {
     ModelElementInstance modelElement = domElement.getModelElementInstance();
 
     if(modelElement == null) {
-      modelElement = modelType.newInstance(modelInstance, domElement);
-      domElement.setModelElementInstance(modelElement);
+      modelElement = associate(domElement, modelType.newInstance(modelInstance, domElement));
     }
     return modelElement;
   }
 
+  /**
+   * Checks whether the model element of a DOM element is an instance of a type. If the model
+   * element does not yet exist, the check is answered from the name of the element and the
+   * types of the model, so the model element is only created if the type is not part of the model.
+   *
+   * @param domElement the DOM element to check
+   * @param modelInstance the model instance of the DOM element
+   * @param type the type to check
+   * @return true if the model element of the DOM element is an instance of the type
+   */
+  @SuppressWarnings("unchecked")
+  public static boolean isModelElementOfType(DomElement domElement, ModelInstanceImpl modelInstance, Class<?> type) {
+    ModelElementInstance modelElement = domElement.getModelElementInstance();
+    if (modelElement == null) {
+      ModelElementTypeImpl modelType = getModelElement(domElement, modelInstance, domElement.getNamespaceURI());
+      if (type.isAssignableFrom(modelType.getInstanceType())) {
+        return true;
+      }
+      else if (ModelElementInstance.class.isAssignableFrom(type)
+          && modelInstance.getModel().getType((Class<? extends ModelElementInstance>) type) != null) {
+        return false;
+      }
+      modelElement = associate(domElement, modelType.newInstance(modelInstance, domElement));
+    }
+    return type.isAssignableFrom(modelElement.getClass());
+  }
+
+  /**
+   * Associates a new model element instance with a DOM element. If another thread associated
+   * an instance in the meantime, that instance wins, so that every element has one instance.
+   *
+   * @return the instance which is associated with the DOM element
+   */
+  protected static ModelElementInstance associate(DomElement domElement, ModelElementInstance modelElement) {
+    if (domElement instanceof ConcurrentDomElement) {
+      ModelElementInstance existingModelElement = ((ConcurrentDomElement) domElement).putModelElementInstanceIfAbsent(modelElement);
+      return existingModelElement != null ? existingModelElement : modelElement;
+    }
+    else {
+      domElement.setModelElementInstance(modelElement);
+      return modelElement;
+    }
+  }
+
   protected static ModelElementTypeImpl getModelElement(DomElement domElement, ModelInstanceImpl modelInstance, String namespaceUri) {
     String localName = domElement.getLocalName();
     ModelElementTypeImpl modelType = (ModelElementTypeImpl) modelInstance.getModel().getTypeForName(namespaceUri, localName);
@@ -268,4 +311,39 @@ public final class ModelUtil {
     return type.getTypeName() + "_" + UUID.randomUUID();
   }
 
+  /**
+   * Set unique identifiers on multiple instances if the type has a String id attribute.
+   * The id attribute is resolved only once for all instances.
+   *
+   * @param type the type of the model element instances
+   * @param modelElementInstances the model element instances to set the ids
+   * @param withReferenceUpdate true to update id references in other elements, false otherwise
+   */
+  public static void setGeneratedUniqueIdentifiers(ModelElementType type, List<? extends ModelElementInstance> modelElementInstances, boolean withReferenceUpdate) {
+    Attribute<?> id = type.getAttribute(ID_ATTRIBUTE_NAME);
+    if (id != null && id instanceof StringAttribute && id.isIdAttribute()) {
+      List<String> identifiers = getUniqueIdentifiers(type, modelElementInstances.size());
+      for (int i = 0; i < identifiers.size(); i++) {
+        ((StringAttribute) id).setValue(modelElementInstances.get(i), identifiers.get(i), withReferenceUpdate);
+      }
+    }
+  }
+
+  /**
+   * Returns multiple unique identifiers of the same form as {@link #getUniqueIdentifier(ModelElementType)}.
+   * Each identifier contains an independent random UUID.
+   *
+   * @param type the type of the model elements
+   * @param count the number of identifiers
+   * @return the unique identifiers
+   */
+  public static List<String> getUniqueIdentifiers(ModelElementType type, int count) {
+    List<String> identifiers = new ArrayList<String>(count);
+    String prefix = type.getTypeName() + "_";
+    for (int i = 0; i < count; i++) {
+      identifiers.add(prefix + UUID.randomUUID());
+    }
+    return identifiers;
+  }
+
 }
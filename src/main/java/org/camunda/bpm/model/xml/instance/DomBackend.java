@@ -0,0 +1,40 @@
+/*
+ * Copyright Camunda Services GmbH and/or licensed to Camunda Services GmbH
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. Camunda licenses this file to you under the Apache License,
+ * Version 2.0; you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.camunda.bpm.model.xml.instance;
+
+import org.w3c.dom.Document;
+
+/**
+ * Stores the XML tree of model instances. Documents are parsed and validated with JAXP
+ * and then handed to the backend, which decides how the tree is kept in memory for the
+ * lifetime of the model instance. Implementations must be thread-safe.
+ *
+ * @see org.camunda.bpm.model.xml.impl.parser.AbstractModelParser#setDomBackend(DomBackend)
+ */
+public interface DomBackend {
+
+  /**
+   * Creates the document of a model instance. The backend may keep the DOM document or
+   * copy it into its own representation, the DOM document must not be modified afterwards.
+   *
+   * @param document the parsed and validated or new empty DOM document
+   * @param threadConfined true if the document is only accessed by a single thread and must not be locked
+   * @return the document of the model instance
+   */
+  DomDocument createDocument(Document document, boolean threadConfined);
+
+}
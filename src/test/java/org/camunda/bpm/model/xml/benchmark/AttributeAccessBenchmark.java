@@ -0,0 +1,163 @@
+/*
+ * Copyright Camunda Services GmbH and/or licensed to Camunda Services GmbH
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. Camunda licenses this file to you under the Apache License,
+ * Version 2.0; you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.camunda.bpm.model.xml.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.camunda.bpm.model.xml.ModelInstance;
+import org.camunda.bpm.model.xml.testmodel.Gender;
+import org.camunda.bpm.model.xml.testmodel.TestModelParser;
+import org.camunda.bpm.model.xml.testmodel.instance.Animals;
+import org.camunda.bpm.model.xml.testmodel.instance.Bird;
+import org.junit.Test;
+
+/**
+ * Measures the time and the allocated bytes of typed attribute reads and writes.
+ * It is not executed as part of the test suite, run it with the {@code benchmark} profile.
+ * The system properties {@code benchmark.birds} and {@code benchmark.rounds} set the number
+ * of birds and the measured rounds.
+ */
+public class AttributeAccessBenchmark {
+
+  private static final Logger LOGGER = Logger.getLogger(AttributeAccessBenchmark.class.getName());
+
+  private static final int OPERATIONS_PER_ROUND = 1000000;
+
+  protected static volatile long checksum;
+
+  @Test
+  public void measureAttributeAccess() {
+    int birdCount = Integer.getInteger("benchmark.birds", 100);
+    int rounds = Integer.getInteger("benchmark.rounds", 5);
+
+    List<Bird> birds = createBirds(birdCount);
+    // the namespaced attribute is not set on these birds, so all its alternative namespaces are checked
+    List<Bird> unsetBirds = createBirds(birdCount);
+    Operation[] operations = {
+      new Operation("get string", birds) {
+        long run(Bird bird, int i) {
+          return bird.getName().length();
+        }
+      },
+      new Operation("get enum", birds) {
+        long run(Bird bird, int i) {
+          return bird.getGender().ordinal();
+        }
+      },
+      new Operation("get unset namespaced", unsetBirds) {
+        long run(Bird bird, int i) {
+          return bird.canHazExtendedWings() ? 1 : 0;
+        }
+      },
+      new Operation("set enum", birds) {
+        long run(Bird bird, int i) {
+          bird.setGender((i & 1) == 0 ? Gender.Female : Gender.Male);
+          return 1;
+        }
+      },
+      new Operation("set namespaced", birds) {
+        long run(Bird bird, int i) {
+          bird.setCanHazExtendedWings((i & 1) == 0);
+          return 1;
+        }
+      }
+    };
+
+    // warm up
+    for (Operation operation : operations) {
+      operation.measure();
+    }
+
+    StringBuilder report = new StringBuilder("operation\tns/op\tbytes/op");
+    for (Operation operation : operations) {
+      double nanos = Double.MAX_VALUE;
+      double bytes = Double.MAX_VALUE;
+      for (int round = 0; round < rounds; round++) {
+        double[] result = operation.measure();
+        nanos = Math.min(nanos, result[0]);
+        bytes = Math.min(bytes, result[1]);
+      }
+      report.append('\n').append(operation.name)
+        .append('\t').append(String.format("%.1f", nanos))
+        .append('\t').append(String.format("%.1f", bytes));
+    }
+    LOGGER.info(report.toString());
+  }
+
+  protected static List<Bird> createBirds(int birdCount) {
+    ModelInstance modelInstance = new TestModelParser().getEmptyModel();
+    Animals animals = modelInstance.newInstance(Animals.class);
+    modelInstance.setDocumentElement(animals);
+    List<Bird> birds = new ArrayList<Bird>();
+    for (int i = 0; i < birdCount; i++) {
+      Bird bird = modelInstance.newInstance(Bird.class, "bird" + i);
+      bird.setGender(Gender.Female);
+      bird.setName("Bird " + i);
+      animals.getAnimals().add(bird);
+      birds.add(bird);
+    }
+    return birds;
+  }
+
+  protected abstract static class Operation {
+
+    protected final String name;
+    protected final List<Bird> birds;
+
+    protected Operation(String name, List<Bird> birds) {
+      this.name = name;
+      this.birds = birds;
+    }
+
+    abstract long run(Bird bird, int i);
+
+    /**
+     * @return the nanoseconds and the allocated bytes per operation
+     */
+    double[] measure() {
+      ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+      long threadId = Thread.currentThread().getId();
+      long localChecksum = 0;
+      long allocatedBefore = allocatedBytes(threadMXBean, threadId);
+      long start = System.nanoTime();
+      int birdCount = birds.size();
+      for (int i = 0; i < OPERATIONS_PER_ROUND; i++) {
+        localChecksum += run(birds.get(i % birdCount), i / birdCount);
+      }
+      long nanos = System.nanoTime() - start;
+      long allocated = allocatedBytes(threadMXBean, threadId) - allocatedBefore;
+      // publish the checksum so that the operations are not eliminated
+      checksum += localChecksum;
+      return new double[] { (double) nanos / OPERATIONS_PER_ROUND, (double) allocated / OPERATIONS_PER_ROUND };
+    }
+
+    private static long allocatedBytes(ThreadMXBean threadMXBean, long threadId) {
+      if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+        return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(threadId);
+      }
+      else {
+        return 0;
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright Camunda Services GmbH and/or licensed to Camunda Services GmbH
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. Camunda licenses this file to you under the Apache License,
+ * Version 2.0; you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.camunda.bpm.model.xml.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import org.camunda.bpm.model.xml.ModelInstance;
+import org.camunda.bpm.model.xml.impl.ModelInstanceImpl;
+import org.camunda.bpm.model.xml.testmodel.Gender;
+import org.camunda.bpm.model.xml.testmodel.TestModelParser;
+import org.camunda.bpm.model.xml.testmodel.instance.Animal;
+import org.camunda.bpm.model.xml.testmodel.instance.Animals;
+import org.camunda.bpm.model.xml.testmodel.instance.Bird;
+import org.camunda.bpm.model.xml.testmodel.instance.Egg;
+import org.junit.Test;
+
+/**
+ * Measures the read throughput of one model instance which is shared by multiple threads.
+ * It is not executed as part of the test suite, run it with the {@code benchmark} profile.
+ * The system properties {@code benchmark.birds} and {@code benchmark.seconds} set the number
+ * of birds in the model and the measured seconds per run, {@code benchmark.threads} the comma
+ * separated thread counts to measure. Set {@code benchmark.frozen} to measure a
+ * {@link ModelInstanceImpl#freeze() frozen} model instance.
+ */
+public class ConcurrentReadBenchmark {
+
+  private static final Logger LOGGER = Logger.getLogger(ConcurrentReadBenchmark.class.getName());
+
+  protected static volatile long checksum;
+
+  @Test
+  public void measureReadThroughput() throws Exception {
+    int birdCount = Integer.getInteger("benchmark.birds", 1000);
+    int seconds = Integer.getInteger("benchmark.seconds", 5);
+    List<Integer> threadCounts = new ArrayList<Integer>();
+    String threadsProperty = System.getProperty("benchmark.threads");
+    if (threadsProperty != null) {
+      for (String threads : threadsProperty.split(",")) {
+        threadCounts.add(Integer.parseInt(threads.trim()));
+      }
+    }
+    else {
+      int processors = Runtime.getRuntime().availableProcessors();
+      for (int threads = 1; threads <= processors; threads *= 2) {
+        threadCounts.add(threads);
+      }
+    }
+
+    ModelInstanceImpl modelInstance = createModelInstance(birdCount);
+    if (Boolean.getBoolean("benchmark.frozen")) {
+      modelInstance.freeze();
+    }
+
+    // warm up
+    run(modelInstance, threadCounts.get(threadCounts.size() - 1), 2);
+
+    StringBuilder report = new StringBuilder();
+    report.append("birds: ").append(birdCount)
+      .append(", frozen: ").append(modelInstance.isFrozen())
+      .append(", cores: ").append(Runtime.getRuntime().availableProcessors()).append('\n');
+    report.append("threads\treads/s\treads/s per thread");
+    for (int threads : threadCounts) {
+      long reads = run(modelInstance, threads, seconds);
+      long readsPerSecond = reads / seconds;
+      report.append('\n').append(threads).append('\t').append(readsPerSecond).append('\t').append(readsPerSecond / threads);
+    }
+    LOGGER.info(report.toString());
+  }
+
+  protected static ModelInstanceImpl createModelInstance(int birdCount) {
+    ModelInstanceImpl modelInstance = (ModelInstanceImpl) new TestModelParser().getEmptyModel();
+    Animals animals = modelInstance.newInstance(Animals.class);
+    modelInstance.setDocumentElement(animals);
+    for (int i = 0; i < birdCount; i++) {
+      Bird bird = modelInstance.newInstance(Bird.class, "bird" + i);
+      bird.setGender(i % 2 == 0 ? Gender.Female : Gender.Male);
+      bird.setName("Bird " + i);
+      animals.getAnimals().add(bird);
+      Egg egg = modelInstance.newInstance(Egg.class, "egg" + i);
+      bird.getEggs().add(egg);
+    }
+    return modelInstance;
+  }
+
+  /**
+   * Every thread reads the attributes and children of all birds until the time is up.
+   *
+   * @return the number of attribute and child element reads of all threads
+   */
+  protected static long run(final ModelInstance modelInstance, int threadCount, int seconds) throws InterruptedException {
+    final AtomicBoolean running = new AtomicBoolean(true);
+    final AtomicLong reads = new AtomicLong();
+    final CountDownLatch started = new CountDownLatch(threadCount);
+    final Collection<Animal> animals = ((Animals) modelInstance.getDocumentElement()).getAnimals();
+
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < threadCount; i++) {
+      Thread thread = new Thread() {
+        public void run() {
+          long localReads = 0;
+          long localChecksum = 0;
+          started.countDown();
+          while (running.get()) {
+            for (Animal animal : animals) {
+              Bird bird = (Bird) animal;
+              localChecksum += bird.getId().length();
+              localChecksum += bird.getName().length();
+              localChecksum += bird.getGender().ordinal();
+              localChecksum += bird.getEggs().size();
+              localReads += 4;
+            }
+          }
+          reads.addAndGet(localReads);
+          // publish the checksum so that the reads are not eliminated
+          checksum += localChecksum;
+        }
+      };
+      threads.add(thread);
+      thread.start();
+    }
+
+    started.await();
+    Thread.sleep(seconds * 1000L);
+    running.set(false);
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    return reads.get();
+  }
+
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright Camunda Services GmbH and/or licensed to Camunda Services GmbH
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. Camunda licenses this file to you under the Apache License,
+ * Version 2.0; you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.camunda.bpm.model.xml.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.camunda.bpm.model.xml.ModelInstance;
+import org.camunda.bpm.model.xml.impl.instance.JaxpDomBackend;
+import org.camunda.bpm.model.xml.impl.instance.compact.CompactDomBackend;
+import org.camunda.bpm.model.xml.impl.instance.compact.OffHeapDomBackend;
+import org.camunda.bpm.model.xml.instance.DomBackend;
+import org.camunda.bpm.model.xml.testmodel.TestModelConstants;
+import org.camunda.bpm.model.xml.testmodel.TestModelParser;
+import org.camunda.bpm.model.xml.testmodel.instance.Animal;
+import org.camunda.bpm.model.xml.testmodel.instance.Animals;
+import org.camunda.bpm.model.xml.testmodel.instance.Bird;
+import org.junit.Test;
+
+/**
+ * Compares the heap size and the garbage collection pauses of a large model instance with
+ * the different DOM backends. It is not executed as part of the test suite, run it with the
+ * {@code benchmark} profile. The system properties {@code benchmark.birds} and
+ * {@code benchmark.rounds} set the number of birds in the model and the number of read rounds,
+ * {@code benchmark.backends} the comma separated backends to measure, e.g.
+ * {@code jaxp,compact,off-heap,mapped}. As earlier backends leave garbage behind, each backend
+ * is best measured in a virtual machine of its own.
+ */
+public class DomBackendBenchmark {
+
+  private static final Logger LOGGER = Logger.getLogger(DomBackendBenchmark.class.getName());
+
+  protected static final double MIB = 1024 * 1024;
+
+  protected static volatile long checksum;
+
+  @Test
+  public void measureDomBackends() throws Exception {
+    int birdCount = Integer.getInteger("benchmark.birds", 200000);
+    int rounds = Integer.getInteger("benchmark.rounds", 5);
+    List<String> backends = new ArrayList<String>();
+    String backendsProperty = System.getProperty("benchmark.backends");
+    if (backendsProperty != null) {
+      for (String backend : backendsProperty.split(",")) {
+        backends.add(backend.trim());
+      }
+    }
+    else {
+      backends.addAll(Arrays.asList("jaxp", "compact", "off-heap", "mapped"));
+    }
+
+    byte[] xml = createXml(birdCount);
+    StringBuilder report = new StringBuilder();
+    report.append("birds: ").append(birdCount)
+      .append(", xml: ").append(String.format("%.1f", xml.length / MIB)).append(" MiB")
+      .append(", rounds: ").append(rounds).append('\n');
+    report.append("backend\tparse ms\theap MiB\toff-heap MiB\tfull gc ms\tread ms\tgc count\tgc ms");
+    for (String backend : backends) {
+      report.append('\n').append(run(backend, createBackend(backend), xml, rounds));
+    }
+    LOGGER.info(report.toString());
+  }
+
+  protected static DomBackend createBackend(String name) {
+    if ("jaxp".equals(name)) {
+      return JaxpDomBackend.INSTANCE;
+    }
+    else if ("compact".equals(name)) {
+      return CompactDomBackend.INSTANCE;
+    }
+    else if ("off-heap".equals(name)) {
+      return new OffHeapDomBackend();
+    }
+    else if ("mapped".equals(name)) {
+      return new OffHeapDomBackend(new File(System.getProperty("java.io.tmpdir")));
+    }
+    else {
+      throw new IllegalArgumentException("Unknown backend " + name + ", expected jaxp, compact, off-heap or mapped");
+    }
+  }
+
+  protected static byte[] createXml(int birdCount) throws Exception {
+    StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    xml.append("<animals xmlns=\"").append(TestModelConstants.MODEL_NAMESPACE).append("\">\n");
+    for (int i = 0; i < birdCount; i++) {
+      xml.append("  <bird id=\"bird").append(i).append("\" name=\"Bird ").append(i)
+        .append("\" gender=\"").append(i % 2 == 0 ? "Female" : "Male").append("\">\n")
+        .append("    <egg id=\"egg").append(i).append("\"/>\n")
+        .append("  </bird>\n");
+    }
+    xml.append("</animals>\n");
+    return xml.toString().getBytes("UTF-8");
+  }
+
+  /**
+   * @return the measured values of the backend as a tab separated line
+   */
+  protected static String run(String name, DomBackend backend, byte[] xml, int rounds) {
+    fullGc();
+    long heapBefore = getUsedHeap();
+    long offHeapBefore = getUsedOffHeap();
+
+    TestModelParser modelParser = new TestModelParser();
+    modelParser.setDomBackend(backend);
+    long start = System.nanoTime();
+    ModelInstance modelInstance = modelParser.parseModelFromStream(new ByteArrayInputStream(xml));
+    long parseNanos = System.nanoTime() - start;
+
+    long fullGcNanos = fullGc();
+    long heap = getUsedHeap() - heapBefore;
+    long offHeap = getUsedOffHeap() - offHeapBefore;
+
+    // reading materializes wrappers and values, so the collector runs while the model is live
+    long gcCountBefore = getGcCount();
+    long gcMillisBefore = getGcMillis();
+    long localChecksum = 0;
+    start = System.nanoTime();
+    for (int round = 0; round < rounds; round++) {
+      for (Animal animal : ((Animals) modelInstance.getDocumentElement()).getAnimals()) {
+        Bird bird = (Bird) animal;
+        localChecksum += bird.getId().length() + bird.getName().length() + bird.getEggs().size();
+      }
+    }
+    long readNanos = System.nanoTime() - start;
+
+    // publish the checksum so that the reads are not eliminated
+    checksum += localChecksum;
+    return name
+      + "\t" + parseNanos / 1000000
+      + "\t" + String.format("%.1f", heap / MIB)
+      + "\t" + String.format("%.1f", offHeap / MIB)
+      + "\t" + fullGcNanos / 1000000
+      + "\t" + readNanos / 1000000
+      + "\t" + (getGcCount() - gcCountBefore)
+      + "\t" + (getGcMillis() - gcMillisBefore);
+  }
+
+  /**
+   * @return the duration of the collection in nanoseconds, which is dominated by tracing the live heap
+   */
+  protected static long fullGc() {
+    long start = System.nanoTime();
+    System.gc();
+    return System.nanoTime() - start;
+  }
+
+  protected static long getUsedHeap() {
+    return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+  }
+
+  protected static long getUsedOffHeap() {
+    long used = 0;
+    for (BufferPoolMXBean bufferPool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+      used += bufferPool.getMemoryUsed();
+    }
+    return used;
+  }
+
+  protected static long getGcCount() {
+    long count = 0;
+    for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+      count += Math.max(collector.getCollectionCount(), 0);
+    }
+    return count;
+  }
+
+  protected static long getGcMillis() {
+    long millis = 0;
+    for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+      millis += Math.max(collector.getCollectionTime(), 0);
+    }
+    return millis;
+  }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright Camunda Services GmbH and/or licensed to Camunda Services GmbH
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. Camunda licenses this file to you under the Apache License,
+ * Version 2.0; you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.camunda.bpm.model.xml.impl.instance.compact;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.camunda.bpm.model.xml.ModelInstance;
+import org.camunda.bpm.model.xml.testmodel.TestModelParser;
+import org.camunda.bpm.model.xml.testmodel.instance.Animals;
+import org.camunda.bpm.model.xml.testmodel.instance.Bird;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CompactStorageReuseTest {
+
+  private ModelInstance modelInstance;
+  private CompactDomDocument document;
+  private Animals animals;
+  private Bird bird;
+
+  @Before
+  public void createModel() {
+    TestModelParser modelParser = new TestModelParser();
+    modelParser.setDomBackend(CompactDomBackend.INSTANCE);
+    modelInstance = modelParser.getEmptyModel();
+    document = (CompactDomDocument) modelInstance.getDocument();
+
+    animals = modelInstance.newInstance(Animals.class);
+    modelInstance.setDocumentElement(animals);
+    bird = modelInstance.newInstance(Bird.class, "tweety");
+    animals.getAnimals().add(bird);
+  }
+
+  @Test
+  public void shouldReuseSlotsOfReplacedText() {
+    bird.setTextContent("text");
+    int nodeCount = document.nodeCount;
+
+    for (int i = 0; i < 100; i++) {
+      bird.setTextContent("text " + i);
+    }
+
+    assertThat(document.nodeCount).isEqualTo(nodeCount);
+    assertThat(bird.getTextContent()).isEqualTo("text 99");
+  }
+
+  @Test
+  public void shouldReuseSlotsOfRemovedAttributes() {
+    int attributeCount = document.attributeCount;
+
+    for (int i = 0; i < 100; i++) {
+      bird.setAttributeValue("name", "tweety " + i);
+      bird.removeAttribute("name");
+    }
+
+    assertThat(document.attributeCount).isEqualTo(attributeCount + 1);
+  }
+
+  @Test
+  public void shouldKeepSlotsOfRemovedElements() {
+    Bird removedBird = modelInstance.newInstance(Bird.class, "hedwig");
+    removedBird.setTextContent("text");
+    int nodeCount = document.nodeCount;
+
+    // the element may still be inserted again, so its slot and its text are kept
+    animals.getAnimals().add(removedBird);
+    animals.getAnimals().remove(removedBird);
+
+    assertThat(document.nodeCount).isEqualTo(nodeCount);
+    assertThat(removedBird.getTextContent()).isEqualTo("text");
+    assertThat(removedBird.getId()).isEqualTo("hedwig");
+  }
+
+}
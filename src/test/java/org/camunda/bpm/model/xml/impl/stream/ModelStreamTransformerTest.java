@@ -0,0 +1,153 @@
+/*
+ * Copyright Camunda Services GmbH and/or licensed to Camunda Services GmbH
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. Camunda licenses this file to you under the Apache License,
+ * Version 2.0; you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.camunda.bpm.model.xml.impl.stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.camunda.bpm.model.xml.Model;
+import org.camunda.bpm.model.xml.ModelInstance;
+import org.camunda.bpm.model.xml.testmodel.Gender;
+import org.camunda.bpm.model.xml.testmodel.TestModel;
+import org.camunda.bpm.model.xml.testmodel.TestModelConstants;
+import org.camunda.bpm.model.xml.testmodel.TestModelParser;
+import org.camunda.bpm.model.xml.testmodel.instance.Animals;
+import org.camunda.bpm.model.xml.testmodel.instance.Bird;
+import org.camunda.bpm.model.xml.testmodel.instance.Egg;
+import org.camunda.bpm.model.xml.type.ModelElementType;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ModelStreamTransformerTest {
+
+  private static final String OLD_NAMESPACE = "http://camunda.org/old-animals";
+
+  private static final String ANIMALS_XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+    + "<animals xmlns=\"" + TestModelConstants.MODEL_NAMESPACE + "\">"
+    + "<!-- birds -->"
+    + "<bird id=\"tweety\" gender=\"Female\"><egg id=\"egg1\"/><egg id=\"egg2\"/></bird>"
+    + "<bird id=\"hedwig\" gender=\"Male\"/>"
+    + "</animals>";
+
+  private Model model;
+  private ModelStreamTransformer transformer;
+
+  @Before
+  public void createTransformer() {
+    model = TestModel.getTestModel();
+    transformer = new ModelStreamTransformer(model);
+  }
+
+  @Test
+  public void shouldCopyDocumentWithoutRewriters() throws Exception {
+    String xml = transform(ANIMALS_XML);
+
+    assertThat(xml).contains("<!-- birds -->");
+    assertThat(xml).contains("<bird id=\"tweety\" gender=\"Female\"><egg id=\"egg1\"></egg>");
+    assertThat(parse(xml).getModelElementById("hedwig")).isNotNull();
+  }
+
+  @Test
+  public void shouldResolveElementTypes() throws Exception {
+    final List<String> typeNames = new ArrayList<String>();
+    final List<String> parentTypeNames = new ArrayList<String>();
+    transformer.addRewriter(new ElementRewriter() {
+      public void rewrite(StreamElement element) {
+        typeNames.add(element.getElementType().getTypeName());
+        ModelElementType parentElementType = element.getParentElementType();
+        parentTypeNames.add(parentElementType == null ? null : parentElementType.getTypeName());
+      }
+    });
+
+    transform(ANIMALS_XML);
+
+    assertThat(typeNames).containsExactly("animals", "bird", "egg", "egg", "bird");
+    assertThat(parentTypeNames).containsExactly(null, "animals", "bird", "bird", "animals");
+  }
+
+  @Test
+  public void shouldRewriteAttributesAndRemoveElements() throws Exception {
+    final ModelElementType birdType = model.getType(Bird.class);
+    final ModelElementType eggType = model.getType(Egg.class);
+    transformer.addRewriter(new ElementRewriter() {
+      public void rewrite(StreamElement element) {
+        if (birdType.equals(element.getElementType())) {
+          element.setAttributeValue("gender", Gender.Unknown.name());
+          element.setAttributeValue("name", element.getAttributeValue("id").toUpperCase());
+        }
+        else if (eggType.equals(element.getElementType()) && "egg2".equals(element.getAttributeValue("id"))) {
+          element.remove();
+        }
+      }
+    });
+
+    ModelInstance modelInstance = parse(transform(ANIMALS_XML));
+
+    Bird tweety = modelInstance.getModelElementById("tweety");
+    assertThat(tweety.getGender()).isEqualTo(Gender.Unknown);
+    assertThat(tweety.getName()).isEqualTo("TWEETY");
+    assertThat(tweety.getEggs()).hasSize(1);
+    assertThat((Object) modelInstance.getModelElementById("egg2")).isNull();
+  }
+
+  @Test
+  public void shouldMigrateNamespace() throws Exception {
+    String oldXml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+      + "<a:animals xmlns:a=\"" + OLD_NAMESPACE + "\">"
+      + "<a:bird id=\"tweety\" gender=\"Female\"/>"
+      + "</a:animals>";
+
+    transformer.migrateNamespace(OLD_NAMESPACE, TestModelConstants.MODEL_NAMESPACE);
+
+    String xml = transform(oldXml);
+    assertThat(xml).doesNotContain(OLD_NAMESPACE);
+
+    ModelInstance modelInstance = parse(xml);
+    assertThat(modelInstance.getDocumentElement()).isInstanceOf(Animals.class);
+    assertThat(modelInstance.getModelElementById("tweety")).isInstanceOf(Bird.class);
+  }
+
+  @Test
+  public void shouldDeclareUndeclaredNamespaces() throws Exception {
+    transformer.addRewriter(new ElementRewriter() {
+      public void rewrite(StreamElement element) {
+        if ("hedwig".equals(element.getAttributeValue("id"))) {
+          element.setAttributeValueNs(TestModelConstants.NEWER_NAMESPACE, "color", "white");
+        }
+      }
+    });
+
+    String xml = transform(ANIMALS_XML);
+
+    assertThat(xml).contains("<bird xmlns:ns0=\"" + TestModelConstants.NEWER_NAMESPACE + "\" id=\"hedwig\" gender=\"Male\" ns0:color=\"white\">");
+  }
+
+  private String transform(String xml) throws Exception {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    transformer.transform(new ByteArrayInputStream(xml.getBytes("UTF-8")), outputStream);
+    return outputStream.toString("UTF-8");
+  }
+
+  private ModelInstance parse(String xml) throws Exception {
+    return new TestModelParser().parseModelFromStream(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+  }
+
+}
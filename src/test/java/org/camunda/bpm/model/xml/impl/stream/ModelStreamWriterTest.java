@@ -0,0 +1,187 @@
+/*
+ * Copyright Camunda Services GmbH and/or licensed to Camunda Services GmbH
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. Camunda licenses this file to you under the Apache License,
+ * Version 2.0; you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.camunda.bpm.model.xml.impl.stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+
+import org.camunda.bpm.model.xml.ModelException;
+import org.camunda.bpm.model.xml.ModelInstance;
+import org.camunda.bpm.model.xml.testmodel.Gender;
+import org.camunda.bpm.model.xml.testmodel.TestModel;
+import org.camunda.bpm.model.xml.testmodel.TestModelConstants;
+import org.camunda.bpm.model.xml.testmodel.TestModelParser;
+import org.camunda.bpm.model.xml.testmodel.instance.Animal;
+import org.camunda.bpm.model.xml.testmodel.instance.Animals;
+import org.camunda.bpm.model.xml.testmodel.instance.Bird;
+import org.camunda.bpm.model.xml.testmodel.instance.Description;
+import org.camunda.bpm.model.xml.testmodel.instance.Egg;
+import org.camunda.bpm.model.xml.testmodel.instance.Wings;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ModelStreamWriterTest {
+
+  private ByteArrayOutputStream outputStream;
+  private ModelStreamWriter writer;
+
+  @Before
+  public void createWriter() {
+    outputStream = new ByteArrayOutputStream();
+    writer = new ModelStreamWriter(TestModel.getTestModel(), outputStream);
+  }
+
+  @Test
+  public void shouldWriteValidModel() {
+    writer.startElement(Animals.class)
+      .startElement(Description.class).text("birds only").endElement()
+      .startElement(Bird.class).attribute("id", "tweety").attribute("gender", Gender.Female.name())
+        .startElement(Egg.class).attribute("id", "egg1").endElement()
+      .endElement()
+      .startElement(Bird.class).attribute("gender", Gender.Male.name()).endElement();
+    writer.close();
+
+    ModelInstance modelInstance = parseWrittenModel();
+    Animals animals = (Animals) modelInstance.getDocumentElement();
+    assertThat(animals.getDescription().getTextContent()).isEqualTo("birds only");
+    assertThat(animals.getAnimals()).hasSize(2);
+
+    Bird tweety = modelInstance.getModelElementById("tweety");
+    assertThat(tweety.getGender()).isEqualTo(Gender.Female);
+    assertThat(tweety.getEggs()).hasSize(1);
+
+    Animal generated = new ArrayList<Animal>(animals.getAnimals()).get(1);
+    assertThat(generated.getId()).startsWith("bird_");
+  }
+
+  @Test
+  public void shouldCloseOpenElements() {
+    writer.startElement(Animals.class)
+      .startElement(Bird.class).attribute("id", "tweety").attribute("gender", Gender.Female.name());
+    writer.close();
+
+    ModelInstance modelInstance = parseWrittenModel();
+    assertThat(modelInstance.getModelElementById("tweety")).isNotNull();
+  }
+
+  @Test
+  public void shouldDeclareNamespaceOfChildElement() throws Exception {
+    writer.startElement(Animals.class)
+      .startElement(Bird.class).attribute("id", "tweety").attribute("gender", Gender.Female.name())
+        .startElement(Wings.class).text("yellow");
+    writer.close();
+
+    String xml = outputStream.toString("UTF-8");
+    assertThat(xml).contains("<animals xmlns=\"" + TestModelConstants.MODEL_NAMESPACE + "\">");
+    assertThat(xml).contains("<ns0:wings xmlns:ns0=\"" + TestModelConstants.NEWER_NAMESPACE + "\">yellow</ns0:wings>");
+  }
+
+  @Test
+  public void shouldReusePrefixOfChildElementNamespace() throws Exception {
+    writer.startElement(Animals.class);
+    for (String id : new String[] {"tweety", "hedwig", "woodstock"}) {
+      writer.startElement(Bird.class).attribute("id", id).attribute("gender", Gender.Female.name())
+        .startElement(Wings.class).text("yellow").endElement()
+      .endElement();
+    }
+    writer.close();
+
+    String xml = outputStream.toString("UTF-8");
+    assertThat(xml).doesNotContain("ns1");
+    assertThat(xml.split("xmlns:ns0=", -1)).hasSize(4);
+    assertThat(parseWrittenModel().getModelElementsByType(Wings.class)).hasSize(3);
+  }
+
+  @Test
+  public void shouldDeclareRegisteredNamespacesOnRoot() throws Exception {
+    writer.registerNamespace("newer", TestModelConstants.NEWER_NAMESPACE)
+      .startElement(Animals.class);
+    for (String id : new String[] {"tweety", "hedwig"}) {
+      writer.startElement(Bird.class).attribute("id", id).attribute("gender", Gender.Female.name())
+        .startElement(Wings.class).text("yellow").endElement()
+      .endElement();
+    }
+    writer.close();
+
+    String xml = outputStream.toString("UTF-8");
+    assertThat(xml).contains("<animals xmlns=\"" + TestModelConstants.MODEL_NAMESPACE + "\" xmlns:newer=\""
+      + TestModelConstants.NEWER_NAMESPACE + "\">");
+    assertThat(xml.split("xmlns:newer=", -1)).hasSize(2);
+    assertThat(xml).contains("<newer:wings>yellow</newer:wings>");
+    assertThat(parseWrittenModel().getModelElementsByType(Wings.class)).hasSize(2);
+  }
+
+  @Test
+  public void shouldRejectNamespaceRegistrationAfterRoot() {
+    writer.startElement(Animals.class);
+    try {
+      writer.registerNamespace("newer", TestModelConstants.NEWER_NAMESPACE);
+      fail("exception expected");
+    }
+    catch (ModelException e) {
+      assertThat(e).hasMessageContaining("root element was already written");
+    }
+  }
+
+  @Test
+  public void shouldRejectWrongChildOrder() {
+    writer.startElement(Animals.class)
+      .startElement(Bird.class).attribute("gender", Gender.Female.name()).endElement();
+    try {
+      writer.startElement(Description.class);
+      fail("exception expected");
+    }
+    catch (ModelException e) {
+      assertThat(e).hasMessageContaining("description");
+    }
+  }
+
+  @Test
+  public void shouldRejectMissingRequiredAttribute() {
+    writer.startElement(Animals.class)
+      .startElement(Bird.class);
+    try {
+      writer.endElement();
+      fail("exception expected");
+    }
+    catch (ModelException e) {
+      assertThat(e).hasMessageContaining("gender");
+    }
+  }
+
+  @Test
+  public void shouldRejectAttributeAfterContent() {
+    writer.startElement(Animals.class)
+      .startElement(Description.class).text("text");
+    try {
+      writer.attribute("id", "description");
+      fail("exception expected");
+    }
+    catch (ModelException e) {
+      assertThat(e).hasMessageContaining("id");
+    }
+  }
+
+  private ModelInstance parseWrittenModel() {
+    return new TestModelParser().parseModelFromStream(new ByteArrayInputStream(outputStream.toByteArray()));
+  }
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright Camunda Services GmbH and/or licensed to Camunda Services GmbH
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. Camunda licenses this file to you under the Apache License,
+ * Version 2.0; you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.camunda.bpm.model.xml.impl.util;
+
+import static javax.xml.stream.XMLStreamConstants.CHARACTERS;
+import static javax.xml.stream.XMLStreamConstants.END_DOCUMENT;
+import static javax.xml.stream.XMLStreamConstants.END_ELEMENT;
+import static javax.xml.stream.XMLStreamConstants.START_ELEMENT;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.camunda.bpm.model.xml.impl.instance.DocumentLock;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+public class DomXmlStreamReaderTest {
+
+  private static final String TEST_NS = "http://camunda.org/test";
+
+  @Test
+  public void shouldNotRepairNamespaces() throws Exception {
+    Document document = newDocument();
+    Element root = document.createElementNS(TEST_NS, "test:root");
+    root.setAttributeNS(TEST_NS, "test:name", "tweety");
+    document.appendChild(root);
+
+    DomXmlStreamReader reader = new DomXmlStreamReader(document);
+
+    assertThat(reader.next()).isEqualTo(START_ELEMENT);
+    assertThat(reader.getNamespaceURI()).isEqualTo(TEST_NS);
+    assertThat(reader.getPrefix()).isEqualTo("test");
+    assertThat(reader.getAttributeNamespace(0)).isEqualTo(TEST_NS);
+    // the namespace is used without a declaration
+    assertThat(reader.getNamespaceCount()).isZero();
+  }
+
+  @Test
+  public void shouldSkipUnsupportedNodes() throws Exception {
+    String xml = "<!DOCTYPE root [<!ENTITY name \"tweety\">]><root>a&name;b</root>";
+    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    factory.setExpandEntityReferences(false);
+    Document document = factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+
+    DomXmlStreamReader reader = new DomXmlStreamReader(document);
+    List<Integer> events = new ArrayList<Integer>();
+    StringBuilder text = new StringBuilder();
+    while (reader.hasNext()) {
+      int event = reader.next();
+      events.add(event);
+      if (event == CHARACTERS) {
+        text.append(reader.getText());
+      }
+    }
+
+    // the document type and the entity reference including its text are skipped
+    assertThat(events).containsExactly(START_ELEMENT, CHARACTERS, CHARACTERS, END_ELEMENT, END_DOCUMENT);
+    assertThat(text.toString()).isEqualTo("ab");
+  }
+
+  @Test
+  public void shouldHoldReadLockForEachStep() throws Exception {
+    Document document = newDocument();
+    Element root = document.createElementNS(TEST_NS, "root");
+    root.setAttribute("id", "tweety");
+    root.appendChild(document.createTextNode("text"));
+    document.appendChild(root);
+
+    CountingLock lock = new CountingLock();
+    DomXmlStreamReader reader = new DomXmlStreamReader(document, lock);
+    lock.readLocks = 0;
+
+    reader.next();
+    assertThat(lock.readLocks).isEqualTo(1);
+    assertThat(lock.heldReadLocks).isZero();
+
+    // the current node was copied under the lock
+    assertThat(reader.getLocalName()).isEqualTo("root");
+    assertThat(reader.getAttributeValue(null, "id")).isEqualTo("tweety");
+    assertThat(lock.readLocks).isEqualTo(1);
+
+    // modifications between two steps do not need to wait for the reader
+    lock.lockWrite();
+    try {
+      root.getFirstChild().setNodeValue("modified");
+    }
+    finally {
+      lock.unlockWrite();
+    }
+
+    assertThat(reader.next()).isEqualTo(CHARACTERS);
+    assertThat(reader.getText()).isEqualTo("modified");
+    assertThat(lock.readLocks).isEqualTo(2);
+    assertThat(lock.heldReadLocks).isZero();
+  }
+
+  protected Document newDocument() throws Exception {
+    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    factory.setNamespaceAware(true);
+    return factory.newDocumentBuilder().newDocument();
+  }
+
+  protected static class CountingLock extends DocumentLock {
+
+    protected int readLocks = 0;
+    protected int heldReadLocks = 0;
+
+    public void lockRead() {
+      super.lockRead();
+      readLocks++;
+      heldReadLocks++;
+    }
+
+    public void unlockRead() {
+      heldReadLocks--;
+      super.unlockRead();
+    }
+
+  }
+
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright Camunda Services GmbH and/or licensed to Camunda Services GmbH
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. Camunda licenses this file to you under the Apache License,
+ * Version 2.0; you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.camunda.bpm.model.xml.impl.util;
+
+import static javax.xml.XMLConstants.XMLNS_ATTRIBUTE_NS_URI;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.camunda.bpm.model.xml.ModelInstance;
+import org.camunda.bpm.model.xml.instance.DomElement;
+import org.camunda.bpm.model.xml.testmodel.Gender;
+import org.camunda.bpm.model.xml.testmodel.TestModelParser;
+import org.camunda.bpm.model.xml.testmodel.instance.Animals;
+import org.camunda.bpm.model.xml.testmodel.instance.Bird;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+public class NamespaceMinimizationTest {
+
+  private static final String TEST_NS = "http://camunda.org/test";
+  private static final String UNUSED_NS = "http://camunda.org/unused";
+  private static final String EXTENSION_NS = "http://camunda.org/extension";
+
+  private ModelInstance modelInstance;
+  private Bird bird;
+
+  @Before
+  public void createModel() {
+    modelInstance = new TestModelParser().getEmptyModel();
+    Animals animals = modelInstance.newInstance(Animals.class);
+    modelInstance.setDocumentElement(animals);
+
+    bird = modelInstance.newInstance(Bird.class, "tweety");
+    bird.setGender(Gender.Female);
+    animals.getAnimals().add(bird);
+  }
+
+  @Test
+  public void shouldDropUnusedNamespaces() throws Exception {
+    modelInstance.getDocument().registerNamespace(UNUSED_NS);
+
+    Element root = serializeAndParse(true);
+    assertThat(root.hasAttributeNS(XMLNS_ATTRIBUTE_NS_URI, "ns0")).isFalse();
+
+    // the model itself is not modified
+    DomElement rootElement = modelInstance.getDocument().getRootElement();
+    assertThat(rootElement.hasAttribute(XMLNS_ATTRIBUTE_NS_URI, "ns0")).isTrue();
+  }
+
+  @Test
+  public void shouldHoistNamespacesToRoot() throws Exception {
+    DomElement birdElement = bird.getDomElement();
+    birdElement.registerNamespace("test", TEST_NS);
+    birdElement.setAttribute(TEST_NS, "nickname", "Tweety");
+
+    Element root = serializeAndParse(true);
+    assertThat(root.getAttributeNS(XMLNS_ATTRIBUTE_NS_URI, "test")).isEqualTo(TEST_NS);
+
+    Element birdNode = (Element) root.getElementsByTagNameNS("*", "bird").item(0);
+    assertThat(birdNode.hasAttributeNS(XMLNS_ATTRIBUTE_NS_URI, "test")).isFalse();
+    assertThat(birdNode.getAttributeNS(TEST_NS, "nickname")).isEqualTo("Tweety");
+  }
+
+  @Test
+  public void shouldMergePrefixesOfSameNamespace() throws Exception {
+    modelInstance.getDocument().registerNamespace("ns0", EXTENSION_NS);
+    DomElement birdElement = bird.getDomElement();
+    birdElement.registerNamespace("ns1", EXTENSION_NS);
+    birdElement.setAttribute(EXTENSION_NS, "color", "yellow");
+
+    Element root = serializeAndParse(true);
+    assertThat(root.getAttributeNS(XMLNS_ATTRIBUTE_NS_URI, "ns0")).isEqualTo(EXTENSION_NS);
+    assertThat(root.hasAttributeNS(XMLNS_ATTRIBUTE_NS_URI, "ns1")).isFalse();
+
+    Element birdNode = (Element) root.getElementsByTagNameNS("*", "bird").item(0);
+    assertThat(birdNode.hasAttributeNS(XMLNS_ATTRIBUTE_NS_URI, "ns1")).isFalse();
+    assertThat(birdNode.getAttributeNodeNS(EXTENSION_NS, "color").getPrefix()).isEqualTo("ns0");
+  }
+
+  @Test
+  public void shouldKeepNamespacesReferencedByValues() throws Exception {
+    modelInstance.getDocument().registerNamespace("test", TEST_NS);
+    bird.setAttributeValue("name", "test:tweety");
+
+    Element root = serializeAndParse(true);
+    assertThat(root.getAttributeNS(XMLNS_ATTRIBUTE_NS_URI, "test")).isEqualTo(TEST_NS);
+  }
+
+  @Test
+  public void shouldNotMinimizeByDefault() throws Exception {
+    modelInstance.getDocument().registerNamespace(UNUSED_NS);
+
+    Element root = serializeAndParse(false);
+    assertThat(root.getAttributeNS(XMLNS_ATTRIBUTE_NS_URI, "ns0")).isEqualTo(UNUSED_NS);
+  }
+
+  protected Element serializeAndParse(boolean minimizeNamespaces) throws Exception {
+    String xml = IoUtil.convertXmlDocumentToString(modelInstance.getDocument(), minimizeNamespaces);
+    DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+    documentBuilderFactory.setNamespaceAware(true);
+    Document document = documentBuilderFactory.newDocumentBuilder().parse(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+    return document.getDocumentElement();
+  }
+
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright Camunda Services GmbH and/or licensed to Camunda Services GmbH
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. Camunda licenses this file to you under the Apache License,
+ * Version 2.0; you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.camunda.bpm.model.xml.instance;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+
+import javax.xml.transform.stream.StreamResult;
+
+import org.camunda.bpm.model.xml.ModelInstance;
+import org.camunda.bpm.model.xml.impl.ModelInstanceImpl;
+import org.camunda.bpm.model.xml.impl.MaterializationPolicy;
+import org.camunda.bpm.model.xml.impl.instance.compact.CompactDomBackend;
+import org.camunda.bpm.model.xml.impl.instance.compact.CompactDomDocument;
+import org.camunda.bpm.model.xml.impl.instance.compact.OffHeapDomBackend;
+import org.camunda.bpm.model.xml.impl.util.IoUtil;
+import org.camunda.bpm.model.xml.testmodel.Gender;
+import org.camunda.bpm.model.xml.testmodel.TestModelParser;
+import org.camunda.bpm.model.xml.testmodel.instance.Animals;
+import org.camunda.bpm.model.xml.testmodel.instance.Bird;
+import org.camunda.bpm.model.xml.testmodel.instance.BirdTest;
+import org.camunda.bpm.model.xml.testmodel.instance.Egg;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CompactDomDocumentTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private ModelInstance domInstance;
+  private ModelInstance compactInstance;
+
+  @Before
+  public void parseModels() {
+    domInstance = parseModel(new TestModelParser());
+    TestModelParser compactParser = new TestModelParser();
+    compactParser.setDomBackend(CompactDomBackend.INSTANCE);
+    compactInstance = parseModel(compactParser);
+  }
+
+  @Test
+  public void shouldStoreCompactDocument() {
+    assertThat(compactInstance.getDocument()).isInstanceOf(CompactDomDocument.class);
+    assertThat(new TestModelParser().getDomBackend()).isNotInstanceOf(CompactDomBackend.class);
+  }
+
+  @Test
+  public void shouldSerializeLikeDom() {
+    assertThat(toXml(compactInstance)).isEqualTo(toXml(domInstance));
+
+    modify(domInstance);
+    modify(compactInstance);
+    assertThat(toXml(compactInstance)).isEqualTo(toXml(domInstance));
+  }
+
+  @Test
+  public void shouldFollowModifications() {
+    Bird tweety = compactInstance.getModelElementById("tweety");
+    Animals animals = (Animals) compactInstance.getDocumentElement();
+    assertThat(compactInstance.getModelElementsByType(Egg.class)).hasSize(3);
+
+    animals.getAnimals().remove(tweety);
+    assertThat((Object) compactInstance.getModelElementById("tweety")).isNull();
+    assertThat((Object) compactInstance.getModelElementById("egg1")).isNull();
+    assertThat(compactInstance.getModelElementsByType(Egg.class)).isEmpty();
+
+    animals.getAnimals().add(tweety);
+    tweety.setId("sylvester");
+    assertThat((Object) compactInstance.getModelElementById("sylvester")).isSameAs(tweety);
+    assertThat((Object) compactInstance.getModelElementById("egg1")).isNotNull();
+    assertThat(compactInstance.getModelElementsByType(Egg.class)).hasSize(3);
+
+    Bird hedwig = compactInstance.getModelElementById("hedwig");
+    hedwig.setId("sylvester");
+    assertThat(((ModelInstanceImpl) compactInstance).getDuplicateIds()).containsExactly("sylvester");
+  }
+
+  @Test
+  public void shouldCloneIndependently() {
+    ModelInstance clonedInstance = compactInstance.clone();
+    Bird clonedTweety = clonedInstance.getModelElementById("tweety");
+    clonedTweety.setId("sylvester");
+    clonedTweety.getEggs().clear();
+
+    assertThat((Object) clonedInstance.getModelElementById("sylvester")).isSameAs(clonedTweety);
+    assertThat(clonedInstance.getModelElementsByType(Egg.class)).isEmpty();
+    assertThat((Object) compactInstance.getModelElementById("sylvester")).isNull();
+    assertThat(compactInstance.<Bird>getModelElementById("tweety").getEggs()).hasSize(3);
+  }
+
+  @Test
+  public void shouldCopyOnWrite() {
+    TestModelParser offHeapParser = new TestModelParser();
+    offHeapParser.setDomBackend(new OffHeapDomBackend());
+    for (ModelInstance originalInstance : Arrays.asList(compactInstance, parseModel(offHeapParser))) {
+      String originalXml = toXml(originalInstance);
+      ModelInstance clonedInstance = originalInstance.clone();
+      ModelInstance secondClonedInstance = originalInstance.clone();
+
+      modify(originalInstance);
+      assertThat(toXml(clonedInstance)).isEqualTo(originalXml);
+
+      modify(clonedInstance);
+      assertThat(toXml(clonedInstance)).isEqualTo(toXml(originalInstance));
+      assertThat(toXml(secondClonedInstance)).isEqualTo(originalXml);
+      assertThat(secondClonedInstance.<Bird>getModelElementById("tweety").getEggs()).hasSize(3);
+    }
+  }
+
+  @Test
+  public void shouldStoreInMappedFiles() throws Exception {
+    TestModelParser mappedParser = new TestModelParser();
+    mappedParser.setDomBackend(new OffHeapDomBackend(temporaryFolder.getRoot()));
+    ModelInstance mappedInstance = parseModel(mappedParser);
+    assertThat(toXml(mappedInstance)).isEqualTo(toXml(domInstance));
+
+    modify(domInstance);
+    modify(mappedInstance);
+    assertThat(toXml(mappedInstance)).isEqualTo(toXml(domInstance));
+    assertThat(mappedInstance.clone().<Bird>getModelElementById("hedwig").getEggs()).hasSize(1);
+  }
+
+  @Test
+  public void shouldStoreValuesOffHeap() {
+    TestModelParser offHeapParser = new TestModelParser();
+    offHeapParser.setDomBackend(new OffHeapDomBackend());
+    ModelInstance offHeapInstance = parseModel(offHeapParser);
+    Bird tweety = offHeapInstance.getModelElementById("tweety");
+
+    // longer than a segment of characters
+    StringBuilder longValue = new StringBuilder();
+    for (int i = 0; i < 100000; i++) {
+      longValue.append((char) ('a' + i % 26));
+    }
+    tweety.setTextContent(longValue.toString());
+    tweety.setAttributeValue("name", "Tweety Bird");
+    tweety.setAttributeValue("name", "Tweety");
+    tweety.setAttributeValue("name", "");
+
+    assertThat(tweety.getTextContent()).isEqualTo(longValue.toString());
+    assertThat(tweety.getDomElement().hasAttribute("name")).isTrue();
+    assertThat(tweety.getAttributeValue("name")).isNull();
+    assertThat(tweety.getId()).isEqualTo("tweety");
+  }
+
+  @Test
+  public void shouldNotRetainUnusedInstancesOffHeap() throws Exception {
+    TestModelParser offHeapParser = new TestModelParser();
+    offHeapParser.setDomBackend(new OffHeapDomBackend());
+    ModelInstance offHeapInstance = parseModel(offHeapParser);
+    WeakReference<ModelElementInstance> tweety = new WeakReference<ModelElementInstance>(offHeapInstance.getModelElementById("tweety"));
+
+    for (int i = 0; i < 50 && tweety.get() != null; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+
+    assertThat(tweety.get()).isNull();
+    Bird recreatedTweety = offHeapInstance.getModelElementById("tweety");
+    assertThat(recreatedTweety.getEggs()).hasSize(3);
+    assertThat((Object) offHeapInstance.getModelElementById("tweety")).isSameAs(recreatedTweety);
+  }
+
+  @Test
+  public void shouldReleaseEagerInstancesOfRemovedElementsOffHeap() throws Exception {
+    TestModelParser offHeapParser = new TestModelParser();
+    offHeapParser.setDomBackend(new OffHeapDomBackend());
+    offHeapParser.setMaterializationPolicy(MaterializationPolicy.EAGER);
+    ModelInstance offHeapInstance = parseModel(offHeapParser);
+    Animals animals = (Animals) offHeapInstance.getDocumentElement();
+    WeakReference<ModelElementInstance> timmy = new WeakReference<ModelElementInstance>(offHeapInstance.getModelElementById("timmy"));
+    WeakReference<ModelElementInstance> tweety = new WeakReference<ModelElementInstance>(offHeapInstance.getModelElementById("tweety"));
+    animals.getAnimals().remove(timmy.get());
+
+    for (int i = 0; i < 50 && timmy.get() != null; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+
+    assertThat(timmy.get()).isNull();
+    assertThat(tweety.get()).isNotNull();
+    assertThat((Object) offHeapInstance.getModelElementById("tweety")).isSameAs(tweety.get());
+  }
+
+  private static ModelInstance parseModel(TestModelParser modelParser) {
+    InputStream inputStream = BirdTest.class.getResourceAsStream(BirdTest.class.getSimpleName() + ".xml");
+    return modelParser.parseModelFromStream(inputStream);
+  }
+
+  private static void modify(ModelInstance modelInstance) {
+    Animals animals = (Animals) modelInstance.getDocumentElement();
+    Bird daffy = modelInstance.newInstance(Bird.class, "daffy");
+    daffy.setGender(Gender.Male);
+    daffy.setAttributeValueNs("http://camunda.org/other", "color", "black");
+    animals.getAnimals().add(daffy);
+    Bird hedwig = modelInstance.getModelElementById("hedwig");
+    hedwig.getEggs().add(modelInstance.<Egg>newInstance(Egg.class, "egg4"));
+    animals.getAnimals().remove(modelInstance.getModelElementById("timmy"));
+  }
+
+  private static String toXml(ModelInstance modelInstance) {
+    StringWriter writer = new StringWriter();
+    IoUtil.transformDocumentToXml(modelInstance.getDocument(), new StreamResult(writer));
+    return writer.toString();
+  }
+
+}
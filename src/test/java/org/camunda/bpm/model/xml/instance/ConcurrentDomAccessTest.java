@@ -0,0 +1,277 @@
+/*
+ * Copyright Camunda Services GmbH and/or licensed to Camunda Services GmbH
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. Camunda licenses this file to you under the Apache License,
+ * Version 2.0; you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.camunda.bpm.model.xml.instance;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.camunda.bpm.model.xml.ModelInstance;
+import org.camunda.bpm.model.xml.impl.instance.DocumentLock;
+import org.camunda.bpm.model.xml.impl.instance.DomDocumentImpl;
+import org.camunda.bpm.model.xml.impl.instance.DomElementImpl;
+import org.camunda.bpm.model.xml.impl.instance.compact.CompactDomBackend;
+import org.camunda.bpm.model.xml.impl.util.IoUtil;
+import org.camunda.bpm.model.xml.testmodel.Gender;
+import org.camunda.bpm.model.xml.testmodel.TestModelParser;
+import org.camunda.bpm.model.xml.testmodel.instance.Animal;
+import org.camunda.bpm.model.xml.testmodel.instance.Animals;
+import org.camunda.bpm.model.xml.testmodel.instance.Bird;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+public class ConcurrentDomAccessTest {
+
+  private static final int READER_THREADS = 4;
+  private static final int ITERATIONS = 200;
+
+  private ModelInstance modelInstance;
+
+  @Before
+  public void parseModel() {
+    ModelInstance createdInstance = new TestModelParser().getEmptyModel();
+    Animals animals = createdInstance.newInstance(Animals.class);
+    createdInstance.setDocumentElement(animals);
+    for (int i = 0; i < 50; i++) {
+      Bird bird = createdInstance.newInstance(Bird.class, "bird" + i);
+      bird.setGender(Gender.Female);
+      animals.getAnimals().add(bird);
+    }
+
+    // parsed documents are read concurrently by the engine
+    String xml = IoUtil.convertXmlDocumentToString(createdInstance.getDocument());
+    modelInstance = new TestModelParser().parseModelFromStream(new ByteArrayInputStream(xml.getBytes()));
+  }
+
+  @Test
+  public void shouldReadWhileModelIsModified() throws Exception {
+    final Animals animals = (Animals) modelInstance.getDocumentElement();
+    final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+    final CountDownLatch start = new CountDownLatch(1);
+
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < READER_THREADS; i++) {
+      threads.add(new Thread() {
+        public void run() {
+          try {
+            start.await();
+            for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+              for (Animal animal : animals.getAnimals()) {
+                assertThat(animal.getId()).startsWith("bird");
+                assertThat(animal.getGender()).isEqualTo(Gender.Female);
+              }
+              assertThat((Object) modelInstance.getModelElementById("bird0")).isNotNull();
+            }
+          }
+          catch (Throwable t) {
+            errors.add(t);
+          }
+        }
+      });
+    }
+    threads.add(new Thread() {
+      public void run() {
+        try {
+          start.await();
+          for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+            Bird bird = modelInstance.newInstance(Bird.class, "birdNew" + iteration);
+            bird.setGender(Gender.Female);
+            animals.getAnimals().add(bird);
+            animals.getAnimals().remove(bird);
+          }
+        }
+        catch (Throwable t) {
+          errors.add(t);
+        }
+      }
+    });
+
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertThat(errors).isEmpty();
+    assertThat(animals.getAnimals()).hasSize(50);
+  }
+
+  @Test
+  public void shouldCreateOneInstancePerElement() throws Exception {
+    TestModelParser compactParser = new TestModelParser();
+    compactParser.setDomBackend(CompactDomBackend.INSTANCE);
+    String xml = IoUtil.convertXmlDocumentToString(modelInstance.getDocument());
+
+    for (TestModelParser modelParser : Arrays.asList(new TestModelParser(), compactParser)) {
+      for (int iteration = 0; iteration < 20; iteration++) {
+        final ModelInstance parsedInstance = modelParser.parseModelFromStream(new ByteArrayInputStream(xml.getBytes()));
+        final List<List<Animal>> animalsOfThreads = Collections.synchronizedList(new ArrayList<List<Animal>>());
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        final CountDownLatch start = new CountDownLatch(1);
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < READER_THREADS; i++) {
+          threads.add(new Thread() {
+            public void run() {
+              try {
+                start.await();
+                Animals animals = (Animals) parsedInstance.getDocumentElement();
+                animalsOfThreads.add(new ArrayList<Animal>(animals.getAnimals()));
+              }
+              catch (Throwable t) {
+                errors.add(t);
+              }
+            }
+          });
+        }
+        for (Thread thread : threads) {
+          thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+          thread.join();
+        }
+
+        assertThat(errors).isEmpty();
+        List<Animal> animals = animalsOfThreads.get(0);
+        for (List<Animal> animalsOfThread : animalsOfThreads) {
+          for (int i = 0; i < animals.size(); i++) {
+            assertThat(animalsOfThread.get(i)).isSameAs(animals.get(i));
+          }
+        }
+        assertThat(parsedInstance.getDocumentElement()).isSameAs(parsedInstance.getDocumentElement());
+      }
+    }
+  }
+
+  @Test
+  public void shouldWrapDocumentFromSeveralThreads() throws Exception {
+    String xml = IoUtil.convertXmlDocumentToString(modelInstance.getDocument());
+    DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+    documentBuilderFactory.setNamespaceAware(true);
+    // deferred nodes are expanded on their first read
+    documentBuilderFactory.setFeature("http://apache.org/xml/features/dom/defer-node-expansion", false);
+
+    for (int iteration = 0; iteration < 20; iteration++) {
+      final Document document = documentBuilderFactory.newDocumentBuilder().parse(new ByteArrayInputStream(xml.getBytes()));
+      final List<DomDocument> wrappers = Collections.synchronizedList(new ArrayList<DomDocument>());
+      final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+      final CountDownLatch start = new CountDownLatch(1);
+
+      List<Thread> threads = new ArrayList<Thread>();
+      for (int i = 0; i < READER_THREADS; i++) {
+        threads.add(new Thread() {
+          public void run() {
+            try {
+              start.await();
+              for (int j = 0; j < ITERATIONS; j++) {
+                wrappers.add(DomDocumentImpl.forDocument(document));
+                assertThat(new DomElementImpl(document.getDocumentElement()).getChildElements()).hasSize(50);
+              }
+            }
+            catch (Throwable t) {
+              errors.add(t);
+            }
+          }
+        });
+      }
+      for (Thread thread : threads) {
+        thread.start();
+      }
+      start.countDown();
+      for (Thread thread : threads) {
+        thread.join();
+      }
+
+      assertThat(errors).isEmpty();
+      DomDocumentImpl domDocument = DomDocumentImpl.forDocument(document);
+      assertThat(wrappers).hasSize(READER_THREADS * ITERATIONS);
+      for (DomDocument wrapper : wrappers) {
+        assertThat(wrapper).isSameAs(domDocument);
+      }
+      assertThat(DocumentLock.forDocument(document)).isSameAs(domDocument.getLock());
+    }
+  }
+
+  @Test
+  public void shouldCollectWrapperOfRemovedElement() throws Exception {
+    Animals animals = (Animals) modelInstance.getDocumentElement();
+    WeakReference<DomElement> removedElement = removeBird(animals, "bird0");
+
+    for (int i = 0; i < 50 && removedElement.get() != null; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+
+    assertThat(removedElement.get()).isNull();
+    assertThat((Object) modelInstance.getModelElementById("bird0")).isNull();
+    assertThat((Object) modelInstance.getModelElementById("bird1")).isNotNull();
+    assertThat(animals.getAnimals()).hasSize(49);
+  }
+
+  @Test
+  public void shouldKeepInstanceOfAttachedElement() throws Exception {
+    WeakReference<ModelElementInstance> bird = new WeakReference<ModelElementInstance>(modelInstance.getModelElementById("bird0"));
+
+    collectGarbage();
+
+    assertThat(bird.get()).isNotNull();
+    assertThat((Object) modelInstance.getModelElementById("bird0")).isSameAs(bird.get());
+  }
+
+  @Test
+  public void shouldKeepInstanceOfInsertedElement() throws Exception {
+    Animals animals = (Animals) modelInstance.getDocumentElement();
+    Bird removedBird = modelInstance.getModelElementById("bird0");
+    animals.removeChildElement(removedBird);
+    animals.addChildElement(removedBird);
+    WeakReference<ModelElementInstance> bird = new WeakReference<ModelElementInstance>(removedBird);
+    removedBird = null;
+
+    collectGarbage();
+
+    assertThat(bird.get()).isNotNull();
+    assertThat((Object) modelInstance.getModelElementById("bird0")).isSameAs(bird.get());
+  }
+
+  private void collectGarbage() throws InterruptedException {
+    WeakReference<Object> garbage = new WeakReference<Object>(new Object());
+    for (int i = 0; i < 50 && garbage.get() != null; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    System.gc();
+  }
+
+  private WeakReference<DomElement> removeBird(Animals animals, String id) {
+    Bird bird = modelInstance.getModelElementById(id);
+    animals.removeChildElement(bird);
+    return new WeakReference<DomElement>(bird.getDomElement());
+  }
+
+}
@@ -17,7 +17,9 @@
 package org.camunda.bpm.model.xml.instance;
 
 import org.camunda.bpm.model.xml.ModelInstance;
+import org.camunda.bpm.model.xml.impl.instance.DomElementImpl;
 import org.camunda.bpm.model.xml.impl.parser.AbstractModelParser;
+import org.camunda.bpm.model.xml.impl.util.IoUtil;
 import org.camunda.bpm.model.xml.testmodel.Gender;
 import org.camunda.bpm.model.xml.testmodel.TestModelParser;
 import org.camunda.bpm.model.xml.testmodel.TestModelTest;
@@ -25,6 +27,7 @@ import org.camunda.bpm.model.xml.testmodel.instance.Animals;
 import org.camunda.bpm.model.xml.testmodel.instance.Description;
 import org.junit.Before;
 import org.junit.Test;
+import org.w3c.dom.Element;
 
 import java.util.Arrays;
 import java.util.Collection;
@@ -157,6 +160,36 @@ public class DomTest extends TestModelTest {
     assertThat(rootElement.getAttribute(XMLNS_ATTRIBUTE_NS_URI, "ns0")).isEqualTo(CAMUNDA_NS);
   }
 
+  @Test
+  public void testNestedNamespaceDeclaration() {
+    document.registerNamespace("test", TEST_NS);
+    DomElement element = document.createElement(UNKNOWN_NS, "cat");
+    document.getRootElement().appendChild(element);
+    element.registerNamespace("inner", TEST_NS);
+    DomElement childElement = document.createElement(UNKNOWN_NS, "kitten");
+    element.appendChild(childElement);
+
+    childElement.setAttribute(TEST_NS, "size", "small");
+    DomElement siblingElement = document.createElement(UNKNOWN_NS, "dog");
+    document.getRootElement().appendChild(siblingElement);
+    siblingElement.setAttribute(TEST_NS, "size", "big");
+
+    String xml = IoUtil.convertXmlDocumentToString(document);
+    assertThat(xml).contains("inner:size=\"small\"");
+    assertThat(xml).contains("test:size=\"big\"");
+  }
+
+  @Test
+  public void testRemoveNamespaceDeclaration() {
+    assertThat(document.registerNamespace(TEST_NS)).isEqualTo("ns0");
+    assertThat(document.registerNamespace(UNKNOWN_NS)).isEqualTo("ns1");
+
+    document.getRootElement().removeAttribute(XMLNS_ATTRIBUTE_NS_URI, "ns0");
+
+    assertThat(document.registerNamespace(UNKNOWN_NS)).isEqualTo("ns1");
+    assertThat(document.registerNamespace(TEST_NS)).isEqualTo("ns0");
+  }
+
   @Test
   public void testAddElements() {
     DomElement element = document.createElement(MODEL_NAMESPACE, "bird");
@@ -223,4 +256,27 @@ public class DomTest extends TestModelTest {
       .isEqualTo("CDATA <test>");
   }
 
+  @Test
+  public void testCanonicalWrappers() {
+    DomElement rootElement = document.getRootElement();
+    assertThat(document.getRootElement()).isSameAs(rootElement);
+    assertThat(rootElement.getDocument()).isSameAs(document);
+
+    DomElement childElement = rootElement.getChildElements().get(0);
+    assertThat(rootElement.getChildElements().get(0)).isSameAs(childElement);
+    assertThat(childElement.getParentElement()).isSameAs(rootElement);
+  }
+
+  @Test
+  public void testModelElementOfNonCanonicalWrapper() {
+    DomElement rootElement = document.getRootElement();
+    Element element = (Element) document.getDomSource().getNode().getFirstChild();
+    DomElement wrapper = new DomElementImpl(element);
+
+    ModelElementInstance documentElement = modelInstance.getDocumentElement();
+
+    assertThat(wrapper).isNotSameAs(rootElement).isEqualTo(rootElement);
+    assertThat(wrapper.getModelElementInstance()).isSameAs(documentElement);
+  }
+
 }
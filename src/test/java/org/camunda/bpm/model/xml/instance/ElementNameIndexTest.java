@@ -0,0 +1,161 @@
+/*
+ * Copyright Camunda Services GmbH and/or licensed to Camunda Services GmbH
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. Camunda licenses this file to you under the Apache License,
+ * Version 2.0; you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.camunda.bpm.model.xml.instance;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.camunda.bpm.model.xml.ModelInstance;
+import org.camunda.bpm.model.xml.impl.ModelInstanceImpl;
+import org.camunda.bpm.model.xml.impl.instance.ElementNameIndex;
+import org.camunda.bpm.model.xml.testmodel.TestModelConstants;
+import org.camunda.bpm.model.xml.testmodel.TestModelParser;
+import org.camunda.bpm.model.xml.testmodel.instance.Animal;
+import org.camunda.bpm.model.xml.testmodel.instance.Animals;
+import org.camunda.bpm.model.xml.testmodel.instance.Bird;
+import org.camunda.bpm.model.xml.testmodel.instance.Egg;
+import org.camunda.bpm.model.xml.type.ModelElementType;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+public class ElementNameIndexTest {
+
+  private static final String ANIMALS_XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+    + "<animals xmlns=\"" + TestModelConstants.MODEL_NAMESPACE + "\">"
+    + "<bird id=\"tweety\" gender=\"Female\"><egg id=\"egg1\"/><egg id=\"egg2\"/></bird>"
+    + "<bird id=\"hedwig\" gender=\"Male\"/>"
+    + "</animals>";
+
+  private ModelInstance modelInstance;
+  private Animals animals;
+  private Bird tweety;
+  private Bird hedwig;
+
+  @Before
+  public void parseModel() throws Exception {
+    modelInstance = new TestModelParser().parseModelFromStream(new ByteArrayInputStream(ANIMALS_XML.getBytes("UTF-8")));
+    animals = (Animals) modelInstance.getDocumentElement();
+    tweety = modelInstance.getModelElementById("tweety");
+    hedwig = modelInstance.getModelElementById("hedwig");
+  }
+
+  @Test
+  public void shouldFindParsedElements() {
+    assertThat(getIds(modelInstance.getModelElementsByType(Bird.class))).containsExactly("tweety", "hedwig");
+    assertThat(getIds(modelInstance.getModelElementsByType(Animal.class))).containsExactly("tweety", "hedwig");
+    assertThat(getIds(modelInstance.getModelElementsByType(Egg.class))).containsExactly("egg1", "egg2");
+  }
+
+  @Test
+  public void shouldKeepDocumentOrder() {
+    assertThat(modelInstance.getModelElementsByType(Egg.class)).hasSize(2);
+
+    hedwig.getEggs().add(modelInstance.<Egg>newInstance(Egg.class, "egg3"));
+    assertThat(getIds(modelInstance.getModelElementsByType(Egg.class))).containsExactly("egg1", "egg2", "egg3");
+
+    tweety.getEggs().add(modelInstance.<Egg>newInstance(Egg.class, "egg4"));
+    assertThat(getIds(modelInstance.getModelElementsByType(Egg.class))).containsExactly("egg1", "egg2", "egg4", "egg3");
+
+    animals.getAnimals().remove(tweety);
+    assertThat(getIds(modelInstance.getModelElementsByType(Egg.class))).containsExactly("egg3");
+    assertThat(getIds(modelInstance.getModelElementsByType(Bird.class))).containsExactly("hedwig");
+
+    animals.getAnimals().add(tweety);
+    assertThat(getIds(modelInstance.getModelElementsByType(Egg.class))).containsExactly("egg3", "egg1", "egg2", "egg4");
+    assertThat(getIds(modelInstance.getModelElementsByType(Bird.class))).containsExactly("hedwig", "tweety");
+  }
+
+  @Test
+  public void shouldFindMultipleTypesInDocumentOrder() {
+    List<ModelElementType> types = Arrays.asList(getType(Egg.class), getType(Bird.class));
+    assertThat(getIds(getModelElementsByTypes(types))).containsExactly("tweety", "egg1", "egg2", "hedwig");
+
+    hedwig.getEggs().add(modelInstance.<Egg>newInstance(Egg.class, "egg3"));
+    tweety.getEggs().add(modelInstance.<Egg>newInstance(Egg.class, "egg4"));
+    assertThat(getIds(getModelElementsByTypes(types))).containsExactly("tweety", "egg1", "egg2", "egg4", "hedwig", "egg3");
+  }
+
+  @Test
+  public void shouldKeepDocumentOrderOfManyInsertions() {
+    List<String> expectedIds = new ArrayList<String>(Arrays.asList("egg1", "egg2"));
+    assertThat(getIds(modelInstance.getModelElementsByType(Egg.class))).isEqualTo(expectedIds);
+
+    // every egg halves the gap between the last egg of tweety and hedwig
+    for (int i = 0; i < 40; i++) {
+      tweety.getEggs().add(modelInstance.<Egg>newInstance(Egg.class, "tweety" + i));
+      expectedIds.add("tweety" + i);
+    }
+    hedwig.getEggs().add(modelInstance.<Egg>newInstance(Egg.class, "hedwig0"));
+    expectedIds.add("hedwig0");
+
+    assertThat(getIds(modelInstance.getModelElementsByType(Egg.class))).isEqualTo(expectedIds);
+    assertThat(getIds(modelInstance.getModelElementsByType(Bird.class))).containsExactly("tweety", "hedwig");
+  }
+
+  @Test
+  public void shouldFindElementsOfNewModel() {
+    ModelInstance createdInstance = new TestModelParser().getEmptyModel();
+    assertThat(createdInstance.getModelElementsByType(Bird.class)).isEmpty();
+
+    Animals createdAnimals = createdInstance.newInstance(Animals.class);
+    createdInstance.setDocumentElement(createdAnimals);
+    createdAnimals.getAnimals().add(createdInstance.<Bird>newInstance(Bird.class, "daffy"));
+    assertThat(getIds(createdInstance.getModelElementsByType(Bird.class))).containsExactly("daffy");
+
+    createdInstance.setDocumentElement(createdInstance.newInstance(Animals.class));
+    assertThat(createdInstance.getModelElementsByType(Bird.class)).isEmpty();
+  }
+
+  @Test
+  public void shouldReturnSnapshotOfElements() {
+    Document document = (Document) modelInstance.getDocument().getDomSource().getNode();
+    ElementNameIndex index = new ElementNameIndex(document);
+    Collection<Element> birds = index.getElements(TestModelConstants.MODEL_NAMESPACE, "bird");
+    assertThat(birds).hasSize(2);
+
+    Element hedwigElement = (Element) document.getDocumentElement().getLastChild();
+    document.getDocumentElement().removeChild(hedwigElement);
+    index.removed(hedwigElement);
+
+    assertThat(birds).hasSize(2);
+    assertThat(index.getElements(TestModelConstants.MODEL_NAMESPACE, "bird")).hasSize(1);
+  }
+
+  private ModelElementType getType(Class<? extends ModelElementInstance> instanceClass) {
+    return modelInstance.getModel().getType(instanceClass);
+  }
+
+  private List<ModelElementInstance> getModelElementsByTypes(List<ModelElementType> types) {
+    return ((ModelInstanceImpl) modelInstance).getModelElementsByTypes(types);
+  }
+
+  private static List<String> getIds(Collection<? extends ModelElementInstance> elements) {
+    List<String> ids = new ArrayList<String>();
+    for (ModelElementInstance element : elements) {
+      ids.add(element.getAttributeValue("id"));
+    }
+    return ids;
+  }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright Camunda Services GmbH and/or licensed to Camunda Services GmbH
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. Camunda licenses this file to you under the Apache License,
+ * Version 2.0; you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.camunda.bpm.model.xml.instance;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+import org.camunda.bpm.model.xml.ModelInstance;
+import org.camunda.bpm.model.xml.UnsupportedModelOperationException;
+import org.camunda.bpm.model.xml.impl.ModelInstanceImpl;
+import org.camunda.bpm.model.xml.testmodel.Gender;
+import org.camunda.bpm.model.xml.testmodel.TestModelParser;
+import org.camunda.bpm.model.xml.testmodel.instance.Animals;
+import org.camunda.bpm.model.xml.testmodel.instance.Bird;
+import org.camunda.bpm.model.xml.testmodel.instance.Egg;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FrozenModelInstanceTest {
+
+  private ModelInstanceImpl modelInstance;
+  private Bird tweety;
+
+  @Before
+  public void createFrozenModel() {
+    modelInstance = (ModelInstanceImpl) new TestModelParser().getEmptyModel();
+    Animals animals = modelInstance.newInstance(Animals.class);
+    modelInstance.setDocumentElement(animals);
+    tweety = modelInstance.newInstance(Bird.class, "tweety");
+    tweety.setGender(Gender.Female);
+    animals.getAnimals().add(tweety);
+    tweety.getEggs().add(modelInstance.<Egg>newInstance(Egg.class, "egg"));
+
+    assertThat(modelInstance.isFrozen()).isFalse();
+    modelInstance.freeze();
+  }
+
+  @Test
+  public void shouldReadFrozenModel() {
+    assertThat(modelInstance.isFrozen()).isTrue();
+    Bird bird = modelInstance.getModelElementById("tweety");
+    assertThat(bird).isEqualTo(tweety);
+    assertThat((Object) modelInstance.getModelElementById("tweety")).isSameAs(bird);
+    assertThat(bird.getGender()).isEqualTo(Gender.Female);
+    assertThat(bird.getEggs()).hasSize(1);
+    assertThat(modelInstance.getModelElementsByType(Bird.class)).containsExactly(bird);
+  }
+
+  @Test
+  public void shouldRejectModifications() {
+    try {
+      tweety.setGender(Gender.Male);
+      fail("expected exception");
+    }
+    catch (UnsupportedModelOperationException e) {
+      assertThat(e).hasMessageContaining("frozen");
+    }
+
+    try {
+      tweety.getEggs().clear();
+      fail("expected exception");
+    }
+    catch (UnsupportedModelOperationException e) {
+      // expected
+    }
+
+    try {
+      modelInstance.newInstance(Bird.class);
+      fail("expected exception");
+    }
+    catch (UnsupportedModelOperationException e) {
+      // expected
+    }
+
+    assertThat(tweety.getGender()).isEqualTo(Gender.Female);
+    assertThat(tweety.getEggs()).hasSize(1);
+  }
+
+  @Test
+  public void shouldModifyClone() {
+    ModelInstanceImpl clone = (ModelInstanceImpl) modelInstance.clone();
+    assertThat(clone.isFrozen()).isFalse();
+
+    Bird clonedBird = clone.getModelElementById("tweety");
+    clonedBird.setGender(Gender.Male);
+
+    assertThat(clonedBird.getGender()).isEqualTo(Gender.Male);
+    assertThat(tweety.getGender()).isEqualTo(Gender.Female);
+  }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright Camunda Services GmbH and/or licensed to Camunda Services GmbH
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. Camunda licenses this file to you under the Apache License,
+ * Version 2.0; you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.camunda.bpm.model.xml.instance;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.camunda.bpm.model.xml.ModelInstance;
+import org.camunda.bpm.model.xml.impl.ModelInstanceImpl;
+import org.camunda.bpm.model.xml.testmodel.TestModelConstants;
+import org.camunda.bpm.model.xml.testmodel.TestModelParser;
+import org.camunda.bpm.model.xml.testmodel.instance.Animals;
+import org.camunda.bpm.model.xml.testmodel.instance.Bird;
+import org.camunda.bpm.model.xml.testmodel.instance.Egg;
+import org.junit.Before;
+import org.junit.Test;
+
+public class IdIndexTest {
+
+  private static final String ANIMALS_XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+    + "<animals xmlns=\"" + TestModelConstants.MODEL_NAMESPACE + "\">"
+    + "<bird id=\"tweety\" gender=\"Female\"><egg id=\"egg1\"/><egg id=\"egg2\"/></bird>"
+    + "<bird id=\"hedwig\" gender=\"Male\"/>"
+    + "</animals>";
+
+  private ModelInstanceImpl modelInstance;
+  private Animals animals;
+
+  @Before
+  public void parseModel() throws Exception {
+    modelInstance = (ModelInstanceImpl) new TestModelParser().parseModelFromStream(new ByteArrayInputStream(ANIMALS_XML.getBytes("UTF-8")));
+    animals = (Animals) modelInstance.getDocumentElement();
+  }
+
+  @Test
+  public void shouldFindParsedIds() {
+    Bird tweety = modelInstance.getModelElementById("tweety");
+    assertThat(tweety.getId()).isEqualTo("tweety");
+    assertThat(modelInstance.getModelElementById("egg2")).isInstanceOf(Egg.class);
+    assertThat((Object) modelInstance.getModelElementById("unknown")).isNull();
+    assertThat(modelInstance.getDuplicateIds()).isEmpty();
+  }
+
+  @Test
+  public void shouldFindMultipleIds() {
+    Map<String, ModelElementInstance> elements = modelInstance.getModelElementsByIds(Arrays.asList("hedwig", "unknown", "egg1", "tweety"));
+
+    assertThat(elements.keySet()).containsExactly("hedwig", "egg1", "tweety");
+    assertThat(elements.get("hedwig")).isSameAs(modelInstance.getModelElementById("hedwig"));
+    assertThat(elements.get("egg1")).isInstanceOf(Egg.class);
+  }
+
+  @Test
+  public void shouldFollowModifications() {
+    Bird tweety = modelInstance.getModelElementById("tweety");
+
+    Bird daffy = modelInstance.newInstance(Bird.class, "daffy");
+    assertThat((Object) modelInstance.getModelElementById("daffy")).isNull();
+    animals.getAnimals().add(daffy);
+    assertThat((Object) modelInstance.getModelElementById("daffy")).isEqualTo(daffy);
+
+    daffy.setId("donald");
+    assertThat((Object) modelInstance.getModelElementById("daffy")).isNull();
+    assertThat((Object) modelInstance.getModelElementById("donald")).isEqualTo(daffy);
+
+    animals.getAnimals().remove(tweety);
+    assertThat((Object) modelInstance.getModelElementById("tweety")).isNull();
+    assertThat((Object) modelInstance.getModelElementById("egg1")).isNull();
+
+    animals.getAnimals().add(tweety);
+    assertThat((Object) modelInstance.getModelElementById("egg1")).isNotNull();
+
+    Egg egg = modelInstance.getModelElementById("egg2");
+    tweety.getEggs().remove(egg);
+    assertThat((Object) modelInstance.getModelElementById("egg2")).isNull();
+  }
+
+  @Test
+  public void shouldFindIdsOfClone() {
+    ModelInstance clonedInstance = modelInstance.clone();
+    Bird tweety = clonedInstance.getModelElementById("tweety");
+    assertThat(tweety).isNotNull();
+
+    tweety.setId("sylvester");
+    assertThat((Object) clonedInstance.getModelElementById("sylvester")).isSameAs(tweety);
+    assertThat((Object) clonedInstance.getModelElementById("tweety")).isNull();
+    assertThat((Object) modelInstance.getModelElementById("tweety")).isNotNull();
+  }
+
+  @Test
+  public void shouldReportDuplicateIds() {
+    Bird hedwig = modelInstance.getModelElementById("hedwig");
+    Bird tweety = modelInstance.getModelElementById("tweety");
+
+    hedwig.setId("tweety");
+    assertThat(modelInstance.getDuplicateIds()).containsExactly("tweety");
+
+    hedwig.setId("hedwig");
+    assertThat(modelInstance.getDuplicateIds()).isEmpty();
+    assertThat((Object) modelInstance.getModelElementById("tweety")).isSameAs(tweety);
+    assertThat((Object) modelInstance.getModelElementById("hedwig")).isSameAs(hedwig);
+  }
+
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright Camunda Services GmbH and/or licensed to Camunda Services GmbH
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. Camunda licenses this file to you under the Apache License,
+ * Version 2.0; you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.camunda.bpm.model.xml.instance;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.camunda.bpm.model.xml.ModelInstance;
+import org.camunda.bpm.model.xml.impl.MaterializationPolicy;
+import org.camunda.bpm.model.xml.impl.ModelInstanceImpl;
+import org.camunda.bpm.model.xml.impl.instance.JaxpDomBackend;
+import org.camunda.bpm.model.xml.impl.instance.compact.CompactDomBackend;
+import org.camunda.bpm.model.xml.impl.instance.compact.OffHeapDomBackend;
+import org.camunda.bpm.model.xml.testmodel.TestModelConstants;
+import org.camunda.bpm.model.xml.testmodel.TestModelParser;
+import org.camunda.bpm.model.xml.testmodel.instance.Animal;
+import org.camunda.bpm.model.xml.testmodel.instance.Bird;
+import org.camunda.bpm.model.xml.testmodel.instance.Egg;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+
+@RunWith(Parameterized.class)
+public class MaterializationPolicyTest {
+
+  private static final String ANIMALS_XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+    + "<animals xmlns=\"" + TestModelConstants.MODEL_NAMESPACE + "\">"
+    + "<bird id=\"tweety\" gender=\"Female\"><egg id=\"egg1\"/><egg id=\"egg2\"/><spouseRef>hedwig</spouseRef></bird>"
+    + "<bird id=\"hedwig\" gender=\"Male\"><guardEgg>egg1</guardEgg><guardEgg>egg2</guardEgg></bird>"
+    + "</animals>";
+
+  @Parameters(name = "{0}")
+  public static Collection<Object[]> data() {
+    return Arrays.asList(new Object[][] {
+      {"jaxp", JaxpDomBackend.INSTANCE},
+      {"compact", CompactDomBackend.INSTANCE},
+      {"offHeap", new OffHeapDomBackend()}
+    });
+  }
+
+  @Parameter(0)
+  public String name;
+
+  @Parameter(1)
+  public DomBackend domBackend;
+
+  @Test
+  public void shouldFilterByTypeWithoutCreatingOtherInstances() throws Exception {
+    ModelInstance modelInstance = parseModel(MaterializationPolicy.LAZY);
+    DomElement rootElement = modelInstance.getDocument().getRootElement();
+    assertThat(getModelElementInstances(rootElement)).containsOnlyNulls();
+
+    Bird tweety = modelInstance.getModelElementById("tweety");
+    assertThat(new ArrayList<Egg>(tweety.getEggs())).hasSize(2);
+
+    List<DomElement> childElements = tweety.getDomElement().getChildElements();
+    assertThat(childElements.get(0).getModelElementInstance()).isInstanceOf(Egg.class);
+    assertThat(childElements.get(1).getModelElementInstance()).isInstanceOf(Egg.class);
+    assertThat(childElements.get(2).getModelElementInstance()).isNull();
+
+    DomElement hedwigElement = rootElement.getChildElements().get(1);
+    assertThat(hedwigElement.getModelElementInstance()).isNull();
+    assertThat(getModelElementInstances(hedwigElement)).containsOnlyNulls();
+  }
+
+  @Test
+  public void shouldFilterBySuperType() throws Exception {
+    ModelInstance modelInstance = parseModel(MaterializationPolicy.LAZY);
+    DomElement rootElement = modelInstance.getDocument().getRootElement();
+
+    List<DomElement> animalElements = rootElement.getChildElementsByType((ModelInstanceImpl) modelInstance, Animal.class);
+    assertThat(animalElements).hasSize(2);
+    assertThat(getModelElementInstances(rootElement)).containsOnlyNulls();
+
+    List<DomElement> elements = rootElement.getChildElementsByType((ModelInstanceImpl) modelInstance, ModelElementInstance.class);
+    assertThat(elements).hasSize(2);
+    assertThat(rootElement.getChildElementsByType((ModelInstanceImpl) modelInstance, Egg.class)).isEmpty();
+  }
+
+  @Test
+  public void shouldCreateAllInstancesEagerly() throws Exception {
+    assertAllInstancesCreated(parseModel(MaterializationPolicy.EAGER));
+  }
+
+  @Test
+  public void shouldCreateAllInstancesInParallel() throws Exception {
+    assertAllInstancesCreated(parseModel(MaterializationPolicy.PARALLEL_EAGER));
+  }
+
+  @Test
+  public void shouldKeepEagerlyCreatedInstances() throws Exception {
+    ModelInstance modelInstance = parseModel(MaterializationPolicy.EAGER);
+    WeakReference<ModelElementInstance> egg = new WeakReference<ModelElementInstance>(modelInstance.getModelElementById("egg1"));
+
+    for (int i = 0; i < 5; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+
+    assertThat(egg.get()).isNotNull();
+    assertThat((Object) modelInstance.getModelElementById("egg1")).isSameAs(egg.get());
+  }
+
+  @Test
+  public void shouldKeepPolicyOfClone() throws Exception {
+    ModelInstanceImpl modelInstance = (ModelInstanceImpl) parseModel(MaterializationPolicy.EAGER);
+    ModelInstanceImpl clone = (ModelInstanceImpl) modelInstance.clone();
+
+    assertThat(clone.getMaterializationPolicy()).isEqualTo(MaterializationPolicy.EAGER);
+    assertAllInstancesCreated(clone);
+  }
+
+  @Test
+  public void shouldCreateInstancesWhenPolicyChanges() throws Exception {
+    ModelInstanceImpl modelInstance = (ModelInstanceImpl) parseModel(MaterializationPolicy.LAZY);
+    assertThat(modelInstance.getDocument().getRootElement().getModelElementInstance()).isNull();
+
+    modelInstance.setMaterializationPolicy(MaterializationPolicy.PARALLEL_EAGER);
+    assertAllInstancesCreated(modelInstance);
+  }
+
+  private ModelInstance parseModel(MaterializationPolicy materializationPolicy) throws Exception {
+    TestModelParser modelParser = new TestModelParser();
+    modelParser.setDomBackend(domBackend);
+    modelParser.setMaterializationPolicy(materializationPolicy);
+    return modelParser.parseModelFromStream(new ByteArrayInputStream(ANIMALS_XML.getBytes("UTF-8")));
+  }
+
+  private static void assertAllInstancesCreated(ModelInstance modelInstance) {
+    DomElement rootElement = modelInstance.getDocument().getRootElement();
+    List<ModelElementInstance> instances = new ArrayList<ModelElementInstance>();
+    instances.add(rootElement.getModelElementInstance());
+    for (DomElement birdElement : rootElement.getChildElements()) {
+      instances.add(birdElement.getModelElementInstance());
+      instances.addAll(getModelElementInstances(birdElement));
+    }
+    assertThat(instances).hasSize(8).doesNotContainNull();
+
+    // later reads return the created instances
+    assertThat(modelInstance.getDocumentElement()).isSameAs(instances.get(0));
+    assertThat((Object) modelInstance.getModelElementById("tweety")).isSameAs(instances.get(1));
+    assertThat((Object) modelInstance.getModelElementById("egg2")).isSameAs(instances.get(3));
+  }
+
+  private static List<ModelElementInstance> getModelElementInstances(DomElement parentElement) {
+    List<ModelElementInstance> instances = new ArrayList<ModelElementInstance>();
+    for (DomElement childElement : parentElement.getChildElements()) {
+      instances.add(childElement.getModelElementInstance());
+    }
+    return instances;
+  }
+
+}
@@ -16,21 +16,34 @@
  */
 package org.camunda.bpm.model.xml.instance;
 
+import org.camunda.bpm.model.xml.ModelException;
 import org.camunda.bpm.model.xml.ModelInstance;
+import org.camunda.bpm.model.xml.impl.ModelInstanceImpl;
+import org.camunda.bpm.model.xml.impl.instance.ElementVisitor;
 import org.camunda.bpm.model.xml.impl.parser.AbstractModelParser;
 import org.camunda.bpm.model.xml.testmodel.Gender;
 import org.camunda.bpm.model.xml.testmodel.TestModelParser;
 import org.camunda.bpm.model.xml.testmodel.TestModelTest;
+import org.camunda.bpm.model.xml.testmodel.instance.Animal;
 import org.camunda.bpm.model.xml.testmodel.instance.Animals;
 import org.camunda.bpm.model.xml.testmodel.instance.Bird;
+import org.camunda.bpm.model.xml.testmodel.instance.Egg;
+import org.camunda.bpm.model.xml.testmodel.instance.FlightPartnerRef;
+import org.camunda.bpm.model.xml.testmodel.instance.RelationshipDefinitionRef;
+import org.camunda.bpm.model.xml.testmodel.instance.SpouseRef;
+import org.camunda.bpm.model.xml.testmodel.instance.Wings;
 import org.camunda.bpm.model.xml.type.ModelElementType;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
 import static org.camunda.bpm.model.xml.testmodel.TestModelConstants.MODEL_NAMESPACE;
 import static org.junit.runners.Parameterized.Parameters;
 
@@ -52,7 +65,7 @@ public class ModelElementInstanceTest extends TestModelTest {
 
   @Parameters(name="Model {0}")
   public static Collection<Object[]> models() {
-    Object[][] models = {createModel(), parseModel(ModelElementInstanceTest.class)};
+    Object[][] models = {createModel(), parseModel(ModelElementInstanceTest.class), parseCompactModel(ModelElementInstanceTest.class), parseOffHeapModel(ModelElementInstanceTest.class)};
     return Arrays.asList(models);
   }
 
@@ -185,4 +198,253 @@ public class ModelElementInstanceTest extends TestModelTest {
     assertThat(tweety.getRawTextContent()).isEqualTo(testContent);
   }
 
+  @Test
+  public void testChildElementCursor() {
+    assertThat(animals.getFirstChildElementByType(Bird.class)).isEqualTo(tweety);
+    assertThat(tweety.getNextSiblingElementByType(Bird.class)).isEqualTo(donald);
+    assertThat(donald.getNextSiblingElementByType(Animal.class)).isEqualTo(daisy);
+    assertThat(hedwig.getNextSiblingElementByType(Bird.class)).isNull();
+    assertThat(animals.getFirstChildElementByType(Egg.class)).isNull();
+    assertThat(tweety.getFirstChildElementByType(Egg.class)).isNull();
+  }
+
+  @Test
+  public void testForEachChildElement() {
+    final List<String> ids = new ArrayList<String>();
+    boolean completed = animals.forEachChildElement(new ElementVisitor<ModelElementInstance>() {
+      public boolean visit(ModelElementInstance element) {
+        ids.add(element.getAttributeValue("id"));
+        return true;
+      }
+    });
+    assertThat(completed).isTrue();
+    assertThat(ids).containsExactly("tweety", "donald", "daisy", "hedwig");
+
+    ids.clear();
+    completed = animals.forEachChildElementByType(Bird.class, new ElementVisitor<Bird>() {
+      public boolean visit(Bird bird) {
+        ids.add(bird.getId());
+        return ids.size() < 2;
+      }
+    });
+    assertThat(completed).isFalse();
+    assertThat(ids).containsExactly("tweety", "donald");
+  }
+
+  @Test
+  public void testRemoveVisitedChildElement() {
+    animals.forEachChildElementByType(Bird.class, new ElementVisitor<Bird>() {
+      public boolean visit(Bird bird) {
+        if (bird.getGender() == Gender.Male) {
+          animals.removeChildElement(bird);
+        }
+        return true;
+      }
+    });
+    assertThat(animals.getAnimals()).containsExactly(tweety, daisy);
+  }
+
+  @Test
+  public void testAddChildElementsInSequenceOrder() {
+    // the bird is not added to the document, so the test is not restricted by the schema
+    Bird bird = modelInstance.newInstance(Bird.class);
+    Egg firstEgg = modelInstance.newInstance(Egg.class);
+    bird.addChildElement(modelInstance.newInstance(Wings.class));
+    bird.addChildElement(firstEgg);
+    bird.addChildElement(modelInstance.newInstance(SpouseRef.class));
+    bird.addChildElement(modelInstance.newInstance(FlightPartnerRef.class));
+    bird.addChildElement(modelInstance.newInstance(Egg.class));
+    bird.addChildElement(modelInstance.newInstance(RelationshipDefinitionRef.class));
+    assertThat(getChildElementNames(bird))
+      .containsExactly("relationshipDefinitionRef", "flightPartnerRef", "egg", "egg", "spouseRef", "wings");
+
+    bird.removeChildElement(firstEgg);
+    bird.addChildElement(modelInstance.newInstance(FlightPartnerRef.class));
+    bird.addChildElement(firstEgg);
+    assertThat(getChildElementNames(bird))
+      .containsExactly("relationshipDefinitionRef", "flightPartnerRef", "flightPartnerRef", "egg", "egg", "spouseRef", "wings");
+
+    // adding an existing child element moves it behind the elements of its type
+    Egg lastEgg = modelInstance.newInstance(Egg.class);
+    bird.addChildElement(lastEgg);
+    bird.addChildElement(firstEgg);
+    bird.addChildElement(modelInstance.newInstance(SpouseRef.class));
+    List<Egg> eggs = new ArrayList<Egg>(bird.getChildElementsByType(Egg.class));
+    assertThat(eggs).hasSize(3);
+    assertThat(eggs.get(1)).isEqualTo(lastEgg);
+    assertThat(eggs.get(2)).isEqualTo(firstEgg);
+    assertThat(getChildElementNames(bird))
+      .containsExactly("relationshipDefinitionRef", "flightPartnerRef", "flightPartnerRef", "egg", "egg", "egg", "spouseRef", "spouseRef", "wings");
+  }
+
+  @Test
+  public void testAddInvalidChildElement() {
+    try {
+      tweety.addChildElement(modelInstance.newInstance(Animals.class));
+      fail("Exception expected");
+    }
+    catch (ModelException e) {
+      assertThat(e.getMessage()).startsWith("New child is not a valid child element type: animals");
+    }
+    assertThat(tweety.getDomElement().getChildElements()).isEmpty();
+  }
+
+  @Test
+  public void testNewInstancesHaveIndependentRandomUuids() {
+    List<Egg> eggs = ((ModelInstanceImpl) modelInstance).newInstances(Egg.class, 10);
+    List<Long> mostSignificantBits = new ArrayList<Long>();
+    for (Egg egg : eggs) {
+      UUID uuid = UUID.fromString(egg.getId().substring("egg_".length()));
+      // a random UUID of the RFC 4122 variant
+      assertThat(uuid.version()).isEqualTo(4);
+      assertThat(uuid.variant()).isEqualTo(2);
+      mostSignificantBits.add(uuid.getMostSignificantBits());
+    }
+    assertThat(mostSignificantBits).doesNotHaveDuplicates();
+  }
+
+  @Test
+  public void testNewInstances() {
+    List<Egg> eggs = ((ModelInstanceImpl) modelInstance).newInstances(Egg.class, 3);
+    assertThat(eggs).hasSize(3);
+    List<String> ids = new ArrayList<String>();
+    for (Egg egg : eggs) {
+      assertThat(egg.getParentElement()).isNull();
+      assertThat(egg.getId()).startsWith("egg_");
+      assertThat(modelInstance.getModelElementById(egg.getId())).isNull();
+      ids.add(egg.getId());
+    }
+    assertThat(ids).doesNotHaveDuplicates();
+
+    tweety.getEggs().addAll(eggs);
+    assertThat(tweety.getEggs()).containsExactlyElementsOf(eggs);
+    for (Egg egg : eggs) {
+      assertThat(modelInstance.getModelElementById(egg.getId())).isEqualTo(egg);
+    }
+  }
+
+  @Test
+  public void testAddChildElements() {
+    Bird bird = modelInstance.newInstance(Bird.class);
+    bird.addChildElement(modelInstance.newInstance(SpouseRef.class));
+    List<Egg> eggs = ((ModelInstanceImpl) modelInstance).newInstances(Egg.class, 2);
+
+    bird.addChildElements(Arrays.asList(modelInstance.newInstance(Wings.class), eggs.get(0),
+      modelInstance.newInstance(FlightPartnerRef.class), eggs.get(1)));
+    assertThat(getChildElementNames(bird)).containsExactly("flightPartnerRef", "egg", "egg", "spouseRef", "wings");
+    assertThat(bird.getEggs()).containsExactlyElementsOf(eggs);
+  }
+
+  @Test
+  public void testAddInvalidChildElements() {
+    try {
+      tweety.addChildElements(Arrays.asList(modelInstance.newInstance(Egg.class), modelInstance.newInstance(Animals.class)));
+      fail("Exception expected");
+    }
+    catch (ModelException e) {
+      assertThat(e.getMessage()).startsWith("New child is not a valid child element type: animals");
+    }
+    // no child element is added if one of them is invalid
+    assertThat(tweety.getDomElement().getChildElements()).isEmpty();
+  }
+
+  @Test
+  public void testReorderChildElement() {
+    animals.reorderChildElement(hedwig, null);
+    assertThat(animals.getAnimals()).containsExactly(hedwig, tweety, donald, daisy);
+
+    animals.reorderChildElement(tweety, daisy);
+    assertThat(animals.getAnimals()).containsExactly(hedwig, donald, daisy, tweety);
+
+    animals.reorderChildElement(tweety, tweety);
+    assertThat(animals.getAnimals()).containsExactly(hedwig, donald, daisy, tweety);
+    assertThat(modelInstance.getModelElementById("tweety")).isEqualTo(tweety);
+  }
+
+  @Test
+  public void testReorderChildElementOutOfSequenceOrder() {
+    Bird bird = modelInstance.newInstance(Bird.class);
+    Egg egg = modelInstance.newInstance(Egg.class);
+    SpouseRef spouseRef = modelInstance.newInstance(SpouseRef.class);
+    bird.addChildElements(Arrays.asList(egg, spouseRef));
+
+    try {
+      bird.reorderChildElement(spouseRef, null);
+      fail("Exception expected");
+    }
+    catch (ModelException e) {
+      assertThat(e.getMessage()).contains("out of sequence order");
+    }
+    try {
+      bird.reorderChildElement(egg, spouseRef);
+      fail("Exception expected");
+    }
+    catch (ModelException e) {
+      assertThat(e.getMessage()).contains("out of sequence order");
+    }
+    try {
+      bird.reorderChildElement(modelInstance.newInstance(Egg.class), egg);
+      fail("Exception expected");
+    }
+    catch (ModelException e) {
+      assertThat(e.getMessage()).contains("is not a child element");
+    }
+    assertThat(getChildElementNames(bird)).containsExactly("egg", "spouseRef");
+  }
+
+  @Test
+  public void testReorderChildElementBehindOtherType() {
+    Bird bird = modelInstance.newInstance(Bird.class);
+    Egg egg = modelInstance.newInstance(Egg.class);
+    SpouseRef spouseRef = modelInstance.newInstance(SpouseRef.class);
+    bird.addChildElements(Arrays.asList(egg, spouseRef));
+    // an element which is not part of the sequence does not restrict the order
+    Animals otherElement = modelInstance.newInstance(Animals.class);
+    bird.getDomElement().insertChildElementAfter(otherElement.getDomElement(), egg.getDomElement());
+
+    bird.reorderChildElement(egg, otherElement);
+    assertThat(getChildElementNames(bird)).containsExactly("animals", "egg", "spouseRef");
+
+    // but the elements before it do
+    bird.getDomElement().appendChild(otherElement.getDomElement());
+    try {
+      bird.reorderChildElement(egg, otherElement);
+      fail("Exception expected");
+    }
+    catch (ModelException e) {
+      assertThat(e.getMessage()).contains("out of sequence order");
+    }
+    assertThat(getChildElementNames(bird)).containsExactly("egg", "spouseRef", "animals");
+  }
+
+  @Test
+  public void testMoveTo() {
+    List<Egg> eggs = ((ModelInstanceImpl) modelInstance).newInstances(Egg.class, 2);
+    tweety.getEggs().addAll(eggs);
+    Egg egg = eggs.get(0);
+
+    egg.moveTo(hedwig);
+    assertThat(egg.getParentElement()).isEqualTo(hedwig);
+    assertThat(hedwig.getEggs()).containsExactly(egg);
+    assertThat(tweety.getEggs()).containsExactly(eggs.get(1));
+    assertThat(modelInstance.getModelElementById(egg.getId())).isEqualTo(egg);
+
+    try {
+      egg.moveTo(animals);
+      fail("Exception expected");
+    }
+    catch (ModelException e) {
+      assertThat(e.getMessage()).startsWith("New child is not a valid child element type: egg");
+    }
+    assertThat(egg.getParentElement()).isEqualTo(hedwig);
+  }
+
+  private static List<String> getChildElementNames(ModelElementInstance element) {
+    List<String> names = new ArrayList<String>();
+    for (DomElement childElement : element.getDomElement().getChildElements()) {
+      names.add(childElement.getLocalName());
+    }
+    return names;
+  }
+
 }
@@ -0,0 +1,99 @@
+/*
+ * Copyright Camunda Services GmbH and/or licensed to Camunda Services GmbH
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. Camunda licenses this file to you under the Apache License,
+ * Version 2.0; you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.camunda.bpm.model.xml.instance;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+import java.io.ByteArrayInputStream;
+
+import org.camunda.bpm.model.xml.ModelInstance;
+import org.camunda.bpm.model.xml.UnsupportedModelOperationException;
+import org.camunda.bpm.model.xml.impl.ModelInstanceImpl;
+import org.camunda.bpm.model.xml.impl.instance.DocumentLock;
+import org.camunda.bpm.model.xml.impl.util.IoUtil;
+import org.camunda.bpm.model.xml.testmodel.Gender;
+import org.camunda.bpm.model.xml.testmodel.TestModelParser;
+import org.camunda.bpm.model.xml.testmodel.instance.Animals;
+import org.camunda.bpm.model.xml.testmodel.instance.Bird;
+import org.junit.Test;
+
+public class ThreadConfinedModelInstanceTest {
+
+  @Test
+  public void shouldCreateThreadConfinedModel() {
+    ModelInstance modelInstance = createModel();
+
+    assertThat(DocumentLock.forDocument(modelInstance.getDocument()).isThreadConfined()).isTrue();
+    Bird bird = modelInstance.getModelElementById("tweety");
+    assertThat(bird.getGender()).isEqualTo(Gender.Female);
+    assertThat(((Animals) modelInstance.getDocumentElement()).getAnimals()).containsExactly(bird);
+  }
+
+  @Test
+  public void shouldParseThreadConfinedModel() {
+    String xml = IoUtil.convertXmlDocumentToString(createModel().getDocument());
+
+    ModelInstance modelInstance = new TestModelParser().parseModelFromStream(new ByteArrayInputStream(xml.getBytes()), true);
+
+    assertThat(DocumentLock.forDocument(modelInstance.getDocument()).isThreadConfined()).isTrue();
+    assertThat(modelInstance.getModelElementById("tweety")).isInstanceOf(Bird.class);
+  }
+
+  @Test
+  public void shouldKeepThreadConfinementOnClone() {
+    ModelInstance clone = createModel().clone();
+
+    assertThat(DocumentLock.forDocument(clone.getDocument()).isThreadConfined()).isTrue();
+    Bird bird = clone.getModelElementById("tweety");
+    bird.setGender(Gender.Male);
+    assertThat(bird.getGender()).isEqualTo(Gender.Male);
+  }
+
+  @Test
+  public void shouldRejectModificationsOfFrozenModel() {
+    ModelInstanceImpl modelInstance = createModel();
+    modelInstance.freeze();
+
+    Bird bird = modelInstance.getModelElementById("tweety");
+    try {
+      bird.setGender(Gender.Male);
+      fail("expected exception");
+    }
+    catch (UnsupportedModelOperationException e) {
+      assertThat(bird.getGender()).isEqualTo(Gender.Female);
+    }
+  }
+
+  @Test
+  public void shouldNotConfineModelsByDefault() {
+    ModelInstance modelInstance = new TestModelParser().getEmptyModel();
+
+    assertThat(DocumentLock.forDocument(modelInstance.getDocument()).isThreadConfined()).isFalse();
+  }
+
+  protected ModelInstanceImpl createModel() {
+    ModelInstanceImpl modelInstance = (ModelInstanceImpl) new TestModelParser().getEmptyModel(true);
+    Animals animals = modelInstance.newInstance(Animals.class);
+    modelInstance.setDocumentElement(animals);
+    Bird bird = modelInstance.newInstance(Bird.class, "tweety");
+    bird.setGender(Gender.Female);
+    animals.getAnimals().add(bird);
+    return modelInstance;
+  }
+
+}
@@ -16,15 +16,34 @@
  */
 package org.camunda.bpm.model.xml.testmodel;
 
+import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stax.StAXSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.camunda.bpm.model.xml.ModelException;
 import org.camunda.bpm.model.xml.ModelInstance;
+import org.camunda.bpm.model.xml.impl.ModelInstanceImpl;
 import org.camunda.bpm.model.xml.testmodel.instance.Animal;
 import org.camunda.bpm.model.xml.testmodel.instance.Animals;
 import org.camunda.bpm.model.xml.testmodel.instance.Bird;
 import org.junit.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
 
 public class TestModelInstanceTest {
 
@@ -46,6 +65,148 @@ public class TestModelInstanceTest {
     assertThat(getFirstAnimal(cloneInstance).getId(), is(equalTo("TestId2")));
   }
 
+  @Test
+  public void testWriteToContentHandler() {
+    ModelInstanceImpl modelInstance = createModelInstanceWithBirds("tweety", "hedwig");
+
+    final List<String> elementNames = new ArrayList<String>();
+    final List<String> ids = new ArrayList<String>();
+    modelInstance.writeTo(new DefaultHandler() {
+      public void startElement(String uri, String localName, String qName, Attributes attributes) {
+        assertThat(uri, is(equalTo(TestModelConstants.MODEL_NAMESPACE)));
+        elementNames.add(localName);
+        if (attributes.getValue("id") != null) {
+          ids.add(attributes.getValue("id"));
+        }
+      }
+    });
+
+    assertThat(elementNames, is(equalTo(Arrays.asList("animals", "bird", "bird"))));
+    assertThat(ids, is(equalTo(Arrays.asList("tweety", "hedwig"))));
+  }
+
+  @Test(timeout = 10000)
+  public void testReadModelInContentHandler() {
+    final ModelInstanceImpl modelInstance = createModelInstanceWithBirds("tweety", "hedwig");
+
+    final List<String> names = new ArrayList<String>();
+    modelInstance.writeTo(new DefaultHandler() {
+      public void startElement(String uri, String localName, String qName, Attributes attributes) {
+        String id = attributes.getValue("id");
+        if (id != null) {
+          // the read lock of the model is reentrant
+          Bird bird = modelInstance.getModelElementById(id);
+          names.add(bird.getElementType().getTypeName() + ":" + bird.getId());
+        }
+      }
+    });
+
+    assertThat(names, is(equalTo(Arrays.asList("bird:tweety", "bird:hedwig"))));
+  }
+
+  @Test
+  public void testXmlStreamReader() throws Exception {
+    ModelInstanceImpl modelInstance = createModelInstanceWithBirds("tweety", "hedwig");
+
+    XMLStreamReader reader = modelInstance.newXmlStreamReader();
+    List<String> elementNames = new ArrayList<String>();
+    List<String> ids = new ArrayList<String>();
+    while (reader.hasNext()) {
+      if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+        assertThat(reader.getNamespaceURI(), is(equalTo(TestModelConstants.MODEL_NAMESPACE)));
+        elementNames.add(reader.getLocalName());
+        if (reader.getAttributeValue(null, "id") != null) {
+          ids.add(reader.getAttributeValue(null, "id"));
+        }
+      }
+    }
+
+    assertThat(elementNames, is(equalTo(Arrays.asList("animals", "bird", "bird"))));
+    assertThat(ids, is(equalTo(Arrays.asList("tweety", "hedwig"))));
+  }
+
+  @Test
+  public void testParseFromXmlStreamReader() throws Exception {
+    ModelInstanceImpl modelInstance = createModelInstanceWithBirds("tweety", "hedwig");
+
+    StringWriter writer = new StringWriter();
+    TransformerFactory.newInstance().newTransformer()
+      .transform(new StAXSource(modelInstance.newXmlStreamReader()), new StreamResult(writer));
+
+    ModelInstance parsedInstance = new TestModelParser().parseModelFromStream(new ByteArrayInputStream(writer.toString().getBytes("UTF-8")));
+    Bird hedwig = parsedInstance.getModelElementById("hedwig");
+    assertThat(hedwig.getGender(), is(equalTo(Gender.Male)));
+  }
+
+  @Test
+  public void testParseFragment() {
+    ModelInstanceImpl modelInstance = createModelInstanceWithBirds("tweety");
+    Animals animals = (Animals) modelInstance.getDocumentElement();
+    modelInstance.getDocument().registerNamespace("newer", TestModelConstants.NEWER_NAMESPACE);
+
+    Bird woodstock = modelInstance.parseFragment(animals, "<bird id=\"woodstock\" gender=\"Female\"><newer:wings>yellow</newer:wings></bird>");
+
+    assertThat(woodstock.getGender(), is(equalTo(Gender.Female)));
+    assertThat(woodstock.getWings().getTextContent(), is(equalTo("yellow")));
+    assertThat(woodstock.getParentElement(), is(equalTo((Object) animals)));
+    assertThat(modelInstance.getModelElementById("woodstock"), is(equalTo((Object) woodstock)));
+    assertThat(animals.getAnimals().size(), is(2));
+  }
+
+  @Test(expected = ModelException.class)
+  public void testParseFragmentWithUsedId() {
+    ModelInstanceImpl modelInstance = createModelInstanceWithBirds("tweety");
+    Animals animals = (Animals) modelInstance.getDocumentElement();
+
+    modelInstance.parseFragment(animals, "<bird id=\"tweety\" gender=\"Female\"/>");
+  }
+
+  @Test
+  public void testParseFragmentWithDuplicateId() {
+    ModelInstanceImpl modelInstance = createModelInstanceWithBirds("tweety");
+    Animals animals = (Animals) modelInstance.getDocumentElement();
+
+    try {
+      modelInstance.parseFragment(animals, "<bird id=\"woodstock\" gender=\"Female\"><egg id=\"woodstock\"/></bird>");
+      fail("Exception expected");
+    }
+    catch (ModelException e) {
+      assertThat(e.getMessage(), containsString("'woodstock' is already used"));
+    }
+    assertThat(animals.getAnimals().size(), is(1));
+    assertThat(modelInstance.getModelElementById("woodstock"), is(nullValue()));
+  }
+
+  @Test
+  public void testSerializeFragment() {
+    ModelInstanceImpl modelInstance = createModelInstanceWithBirds("tweety", "hedwig");
+    Bird hedwig = modelInstance.getModelElementById("hedwig");
+
+    String fragment = modelInstance.serializeFragment(hedwig);
+    assertThat(fragment.startsWith("<bird"), is(true));
+    assertThat(fragment.contains("xmlns=\"" + TestModelConstants.MODEL_NAMESPACE + "\""), is(true));
+    assertThat(fragment.contains("tweety"), is(false));
+
+    ModelInstanceImpl otherInstance = createModelInstanceWithBirds("tweety");
+    Bird parsedHedwig = otherInstance.parseFragment(otherInstance.getDocumentElement(), fragment);
+    assertThat(parsedHedwig.getId(), is(equalTo("hedwig")));
+    assertThat(parsedHedwig.getGender(), is(equalTo(Gender.Male)));
+  }
+
+  protected ModelInstanceImpl createModelInstanceWithBirds(String... ids) {
+    ModelInstanceImpl modelInstance = (ModelInstanceImpl) new TestModelParser().getEmptyModel();
+
+    Animals animals = modelInstance.newInstance(Animals.class);
+    modelInstance.setDocumentElement(animals);
+
+    for (String id : ids) {
+      Bird bird = modelInstance.newInstance(Bird.class, id);
+      bird.setGender(Gender.Male);
+      animals.addChildElement(bird);
+    }
+    return modelInstance;
+  }
+
   protected Animal getFirstAnimal(ModelInstance modelInstance) {
     Animals animals = (Animals) modelInstance.getDocumentElement();
     return animals.getAnimals().iterator().next();
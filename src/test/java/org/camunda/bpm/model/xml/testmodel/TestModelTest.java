@@ -18,7 +18,10 @@ package org.camunda.bpm.model.xml.testmodel;
 
 import org.camunda.bpm.model.xml.ModelInstance;
 import org.camunda.bpm.model.xml.impl.ModelInstanceImpl;
+import org.camunda.bpm.model.xml.impl.instance.compact.CompactDomBackend;
+import org.camunda.bpm.model.xml.impl.instance.compact.OffHeapDomBackend;
 import org.camunda.bpm.model.xml.impl.parser.AbstractModelParser;
+import org.camunda.bpm.model.xml.instance.DomBackend;
 import org.camunda.bpm.model.xml.testmodel.instance.*;
 import org.junit.After;
 import org.junit.runner.RunWith;
@@ -57,6 +60,23 @@ public abstract class TestModelTest {
     return new Object[]{"parsed", modelInstance, modelParser};
   }
 
+  protected static Object[] parseCompactModel(Class<?> test) {
+    return parseModel(test, "compact", CompactDomBackend.INSTANCE);
+  }
+
+  protected static Object[] parseOffHeapModel(Class<?> test) {
+    return parseModel(test, "off-heap", new OffHeapDomBackend());
+  }
+
+  private static Object[] parseModel(Class<?> test, String testName, DomBackend domBackend) {
+    TestModelParser modelParser = new TestModelParser();
+    modelParser.setDomBackend(domBackend);
+    String testXml = test.getSimpleName() + ".xml";
+    InputStream testXmlAsStream = test.getResourceAsStream(testXml);
+    ModelInstance modelInstance = modelParser.parseModelFromStream(testXmlAsStream);
+    return new Object[]{testName, modelInstance, modelParser};
+  }
+
   public static Bird createBird(ModelInstance modelInstance, String id, Gender gender) {
     Bird bird = modelInstance.newInstance(Bird.class, id);
     bird.setGender(gender);
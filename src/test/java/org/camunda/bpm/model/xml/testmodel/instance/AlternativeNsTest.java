@@ -22,6 +22,8 @@ import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -117,6 +119,35 @@ public class AlternativeNsTest extends TestModelTest {
     assertThat(elements.iterator().next().getTextContent(), is("flappy"));
   }
 
+  @Test
+  public void getModelElementsByTypeForAlternativeNs() {
+    // when
+    Collection<Wings> elements = modelInstance.getModelElementsByType(Wings.class);
+
+    // then
+    assertThat(textContents(elements), is(Arrays.asList("wusch", "zisch")));
+  }
+
+  @Test
+  public void getModelElementsByTypeForAlternativeNsOfAlternativeNs() {
+    // given
+    ModelImpl modelImpl = (ModelImpl) modelInstance.getModel();
+    modelImpl.undeclareAlternativeNamespace(MECHANICAL_NS);
+    modelImpl.declareAlternativeNamespace(MECHANICAL_NS, TestModelConstants.NEWER_NAMESPACE);
+    modelImpl.declareAlternativeNamespace(YET_ANOTHER_NS, MECHANICAL_NS);
+
+    Bird hedwig = modelInstance.getModelElementById("hedwig");
+    hedwig.removeChildElement(hedwig.getWings());
+    Bird birdo = modelInstance.getModelElementById("birdo");
+    birdo.removeChildElement(birdo.getWings());
+
+    // when
+    Collection<Wings> elements = modelInstance.getModelElementsByType(Wings.class);
+
+    // then
+    assertThat(textContents(elements), is(Collections.singletonList("flappy")));
+  }
+
   @Test
   public void getAttributeValueNsForAlternativeNs() {
     Bird plucky = modelInstance.getModelElementById("plucky");
@@ -137,6 +168,19 @@ public class AlternativeNsTest extends TestModelTest {
     assertThat(extendedWings, is(true));
   }
 
+  @Test
+  public void getAttributeValueNsAfterUndeclaringAlternativeNs() {
+    // given
+    Bird donald = modelInstance.getModelElementById("donald");
+    assertThat(donald.canHazExtendedWings(), is(true));
+
+    // when
+    ((ModelImpl) modelInstance.getModel()).undeclareAlternativeNamespace(YET_ANOTHER_NS);
+
+    // then
+    assertThat(donald.canHazExtendedWings(), is(false));
+  }
+
   @Test
   public void modifyingAttributeWithAlternativeNamespaceKeepsAlternativeNamespace(){
     Bird plucky = modelInstance.getModelElementById("plucky");
@@ -223,6 +267,14 @@ public class AlternativeNsTest extends TestModelTest {
     assertThatThereIsNoNewerNamespaceUrl();
   }
 
+  protected List<String> textContents(Collection<? extends ModelElementInstance> elements) {
+    List<String> textContents = new ArrayList<String>();
+    for (ModelElementInstance element : elements) {
+      textContents.add(element.getTextContent());
+    }
+    return textContents;
+  }
+
   protected void assertThatThereIsNoNewerNamespaceUrl() {
     Node rootElement = modelInstance.getDocument().getDomSource().getNode().getFirstChild();
     NamedNodeMap attributes = rootElement.getAttributes();
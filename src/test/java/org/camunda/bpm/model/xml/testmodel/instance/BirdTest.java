@@ -52,7 +52,7 @@ public class BirdTest extends TestModelTest {
 
   @Parameters(name="Model {0}")
   public static Collection<Object[]> models() {
-    Object[][] models = {createModel(), parseModel(BirdTest.class)};
+    Object[][] models = {createModel(), parseModel(BirdTest.class), parseCompactModel(BirdTest.class), parseOffHeapModel(BirdTest.class)};
     return Arrays.asList(models);
   }
 
@@ -18,6 +18,8 @@ package org.camunda.bpm.model.xml.type;
 
 import org.camunda.bpm.model.xml.Model;
 import org.camunda.bpm.model.xml.ModelInstance;
+import org.camunda.bpm.model.xml.impl.ModelImpl;
+import org.camunda.bpm.model.xml.impl.type.ModelElementTypeImpl;
 import org.camunda.bpm.model.xml.impl.util.ModelTypeException;
 import org.camunda.bpm.model.xml.testmodel.TestModelParser;
 import org.camunda.bpm.model.xml.testmodel.instance.*;
@@ -26,6 +28,7 @@ import org.junit.Test;
 
 import static org.camunda.bpm.model.xml.test.assertions.ModelAssertions.assertThat;
 import static org.camunda.bpm.model.xml.testmodel.TestModelConstants.MODEL_NAMESPACE;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
 /**
@@ -153,6 +156,25 @@ public class ModelElementTypeTest {
     assertThat(birdType.getInstances(modelInstance)).hasSize(3);
   }
 
+  @Test
+  public void testChildElementTypePositionsOfExtendingType() {
+    ModelImpl testModel = new ModelImpl("test");
+    ModelElementTypeImpl baseType = new ModelElementTypeImpl(testModel, "animal", Animal.class);
+    ModelElementTypeImpl extendingType = new ModelElementTypeImpl(testModel, "bird", Bird.class);
+    extendingType.setBaseType(baseType);
+    baseType.registerExtendingType(extendingType);
+
+    extendingType.registerChildElementType(new ModelElementTypeImpl(testModel, "wings", Wings.class));
+    assertEquals(0, extendingType.getChildElementTypePosition(Wings.class));
+    assertEquals(-1, extendingType.getChildElementTypePosition(Egg.class));
+
+    // the child element types of the base type precede the ones of the extending type
+    baseType.registerChildElementType(new ModelElementTypeImpl(testModel, "egg", Egg.class));
+    assertEquals(0, extendingType.getChildElementTypePosition(Egg.class));
+    assertEquals(1, extendingType.getChildElementTypePosition(Wings.class));
+    assertEquals(2, extendingType.getChildElementTypeCount());
+  }
+
   @Test
   public void testChildElementTypes() {
     ModelElementType relationshipDefinitionType = model.getType(RelationshipDefinition.class);
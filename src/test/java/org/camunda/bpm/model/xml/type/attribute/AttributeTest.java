@@ -52,7 +52,7 @@ public class AttributeTest extends TestModelTest {
 
   @Parameters(name="Model {0}")
   public static Collection<Object[]> models() {
-    Object[][] models = {createModel(), parseModel(AnimalTest.class)};
+    Object[][] models = {createModel(), parseModel(AnimalTest.class), parseCompactModel(AnimalTest.class), parseOffHeapModel(AnimalTest.class)};
     return Arrays.asList(models);
   }
 
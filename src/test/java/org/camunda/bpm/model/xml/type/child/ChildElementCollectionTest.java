@@ -56,7 +56,7 @@ public class ChildElementCollectionTest extends TestModelTest {
 
   @Parameters(name="Model {0}")
   public static Collection<Object[]> models() {
-    Object[][] models = {createModel(), parseModel(ChildElementCollectionTest.class)};
+    Object[][] models = {createModel(), parseModel(ChildElementCollectionTest.class), parseCompactModel(ChildElementCollectionTest.class), parseOffHeapModel(ChildElementCollectionTest.class)};
     return Arrays.asList(models);
   }
 
@@ -215,4 +215,40 @@ public class ChildElementCollectionTest extends TestModelTest {
     flightPartnerRefs.clear();
     assertThat(flightPartnerRefs).isEmpty();
   }
+
+  @Test
+  public void testCachedChildElementsCollection() {
+    Collection<FlightPartnerRef> flightPartnerRefs = flightPartnerRefCollection.get(tweety);
+    assertThat(flightPartnerRefCollection.get(tweety)).isSameAs(flightPartnerRefs);
+    assertThat(flightPartnerRefCollection.get(daisy)).isNotSameAs(flightPartnerRefs);
+    assertThat(flightPartnerRefs).hasSize(2);
+
+    // modifications which bypass the collection are seen as well
+    FlightPartnerRef birdoRef = modelInstance.newInstance(FlightPartnerRef.class);
+    birdoRef.setTextContent(birdo.getId());
+    tweety.addChildElement(birdoRef);
+    assertThat(flightPartnerRefs).hasSize(3).contains(birdoRef);
+
+    tweety.setTextContent("");
+    assertThat(flightPartnerRefs).isEmpty();
+    assertThat(flightPartnerRefs.contains(birdoRef)).isFalse();
+  }
+
+  @Test
+  public void testRemoveByIterator() {
+    Collection<FlightPartnerRef> flightPartnerRefs = flightPartnerRefCollection.get(tweety);
+
+    Iterator<FlightPartnerRef> iterator = flightPartnerRefs.iterator();
+    FlightPartnerRef daisyRef = iterator.next();
+    try {
+      iterator.remove();
+      fail("remove method of the iterator is not supported");
+    }
+    catch (Exception e) {
+      assertThat(e).isInstanceOf(UnsupportedModelOperationException.class);
+    }
+
+    assertThat(flightPartnerRefs).hasSize(2).contains(daisyRef);
+    assertThat(iterator.hasNext()).isTrue();
+  }
 }
@@ -32,6 +32,8 @@ import org.junit.Test;
 
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import static org.camunda.bpm.model.xml.test.assertions.ModelAssertions.assertThat;
 import static org.junit.Assert.fail;
@@ -60,7 +62,7 @@ public class ReferenceTest extends TestModelTest {
 
   @Parameters(name="Model {0}")
   public static Collection<Object[]> models() {
-    Object[][] models = {createModel(), parseModel(ReferenceTest.class)};
+    Object[][] models = {createModel(), parseModel(ReferenceTest.class), parseCompactModel(ReferenceTest.class), parseOffHeapModel(ReferenceTest.class)};
     return Arrays.asList(models);
   }
 
@@ -163,6 +165,51 @@ public class ReferenceTest extends TestModelTest {
     assertThat(tweety.getMother()).isNull();
   }
 
+  @Test
+  public void testRemoveReferencesToMultipleElements() {
+    Map<Animal, String> removedElements = new LinkedHashMap<Animal, String>();
+    removedElements.put(plucky, plucky.getId());
+    removedElements.put(daffy, daffy.getId());
+    removedElements.put(daisy, daisy.getId());
+
+    fatherReference.referencedElementsRemoved(removedElements);
+    assertThat(fatherReference).hasNoTargetElement(tweety);
+    assertThat(tweety.getMother()).isEqualTo(daisy);
+
+    motherReference.referencedElementsRemoved(removedElements);
+    assertThat(motherReference).hasNoTargetElement(tweety);
+  }
+
+  @Test
+  public void testRemoveMultipleReferencedElements() {
+    Animals animals = (Animals) modelInstance.getDocumentElement();
+    assertThat(animals.removeChildElements(Arrays.asList(daffy, daisy, flightPartnerRef))).isTrue();
+
+    assertThat(animals.getAnimals()).containsOnly(tweety, plucky, birdo);
+    assertThat(tweety.getFather()).isNull();
+    assertThat(tweety.getMother()).isNull();
+    assertThat(tweety.getFlightPartnerRefs()).isEmpty();
+
+    // elements which are not child elements are not removed
+    assertThat(animals.removeChildElements(Arrays.asList(daffy, flightPartnerRef))).isFalse();
+  }
+
+  @Test
+  public void testMoveReferencedElements() {
+    Animals animals = (Animals) modelInstance.getDocumentElement();
+    animals.reorderChildElement(daffy, null);
+    animals.reorderChildElement(daisy, birdo);
+
+    assertThat(animals.getAnimals()).containsExactly(daffy, tweety, plucky, birdo, daisy);
+    assertThat(tweety.getFather()).isEqualTo(daffy);
+    assertThat(tweety.getMother()).isEqualTo(daisy);
+    assertThat(tweety.getFlightPartnerRefs()).containsOnly(daffy);
+
+    flightPartnerRef.moveTo(plucky);
+    assertThat(tweety.getFlightPartnerRefs()).isEmpty();
+    assertThat(plucky.getFlightPartnerRefs()).containsOnly(daffy);
+  }
+
   @Test
   public void testTargetElementsCollection() {
     Collection<FlyingAnimal> referenceTargetElements = flightPartnerRefsColl.getReferenceTargetElements(tweety);